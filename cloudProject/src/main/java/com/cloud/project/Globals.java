@@ -31,6 +31,16 @@ public class Globals {
         return "/";
     }
 
+    /**
+     * Returns the name of the schema file of the tables on the classpath, which gives the csv file
+     * of each table, the name, type and nullability of each of its columns, and its indexed and
+     * time columns
+     * @return String depicting name of the schema file
+     */
+    public static String getSchemaFile() {
+        return "schema.txt";
+    }
+
     /**
      * Returns the relative HDFS output path of the Hadoop Job
      * @return String depicting relative HDFS output path of the Hadoop Job
@@ -54,4 +64,163 @@ public class Globals {
     public static String getSparkMaster() {
         return "local[*]";
     }
+
+    /**
+     * Returns whether the Group By mapper should aggregate records in memory (in-mapper combining)
+     * before emitting them, instead of emitting one record per input row
+     * @return true if in-mapper combining is to be used by the Group By job
+     */
+    public static boolean isInMapperCombiningEnabled() {
+        return true;
+    }
+
+    /**
+     * Returns the approximate amount of heap (in bytes) which the Group By mapper may use for
+     * holding partial aggregates. The partial aggregates are emitted once this is exceeded.
+     * @return memory budget of in-mapper combining, in bytes
+     */
+    public static long getInMapperCombiningBudget() {
+        return 32L * 1024 * 1024;
+    }
+
+    /**
+     * Returns the amount of input (in bytes) to be processed by a single reducer. The number
+     * of reducers of a job is the size of its input divided by this amount.
+     * @return input size per reducer, in bytes
+     */
+    public static long getBytesPerReducer() {
+        return 512L * 1024;
+    }
+
+    /**
+     * Returns the maximum number of reducers which a Hadoop job may use
+     * @return maximum number of reducers of a job
+     */
+    public static int getMaxReducers() {
+        return 8;
+    }
+
+    /**
+     * Returns the number of input lines which are sampled for partitioning the map output
+     * keys among the reducers
+     * @return number of lines in the sample of the input of a job
+     */
+    public static int getPartitionSampleSize() {
+        return 1000;
+    }
+
+    /**
+     * Returns whether the output of the Hadoop jobs should be globally sorted on the output key,
+     * i.e. the keys in each output file follow all the keys in the previous output file
+     * @return true if total order partitioning is to be used
+     */
+    public static boolean isTotalOrderOutputEnabled() {
+        return false;
+    }
+
+    /**
+     * Returns the size (in bytes) up to which the smaller table of an Inner Join is broadcast to
+     * all mappers, which join it with the larger table in memory, without a reduce phase
+     * @return maximum size of a broadcast table, in bytes
+     */
+    public static long getBroadcastJoinThreshold() {
+        return 1024L * 1024;
+    }
+
+    /**
+     * Returns whether an Inner Join whose where clause is on one table first builds a Bloom filter
+     * of the join keys of that table matching the where clause, so that the records of the other
+     * table without a partner are dropped before the shuffle
+     * @return true if Bloom filters are used to prune the other table of a join
+     */
+    public static boolean isBloomFilterJoinEnabled() {
+        return true;
+    }
+
+    /**
+     * Returns the expected rate of false positives of the Bloom filter of a join, from which the
+     * size of the filter is chosen
+     * @return false positive rate of the Bloom filter, between 0 and 1
+     */
+    public static double getBloomFilterFalsePositiveRate() {
+        return 0.01;
+    }
+
+    /**
+     * Returns whether a reduce-side Inner Join spreads the records of its hot join keys (keys
+     * found to make up more than the average load of a reducer in a sample of both tables) over
+     * several reducers, sending the matching records of the other table to each of them
+     * @return true if the hot join keys of a join are spread over several reducers
+     */
+    public static boolean isSkewJoinEnabled() {
+        return true;
+    }
+
+    /**
+     * Returns the HDFS path under which the tables are written in sorted buckets by
+     * {@link com.cloud.project.jobUtils.Bucketing}, one directory per table and column
+     * @return String depicting relative HDFS path of the bucketed tables
+     */
+    public static String getBucketedInputPath() {
+        return "/bucketed/";
+    }
+
+    /**
+     * Returns the HDFS path under which the tables are written in columnar format by
+     * {@link com.cloud.project.jobUtils.ColumnarStorage}, one directory of ORC files per table
+     * @return String depicting relative HDFS path of the columnar tables
+     */
+    public static String getColumnarInputPath() {
+        return "/columnar/";
+    }
+
+    /**
+     * Returns the HDFS path under which the tables with a time column are written in monthly
+     * partitions by {@link com.cloud.project.jobUtils.TimePartitioning}, one directory per table
+     * @return String depicting relative HDFS path of the partitioned tables
+     */
+    public static String getPartitionedInputPath() {
+        return "/partitioned/";
+    }
+
+    /**
+     * Returns the number of rows of a table in columnar format which are summarized by an entry of
+     * its zone maps (the minimum, maximum and null count of each column). The smaller it is, the
+     * more precisely the rows which cannot match a where clause are skipped, but the larger the
+     * zone maps are.
+     * @return number of rows per zone map entry
+     */
+    public static int getZoneMapRows() {
+        return 10000;
+    }
+
+    /**
+     * Returns the largest fraction of the rows of an ORC file which are read through the index of
+     * a column (see {@link com.cloud.project.jobUtils.ColumnIndex}) for a where clause, rather than
+     * by scanning the file. Reading a row through the index costs more than scanning it.
+     * @return fraction of the rows of a file, between 0 and 1
+     */
+    public static double getMaxIndexedFraction() {
+        return 0.1;
+    }
+
+    /**
+     * Returns the number of buckets into which a table is written by
+     * {@link com.cloud.project.jobUtils.Bucketing}. Two tables are joined bucket by bucket only if
+     * they were written with the same number of buckets.
+     * @return number of buckets of a bucketed table
+     */
+    public static int getNumBuckets() {
+        return 4;
+    }
+
+    /**
+     * Returns the amount of heap (in bytes) which a reducer of an Inner Join may use for holding
+     * the records of a join key of the smaller table. Beyond it, the records are spilled to a
+     * local file, so that a very frequent join key does not exhaust the heap of the reducer.
+     * @return memory budget of the join buffer of a reducer, in bytes
+     */
+    public static long getJoinBufferBudget() {
+        return 16L * 1024 * 1024;
+    }
 }
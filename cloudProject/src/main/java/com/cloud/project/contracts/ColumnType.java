@@ -0,0 +1,37 @@
+package com.cloud.project.contracts;
+
+/**
+ * Enum used to specify the type of the values of a column, as written in the schema file (see
+ * {@link SchemaCatalog})
+ */
+public enum ColumnType {
+    /**
+     * 32 bit integers
+     */
+    INT,
+    /**
+     * 64 bit integers, e.g. Unix timestamps
+     */
+    LONG,
+    /**
+     * text
+     */
+    STRING,
+    /**
+     * dates, written as in the csv files (e.g. 01-JAN-95)
+     */
+    DATE,
+    /**
+     * boolean flags, written as 0 or 1
+     */
+    FLAG;
+
+    /**
+     * Returns whether the values of a column of this type are integers
+     *
+     * @return true for int, long and flag columns
+     */
+    public boolean isIntegral() {
+        return this == INT || this == LONG || this == FLAG;
+    }
+}
@@ -4,7 +4,8 @@ import com.cloud.project.sqlUtils.Tables;
 
 /**
  * Class that handles returning of the index of a required column from a given table
- * and returning the csv file associated with a given table
+ * and returning the csv file associated with a given table, as given by the schema file
+ * (see {@link SchemaCatalog})
  */
 public class DBManager implements Cloneable {
 
@@ -22,19 +23,7 @@ public class DBManager implements Cloneable {
      */
     public static int getColumnIndex(Tables table, String column)
             throws IllegalArgumentException {
-        //System.out.println(">>>>>>" + table.name() + "." + column);
-        switch (table) {
-            case USERS:
-                return UsersContract.getColumnIndex(column);
-            case ZIPCODES:
-                return ZipcodesContract.getColumnIndex(column);
-            case MOVIES:
-                return MoviesContract.getColumnIndex(column);
-            case RATING:
-                return RatingsContract.getColumnIndex(column);
-            default:
-                throw new IllegalArgumentException("Table " + table.name().toLowerCase() + " does not exist");
-        }
+        return SchemaCatalog.getSchema(table).getColumnIndex(column);
     }
 
     /**
@@ -47,18 +36,7 @@ public class DBManager implements Cloneable {
      */
     public static String getColumnFromIndex(Tables table, int index)
             throws IllegalArgumentException {
-        switch (table) {
-            case USERS:
-                return UsersContract.getColumnFromIndex(index);
-            case ZIPCODES:
-                return ZipcodesContract.getColumnFromIndex(index);
-            case MOVIES:
-                return MoviesContract.getColumnFromIndex(index);
-            case RATING:
-                return RatingsContract.getColumnFromIndex(index);
-            default:
-                throw new IllegalArgumentException("Table " + table.name().toLowerCase() + " does not exist");
-        }
+        return SchemaCatalog.getSchema(table).getColumnFromIndex(index);
     }
 
     /**
@@ -70,18 +48,35 @@ public class DBManager implements Cloneable {
      */
     public static int getTableSize(Tables table)
             throws IllegalArgumentException {
-        switch (table) {
-            case USERS:
-                return UsersContract.getNumColumns();
-            case ZIPCODES:
-                return ZipcodesContract.getNumColumns();
-            case MOVIES:
-                return MoviesContract.getNumColumns();
-            case RATING:
-                return RatingsContract.getNumColumns();
-            default:
-                throw new IllegalArgumentException("Table " + table.name().toLowerCase() + " does not exist");
-        }
+        return SchemaCatalog.getSchema(table).getNumColumns();
+    }
+
+    /**
+     * Method that returns the type of a column of a table
+     *
+     * @param table The table in which the column is present
+     * @param index The index of the column
+     * @return type of the column
+     * @throws IllegalArgumentException when either the table or the column index are invalid
+     */
+    public static ColumnType getColumnType(Tables table, int index)
+            throws IllegalArgumentException {
+        return SchemaCatalog.getSchema(table).getColumnType(index);
+    }
+
+    /**
+     * Method that returns whether a column of a table may hold no value, i.e. may be missing or
+     * empty in a line of the csv file of the table. Rows whose non-nullable columns hold no value
+     * are skipped by the queries (see {@link com.cloud.project.jobUtils.NullFilter})
+     *
+     * @param table The table in which the column is present
+     * @param index The index of the column
+     * @return true if the column is nullable
+     * @throws IllegalArgumentException when either the table or the column index are invalid
+     */
+    public static boolean isNullable(Tables table, int index)
+            throws IllegalArgumentException {
+        return SchemaCatalog.getSchema(table).isNullable(index);
     }
 
     /**
@@ -92,18 +87,74 @@ public class DBManager implements Cloneable {
      * @throws IllegalArgumentException when the table name is invalid (highly unlikely)
      */
     public static String getFileName(Tables table) throws IllegalArgumentException {
-        switch (table) {
-            case USERS:
-                return UsersContract.getFileName();
-            case ZIPCODES:
-                return ZipcodesContract.getFileName();
-            case MOVIES:
-                return MoviesContract.getFileName();
-            case RATING:
-                return RatingsContract.getFileName();
-            default:
-                throw new IllegalArgumentException("Table " + table.name().toLowerCase() + " does not exist");
-        }
+        return SchemaCatalog.getSchema(table).getFileName();
+    }
+
+    /**
+     * Method that returns the name of the directory holding the buckets of a table, sorted on
+     * one of its columns (see {@link com.cloud.project.jobUtils.Bucketing})
+     *
+     * @param table  The table whose buckets are required
+     * @param column The column on which the table is bucketed
+     * @return directory name of the buckets of the given table
+     * @throws IllegalArgumentException when either the table or the column are invalid
+     */
+    public static String getBucketedFileName(Tables table, String column) throws IllegalArgumentException {
+        String fileName = getFileName(table);
+        return fileName.substring(0, fileName.lastIndexOf('.')) + "_by_"
+                + getColumnFromIndex(table, getColumnIndex(table, column));
+    }
+
+    /**
+     * Method that returns the name of the directory holding a table in columnar format (see
+     * {@link com.cloud.project.jobUtils.ColumnarStorage})
+     *
+     * @param table The table whose columnar files are required
+     * @return directory name of the columnar files of the given table
+     * @throws IllegalArgumentException when the table name is invalid (highly unlikely)
+     */
+    public static String getColumnarFileName(Tables table) throws IllegalArgumentException {
+        String fileName = getFileName(table);
+        return fileName.substring(0, fileName.lastIndexOf('.')) + ".orc";
+    }
+
+    /**
+     * Method that returns the name of the directory holding the time partitions of a table (see
+     * {@link com.cloud.project.jobUtils.TimePartitioning})
+     *
+     * @param table The table whose partitions are required
+     * @return directory name of the partitions of the given table
+     * @throws IllegalArgumentException when the table name is invalid (highly unlikely)
+     */
+    public static String getPartitionedFileName(Tables table) throws IllegalArgumentException {
+        String fileName = getFileName(table);
+        return fileName.substring(0, fileName.lastIndexOf('.')) + "_by_month";
+    }
+
+    /**
+     * Method that returns the columns of a table which are indexed when it is imported in columnar
+     * format (see {@link com.cloud.project.jobUtils.ColumnIndex}): the low cardinality columns on
+     * which queries select few rows with a where clause, marked as indexed in the schema file
+     *
+     * @param table The table whose indexed columns are required
+     * @return indices of the indexed columns of the given table
+     * @throws IllegalArgumentException when the table name is invalid (highly unlikely)
+     */
+    public static int[] getIndexedColumns(Tables table) throws IllegalArgumentException {
+        return SchemaCatalog.getSchema(table).getIndexedColumns();
+    }
+
+    /**
+     * Method that returns the time column of a table, which holds Unix timestamps (in seconds) and
+     * by which the table is partitioned (see {@link com.cloud.project.jobUtils.TimePartitioning}),
+     * marked as time in the schema file
+     *
+     * @param table The table whose time column is required
+     * @return index of the time column of the given table, -1 if it has none
+     * @throws IllegalArgumentException when the table name is invalid (highly unlikely)
+     */
+    public static int getTimeColumn(Tables table) throws IllegalArgumentException {
+        return SchemaCatalog.getSchema(table).getTimeColumn();
     }
 
     /**
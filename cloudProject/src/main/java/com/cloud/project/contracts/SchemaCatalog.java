@@ -0,0 +1,247 @@
+package com.cloud.project.contracts;
+
+import com.cloud.project.Globals;
+import com.cloud.project.sqlUtils.Tables;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Class to manage the schema of the tables: the csv file of each table, the name, type and
+ * nullability of each of its columns, in the order of the fields of the csv file, and which of its
+ * columns are indexed or hold the time of its records. The schema is
+ * read once from the schema file on the classpath (see {@link Globals#getSchemaFile()}), so that
+ * the columns of a table can be changed without recompiling.
+ */
+class SchemaCatalog implements Cloneable {
+
+    // schema of each table, indexed by the ordinal of the table
+    private static final TableSchema[] schemas = new TableSchema[Tables.values().length];
+
+    // initializing the required static variables
+    static {
+        InputStream in = SchemaCatalog.class.getClassLoader().getResourceAsStream(Globals.getSchemaFile());
+        if (in == null) {
+            throw new IllegalStateException("Schema file " + Globals.getSchemaFile() + " was not found on the classpath");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Schema file " + Globals.getSchemaFile() + " could not be read", e);
+        }
+    }
+
+    private SchemaCatalog() {
+        // making constructor private to restrict external access
+    }
+
+    /**
+     * Method to return the schema of a table
+     *
+     * @param table the table
+     * @return schema of the table
+     * @throws IllegalArgumentException when the table is not in the schema file
+     */
+    static TableSchema getSchema(Tables table) throws IllegalArgumentException {
+        TableSchema schema = schemas[table.ordinal()];
+        if (schema == null) {
+            throw new IllegalArgumentException("Table " + table.name().toLowerCase() + " does not exist");
+        }
+        return schema;
+    }
+
+    /**
+     * Reads the schema file: a line "table &lt;TABLE&gt; &lt;csv file&gt;" per table, followed by a line
+     * "&lt;column&gt; &lt;type&gt; [not null] [indexed] [time]" per column. Blank lines and lines starting with # are
+     * skipped.
+     */
+    private static void load(BufferedReader reader) throws IOException {
+        Tables table = null;
+        String fileName = null;
+        ArrayList<String[]> columns = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            if (tokens[0].equals("table") && tokens.length == 3) {
+                if (table != null) {
+                    schemas[table.ordinal()] = new TableSchema(table, fileName, columns);
+                }
+                table = Tables.valueOf(tokens[1].toUpperCase());
+                fileName = tokens[2];
+                columns.clear();
+            } else if (table != null && tokens.length >= 2 && !tokens[0].equals("table")) {
+                columns.add(tokens);
+            } else {
+                throw new IllegalStateException("Invalid line in schema file " + Globals.getSchemaFile() + ": " + line);
+            }
+        }
+        if (table != null) {
+            schemas[table.ordinal()] = new TableSchema(table, fileName, columns);
+        }
+    }
+
+    /**
+     * Method overridden to ensure that this class is not cloned
+     *
+     * @return null
+     * @throws CloneNotSupportedException since this class cannot be cloned
+     */
+    @Override
+    protected Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException("This class cannot be cloned");
+    }
+
+    /**
+     * Schema of a table: its columns are looked up by name through a map, and by index through arrays
+     */
+    static class TableSchema {
+        private final String name;
+        private final String fileName;
+        private final HashMap<String, Integer> map = new HashMap<>();
+        private final String[] columns;
+        private final ColumnType[] types;
+        private final boolean[] nullable;
+        private final int[] indexedColumns;
+        private int timeColumn = -1;
+
+        /**
+         * Creates the schema of a table from the lines of its columns in the schema file, split in tokens
+         */
+        private TableSchema(Tables table, String fileName, ArrayList<String[]> lines) {
+            name = table.name().charAt(0) + table.name().substring(1).toLowerCase();
+            this.fileName = fileName;
+            columns = new String[lines.size()];
+            types = new ColumnType[lines.size()];
+            nullable = new boolean[lines.size()];
+            ArrayList<Integer> indexed = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                String[] tokens = lines.get(i);
+                if (map.put(tokens[0], i) != null) {
+                    throw new IllegalStateException("Column " + tokens[0] + " of " + name
+                            + " table appears twice in schema file " + Globals.getSchemaFile());
+                }
+                columns[i] = tokens[0];
+                types[i] = ColumnType.valueOf(tokens[1].toUpperCase());
+                nullable[i] = true;
+                for (int j = 2; j < tokens.length; j++) {
+                    if (tokens[j].equalsIgnoreCase("not") && j + 1 < tokens.length
+                            && tokens[j + 1].equalsIgnoreCase("null") && nullable[i]) {
+                        nullable[i] = false;
+                        j++;
+                    } else if (tokens[j].equalsIgnoreCase("indexed")) {
+                        indexed.add(i);
+                    } else if (tokens[j].equalsIgnoreCase("time") && timeColumn < 0 && types[i].isIntegral()) {
+                        timeColumn = i;
+                    } else {
+                        throw new IllegalStateException("Invalid attribute " + tokens[j] + " of column " + tokens[0]
+                                + " of " + name + " table in schema file " + Globals.getSchemaFile());
+                    }
+                }
+            }
+            indexedColumns = indexed.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        /**
+         * Method to return the name of the csv file of the table
+         *
+         * @return name of the csv file
+         */
+        String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Method to return the number of columns of the table
+         *
+         * @return number of columns
+         */
+        int getNumColumns() {
+            return columns.length;
+        }
+
+        /**
+         * Method to return the index of a column of the table from its name
+         *
+         * @param column name of the column
+         * @return index of the column
+         * @throws IllegalArgumentException when the column does not exist
+         */
+        int getColumnIndex(String column) throws IllegalArgumentException {
+            Integer index = map.get(column);
+            if (index == null) {
+                throw new IllegalArgumentException("Given column does not exist in " + name + " table");
+            }
+            return index;
+        }
+
+        /**
+         * Method to return the name of a column of the table from its index
+         *
+         * @param index index of the column
+         * @return name of the column
+         * @throws IllegalArgumentException when the index is invalid
+         */
+        String getColumnFromIndex(int index) throws IllegalArgumentException {
+            checkIndex(index);
+            return columns[index];
+        }
+
+        /**
+         * Method to return the type of a column of the table
+         *
+         * @param index index of the column
+         * @return type of the column
+         * @throws IllegalArgumentException when the index is invalid
+         */
+        ColumnType getColumnType(int index) throws IllegalArgumentException {
+            checkIndex(index);
+            return types[index];
+        }
+
+        /**
+         * Method to return whether a column of the table may hold no value
+         *
+         * @param index index of the column
+         * @return true if the column is nullable
+         * @throws IllegalArgumentException when the index is invalid
+         */
+        boolean isNullable(int index) throws IllegalArgumentException {
+            checkIndex(index);
+            return nullable[index];
+        }
+
+        /**
+         * Method to return the columns of the table which are indexed
+         *
+         * @return indices of the indexed columns, in the order of the schema file
+         */
+        int[] getIndexedColumns() {
+            return indexedColumns.clone();
+        }
+
+        /**
+         * Method to return the time column of the table
+         *
+         * @return index of the time column, -1 if the table has none
+         */
+        int getTimeColumn() {
+            return timeColumn;
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= columns.length) {
+                throw new IllegalArgumentException("Given column does not exist in " + name + " table");
+            }
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.cloud.project.controller;
 
+import com.cloud.project.jobUtils.Bucketing;
+import com.cloud.project.jobUtils.ColumnarStorage;
 import com.cloud.project.jobUtils.GroupBy;
 import com.cloud.project.jobUtils.InnerJoin;
+import com.cloud.project.jobUtils.TimePartitioning;
 import com.cloud.project.models.InputModel;
 import com.cloud.project.models.OutputModel;
 import com.cloud.project.scala_queries.SparkGroupBy;
@@ -90,12 +93,13 @@ public class Home {
         for (String operationColumns : parseSQL.getOperationColumns()) {
             System.out.println(operationColumns);
         }
-        System.out.println("AggregateFunction: " + parseSQL.getAggregateFunction().name());
         System.out.println();
         System.out.println("Where Clause: " + parseSQL.getWhereTable().name() + "." + parseSQL.getWhereColumn() + "=" + parseSQL.getWhereValue());
 //        System.out.println(DBManager.getColumnIndex(parseSQL.getWhereTable(), parseSQL.getWhereColumn()));
-        System.out.println("Having Clause: " + parseSQL.getColumns().get(parseSQL.getColumns().size() - 1)
-                + ">" + parseSQL.getComparisonNumber());
+        if (parseSQL.getHavingAggregate() >= 0) {
+            System.out.println("Having Clause: " + parseSQL.getAggregates().get(parseSQL.getHavingAggregate())
+                    + ">" + parseSQL.getComparisonNumber());
+        }
     }
 
     /**
@@ -163,4 +167,61 @@ public class Home {
 
         return outputModel;
     }
+
+    /**
+     * Method that accepts all POST requests to the /api/bucketize endpoint.
+     * <p>
+     *     This method writes every table into sorted buckets on each of its join keys, as
+     *     described in {@link Bucketing}. Thereafter, the Inner Joins of the bucketed tables are
+     *     merged bucket by bucket in the mappers, without a shuffle. It needs to be called again
+     *     whenever a csv file is replaced.
+     * </p>
+     * @return a message telling whether all tables were bucketed
+     * @throws InterruptedException if the Hadoop jobs encounter this exception
+     * @throws IOException if the Hadoop jobs encounter this exception
+     * @throws ClassNotFoundException if the Hadoop jobs encounter this exception
+     */
+    @POST
+    @Path("bucketize")
+    public String bucketize() throws InterruptedException, IOException, ClassNotFoundException {
+        return Bucketing.bucketizeAll() ? "All tables were bucketed" : "Bucketing failed";
+    }
+
+    /**
+     * Method that accepts all POST requests to the /api/import endpoint.
+     * <p>
+     *     This method converts the csv file of every table into compressed ORC files, as
+     *     described in {@link ColumnarStorage}. Thereafter, both the Hadoop and the Spark jobs
+     *     read only the columns of a table which a query uses. It needs to be called again
+     *     whenever a csv file is replaced.
+     * </p>
+     * @return a message telling whether all tables were imported
+     * @throws InterruptedException if the Hadoop jobs encounter this exception
+     * @throws IOException if the Hadoop jobs encounter this exception
+     * @throws ClassNotFoundException if the Hadoop jobs encounter this exception
+     */
+    @POST
+    @Path("import")
+    public String importColumnar() throws InterruptedException, IOException, ClassNotFoundException {
+        return ColumnarStorage.importAll() ? "All tables were imported" : "Import failed";
+    }
+
+    /**
+     * Method that accepts all POST requests to the /api/partition endpoint.
+     * <p>
+     *     This method writes every table with a time column into monthly partitions, as
+     *     described in {@link TimePartitioning}. Thereafter, both the Hadoop and the Spark jobs
+     *     read only the months of a table which overlap a range condition on its time column.
+     *     It needs to be called again whenever a csv file is replaced.
+     * </p>
+     * @return a message telling whether all tables were partitioned
+     * @throws InterruptedException if the Hadoop jobs encounter this exception
+     * @throws IOException if the Hadoop jobs encounter this exception
+     * @throws ClassNotFoundException if the Hadoop jobs encounter this exception
+     */
+    @POST
+    @Path("partition")
+    public String partition() throws InterruptedException, IOException, ClassNotFoundException {
+        return TimePartitioning.partitionAll() ? "All tables were partitioned" : "Partitioning failed";
+    }
 }
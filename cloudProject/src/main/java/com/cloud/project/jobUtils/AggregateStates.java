@@ -0,0 +1,368 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.sqlUtils.AggregateFunction;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Partial states of all aggregate functions of a Group By query, for a single group.
+ * <p>
+ * Each aggregate function keeps a state which can be merged with another state of the same
+ * function, so that the states can be combined in any order by the mapper, the combiner and
+ * the reducer:
+ * <ul>
+ *     <li>COUNT: count</li>
+ *     <li>SUM: sum</li>
+ *     <li>MIN, MAX: the minimum / maximum value</li>
+ *     <li>AVG: sum and count</li>
+ *     <li>STDDEV, VARIANCE: count, sum and sum of squares</li>
+ *     <li>APPROX_COUNT_DISTINCT: a {@link HyperLogLog} sketch of the hashed values</li>
+ * </ul>
+ * Serialized form: number of aggregates (VInt), followed by the ordinal of each
+ * {@link AggregateFunction} (byte) and the fields of its state.
+ * </p>
+ */
+public class AggregateStates implements Writable {
+
+    private AggregateFunction[] functions;
+    private long[] counts;
+    private long[] values;
+    private double[] squares;
+    private byte[][] sketches;
+
+    /**
+     * Default constructor, required by Hadoop for deserialization
+     */
+    public AggregateStates() {
+        this(new AggregateFunction[0]);
+    }
+
+    /**
+     * Creates empty states for the given aggregate functions
+     *
+     * @param functions the aggregate functions of the query, in the order of the select list
+     */
+    public AggregateStates(AggregateFunction[] functions) {
+        setFunctions(functions);
+    }
+
+    /**
+     * Sets the aggregate functions whose states are held, and resets all states
+     *
+     * @param functions the aggregate functions of the query, in the order of the select list
+     */
+    public void setFunctions(AggregateFunction[] functions) {
+        this.functions = functions;
+        counts = new long[functions.length];
+        values = new long[functions.length];
+        squares = new double[functions.length];
+        sketches = new byte[functions.length][];
+        for (int i = 0; i < functions.length; i++) {
+            if (functions[i] == AggregateFunction.APPROX_COUNT_DISTINCT) {
+                sketches[i] = new byte[HyperLogLog.NUM_REGISTERS];
+            }
+        }
+        reset();
+    }
+
+    /**
+     * Resets all states to the state of an empty group
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(squares, 0);
+        for (int i = 0; i < functions.length; i++) {
+            values[i] = initialValue(functions[i]);
+            if (sketches[i] != null) {
+                Arrays.fill(sketches[i], (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of aggregates
+     *
+     * @return number of aggregates
+     */
+    public int size() {
+        return functions.length;
+    }
+
+    /**
+     * Returns the aggregate function of a state
+     *
+     * @param index index of the aggregate
+     * @return the aggregate function
+     */
+    public AggregateFunction getFunction(int index) {
+        return functions[index];
+    }
+
+    /**
+     * Adds a single input value to the state of an aggregate
+     *
+     * @param index index of the aggregate
+     * @param value the input value (ignored by COUNT), or its 64-bit hash for APPROX_COUNT_DISTINCT
+     *              (see {@link HyperLogLog#hash(byte[], int, int)})
+     */
+    public void add(int index, long value) {
+        switch (functions[index]) {
+            case COUNT:
+                counts[index]++;
+                break;
+            case SUM:
+                values[index] += value;
+                break;
+            case MIN:
+                values[index] = Math.min(values[index], value);
+                break;
+            case MAX:
+                values[index] = Math.max(values[index], value);
+                break;
+            case AVG:
+                counts[index]++;
+                values[index] += value;
+                break;
+            case STDDEV:
+            case VARIANCE:
+                counts[index]++;
+                values[index] += value;
+                squares[index] += (double) value * value;
+                break;
+            case APPROX_COUNT_DISTINCT:
+                HyperLogLog.add(sketches[index], value);
+                break;
+            default:
+                // not likely to be encountered
+                throw new IllegalArgumentException("The aggregate function is not valid");
+        }
+    }
+
+    /**
+     * Adds the value of a field of a tokenized record to the state of an aggregate: the
+     * integer value of the field, or the hash of its unquoted text for APPROX_COUNT_DISTINCT
+     *
+     * @param index     index of the aggregate
+     * @param tokenizer tokenizer holding the record
+     * @param field     index of the aggregated field in the record
+     * @throws NumberFormatException if the value of the field is not an integer
+     */
+    public void add(int index, CsvTokenizer tokenizer, int field) {
+        if (functions[index] == AggregateFunction.APPROX_COUNT_DISTINCT) {
+            add(index, HyperLogLog.hash(tokenizer.getBytes(), tokenizer.getValueStart(field),
+                    tokenizer.getValueLength(field)));
+        } else {
+            add(index, tokenizer.getLong(field));
+        }
+    }
+
+    /**
+     * Merges the states of another instance (of the same aggregate functions) into this one
+     *
+     * @param other the states to be merged
+     */
+    public void merge(AggregateStates other) {
+        for (int i = 0; i < functions.length; i++) {
+            switch (functions[i]) {
+                case MIN:
+                    values[i] = Math.min(values[i], other.values[i]);
+                    break;
+                case MAX:
+                    values[i] = Math.max(values[i], other.values[i]);
+                    break;
+                case APPROX_COUNT_DISTINCT:
+                    HyperLogLog.merge(sketches[i], other.sketches[i]);
+                    break;
+                default:
+                    counts[i] += other.counts[i];
+                    values[i] += other.values[i];
+                    squares[i] += other.squares[i];
+            }
+        }
+    }
+
+    /**
+     * Copies the states of another instance into this one
+     *
+     * @param other the states to be copied
+     */
+    public void set(AggregateStates other) {
+        if (!Arrays.equals(functions, other.functions)) {
+            setFunctions(other.functions.clone());
+        }
+        System.arraycopy(other.counts, 0, counts, 0, counts.length);
+        System.arraycopy(other.values, 0, values, 0, values.length);
+        System.arraycopy(other.squares, 0, squares, 0, squares.length);
+        for (int i = 0; i < functions.length; i++) {
+            if (functions[i] == AggregateFunction.APPROX_COUNT_DISTINCT) {
+                System.arraycopy(other.sketches[i], 0, sketches[i], 0, sketches[i].length);
+            }
+        }
+    }
+
+    /**
+     * Returns the final value of an aggregate
+     *
+     * @param index index of the aggregate
+     * @return the value of the aggregate function for this group
+     */
+    public double getResult(int index) {
+        switch (functions[index]) {
+            case COUNT:
+                return counts[index];
+            case AVG:
+                return (double) values[index] / counts[index];
+            case VARIANCE:
+                return variance(index);
+            case STDDEV:
+                return Math.sqrt(variance(index));
+            case APPROX_COUNT_DISTINCT:
+                return HyperLogLog.estimate(sketches[index]);
+            default:
+                return values[index];
+        }
+    }
+
+    /**
+     * Returns the final value of an aggregate as it is written to the output. Integral
+     * aggregates (COUNT, SUM, MIN, MAX, and the rounded APPROX_COUNT_DISTINCT) are written
+     * without a fractional part.
+     *
+     * @param index index of the aggregate
+     * @return String depicting the value of the aggregate function for this group
+     */
+    public String getResultString(int index) {
+        switch (functions[index]) {
+            case COUNT:
+                return Long.toString(counts[index]);
+            case SUM:
+            case MIN:
+            case MAX:
+                return Long.toString(values[index]);
+            case APPROX_COUNT_DISTINCT:
+                return Long.toString(Math.round(getResult(index)));
+            default:
+                return Double.toString(getResult(index));
+        }
+    }
+
+    /**
+     * Returns a rough estimate of the heap space (in bytes) occupied by these states.
+     *
+     * @return estimated size of the states on the heap, in bytes
+     */
+    public long getHeapSize() {
+        long size = 96 + 28L * functions.length;
+        for (byte[] sketch : sketches) {
+            if (sketch != null) {
+                size += 16 + sketch.length;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, functions.length);
+        for (int i = 0; i < functions.length; i++) {
+            out.writeByte(functions[i].ordinal());
+            switch (functions[i]) {
+                case COUNT:
+                    WritableUtils.writeVLong(out, counts[i]);
+                    break;
+                case SUM:
+                case MIN:
+                case MAX:
+                    WritableUtils.writeVLong(out, values[i]);
+                    break;
+                case AVG:
+                    WritableUtils.writeVLong(out, counts[i]);
+                    WritableUtils.writeVLong(out, values[i]);
+                    break;
+                case APPROX_COUNT_DISTINCT:
+                    HyperLogLog.write(out, sketches[i]);
+                    break;
+                default:
+                    WritableUtils.writeVLong(out, counts[i]);
+                    WritableUtils.writeVLong(out, values[i]);
+                    out.writeDouble(squares[i]);
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int size = WritableUtils.readVInt(in);
+        if (size != functions.length) {
+            functions = new AggregateFunction[size];
+            counts = new long[size];
+            values = new long[size];
+            squares = new double[size];
+            sketches = new byte[size][];
+        }
+        AggregateFunction[] all = AggregateFunction.values();
+        for (int i = 0; i < size; i++) {
+            functions[i] = all[in.readByte()];
+            counts[i] = 0;
+            squares[i] = 0;
+            switch (functions[i]) {
+                case COUNT:
+                    counts[i] = WritableUtils.readVLong(in);
+                    break;
+                case SUM:
+                case MIN:
+                case MAX:
+                    values[i] = WritableUtils.readVLong(in);
+                    break;
+                case AVG:
+                    counts[i] = WritableUtils.readVLong(in);
+                    values[i] = WritableUtils.readVLong(in);
+                    break;
+                case APPROX_COUNT_DISTINCT:
+                    if (sketches[i] == null) {
+                        sketches[i] = new byte[HyperLogLog.NUM_REGISTERS];
+                    }
+                    HyperLogLog.read(in, sketches[i]);
+                    break;
+                default:
+                    counts[i] = WritableUtils.readVLong(in);
+                    values[i] = WritableUtils.readVLong(in);
+                    squares[i] = in.readDouble();
+            }
+        }
+    }
+
+    /**
+     * Returns the sample variance of an aggregate, computed from its count, sum and sum of squares
+     *
+     * @param index index of the aggregate
+     * @return the sample variance
+     */
+    private double variance(int index) {
+        double count = counts[index];
+        double mean = values[index] / count;
+        return Math.max(0, squares[index] - count * mean * mean) / (count - 1);
+    }
+
+    /**
+     * Returns the value held by the state of an empty group
+     *
+     * @param function the aggregate function
+     * @return the initial value of the state
+     */
+    private static long initialValue(AggregateFunction function) {
+        switch (function) {
+            case MIN:
+                return Long.MAX_VALUE;
+            case MAX:
+                return Long.MIN_VALUE;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.sqlUtils.Tables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+
+import java.io.IOException;
+
+/**
+ * Bucketed layout of the tables, for joins without a shuffle. Bucketing a table on a column
+ * writes its records into {@link Globals#getNumBuckets()} files (part-r-00000, part-r-00001,
+ * ...) in the directory given by {@link DBManager#getBucketedFileName(Tables, String)}: each
+ * record goes to the bucket given by the hash of its value of the column, and each bucket is
+ * sorted bytewise on that value, as written in the record. Records without a value of the
+ * column are left out, as they never join.
+ * <p>
+ * Two tables bucketed on their join key with the same number of buckets hold all records of a
+ * join key in buckets of the same number, so an Inner Join merges them bucket by bucket in the
+ * mappers. Bucketing is done once, and must be done again whenever the csv file of the table
+ * is replaced: a layout older than its csv file is ignored.
+ * </p>
+ */
+public class Bucketing {
+
+    // index of the column on which a table is bucketed, read by the mappers of the bucketing job
+    private static final String BUCKET_KEY_INDEX = "bucketKeyIndex";
+
+    private Bucketing() {
+        // private constructor to restrict object creation
+    }
+
+    /**
+     * Buckets every table on each of its join keys, replacing any previous layout
+     *
+     * @return true if all tables were bucketed
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     */
+    public static boolean bucketizeAll() throws IOException, InterruptedException, ClassNotFoundException {
+        boolean succeeded = true;
+        for (Tables table : Tables.values()) {
+            for (Tables other : Tables.values()) {
+                if (table == Tables.NONE || other == Tables.NONE || table == other) {
+                    continue;
+                }
+                String jk = DBManager.getJoinKey(table, other);
+                if (jk != null) {
+                    succeeded &= bucketize(table, jk);
+                }
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Runs the job which buckets a table on a column: the mappers key each record by its value
+     * of the column, and each of the {@link Globals#getNumBuckets()} reducers writes a bucket,
+     * sorted by the shuffle.
+     *
+     * @param table  the table to be bucketed
+     * @param column the column on which the table is bucketed
+     * @return true if the job succeeded
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     */
+    public static boolean bucketize(Tables table, String column)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", Globals.getNamenodeUrl());
+        conf.setInt(BUCKET_KEY_INDEX, DBManager.getColumnIndex(table, column));
+
+        Job job = Job.getInstance(conf, "Bucketize " + table.name() + " by " + column);
+        job.setJarByClass(Bucketing.class);
+        job.setMapperClass(BucketMapper.class);
+        job.setReducerClass(BucketReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        /* the hash of the value decides the bucket, alike for every table bucketed on the same join key */
+        job.setPartitionerClass(HashPartitioner.class);
+        job.setNumReduceTasks(Globals.getNumBuckets());
+
+        Path outputPath = getBucketedPath(table, column);
+        FileInputFormat.addInputPath(job, new Path(Globals.getCsvInputPath() + DBManager.getFileName(table)));
+        FileOutputFormat.setOutputPath(job, outputPath);
+        outputPath.getFileSystem(conf).delete(outputPath, true);
+
+        return job.waitForCompletion(true);
+    }
+
+    /**
+     * Returns the directory holding the buckets of a table, bucketed on a column
+     *
+     * @param table  the table
+     * @param column the column on which the table is bucketed
+     * @return path of the directory
+     */
+    public static Path getBucketedPath(Tables table, String column) {
+        return new Path(Globals.getBucketedInputPath() + DBManager.getBucketedFileName(table, column));
+    }
+
+    /**
+     * Returns the number of buckets of a table bucketed on a column, if its bucketing job
+     * succeeded after the csv file of the table was last written
+     *
+     * @param conf   configuration of the job
+     * @param table  the table
+     * @param column the column on which the table is bucketed
+     * @return number of buckets, 0 if the table is not bucketed on the column, or only on an older csv file
+     * @throws IOException if the file system could not be read
+     */
+    public static int getNumBuckets(Configuration conf, Tables table, String column) throws IOException {
+        Path bucketedPath = getBucketedPath(table, column);
+        Path success = new Path(bucketedPath, "_SUCCESS");
+        Path inputPath = new Path(Globals.getCsvInputPath() + DBManager.getFileName(table));
+        FileSystem fileSystem = bucketedPath.getFileSystem(conf);
+        if (!fileSystem.exists(success)
+                || fileSystem.getFileStatus(success).getModificationTime()
+                < fileSystem.getFileStatus(inputPath).getModificationTime()) {
+            return 0;
+        }
+        return fileSystem.listStatus(bucketedPath, path -> path.getName().startsWith("part-r-")).length;
+    }
+
+    /**
+     * Returns the bucket of another table with the same number as a bucket, which holds the
+     * records of the same join keys if both tables are bucketed alike
+     *
+     * @param bucket the bucket, one of the files of a bucketed table
+     * @param table  the other table
+     * @param column the column on which the other table is bucketed
+     * @return path of the matching bucket of the other table
+     */
+    public static Path getMatchingBucket(Path bucket, Tables table, String column) {
+        return new Path(getBucketedPath(table, column), bucket.getName());
+    }
+
+    /**
+     * Input format which reads each bucket whole, in a single split, so that each mapper reads
+     * the records of a bucket in sorted order
+     */
+    public static class BucketInputFormat extends TextInputFormat {
+        @Override
+        protected boolean isSplitable(JobContext context, Path file) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps each record to <value of the bucketing column, record>, leaving out records
+     * without a value of the column
+     */
+
+    private static class BucketMapper extends Mapper<Object, Text, Text, Text> {
+        private int keyIndex;
+        private CsvTokenizer tokenizer;
+        private final Text keyOut = new Text();
+
+        @Override
+        protected void setup(Context context) {
+            keyIndex = context.getConfiguration().getInt(BUCKET_KEY_INDEX, 0);
+            tokenizer = new CsvTokenizer(keyIndex + 1);
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            if (tokenizer.tokenize(value) <= keyIndex) return;
+            keyOut.set(tokenizer.getBytes(), tokenizer.getStart(keyIndex), tokenizer.getLength(keyIndex));
+            context.write(keyOut, value);
+        }
+    }
+
+    /**
+     * Writes the records of a bucket as they arrive, sorted by their value of the bucketing
+     * column: <record, NULL>
+     */
+
+    private static class BucketReducer extends Reducer<Text, Text, Text, NullWritable> {
+        @Override
+        public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            for (Text value : values) {
+                context.write(value, NullWritable.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.sqlUtils.Tables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index of the columns of an ORC file of a table in columnar format: for each value of
+ * a column, the numbers of the rows of the file which hold it. The indexed columns of a table are
+ * given by {@link DBManager#getIndexedColumns(Tables)}. The index of an ORC file is written next to
+ * it when the table is imported (see {@link ColumnarStorage}), in a hidden file which is not read
+ * as part of the table: _part-m-00000.orc.index for part-m-00000.orc.
+ * <p>
+ * Values are indexed with their ASCII letters in lower case, since the where clause ignores their
+ * case (see {@link CsvTokenizer#equalsIgnoreCase(int, byte[])}). Null values, i.e. fields missing
+ * from a csv line, match no where clause and are not indexed.
+ * </p>
+ */
+public class ColumnIndex {
+
+    // position of each column of the table in the index, -1 if it is not indexed
+    private final int[] positions;
+    private final int[] columns;
+    private final List<Map<Text, RowList>> values;
+    private final Text probe = new Text();
+
+    /**
+     * Creates an empty index of the indexed columns of a table
+     *
+     * @param table the table
+     */
+    public ColumnIndex(Tables table) {
+        columns = DBManager.getIndexedColumns(table);
+        positions = new int[DBManager.getTableSize(table)];
+        Arrays.fill(positions, -1);
+        values = new ArrayList<>(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            positions[columns[i]] = i;
+            values.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Adds the value of a column in a row to the index, if the column is indexed. Rows must be added
+     * in increasing order.
+     *
+     * @param column index of the column
+     * @param row    number of the row in the ORC file
+     * @param bytes  bytes holding the unquoted value
+     * @param start  offset of the value
+     * @param length length of the value, in bytes
+     */
+    public void add(int column, long row, byte[] bytes, int start, int length) {
+        if (positions[column] < 0) {
+            return;
+        }
+        probe.set(bytes, start, length);
+        toLowerCase(probe.getBytes(), probe.getLength());
+        RowList rows = values.get(positions[column]).get(probe);
+        if (rows == null) {
+            rows = new RowList();
+            values.get(positions[column]).put(new Text(probe), rows);
+        }
+        rows.add(row);
+    }
+
+    /**
+     * Writes the index of an ORC file: for each indexed column, its index, then each of its values
+     * followed by the numbers of its rows, as deltas
+     *
+     * @param conf    configuration of the job
+     * @param orcFile path of the ORC file
+     * @throws IOException if the index could not be written
+     */
+    public void write(Configuration conf, Path orcFile) throws IOException {
+        Path indexFile = getIndexPath(orcFile);
+        try (FSDataOutputStream out = indexFile.getFileSystem(conf).create(indexFile, true)) {
+            WritableUtils.writeVInt(out, columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                WritableUtils.writeVInt(out, columns[i]);
+                WritableUtils.writeVInt(out, values.get(i).size());
+                for (Map.Entry<Text, RowList> entry : values.get(i).entrySet()) {
+                    entry.getKey().write(out);
+                    RowList rows = entry.getValue();
+                    WritableUtils.writeVInt(out, rows.size);
+                    long previous = 0;
+                    for (int r = 0; r < rows.size; r++) {
+                        WritableUtils.writeVLong(out, rows.rows[r] - previous);
+                        previous = rows.rows[r];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the rows of an ORC file whose column holds a value, ignoring the case of ASCII letters
+     *
+     * @param conf    configuration of the job
+     * @param orcFile path of the ORC file
+     * @param column  index of the column
+     * @param value   the unquoted value
+     * @return increasing row numbers, null if the column of the file is not indexed
+     * @throws IOException if the index could not be read
+     */
+    public static long[] getRows(Configuration conf, Path orcFile, int column, String value) throws IOException {
+        Path indexFile = getIndexPath(orcFile);
+        FileSystem fileSystem = indexFile.getFileSystem(conf);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        toLowerCase(bytes, bytes.length);
+        Text key = new Text(bytes);
+
+        try (FSDataInputStream in = fileSystem.open(indexFile)) {
+            Text indexed = new Text();
+            int numColumns = WritableUtils.readVInt(in);
+            for (int i = 0; i < numColumns; i++) {
+                int indexedColumn = WritableUtils.readVInt(in);
+                int numValues = WritableUtils.readVInt(in);
+                for (int v = 0; v < numValues; v++) {
+                    indexed.readFields(in);
+                    boolean found = indexedColumn == column && indexed.equals(key);
+                    long[] rows = new long[WritableUtils.readVInt(in)];
+                    long row = 0;
+                    for (int r = 0; r < rows.length; r++) {
+                        row += WritableUtils.readVLong(in);
+                        rows[r] = row;
+                    }
+                    if (found) {
+                        return rows;
+                    }
+                }
+                if (indexedColumn == column) {
+                    return new long[0];
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // the table was imported before its columns were indexed
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the path of the index of an ORC file
+     */
+    private static Path getIndexPath(Path orcFile) {
+        return new Path(orcFile.getParent(), "_" + orcFile.getName() + ".index");
+    }
+
+    private static void toLowerCase(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] >= 'A' && bytes[i] <= 'Z') {
+                bytes[i] += 'a' - 'A';
+            }
+        }
+    }
+
+    /**
+     * Growable array of row numbers
+     */
+    private static class RowList {
+        private long[] rows = new long[16];
+        private int size;
+
+        private void add(long row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, 2 * size);
+            }
+            rows[size++] = row;
+        }
+    }
+}
@@ -0,0 +1,876 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.sqlUtils.QueryType;
+import com.cloud.project.sqlUtils.Tables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.orc.ColumnStatistics;
+import org.apache.orc.CompressionKind;
+import org.apache.orc.IntegerColumnStatistics;
+import org.apache.orc.OrcFile;
+import org.apache.orc.Reader;
+import org.apache.orc.StringColumnStatistics;
+import org.apache.orc.StripeInformation;
+import org.apache.orc.StripeStatistics;
+import org.apache.orc.TypeDescription;
+import org.apache.orc.Writer;
+import org.apache.orc.storage.ql.exec.vector.BytesColumnVector;
+import org.apache.orc.storage.ql.exec.vector.ColumnVector;
+import org.apache.orc.storage.ql.exec.vector.LongColumnVector;
+import org.apache.orc.storage.ql.exec.vector.VectorizedRowBatch;
+import org.apache.orc.storage.ql.io.sarg.PredicateLeaf;
+import org.apache.orc.storage.ql.io.sarg.SearchArgument;
+import org.apache.orc.storage.ql.io.sarg.SearchArgumentFactory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Columnar layout of the tables, so that a query reads only the columns it needs. Importing a
+ * table converts its csv file into compressed ORC files, in the directory given by
+ * {@link DBManager#getColumnarFileName(Tables)}: one column per field of the csv file, named
+ * after its column, holding the values of the field as integers (bigint) in the int, long and flag
+ * columns, and as unquoted strings in the other ones. A value is null if a line has fewer fields,
+ * or if it is not an integer in an integer column. The ORC files are read by Spark as they are,
+ * and by the Hadoop jobs through {@link ColumnarInputFormat}, which turns each row back into a
+ * csv line.
+ * <p>
+ * The csv file remains the reference copy of a table: the sizes and samples from which jobs
+ * are planned, and the broadcast tables, are still read from it. Importing is done once, and
+ * must be done again whenever the csv file of the table is replaced: a layout older than its
+ * csv file is ignored.
+ * </p>
+ * <p>
+ * The ORC files also hold the zone maps of a table: the minimum, maximum and null count of each
+ * column for each stripe, and for each run of {@link Globals#getZoneMapRows()} rows within a
+ * stripe. When a query has a where clause or a range condition on a table, the splits none of
+ * whose stripes can hold a matching row are dropped when the job is planned, and the runs of rows
+ * which cannot hold one are skipped when a split is read. Range conditions are checked against
+ * the zone maps of integer columns only, as strings do not sort as the numbers they hold. Skipping
+ * is most effective on columns by which the csv file is roughly ordered, e.g. the timestamp of
+ * the ratings. On the indexed columns of a table (see {@link ColumnIndex}), the rows matching a
+ * selective where clause are read directly instead.
+ * </p>
+ */
+public class ColumnarStorage {
+
+    // table imported by the mappers of the import job
+    private static final String IMPORTED_TABLE = "importedTable";
+
+    // prefix of the columns read from the ORC files of a table, followed by the name of its directory
+    private static final String COLUMNS_READ = "columnsRead.";
+
+    // metadata of each ORC file: the columns which were quoted in the csv file, and are quoted again when read
+    private static final String QUOTED_COLUMNS = "quotedColumns";
+
+    // prefix of the column of the where clause on a table, followed by the name of its directory
+    private static final String WHERE_COLUMN = "whereColumn.";
+
+    // value of the where clause
+    private static final String WHERE_VALUE = "whereValue";
+
+    // prefix of the column of the range condition on a table, followed by the name of its directory
+    private static final String RANGE_COLUMN = "rangeColumn.";
+
+    // lowest and highest values of the range condition, included
+    private static final String RANGE_FROM = "rangeFrom";
+    private static final String RANGE_TO = "rangeTo";
+
+    private static final byte[] COMMA = {','};
+    private static final byte[] QUOTE = {'"'};
+
+    private ColumnarStorage() {
+        // private constructor to restrict object creation
+    }
+
+    /**
+     * Imports every table, replacing any previous columnar layout
+     *
+     * @return true if all tables were imported
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     */
+    public static boolean importAll() throws IOException, InterruptedException, ClassNotFoundException {
+        boolean succeeded = true;
+        for (Tables table : Tables.values()) {
+            if (table != Tables.NONE) {
+                succeeded &= importTable(table);
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Runs the job which imports a table: a map-only job, each mapper writing the rows of its
+     * split of the csv file to an ORC file.
+     *
+     * @param table the table to be imported
+     * @return true if the job succeeded
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     */
+    public static boolean importTable(Tables table) throws IOException, InterruptedException, ClassNotFoundException {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", Globals.getNamenodeUrl());
+        conf.set(IMPORTED_TABLE, table.name());
+
+        Job job = Job.getInstance(conf, "Import " + table.name());
+        job.setJarByClass(ColumnarStorage.class);
+        job.setMapperClass(ImportMapper.class);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        /* the mappers write their ORC files themselves, in the work directory of the output */
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+
+        Path outputPath = getColumnarPath(table);
+        FileInputFormat.addInputPath(job, new Path(Globals.getCsvInputPath() + DBManager.getFileName(table)));
+        FileOutputFormat.setOutputPath(job, outputPath);
+        outputPath.getFileSystem(conf).delete(outputPath, true);
+
+        return job.waitForCompletion(true);
+    }
+
+    /**
+     * Returns the directory holding the ORC files of a table
+     *
+     * @param table the table
+     * @return path of the directory
+     */
+    public static Path getColumnarPath(Tables table) {
+        return new Path(Globals.getColumnarInputPath() + DBManager.getColumnarFileName(table));
+    }
+
+    /**
+     * Returns whether a table is in columnar format, i.e. its import job succeeded after the csv
+     * file of the table was last written
+     *
+     * @param conf  configuration of the job
+     * @param table the table
+     * @return true if the ORC files of the table can be read in place of its csv file
+     * @throws IOException if the file system could not be read
+     */
+    public static boolean isImported(Configuration conf, Tables table) throws IOException {
+        Path success = new Path(getColumnarPath(table), "_SUCCESS");
+        Path inputPath = new Path(Globals.getCsvInputPath() + DBManager.getFileName(table));
+        FileSystem fileSystem = success.getFileSystem(conf);
+        return fileSystem.exists(success) && fileSystem.getFileStatus(success).getModificationTime()
+                >= fileSystem.getFileStatus(inputPath).getModificationTime();
+    }
+
+    /**
+     * Adds a table of a query as an input of a job, read by the given mapper: the partitions
+     * overlapping the range condition of the where clause on its time column if it is partitioned
+     * (see {@link TimePartitioning#addInputPaths(Job, PhysicalPlan, int, Class)}), its ORC files if it
+     * is imported, reading only the columns needed by the query (see
+     * {@link PhysicalPlan#getColumnsRead(int)}) and skipping the rows which cannot match the where
+     * clause or the range condition on the table, or its csv file otherwise. In any case, the
+     * mapper reads csv lines, and still has to evaluate the where clause on each of them.
+     *
+     * @param job         the job
+     * @param plan        physical plan of the query
+     * @param table       index of the table in the plan
+     * @param inputPath   path of the csv file of the table
+     * @param mapperClass the mapper of the table
+     * @throws IOException if the file system could not be read
+     */
+    @SuppressWarnings("rawtypes")
+    public static void addInputPath(Job job, PhysicalPlan plan, int table, Path inputPath,
+                                    Class<? extends Mapper> mapperClass) throws IOException {
+        if (TimePartitioning.addInputPaths(job, plan, table, mapperClass)) {
+            return;
+        }
+        Configuration conf = job.getConfiguration();
+        if (isImported(conf, plan.getTable(table))) {
+            Path columnarPath = getColumnarPath(plan.getTable(table));
+            conf.set(COLUMNS_READ + columnarPath.getName(), Arrays.stream(plan.getColumnsRead(table))
+                    .mapToObj(Integer::toString).collect(Collectors.joining(",")));
+            if (plan.getQueryType() != QueryType.GROUP_BY && plan.getWhereIndex(table) >= 0) {
+                setWhereClause(conf, plan.getTable(table), plan.getWhereIndex(table), plan.getWhereValue());
+            }
+            if (plan.getRangeIndex(table) >= 0) {
+                setRangeCondition(conf, plan.getTable(table), plan.getRangeIndex(table), plan.getRangeFrom(),
+                        plan.getRangeTo());
+            }
+            MultipleInputs.addInputPath(job, columnarPath, ColumnarInputFormat.class, mapperClass);
+        } else {
+            MultipleInputs.addInputPath(job, inputPath, TextInputFormat.class, mapperClass);
+        }
+    }
+
+    /**
+     * Sets the where clause on a table read through {@link ColumnarInputFormat}, which then skips
+     * the rows of the table which cannot match it: the rows which are not in the index of the
+     * column (see {@link ColumnIndex}) if the column is indexed, and the rows excluded by the zone
+     * maps of the column otherwise. The rows which are read still have to be checked against the
+     * where clause.
+     *
+     * @param conf   configuration of the job
+     * @param table  the table
+     * @param column index of the column of the where clause
+     * @param value  unquoted value of the where clause
+     */
+    public static void setWhereClause(Configuration conf, Tables table, int column, String value) {
+        conf.setInt(WHERE_COLUMN + getColumnarPath(table).getName(), column);
+        conf.set(WHERE_VALUE, value);
+    }
+
+    /**
+     * Sets the range condition on a table read through {@link ColumnarInputFormat}, which then
+     * skips the rows of the table excluded by the zone maps of the column, if it is an integer
+     * column. The rows which are read still have to be checked against the range condition.
+     *
+     * @param conf   configuration of the job
+     * @param table  the table
+     * @param column index of the column of the range condition
+     * @param from   lowest value of the range, included
+     * @param to     highest value of the range, included
+     */
+    public static void setRangeCondition(Configuration conf, Tables table, int column, long from, long to) {
+        conf.setInt(RANGE_COLUMN + getColumnarPath(table).getName(), column);
+        conf.setLong(RANGE_FROM, from);
+        conf.setLong(RANGE_TO, to);
+    }
+
+    /**
+     * Returns the schema of the ORC files of a table: a column per column of the table which is
+     * written in its csv file, a bigint column if it holds integers and a string column otherwise
+     *
+     * @param table      the table
+     * @param numColumns number of columns in the csv file, at most the number of columns of the table
+     * @return schema of the ORC files
+     */
+    private static TypeDescription getSchema(Tables table, int numColumns) {
+        TypeDescription schema = TypeDescription.createStruct();
+        for (int i = 0; i < numColumns; i++) {
+            schema.addField(DBManager.getColumnFromIndex(table, i), DBManager.getColumnType(table, i).isIntegral()
+                    ? TypeDescription.createLong() : TypeDescription.createString());
+        }
+        return schema;
+    }
+
+    /**
+     * Returns the column of the where clause on the table of an ORC file, if the where clause can be
+     * checked against the zone maps of the file
+     *
+     * @param conf   configuration of the job
+     * @param file   path of the ORC file
+     * @param schema schema of the ORC file
+     * @return index of the column, -1 if no rows of the file can be skipped
+     */
+    private static int getWhereColumn(Configuration conf, Path file, TypeDescription schema) {
+        int whereColumn = conf.getInt(WHERE_COLUMN + file.getParent().getName(), -1);
+        // a column missing from the file is null in all rows, which never match
+        return (whereColumn < 0 || conf.get(WHERE_VALUE) == null) ? -1
+                : Math.min(whereColumn, schema.getChildren().size());
+    }
+
+    /**
+     * Returns the column of the range condition on the table of an ORC file, if the range condition
+     * can be checked against the zone maps of the file, i.e. if the column holds integers in the file
+     *
+     * @param conf   configuration of the job
+     * @param file   path of the ORC file
+     * @param schema schema of the ORC file
+     * @return index of the column, -1 if no rows of the file can be skipped
+     */
+    private static int getRangeColumn(Configuration conf, Path file, TypeDescription schema) {
+        int rangeColumn = conf.getInt(RANGE_COLUMN + file.getParent().getName(), -1);
+        if (rangeColumn < 0 || rangeColumn >= schema.getChildren().size()) {
+            // a column missing from the file is null in all rows, which never match
+            return Math.min(rangeColumn, schema.getChildren().size());
+        }
+        return (schema.getChildren().get(rangeColumn).getCategory() == TypeDescription.Category.LONG) ? rangeColumn : -1;
+    }
+
+    /**
+     * Returns whether a column of an ORC file may hold the value of the where clause, given its
+     * zone map. The where clause ignores the case of ASCII letters, so the values which match it lie
+     * between the value in upper case and the value in lower case. In an integer column, the value
+     * matches only itself.
+     *
+     * @param statistics zone map of the column
+     * @param value      value of the where clause
+     * @return false if no row summarized by the zone map matches the where clause
+     */
+    private static boolean mayMatch(ColumnStatistics statistics, String value) {
+        if (statistics.getNumberOfValues() == 0) {
+            return false;
+        }
+        if (statistics instanceof IntegerColumnStatistics) {
+            Long number = parseLong(value);
+            return number == null || mayMatch(statistics, number, number);
+        }
+        if (!(statistics instanceof StringColumnStatistics)) {
+            return true;
+        }
+        StringColumnStatistics strings = (StringColumnStatistics) statistics;
+        // a missing bound is unknown
+        return (strings.getMaximum() == null || new Text(strings.getMaximum()).compareTo(new Text(toCase(value, true))) >= 0)
+                && (strings.getMinimum() == null || new Text(strings.getMinimum()).compareTo(new Text(toCase(value, false))) <= 0);
+    }
+
+    /**
+     * Returns whether an integer column of an ORC file may hold a value in a range, given its zone map
+     *
+     * @param statistics zone map of the column
+     * @param from       lowest value of the range, included
+     * @param to         highest value of the range, included
+     * @return false if no row summarized by the zone map is in the range
+     */
+    private static boolean mayMatch(ColumnStatistics statistics, long from, long to) {
+        if (statistics.getNumberOfValues() == 0) {
+            return false;
+        }
+        if (!(statistics instanceof IntegerColumnStatistics)) {
+            return true;
+        }
+        IntegerColumnStatistics integers = (IntegerColumnStatistics) statistics;
+        return integers.getMaximum() >= from && integers.getMinimum() <= to;
+    }
+
+    /**
+     * Returns whether the rows summarized by the zone maps of the columns of an ORC file may match
+     * both the where clause and the range condition
+     *
+     * @param conf        configuration of the job
+     * @param statistics  zone maps of the columns, numbered from 1
+     * @param whereColumn index of the column of the where clause, -1 if none
+     * @param rangeColumn index of the column of the range condition, -1 if none
+     * @return false if no row summarized by the zone maps matches
+     */
+    private static boolean mayMatch(Configuration conf, ColumnStatistics[] statistics, int whereColumn, int rangeColumn) {
+        // a column missing from the zone maps is null in all rows, which never match
+        return (whereColumn < 0 || (whereColumn + 1 < statistics.length
+                && mayMatch(statistics[whereColumn + 1], conf.get(WHERE_VALUE))))
+                && (rangeColumn < 0 || (rangeColumn + 1 < statistics.length
+                && mayMatch(statistics[rangeColumn + 1], conf.getLong(RANGE_FROM, Long.MIN_VALUE),
+                conf.getLong(RANGE_TO, Long.MAX_VALUE))));
+    }
+
+    /**
+     * Returns the search argument of the where clause and the range condition on the columns of an
+     * ORC file, by which the ORC reader skips the runs of rows of the columns which cannot match
+     * them (see {@link #mayMatch(Configuration, ColumnStatistics[], int, int)})
+     *
+     * @return the search argument, null if no runs of rows can be skipped
+     */
+    private static SearchArgument getSearchArgument(Configuration conf, TypeDescription schema, int whereColumn,
+                                                    int rangeColumn) {
+        SearchArgument.Builder builder = SearchArgumentFactory.newBuilder().startAnd();
+        boolean skipping = false;
+        if (whereColumn >= 0 && whereColumn < schema.getChildren().size()) {
+            String column = schema.getFieldNames().get(whereColumn);
+            String value = conf.get(WHERE_VALUE);
+            if (schema.getChildren().get(whereColumn).getCategory() != TypeDescription.Category.LONG) {
+                builder.between(column, PredicateLeaf.Type.STRING, toCase(value, true), toCase(value, false));
+                skipping = true;
+            } else if (parseLong(value) != null) {
+                builder.equals(column, PredicateLeaf.Type.LONG, parseLong(value));
+                skipping = true;
+            }
+        }
+        if (rangeColumn >= 0 && rangeColumn < schema.getChildren().size()) {
+            builder.between(schema.getFieldNames().get(rangeColumn), PredicateLeaf.Type.LONG,
+                    conf.getLong(RANGE_FROM, Long.MIN_VALUE), conf.getLong(RANGE_TO, Long.MAX_VALUE));
+            skipping = true;
+        }
+        return skipping ? builder.end().build() : null;
+    }
+
+    /**
+     * Parses the value of a where clause on an integer column
+     *
+     * @return the value, null if it is not an integer
+     */
+    private static Long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts the ASCII letters of a value to upper or lower case, like
+     * {@link CsvTokenizer#equalsIgnoreCase(int, byte[])}
+     */
+    private static String toCase(String value, boolean upperCase) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (upperCase && chars[i] >= 'a' && chars[i] <= 'z') {
+                chars[i] -= 'a' - 'A';
+            } else if (!upperCase && chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Input format which reads the ORC files of a table as csv lines: <row number, line>. Each line
+     * holds all columns of the file, but only the columns read by the query (set by
+     * {@link #addInputPath(Job, PhysicalPlan, int, Path, Class)}) are read from the files, the other
+     * ones being left empty. Integers are written in decimal, and the null values of a row are left
+     * empty, up to the last value of the row which is not null: the line ends there. A value is
+     * quoted if its column was quoted in the csv file, or if it holds a comma or a double quote.
+     * <p>
+     * With a where clause or a range condition on the table, the splits none of whose stripes can
+     * match them, according to the zone maps of the stripes, are dropped. If the column of the
+     * where clause is indexed and at most {@link Globals#getMaxIndexedFraction()} of the rows of a
+     * file match it, the file is read as a single split made of these rows instead.
+     * </p>
+     */
+    public static class ColumnarInputFormat extends FileInputFormat<LongWritable, Text> {
+        @Override
+        public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+            return new ColumnarRecordReader();
+        }
+
+        @Override
+        public List<InputSplit> getSplits(JobContext job) throws IOException {
+            Configuration conf = job.getConfiguration();
+            List<InputSplit> splits = new ArrayList<>();
+            Path file = null;
+            Reader reader = null;
+            int whereColumn = -1;
+            int rangeColumn = -1;
+            long[] indexedRows = null;
+            List<StripeStatistics> stripeStatistics = null;
+            for (InputSplit inputSplit : super.getSplits(job)) {
+                FileSplit split = (FileSplit) inputSplit;
+                if (!split.getPath().equals(file)) {
+                    file = split.getPath();
+                    reader = OrcFile.createReader(file, OrcFile.readerOptions(conf));
+                    whereColumn = getWhereColumn(conf, file, reader.getSchema());
+                    rangeColumn = getRangeColumn(conf, file, reader.getSchema());
+                    stripeStatistics = (whereColumn < 0 && rangeColumn < 0) ? null : reader.getStripeStatistics();
+
+                    // the few rows of a file matching the where clause are read through its index, in a single split
+                    indexedRows = (whereColumn < 0) ? null
+                            : ColumnIndex.getRows(conf, file, whereColumn, conf.get(WHERE_VALUE));
+                    if (indexedRows != null && indexedRows.length <= Globals.getMaxIndexedFraction() * reader.getNumberOfRows()) {
+                        if (indexedRows.length > 0) {
+                            long length = file.getFileSystem(conf).getFileStatus(file).getLen();
+                            splits.add(new IndexedSplit(file, length, split.getLocations(), indexedRows));
+                        }
+                    } else {
+                        indexedRows = null;
+                    }
+                }
+                if (indexedRows != null) {
+                    continue;
+                }
+                if (whereColumn < 0 && rangeColumn < 0) {
+                    splits.add(split);
+                    continue;
+                }
+
+                // a split is read from the stripes which start in it
+                List<StripeInformation> stripes = reader.getStripes();
+                for (int i = 0; i < stripes.size(); i++) {
+                    long offset = stripes.get(i).getOffset();
+                    ColumnStatistics[] statistics = stripeStatistics.get(i).getColumnStatistics();
+                    if (offset >= split.getStart() && offset < split.getStart() + split.getLength()
+                            && mayMatch(conf, statistics, whereColumn, rangeColumn)) {
+                        splits.add(split);
+                        break;
+                    }
+                }
+            }
+            return splits;
+        }
+    }
+
+    /**
+     * Split of an ORC file made of the rows found in the index of a column, which are read in
+     * increasing order
+     */
+    private static class IndexedSplit extends FileSplit {
+        private long[] rows;
+
+        public IndexedSplit() {
+            // constructor for deserialization
+        }
+
+        private IndexedSplit(Path file, long length, String[] hosts, long[] rows) {
+            super(file, 0, length, hosts);
+            this.rows = rows;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            super.write(out);
+            WritableUtils.writeVInt(out, rows.length);
+            long previous = 0;
+            for (long row : rows) {
+                WritableUtils.writeVLong(out, row - previous);
+                previous = row;
+            }
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            super.readFields(in);
+            rows = new long[WritableUtils.readVInt(in)];
+            long row = 0;
+            for (int i = 0; i < rows.length; i++) {
+                row += WritableUtils.readVLong(in);
+                rows[i] = row;
+            }
+        }
+    }
+
+    /**
+     * Reads the rows of the stripes of an ORC file starting in a split, a batch at a time, or the
+     * rows of an {@link IndexedSplit}, each one from the batch starting at the first of them which
+     * is not in the previous batch
+     */
+    private static class ColumnarRecordReader extends RecordReader<LongWritable, Text> {
+        private org.apache.orc.RecordReader rows;
+        private VectorizedRowBatch batch;
+        private boolean[] included;
+        private boolean[] quoted;
+        private long[] indexedRows;
+        private int nextIndexedRow;
+        private final byte[] digits = new byte[20];
+        private long batchStart;
+        private int row;
+        private final LongWritable key = new LongWritable();
+        private final Text line = new Text();
+
+        @Override
+        public void initialize(InputSplit inputSplit, TaskAttemptContext context) throws IOException {
+            FileSplit split = (FileSplit) inputSplit;
+            Configuration conf = context.getConfiguration();
+            Reader reader = OrcFile.createReader(split.getPath(), OrcFile.readerOptions(conf));
+            TypeDescription schema = reader.getSchema();
+            int numColumns = schema.getChildren().size();
+
+            // columns are numbered from 1 in ORC, 0 being the row itself
+            included = new boolean[numColumns + 1];
+            included[0] = true;
+            String columnsRead = conf.get(COLUMNS_READ + split.getPath().getParent().getName());
+            if (columnsRead == null) {
+                Arrays.fill(included, true);
+            } else if (!columnsRead.isEmpty()) {
+                for (String column : columnsRead.split(",")) {
+                    included[Integer.parseInt(column) + 1] = true;
+                }
+            }
+
+            quoted = new boolean[numColumns];
+            if (reader.hasMetadataValue(QUOTED_COLUMNS)) {
+                String quotedColumns = StandardCharsets.UTF_8.decode(reader.getMetadataValue(QUOTED_COLUMNS)).toString();
+                for (String column : quotedColumns.split(",")) {
+                    if (!column.isEmpty()) {
+                        quoted[Integer.parseInt(column)] = true;
+                    }
+                }
+            }
+
+            Reader.Options options = reader.options().range(split.getStart(), split.getLength()).include(included);
+            SearchArgument searchArgument = getSearchArgument(conf, schema, getWhereColumn(conf, split.getPath(), schema),
+                    getRangeColumn(conf, split.getPath(), schema));
+            if (split instanceof IndexedSplit) {
+                indexedRows = ((IndexedSplit) split).rows;
+            } else if (searchArgument != null) {
+                options.searchArgument(searchArgument, schema.getFieldNames().toArray(new String[0]));
+            }
+            rows = reader.rows(options);
+            batch = schema.createRowBatch();
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            if (indexedRows != null) {
+                if (nextIndexedRow >= indexedRows.length) {
+                    return false;
+                }
+                long indexedRow = indexedRows[nextIndexedRow++];
+                if (indexedRow >= batchStart + batch.size) {
+                    rows.seekToRow(indexedRow);
+                    batchStart = indexedRow;
+                    if (!rows.nextBatch(batch)) {
+                        return false;
+                    }
+                }
+                row = (int) (indexedRow - batchStart);
+            } else if (row + 1 >= batch.size) {
+                batchStart = rows.getRowNumber();
+                if (!rows.nextBatch(batch)) {
+                    return false;
+                }
+                row = 0;
+            } else {
+                row++;
+            }
+            key.set(batchStart + row);
+
+            line.clear();
+            for (int i = 0; i < batch.numCols; i++) {
+                boolean isNull = included[i + 1] && isNull(i);
+                if (isNull && isLineEnd(i)) {
+                    // the line ends before the first field missing from the csv line
+                    break;
+                }
+                if (i > 0) {
+                    line.append(COMMA, 0, 1);
+                }
+                if (!included[i + 1] || isNull) {
+                    continue;
+                }
+                ColumnVector column = batch.cols[i];
+                int r = column.isRepeating ? 0 : row;
+                if (column instanceof LongColumnVector) {
+                    appendLong(((LongColumnVector) column).vector[r], quoted[i]);
+                } else {
+                    BytesColumnVector strings = (BytesColumnVector) column;
+                    appendValue(strings.vector[r], strings.start[r], strings.length[r], quoted[i]);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns whether the value of a column in the current row is null
+         */
+        private boolean isNull(int column) {
+            ColumnVector vector = batch.cols[column];
+            return !vector.noNulls && vector.isNull[vector.isRepeating ? 0 : row];
+        }
+
+        /**
+         * Returns whether the values of the current row are null from a column onwards, in all the
+         * columns which are read, as when the csv line has fewer fields. An integer column may also
+         * be null in the middle of a row, where its value was not an integer.
+         */
+        private boolean isLineEnd(int column) {
+            for (int i = column; i < batch.numCols; i++) {
+                if (included[i + 1] && !isNull(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Appends an integer to the line in decimal, between double quotes if its column is quoted
+         */
+        private void appendLong(long value, boolean quote) {
+            int start = digits.length;
+            long rest = value;
+            do {
+                digits[--start] = (byte) ('0' + Math.abs(rest % 10));
+                rest /= 10;
+            } while (rest != 0);
+            if (value < 0) {
+                digits[--start] = '-';
+            }
+            if (quote) {
+                line.append(QUOTE, 0, 1);
+            }
+            line.append(digits, start, digits.length - start);
+            if (quote) {
+                line.append(QUOTE, 0, 1);
+            }
+        }
+
+        /**
+         * Appends a value to the line, between double quotes (doubling the double quotes inside it)
+         * if its column is quoted or if it holds a comma or a double quote
+         */
+        private void appendValue(byte[] bytes, int start, int length, boolean quote) {
+            int end = start + length;
+            for (int i = start; i < end && !quote; i++) {
+                quote = bytes[i] == ',' || bytes[i] == '"';
+            }
+            if (!quote) {
+                line.append(bytes, start, length);
+                return;
+            }
+            line.append(QUOTE, 0, 1);
+            int from = start;
+            for (int i = start; i < end; i++) {
+                if (bytes[i] == '"') {
+                    line.append(bytes, from, i + 1 - from);
+                    from = i;
+                }
+            }
+            line.append(bytes, from, end - from);
+            line.append(QUOTE, 0, 1);
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return key;
+        }
+
+        @Override
+        public Text getCurrentValue() {
+            return line;
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return (indexedRows != null) ? (float) nextIndexedRow / indexedRows.length : rows.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (rows != null) {
+                rows.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of its split of a csv file to an ORC file (part-m-xxxxx.orc), with the
+     * unquoted values of the fields, parsed as integers in the integer columns. The columns of the
+     * file are the fields of the first row of the split, and the columns which are quoted in that
+     * row are recorded in the metadata of the file. The fields missing from a shorter row, and the
+     * values of integer columns which are not integers, are null. The values of the indexed columns
+     * of the table, as written in the csv file, are indexed (see {@link ColumnIndex}) by their row
+     * number in the file.
+     */
+    private static class ImportMapper extends Mapper<Object, Text, NullWritable, NullWritable> {
+        private Tables table;
+        private CsvTokenizer tokenizer;
+        private ColumnIndex index;
+        private Path file;
+        private long numRows;
+        private Writer writer;
+        private VectorizedRowBatch batch;
+        private String quotedColumns;
+        private byte[] buffer = new byte[64];
+
+        @Override
+        protected void setup(Context context) {
+            table = Tables.valueOf(context.getConfiguration().get(IMPORTED_TABLE));
+            tokenizer = new CsvTokenizer(DBManager.getTableSize(table));
+            index = new ColumnIndex(table);
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            int numFields = tokenizer.tokenize(value);
+            if (writer == null) {
+                // the file is created with the first row, so that empty splits write no file
+                TypeDescription schema = getSchema(table, numFields);
+                file = FileOutputFormat.getPathForWorkFile(context, "part", ".orc");
+                writer = OrcFile.createWriter(file, OrcFile.writerOptions(context.getConfiguration())
+                        .setSchema(schema).compress(CompressionKind.ZLIB).rowIndexStride(Globals.getZoneMapRows()));
+                batch = schema.createRowBatch();
+                StringBuilder quoted = new StringBuilder();
+                for (int i = 0; i < numFields; i++) {
+                    if (tokenizer.isQuoted(i)) {
+                        quoted.append(quoted.length() > 0 ? "," : "").append(i);
+                    }
+                }
+                quotedColumns = quoted.toString();
+            }
+
+            int row = batch.size++;
+            for (int i = 0; i < batch.numCols; i++) {
+                ColumnVector column = batch.cols[i];
+                if (i >= numFields) {
+                    column.noNulls = false;
+                    column.isNull[row] = true;
+                } else if (column instanceof LongColumnVector) {
+                    setLong((LongColumnVector) column, row, i);
+                    index.add(i, numRows, tokenizer.getBytes(), tokenizer.getValueStart(i), tokenizer.getValueLength(i));
+                } else {
+                    BytesColumnVector strings = (BytesColumnVector) column;
+                    setValue(strings, row, i);
+                    index.add(i, numRows, strings.vector[row], strings.start[row], strings.length[row]);
+                }
+            }
+            numRows++;
+            if (batch.size == batch.getMaxSize()) {
+                writer.addRowBatch(batch);
+                batch.reset();
+            }
+        }
+
+        /**
+         * Sets the value of a row of an integer column to the value of a field, or to null if it is
+         * not an integer
+         */
+        private void setLong(LongColumnVector column, int row, int field) {
+            try {
+                column.vector[row] = tokenizer.getLong(field);
+            } catch (NumberFormatException e) {
+                column.noNulls = false;
+                column.isNull[row] = true;
+            }
+        }
+
+        /**
+         * Sets the value of a row of a column to the unquoted value of a field, in which two double
+         * quotes stand for one
+         */
+        private void setValue(BytesColumnVector column, int row, int field) {
+            byte[] bytes = tokenizer.getBytes();
+            int start = tokenizer.getValueStart(field);
+            int length = tokenizer.getValueLength(field);
+            if (!tokenizer.isQuoted(field)) {
+                column.setVal(row, bytes, start, length);
+                return;
+            }
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, 2 * buffer.length)];
+            }
+            int n = 0;
+            for (int i = start; i < start + length; i++) {
+                buffer[n++] = bytes[i];
+                if (bytes[i] == '"' && i + 1 < start + length && bytes[i + 1] == '"') {
+                    i++;
+                }
+            }
+            column.setVal(row, buffer, 0, n);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException {
+            if (writer == null) {
+                return;
+            }
+            if (batch.size > 0) {
+                writer.addRowBatch(batch);
+            }
+            writer.addUserMetadata(QUOTED_COLUMNS, ByteBuffer.wrap(quotedColumns.getBytes(StandardCharsets.UTF_8)));
+            writer.close();
+            index.write(context.getConfiguration(), file);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.cloud.project.jobUtils;
+
+import org.apache.hadoop.io.Text;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer which splits a line of a csv file into fields, working directly on the bytes of
+ * the line. The fields are returned as slices (offset and length) of the line, so that
+ * tokenizing a line allocates no objects.
+ * <p>
+ * A field which starts with a double quote extends up to the matching closing quote, so it
+ * may contain commas, e.g. "River Wild, The (1994)". A double quote inside a quoted field is
+ * written as two double quotes. The slices of quoted fields include the quotes, while the
+ * unquoted value of a field (see {@link #getValueStart(int)}) excludes the quotes and the
+ * surrounding whitespace.
+ * </p>
+ * <p>
+ * Only the first fields of a line, up to the highest column needed by a query, are parsed.
+ * </p>
+ */
+public class CsvTokenizer {
+
+    private final int maxFields;
+    private final int[] starts;
+    private final int[] ends;
+    private byte[] bytes;
+    private int numFields;
+
+    /**
+     * Creates a tokenizer for the fields of a line up to a given column
+     *
+     * @param maxFields number of fields to be parsed from each line
+     */
+    public CsvTokenizer(int maxFields) {
+        this.maxFields = maxFields;
+        starts = new int[maxFields];
+        ends = new int[maxFields];
+    }
+
+    /**
+     * Splits a line into its fields. The slices returned by this tokenizer refer to the bytes
+     * of the line, so they are only valid until the line is modified.
+     *
+     * @param line the line to be tokenized
+     * @return number of fields found, which is at most the number of fields to be parsed
+     */
+    public int tokenize(Text line) {
+        bytes = line.getBytes();
+        int end = line.getLength();
+        int pos = 0;
+        numFields = 0;
+
+        while (numFields < maxFields) {
+            int start = pos;
+
+            // a quoted field extends up to its closing quote
+            while (pos < end && bytes[pos] >= 0 && bytes[pos] <= ' ') {
+                pos++;
+            }
+            if (pos < end && bytes[pos] == '"') {
+                pos++;
+                while (pos < end) {
+                    if (bytes[pos] != '"') {
+                        pos++;
+                    } else if (pos + 1 < end && bytes[pos + 1] == '"') {
+                        pos += 2;
+                    } else {
+                        pos++;
+                        break;
+                    }
+                }
+            }
+            while (pos < end && bytes[pos] != ',') {
+                pos++;
+            }
+
+            starts[numFields] = start;
+            ends[numFields] = pos;
+            numFields++;
+            if (pos >= end) {
+                break;
+            }
+            pos++;
+        }
+        return numFields;
+    }
+
+    /**
+     * Returns the number of fields found in the last tokenized line
+     *
+     * @return number of fields
+     */
+    public int getNumFields() {
+        return numFields;
+    }
+
+    /**
+     * Returns the bytes of the last tokenized line, to which all slices refer
+     *
+     * @return bytes of the line
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the offset of a field, as written in the line
+     *
+     * @param index index of the field
+     * @return offset of the field in the bytes of the line
+     */
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Returns the length of a field, as written in the line
+     *
+     * @param index index of the field
+     * @return length of the field, in bytes
+     */
+    public int getLength(int index) {
+        return ends[index] - starts[index];
+    }
+
+    /**
+     * Returns the offset of the unquoted value of a field
+     *
+     * @param index index of the field
+     * @return offset of the value in the bytes of the line
+     */
+    public int getValueStart(int index) {
+        int start = trimStart(index);
+        return (isQuoted(start, trimEnd(index))) ? start + 1 : start;
+    }
+
+    /**
+     * Returns the length of the unquoted value of a field
+     *
+     * @param index index of the field
+     * @return length of the value, in bytes
+     */
+    public int getValueLength(int index) {
+        int start = trimStart(index);
+        int end = trimEnd(index);
+        return (isQuoted(start, end)) ? end - start - 2 : end - start;
+    }
+
+    /**
+     * Returns whether a field is written between double quotes
+     *
+     * @param index index of the field
+     * @return true if the field is quoted
+     */
+    public boolean isQuoted(int index) {
+        return isQuoted(trimStart(index), trimEnd(index));
+    }
+
+    /**
+     * Parses the unquoted value of a field as an integer, without creating a String
+     *
+     * @param index index of the field
+     * @return value of the field
+     * @throws NumberFormatException if the value of the field is not an integer
+     */
+    public long getLong(int index) {
+        int pos = getValueStart(index);
+        int end = pos + getValueLength(index);
+        boolean negative = pos < end && bytes[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos >= end) {
+            throw new NumberFormatException("Field " + index + " is not an integer: " + getString(index));
+        }
+
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = bytes[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Field " + index + " is not an integer: " + getString(index));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Compares the unquoted value of a field with the given bytes, ignoring the case of
+     * ASCII letters
+     *
+     * @param index index of the field
+     * @param value bytes of the value to be compared with (UTF-8)
+     * @return true if the value of the field equals the given value
+     */
+    public boolean equalsIgnoreCase(int index, byte[] value) {
+        int start = getValueStart(index);
+        if (getValueLength(index) != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            byte a = bytes[start + i];
+            byte b = value[i];
+            if (a != b && toLowerCase(a) != toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a field as written in the line. Meant for error messages and debugging, since
+     * it creates a String.
+     *
+     * @param index index of the field
+     * @return the field
+     */
+    public String getString(int index) {
+        return new String(bytes, starts[index], getLength(index), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the unquoted value of a String, as it is compared by
+     * {@link #equalsIgnoreCase(int, byte[])}
+     *
+     * @param value a value, possibly quoted
+     * @return the value without surrounding whitespace and quotes
+     */
+    public static String unquote(String value) {
+        value = value.trim();
+        return (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+                ? value.substring(1, value.length() - 1) : value;
+    }
+
+    private int trimStart(int index) {
+        int start = starts[index];
+        while (start < ends[index] && bytes[start] >= 0 && bytes[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int index) {
+        int end = ends[index];
+        while (end > starts[index] && bytes[end - 1] >= 0 && bytes[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private boolean isQuoted(int start, int end) {
+        return end - start >= 2 && bytes[start] == '"' && bytes[end - 1] == '"';
+    }
+
+    private static byte toLowerCase(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+}
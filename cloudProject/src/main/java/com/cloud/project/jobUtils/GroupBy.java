@@ -3,26 +3,30 @@ package com.cloud.project.jobUtils;
 import com.cloud.project.Globals;
 import com.cloud.project.contracts.DBManager;
 import com.cloud.project.models.OutputModel;
+import com.cloud.project.sqlUtils.AggregateColumn;
 import com.cloud.project.sqlUtils.AggregateFunction;
 import com.cloud.project.sqlUtils.ParseSQL;
-import com.cloud.project.sqlUtils.Tables;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Time;
 
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 public class GroupBy {
 
@@ -39,6 +43,11 @@ public class GroupBy {
     public static OutputModel execute(ParseSQL parsedSQL) throws IOException,
             InterruptedException, ClassNotFoundException, SQLException {
 
+        // selecting the first rows of each group needs a different job (secondary sort)
+        if (parsedSQL.isLimitPerGroup()) {
+            return GroupTopN.execute(parsedSQL);
+        }
+
         OutputModel groupByOutput = new OutputModel();
 
         Configuration conf = new Configuration();
@@ -46,12 +55,10 @@ public class GroupBy {
         // like defined in hdfs-site.xml (required for reading file from hdfs)
         conf.set("fs.defaultFS", Globals.getNamenodeUrl());
 
-        // defining properties to be used later by mapper and reducer
-        conf.setEnum("table", parsedSQL.getTable1());
-        conf.setEnum("aggregateFunction", parsedSQL.getAggregateFunction());
-        conf.setInt("comparisonNumber", parsedSQL.getComparisonNumber());
-        conf.setStrings("columns", parsedSQL.getColumns().toArray(new String[0]));
-        conf.setStrings("operationColumns", parsedSQL.getOperationColumns().toArray(new String[0]));
+        // defining the plan to be used later by mapper and reducer
+        PhysicalPlan plan = PhysicalPlan.groupBy(parsedSQL);
+        plan.store(conf);
+        ArrayList<AggregateColumn> aggregates = parsedSQL.getAggregates();
 
         // creating job and defining jar
         Job job = Job.getInstance(conf, "GroupBy");
@@ -63,24 +70,73 @@ public class GroupBy {
         // setting the reducer
         job.setReducerClass(GroupByReducer.class);
 
+        // defining intermediate (binary) output of mapper and combiner
+        job.setMapOutputKeyClass(GroupByKey.class);
+        job.setMapOutputValueClass(AggregateStates.class);
+
+        // sorting and grouping the keys on their serialized form
+        job.setSortComparatorClass(GroupByKey.Comparator.class);
+        job.setGroupingComparatorClass(GroupByKey.Comparator.class);
+
         // defining output
-        job.setOutputKeyClass(Text.class);
+        job.setOutputKeyClass(GroupByKey.class);
         job.setOutputValueClass(Text.class);
 
         // passing the required csv file as file path
-        MultipleInputs.addInputPath(job,
-                new Path(Globals.getCsvInputPath() + DBManager.getFileName(parsedSQL.getTable1())),
-                TextInputFormat.class, GroupByMapper.class);
+        Path inputPath = new Path(Globals.getCsvInputPath() + DBManager.getFileName(parsedSQL.getTable1()));
+        ColumnarStorage.addInputPath(job, plan, 0, inputPath, GroupByMapper.class);
+
+        // choosing the number of reducers and the partitioning of the keys from a sample of the input,
+        // i.e. of the partitions overlapping the range condition if only these are read
+        Path[] readPaths = TimePartitioning.getInputPaths(conf, plan, 0);
+        int numReducers = Partitioning.getNumReducers(Partitioning.getInputSize(conf, readPaths));
+        ArrayList<GroupByKey> sample = new ArrayList<>();
+        if (numReducers > 1) {
+            int[] groupIndices = plan.getGroupIndices();
+            CsvTokenizer tokenizer = new CsvTokenizer(plan.getNumColumnsRead());
+            for (Text line : Partitioning.sampleLines(conf, readPaths, Globals.getPartitionSampleSize())) {
+                if (tokenizer.tokenize(line) < plan.getNumColumnsRead()) {
+                    continue;
+                }
+                GroupByKey sampleKey = new GroupByKey(groupIndices.length);
+                for (int i = 0; i < groupIndices.length; i++) {
+                    sampleKey.set(i, tokenizer.getBytes(), tokenizer.getStart(groupIndices[i]),
+                            tokenizer.getLength(groupIndices[i]));
+                }
+                sample.add(sampleKey);
+            }
+        }
+        Partitioning.configure(job, sample, numReducers);
 
         // defining path of output file
         Path outputPath = new Path(Globals.getHadoopOutputPath());
-        FileOutputFormat.setOutputPath(job, outputPath);
+
+        // with a limit clause, each reducer writes only its first groups. With several reducers,
+        // these are written in binary form and merged by a second job with a single reducer.
+        Path topKPath = new Path(Globals.getHadoopOutputPath() + "_topk");
+        boolean mergeTopK = plan.getLimit() > 0 && job.getNumReduceTasks() > 1;
+        if (mergeTopK) {
+            plan.setIntermediateOutput(true);
+            plan.store(job.getConfiguration());
+            job.setOutputValueClass(AggregateStates.class);
+            job.setOutputFormatClass(SequenceFileOutputFormat.class);
+            FileOutputFormat.setOutputPath(job, topKPath);
+            topKPath.getFileSystem(conf).delete(topKPath, true);
+        } else {
+            FileOutputFormat.setOutputPath(job, outputPath);
+        }
 
         // deleting existing outputPath file to allow reusability
         outputPath.getFileSystem(conf).delete(outputPath, true);
 
         long startTime = Time.now();
-        long endTime = (job.waitForCompletion(true) ? Time.now() : startTime);
+        boolean succeeded = job.waitForCompletion(true);
+        Partitioning.deletePartitionFile(conf);
+        if (succeeded && mergeTopK) {
+            succeeded = mergeTopK(conf, topKPath, outputPath);
+            topKPath.getFileSystem(conf).delete(topKPath, true);
+        }
+        long endTime = (succeeded ? Time.now() : startTime);
         long execTime = endTime - startTime;
 
         // writing time of execution as output
@@ -99,29 +155,12 @@ public class GroupBy {
         mapperScheme.append(")> ---> <(");
 
         // mapper output key
-        appendColumns(parsedSQL.getColumns(), mapperScheme);
+        appendColumns(parsedSQL.getOperationColumns(), mapperScheme);
         mapperScheme.append("), ");
 
-        String aggCol = null;
-
         // mapper output value
-        switch (parsedSQL.getAggregateFunction()) {
-            case COUNT:
-                mapperScheme.append("1");
-                break;
-            case SUM:
-            case MAX:
-            case MIN:
-                aggCol = parsedSQL.getColumns()
-                        .get(parsedSQL.getColumns().size() - 1)
-                        .split("\\(")[1]
-                        .split("\\)")[0];
-                mapperScheme.append(aggCol);
-                break;
-            default:
-                // not likely to be encountered
-                throw new IllegalArgumentException("The aggregate function is not valid");
-        }
+        String mapperValue = mapperValue(aggregates);
+        mapperScheme.append(mapperValue);
 
         // close mapper output
         mapperScheme.append(">");
@@ -133,35 +172,39 @@ public class GroupBy {
         StringBuilder reducerScheme = new StringBuilder("<(");
 
         // reducer input key
-        appendColumns(parsedSQL.getColumns(), reducerScheme);
+        appendColumns(parsedSQL.getOperationColumns(), reducerScheme);
         reducerScheme.append("), {");
 
         // reducer input value
-        switch (parsedSQL.getAggregateFunction()) {
-            case COUNT:
-                reducerScheme.append("1, 1, 1, ... 1");
-                break;
-            case SUM:
-            case MIN:
-            case MAX:
-                reducerScheme.append(aggCol).append("(1), ")
-                        .append(aggCol).append("(2), ... ")
-                        .append(aggCol).append("(n)");
-                break;
-            default:
-                // not likely to be encountered
-                throw new IllegalArgumentException("The aggregate function is not valid");
+        if (mapperValue.equals("1")) {
+            reducerScheme.append("1, 1, 1, ... 1");
+        } else {
+            reducerScheme.append(mapperValue).append("(1), ")
+                    .append(mapperValue).append("(2), ... ")
+                    .append(mapperValue).append("(n)");
         }
 
         // reducer input ends, output starts
         reducerScheme.append("}> ---> <(");
 
         // reducer output key
-        appendColumns(parsedSQL.getColumns(), reducerScheme);
+        appendColumns(parsedSQL.getOperationColumns(), reducerScheme);
         reducerScheme.append("), ");
 
         // reducer output value
-        reducerScheme.append(parsedSQL.getColumns().get(parsedSQL.getColumns().size() - 1)).append(">");
+        for (int i = 0; i < aggregates.size(); i++) {
+            reducerScheme.append(i == 0 ? "" : ", ").append(aggregates.get(i));
+        }
+        reducerScheme.append(">");
+
+        // order by and limit clause
+        if (plan.getLimit() > 0) {
+            reducerScheme.append(" ---> top ").append(plan.getLimit()).append(" by ")
+                    .append((plan.getOrderByAggregate() >= 0)
+                            ? aggregates.get(plan.getOrderByAggregate())
+                            : parsedSQL.getOperationColumns().get(plan.getOrderByColumn()))
+                    .append(plan.isOrderDescending() ? " DESC" : " ASC");
+        }
 
         // setting reducer plan
         groupByOutput.setGroupByReducerPlan(reducerScheme.toString());
@@ -202,6 +245,40 @@ public class GroupBy {
         return groupByOutput;
     }
 
+    /**
+     * Runs the second job of a Group By query with a limit clause, which merges the first
+     * groups written by each reducer of the first job into the first groups overall. Each
+     * mapper keeps only its own first groups, which are merged by a single reducer.
+     *
+     * @param conf       configuration of the query, holding its physical plan
+     * @param inputPath  path of the binary output of the first job
+     * @param outputPath path of the output of the query
+     * @return true if the job succeeded
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     */
+    static boolean mergeTopK(Configuration conf, Path inputPath, Path outputPath)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Job job = Job.getInstance(conf, "GroupBy TopK");
+        job.setJarByClass(GroupBy.class);
+
+        MultipleInputs.addInputPath(job, inputPath, SequenceFileInputFormat.class, TopKMapper.class);
+        job.setReducerClass(GroupByReducer.class);
+        job.setNumReduceTasks(1);
+
+        job.setMapOutputKeyClass(GroupByKey.class);
+        job.setMapOutputValueClass(AggregateStates.class);
+        job.setSortComparatorClass(GroupByKey.Comparator.class);
+        job.setGroupingComparatorClass(GroupByKey.Comparator.class);
+
+        job.setOutputKeyClass(GroupByKey.class);
+        job.setOutputValueClass(Text.class);
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        return job.waitForCompletion(true);
+    }
+
     /**
      * Method which appends all columns to a scheme
      *
@@ -209,21 +286,54 @@ public class GroupBy {
      * @param scheme  The scheme of the map/reduce job to which the columns should be appended
      */
     private static void appendColumns(ArrayList<String> columns, StringBuilder scheme) {
-        for (int i = 0; i < columns.size() - 2; i++) {
+        for (int i = 0; i < columns.size() - 1; i++) {
             scheme.append(columns.get(i)).append(", ");
         }
-        scheme.append(columns.get(columns.size() - 2));
+        scheme.append(columns.get(columns.size() - 1));
+    }
+
+    /**
+     * Method which returns the value emitted by the mapper for the given aggregates, to be
+     * used in the scheme of the map/reduce job. It is 1 for count(), and the name of the
+     * aggregated column otherwise. Values of several aggregates are enclosed in parentheses.
+     *
+     * @param aggregates the aggregates of the select list
+     * @return String depicting the output value of the mapper
+     */
+    static String mapperValue(ArrayList<AggregateColumn> aggregates) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < aggregates.size(); i++) {
+            value.append(i == 0 ? "" : ", ").append(
+                    aggregates.get(i).getFunction() == AggregateFunction.COUNT
+                            ? "1" : aggregates.get(i).getColumn());
+        }
+        return (aggregates.size() == 1) ? value.toString() : "(" + value + ")";
     }
 
     /**
      * Class for running the Map job for evaluating the Group By SQL Query
      */
-    private static class GroupByMapper extends Mapper<Object, Text, Text, Text> {
+    private static class GroupByMapper extends Mapper<Object, Text, GroupByKey, AggregateStates> {
+
+        private static int[] groupIndices;
+        private static int numColumnsRead;
+        private static AggregateFunction[] aggregateFunctions;
+        private static int[] aggregateIndices;
+        private static boolean inMapperCombining;
+        private static long inMapperBudget;
+
+        // approximate heap used by a hash map entry, excluding its key and value
+        private static final long PARTIAL_ENTRY_OVERHEAD = 48;
 
-        private static String[] columns;
-        private static AggregateFunction aggregateFunction;
-        private static Tables table;
-        private static int comparisonNumber;
+        private CsvTokenizer tokenizer;
+        private RangeFilter rangeFilter;
+        private NullFilter nullFilter;
+        private final GroupByKey keyOut = new GroupByKey();
+        private final AggregateStates valueOut = new AggregateStates();
+
+        // partial aggregates of the records seen since the last flush (in-mapper combining)
+        private final HashMap<GroupByKey, AggregateStates> partials = new HashMap<>();
+        private long partialsSize = 0;
 
         /**
          * Method to perform the initial setup of the Mapper Job.
@@ -234,11 +344,19 @@ public class GroupBy {
          */
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
-            Configuration conf = context.getConfiguration();
-            columns = conf.getStrings("columns");
-            aggregateFunction = conf.getEnum("aggregateFunction", AggregateFunction.NONE);
-            table = conf.getEnum("table", Tables.NONE);
-            comparisonNumber = conf.getInt("comparisonNumber", Integer.MIN_VALUE);
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            groupIndices = plan.getGroupIndices();
+            numColumnsRead = plan.getNumColumnsRead();
+            aggregateFunctions = plan.getAggregateFunctions();
+            aggregateIndices = plan.getAggregateIndices();
+            inMapperCombining = plan.isInMapperCombining();
+            inMapperBudget = plan.getInMapperBudget();
+
+            tokenizer = new CsvTokenizer(numColumnsRead);
+            rangeFilter = new RangeFilter(plan, 0);
+            nullFilter = new NullFilter(plan, 0);
+            keyOut.setNumFields(groupIndices.length);
+            valueOut.setFunctions(aggregateFunctions);
             super.setup(context);
         }
 
@@ -246,11 +364,16 @@ public class GroupBy {
          * Method which actually performs the map task for the Group By query.
          * <p>
          * Input tuple of the form (serialNumber, listOfColumns) is converted to output tuple
-         * of the form (listofGroupByColumns, numericalValue). Here, the listOfGroupByColumns
-         * is a concatenation of the values of all columns in the group by query for each tuple,
-         * as specified in the group by query, while the numerical value is the actual value from
-         * the input for aggregate functions of the type Max(), Min() or Sum(), while it is 1 for
-         * the aggregate function count().
+         * of the form (listofGroupByColumns, aggregateStates). Here, the listOfGroupByColumns
+         * is a {@link GroupByKey} holding the typed values of all columns in the group by query
+         * for each tuple, while aggregateStates holds the partial state of every aggregate
+         * function of the query (see {@link AggregateStates}) after adding the value of the
+         * tuple to it.
+         * </p>
+         * <p>
+         * With in-mapper combining enabled, the output values are not written immediately, but
+         * are aggregated per key in memory and written once the memory budget is exceeded, or
+         * when the map task ends (see {@link #cleanup(Context)}).
          * </p>
          *
          * @param key     Input key of the map job.
@@ -263,74 +386,95 @@ public class GroupBy {
         @Override
         public void map(Object key, Text value, Context context)
                 throws IOException, InterruptedException {
-            String[] record = value.toString().split(",");
-
-            // generating the output key by concatenating values of group by column separated by ','
-            StringBuilder builder = new StringBuilder(
-                    record[DBManager.getColumnIndex(table, columns[0])]);
-            for (int i = 1; i < columns.length - 1; i++) {
-                builder.append(",").append(
-                        record[DBManager.getColumnIndex(table, columns[i])]);
+            // skipping records which do not have all the columns of the query, are out of the range of the where clause,
+            // or hold no value in a non-nullable column
+            if (tokenizer.tokenize(value) < numColumnsRead || !rangeFilter.matches(tokenizer)
+                    || !nullFilter.matches(tokenizer)) {
+                return;
             }
-            // assuming group by is done on all columns
-            Text keyOut = new Text(builder.toString());
-
-            // fetching the columns on which aggregate function is to be applied
-            String aggregateColumn = columns[columns.length - 1]
-                    .split("\\(")[1]
-                    .split("\\)")[0];
-            int outputValue = Integer.parseInt(record[DBManager.getColumnIndex(table,
-                    aggregateColumn)]);
-
-            // generating the output value according to the specified aggregate function
-            switch (aggregateFunction) {
-                case MAX:
-                case MIN:
-                    // same behavior for both
-                    if (outputValue > comparisonNumber) {
-                        context.write(keyOut, new Text(Integer.toString(outputValue)));
-                    }
-                    break;
-                case SUM:
-                    context.write(keyOut, new Text(Integer.toString(outputValue)));
-                    break;
-                case COUNT:
-                    context.write(keyOut, new Text("1"));
-                    break;
-                default:
-                    // not likely to be encountered
-                    throw new IllegalArgumentException("The aggregate function is not valid");
+
+            // generating the output key from the values of the group by columns
+            byte[] record = tokenizer.getBytes();
+            for (int i = 0; i < groupIndices.length; i++) {
+                keyOut.set(i, record, tokenizer.getStart(groupIndices[i]), tokenizer.getLength(groupIndices[i]));
             }
-        }
-    }
 
-    /**
-     * Class for running a Combiner job on the results of the Map job for the Group By SQL query
-     */
-    private static class GroupByCombiner extends Reducer<Text, Text, Text, Text> {
+            // fetching the states to which the values of this record are added
+            AggregateStates states = valueOut;
+            if (!inMapperCombining) {
+                states.reset();
+            } else {
+                states = partials.get(keyOut);
+                if (states == null) {
+                    // first record of this key since the last flush: the key has to be copied
+                    // since keyOut is reused for every record
+                    GroupByKey partialKey = new GroupByKey();
+                    partialKey.set(keyOut);
+                    states = new AggregateStates(aggregateFunctions);
+                    partials.put(partialKey, states);
+                    partialsSize += partialKey.getHeapSize() + states.getHeapSize() + PARTIAL_ENTRY_OVERHEAD;
+                }
+            }
+
+            // adding the values of the aggregated columns to the states
+            for (int i = 0; i < aggregateIndices.length; i++) {
+                int column = aggregateIndices[i];
+                if (column < 0) {
+                    states.add(i, 1);
+                } else {
+                    states.add(i, tokenizer, column);
+                }
+            }
 
-        private static AggregateFunction aggregateFunction;
-        private static int comparisonNumber;
+            if (!inMapperCombining) {
+                context.write(keyOut, valueOut);
+            } else if (partialsSize > inMapperBudget) {
+                flush(context);
+            }
+        }
 
         /**
-         * Method to perform the initial setup of the Combiner Job.
-         * @param context instance of {@link org.apache.hadoop.mapreduce.Reducer.Context}
-         * @throws IOException if the Hadoop job encounters this exception
+         * Method which emits the remaining partial aggregates at the end of the map task
+         *
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Mapper.Context}
+         * @throws IOException          if the Hadoop job encounters this exception
          * @throws InterruptedException if the Hadoop job encounters this exception
          */
         @Override
-        protected void setup(Context context) throws IOException, InterruptedException {
-            Configuration conf = context.getConfiguration();
-            aggregateFunction = conf.getEnum("aggregateFunction", AggregateFunction.NONE);
-            comparisonNumber = conf.getInt("comparisonNumber", Integer.MIN_VALUE);
-            super.setup(context);
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+            super.cleanup(context);
         }
 
+        /**
+         * Method which writes all partial aggregates held in memory and clears them
+         *
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Mapper.Context}
+         * @throws IOException          if the Hadoop job encounters this exception
+         * @throws InterruptedException if the Hadoop job encounters this exception
+         */
+        private void flush(Context context) throws IOException, InterruptedException {
+            for (Map.Entry<GroupByKey, AggregateStates> partial : partials.entrySet()) {
+                context.write(partial.getKey(), partial.getValue());
+            }
+            partials.clear();
+            partialsSize = 0;
+        }
+    }
+
+    /**
+     * Class for running a Combiner job on the results of the Map job for the Group By SQL query
+     */
+    static class GroupByCombiner extends Reducer<GroupByKey, AggregateStates, GroupByKey, AggregateStates> {
+
+        private final AggregateStates valueOut = new AggregateStates();
+
         /**
          * Method which actually performs the combine task for the Group By query.
          * <p>
-         *     Output key is same as the input key. Output value is generated by applying
-         *     the required aggregate function on the list input values.
+         *     Output key is same as the input key. Output value is generated by merging
+         *     the partial states of the aggregate functions in the list of input values.
+         *     The having clause cannot be evaluated on partial states, so it is left to the reducer.
          * </p>
          * @param key Input key which is same as the output key of the map job
          * @param values list of input values where each one is same as the output value of the map job
@@ -339,71 +483,59 @@ public class GroupBy {
          * @throws InterruptedException if the Hadoop job encounters this exception
          */
         @Override
-        public void reduce(Text key, Iterable<Text> values, Context context)
+        public void reduce(GroupByKey key, Iterable<AggregateStates> values, Context context)
                 throws IOException, InterruptedException {
-            Iterator<Text> it = values.iterator();
-            switch (aggregateFunction) {
-                case MIN:
-                    int min = Integer.MAX_VALUE;
-                    while (it.hasNext()) {
-                        min = Math.min(Integer.parseInt(it.next().toString()), min);
-                    }
-                    if (min > comparisonNumber) {
-                        context.write(key, new Text(Integer.toString(min)));
-                    }
-                    break;
-                case MAX:
-                    int max = Integer.MIN_VALUE;
-                    while (it.hasNext()) {
-                        max = Math.max(Integer.parseInt(it.next().toString()), max);
-                    }
-                    if (max > comparisonNumber) {
-                        context.write(key, new Text(Integer.toString(max)));
-                    }
-                    break;
-                case SUM:
-                case COUNT:
-                    // both have same behavior (except count will be sum of 1s)
-                    long sum = 0;
-                    while (it.hasNext()) {
-                        sum += Integer.parseInt(it.next().toString());
-                    }
-                    context.write(key, new Text(Long.toString(sum)));
-                    break;
-                default:
-                    // not likely to be encountered
-                    throw new IllegalArgumentException("The aggregate function is not valid");
+            Iterator<AggregateStates> it = values.iterator();
+            valueOut.set(it.next());
+            while (it.hasNext()) {
+                valueOut.merge(it.next());
             }
+            context.write(key, valueOut);
         }
     }
 
     /**
      * Class for running a Reducer job on the results of the Combiner for the Group By SQL query
      */
-    private static class GroupByReducer extends Reducer<Text, Text, Text, Text> {
+    static class GroupByReducer extends Reducer<GroupByKey, AggregateStates, GroupByKey, Writable> {
+
+        private static int havingAggregate;
+        private static long comparisonNumber;
+        private static boolean intermediateOutput;
 
-        private static AggregateFunction aggregateFunction;
-        private static int comparisonNumber;
+        private final AggregateStates states = new AggregateStates();
+        private final Text valueOut = new Text();
+
+        // first groups of this reducer, for a query with a limit clause
+        private TopKBuffer topK;
 
         /**
-         * Method to perform the initial setup of the Combiner Job.
+         * Method to perform the initial setup of the Reducer Job.
          * @param context instance of {@link org.apache.hadoop.mapreduce.Reducer.Context}
          * @throws IOException if the Hadoop job encounters this exception
          * @throws InterruptedException if the Hadoop job encounters this exception
          */
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
-            Configuration conf = context.getConfiguration();
-            aggregateFunction = conf.getEnum("aggregateFunction", AggregateFunction.NONE);
-            comparisonNumber = conf.getInt("comparisonNumber", Integer.MIN_VALUE);
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            havingAggregate = plan.getHavingAggregate();
+            comparisonNumber = plan.getComparisonNumber();
+            intermediateOutput = plan.isIntermediateOutput();
+            topK = (plan.getLimit() > 0) ? new TopKBuffer(plan) : null;
             super.setup(context);
         }
 
         /**
          * Method which actually performs the reduce task for the Group By query.
          * <p>
-         *     Output key is same as the input key. Output value is generated by applying
-         *     the required aggregate function on the list input values.
+         *     Output key is same as the input key. Output value is generated by merging
+         *     the partial states of the aggregate functions in the list of input values,
+         *     and holds the final value of each aggregate function, separated by commas.
+         *     Groups which do not satisfy the having clause are not written.
+         * </p>
+         * <p>
+         *     With a limit clause, groups are only kept in a bounded buffer, and the first
+         *     groups are written in order when the reduce task ends (see {@link #cleanup(Context)}).
          * </p>
          * @param key Input key which is same as the output key of the combine job
          * @param values list of input values where each one is same as the output value of the combine job
@@ -412,45 +544,96 @@ public class GroupBy {
          * @throws InterruptedException if the Hadoop job encounters this exception
          */
         @Override
-        public void reduce(Text key, Iterable<Text> values, Context context)
+        public void reduce(GroupByKey key, Iterable<AggregateStates> values, Context context)
                 throws IOException, InterruptedException {
-            Iterator<Text> it = values.iterator();
-            switch (aggregateFunction) {
-                case MIN:
-                    // find the minimum value in the list of values
-                    int min = Integer.MAX_VALUE;
-                    while (it.hasNext()) {
-                        min = Math.min(Integer.parseInt(it.next().toString()), min);
-                    }
-                    if (min > comparisonNumber) {
-                        context.write(key, new Text("," + min));
-                    }
-                    break;
-                case MAX:
-                    // find the maximum value in the list of values
-                    int max = Integer.MIN_VALUE;
-                    while (it.hasNext()) {
-                        max = Math.max(Integer.parseInt(it.next().toString()), max);
-                    }
-                    if (max > comparisonNumber) {
-                        context.write(key, new Text("," + max));
-                    }
-                    break;
-                case SUM:
-                case COUNT:
-                    // both have same behavior (except count will be a sum of 1s)
-                    long sum = 0;
-                    while (it.hasNext()) {
-                        sum += Integer.parseInt(it.next().toString());
-                    }
-                    if (sum > comparisonNumber) {
-                        context.write(key, new Text("," + sum));
-                    }
-                    break;
-                default:
-                    // not likely to be encountered
-                    throw new IllegalArgumentException("The aggregate function is not valid");
+            Iterator<AggregateStates> it = values.iterator();
+            states.set(it.next());
+            while (it.hasNext()) {
+                states.merge(it.next());
+            }
+
+            // evaluating the having clause
+            if (havingAggregate >= 0 && !(states.getResult(havingAggregate) > comparisonNumber)) {
+                return;
+            }
+
+            if (topK != null) {
+                topK.offer(key, states);
+            } else {
+                write(key, states, context);
+            }
+        }
+
+        /**
+         * Method which writes the first groups of a query with a limit clause at the end of
+         * the reduce task
+         *
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Reducer.Context}
+         * @throws IOException if the Hadoop job encounters this exception
+         * @throws InterruptedException if the Hadoop job encounters this exception
+         */
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (topK != null) {
+                for (TopKBuffer.Entry entry : topK.drain()) {
+                    write(entry.getKey(), entry.getStates(), context);
+                }
+            }
+            super.cleanup(context);
+        }
+
+        /**
+         * Method which writes a group: its states if the output is intermediate (to be merged
+         * by another job), or the final value of each aggregate function otherwise
+         *
+         * @param key key of the group
+         * @param states merged states of the aggregate functions of the group
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Reducer.Context}
+         * @throws IOException if the Hadoop job encounters this exception
+         * @throws InterruptedException if the Hadoop job encounters this exception
+         */
+        private void write(GroupByKey key, AggregateStates states, Context context)
+                throws IOException, InterruptedException {
+            if (intermediateOutput) {
+                context.write(key, states);
+                return;
+            }
+
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < states.size(); i++) {
+                builder.append(",").append(states.getResultString(i));
+            }
+            valueOut.set(builder.toString());
+            context.write(key, valueOut);
+        }
+    }
+
+    /**
+     * Class for running the Map job which merges the first groups of the reducers of a Group By
+     * query with a limit clause. Each mapper writes only its own first groups, when the map
+     * task ends.
+     */
+    private static class TopKMapper extends Mapper<GroupByKey, AggregateStates, GroupByKey, AggregateStates> {
+
+        private TopKBuffer topK;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            topK = new TopKBuffer(PhysicalPlan.load(context.getConfiguration()));
+            super.setup(context);
+        }
+
+        @Override
+        public void map(GroupByKey key, AggregateStates value, Context context) {
+            topK.offer(key, value);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            for (TopKBuffer.Entry entry : topK.drain()) {
+                context.write(entry.getKey(), entry.getStates());
             }
+            super.cleanup(context);
         }
     }
 }
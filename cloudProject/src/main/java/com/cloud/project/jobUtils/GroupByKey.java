@@ -0,0 +1,351 @@
+package com.cloud.project.jobUtils;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Composite key used by the Group By job. It holds one typed field per group by column:
+ * values which are plain integers are stored as variable length longs, while all other
+ * values are stored as {@link Text}.
+ * <p>
+ * Serialized form: number of fields (VInt), followed by a type byte for each field and
+ * either a VLong or a {@link Text} (VInt length followed by the UTF-8 bytes).
+ * </p>
+ */
+public class GroupByKey implements WritableComparable<GroupByKey> {
+
+    static final byte LONG_FIELD = 0;
+    static final byte TEXT_FIELD = 1;
+
+    private int numFields;
+    private byte[] types;
+    private long[] longs;
+    private Text[] texts;
+
+    static {
+        // registering the raw comparator as the default comparator of this class
+        WritableComparator.define(GroupByKey.class, new Comparator());
+    }
+
+    /**
+     * Default constructor, required by Hadoop for deserialization
+     */
+    public GroupByKey() {
+        this(0);
+    }
+
+    /**
+     * Creates a key with the given number of fields
+     *
+     * @param numFields number of group by columns
+     */
+    public GroupByKey(int numFields) {
+        types = new byte[0];
+        longs = new long[0];
+        texts = new Text[0];
+        setNumFields(numFields);
+    }
+
+    /**
+     * Resizes the key to hold the given number of fields, reusing existing buffers
+     *
+     * @param numFields number of group by columns
+     */
+    public void setNumFields(int numFields) {
+        if (numFields > types.length) {
+            types = Arrays.copyOf(types, numFields);
+            longs = Arrays.copyOf(longs, numFields);
+            int old = texts.length;
+            texts = Arrays.copyOf(texts, numFields);
+            for (int i = old; i < numFields; i++) {
+                texts[i] = new Text();
+            }
+        }
+        this.numFields = numFields;
+    }
+
+    /**
+     * Returns the number of fields in this key
+     *
+     * @return number of fields
+     */
+    public int getNumFields() {
+        return numFields;
+    }
+
+    /**
+     * Sets a field from its textual value, given as a slice of a UTF-8 byte array. The value
+     * is stored as a long if it is an integer in canonical form (no sign other than '-', no
+     * leading zeros), so that converting it back to text always yields the original value.
+     *
+     * @param index  index of the field
+     * @param bytes  bytes holding the textual value of the field
+     * @param start  offset of the value in bytes
+     * @param length length of the value, in bytes
+     */
+    public void set(int index, byte[] bytes, int start, int length) {
+        int end = start + length;
+        boolean numeric = length > 0 && length < 19;
+        int i = start;
+        if (numeric && bytes[i] == '-') {
+            i++;
+            numeric = length > 1;
+        }
+        if (numeric && bytes[i] == '0') {
+            numeric = length == 1;
+        }
+        long number = 0;
+        for (; numeric && i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                numeric = false;
+            } else {
+                number = number * 10 + digit;
+            }
+        }
+        if (numeric) {
+            setLong(index, bytes[start] == '-' ? -number : number);
+        } else {
+            types[index] = TEXT_FIELD;
+            texts[index].set(bytes, start, length);
+        }
+    }
+
+    /**
+     * Sets a field to a long value
+     *
+     * @param index index of the field
+     * @param value value of the field
+     */
+    public void setLong(int index, long value) {
+        types[index] = LONG_FIELD;
+        longs[index] = value;
+    }
+
+    /**
+     * Copies a field of another key into a field of this key
+     *
+     * @param index      index of the field of this key
+     * @param other      the key holding the field to be copied
+     * @param otherIndex index of the field in the other key
+     */
+    public void set(int index, GroupByKey other, int otherIndex) {
+        types[index] = other.types[otherIndex];
+        if (types[index] == LONG_FIELD) {
+            longs[index] = other.longs[otherIndex];
+        } else {
+            texts[index].set(other.texts[otherIndex]);
+        }
+    }
+
+    /**
+     * Returns the value of a field which was set to a long value
+     *
+     * @param index index of the field
+     * @return value of the field
+     */
+    public long getLong(int index) {
+        return longs[index];
+    }
+
+    /**
+     * Copies the contents of another key into this key
+     *
+     * @param other the key to be copied
+     */
+    public void set(GroupByKey other) {
+        setNumFields(other.numFields);
+        for (int i = 0; i < numFields; i++) {
+            set(i, other, i);
+        }
+    }
+
+    /**
+     * Returns a rough estimate of the heap space (in bytes) occupied by this key. Used for
+     * bounding the memory held by in-mapper aggregation.
+     *
+     * @return estimated size of this key on the heap, in bytes
+     */
+    public long getHeapSize() {
+        long size = 64 + 13L * types.length;
+        for (Text text : texts) {
+            size += 40 + text.getBytes().length;
+        }
+        return size;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, numFields);
+        for (int i = 0; i < numFields; i++) {
+            out.writeByte(types[i]);
+            if (types[i] == LONG_FIELD) {
+                WritableUtils.writeVLong(out, longs[i]);
+            } else {
+                texts[i].write(out);
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        setNumFields(WritableUtils.readVInt(in));
+        for (int i = 0; i < numFields; i++) {
+            types[i] = in.readByte();
+            if (types[i] == LONG_FIELD) {
+                longs[i] = WritableUtils.readVLong(in);
+            } else {
+                texts[i].readFields(in);
+            }
+        }
+    }
+
+    @Override
+    public int compareTo(GroupByKey other) {
+        int n = Math.min(numFields, other.numFields);
+        for (int i = 0; i < n; i++) {
+            int cmp = compareField(i, other);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return numFields - other.numFields;
+    }
+
+    /**
+     * Compares a single field of this key with the same field of another key, in the same way
+     * as {@link #compareTo(GroupByKey)} compares the fields: integers come before text values
+     *
+     * @param index index of the field
+     * @param other the key to be compared with
+     * @return a negative number, zero or a positive number if the field of this key is less
+     * than, equal to or greater than the field of the other key
+     */
+    public int compareField(int index, GroupByKey other) {
+        if (types[index] != other.types[index]) {
+            return types[index] - other.types[index];
+        }
+        return (types[index] == LONG_FIELD)
+                ? Long.compare(longs[index], other.longs[index])
+                : texts[index].compareTo(other.texts[index]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof GroupByKey && compareTo((GroupByKey) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < numFields; i++) {
+            hash = 31 * hash + ((types[i] == LONG_FIELD) ? Long.hashCode(longs[i]) : texts[i].hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the values of all fields separated by a comma, which is the format of the
+     * keys written to the output of the Group By job
+     *
+     * @return comma separated values of the fields
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < numFields; i++) {
+            if (i > 0) {
+                builder.append(",");
+            }
+            if (types[i] == LONG_FIELD) {
+                builder.append(longs[i]);
+            } else {
+                builder.append(texts[i].toString());
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Comparator which compares serialized {@link GroupByKey}s directly, without deserializing
+     * them. The ordering is the same as {@link GroupByKey#compareTo(GroupByKey)}: fields are
+     * compared in order, first by type, then numerically for integer fields and bytewise for
+     * text fields. It is used both for sorting and for grouping the keys in the Group By job.
+     * <p>
+     * Subclasses may compare only the leading fields of the keys, or reverse the order of a
+     * field (see {@link #setOrder(int, int)}).
+     * </p>
+     */
+    public static class Comparator extends WritableComparator {
+
+        // number of leading fields which are compared, and the field compared in descending order (-1 for none)
+        private int numCompared = Integer.MAX_VALUE;
+        private int descendingField = -1;
+
+        public Comparator() {
+            super(GroupByKey.class);
+        }
+
+        /**
+         * Sets the fields compared by this comparator
+         *
+         * @param numCompared     number of leading fields which are compared; keys which are equal
+         *                        in these fields are equal
+         * @param descendingField index of the field which is compared in descending order, -1 for none
+         */
+        protected void setOrder(int numCompared, int descendingField) {
+            this.numCompared = numCompared;
+            this.descendingField = descendingField;
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int n1 = readVInt(b1, s1);
+                int n2 = readVInt(b2, s2);
+                s1 += WritableUtils.decodeVIntSize(b1[s1]);
+                s2 += WritableUtils.decodeVIntSize(b2[s2]);
+
+                int n = Math.min(n1, n2);
+                for (int i = 0; i < Math.min(n, numCompared); i++) {
+                    int sign = (i == descendingField) ? -1 : 1;
+                    byte type1 = b1[s1++];
+                    byte type2 = b2[s2++];
+                    if (type1 != type2) {
+                        return sign * (type1 - type2);
+                    }
+
+                    if (type1 == LONG_FIELD) {
+                        int cmp = Long.compare(readVLong(b1, s1), readVLong(b2, s2));
+                        if (cmp != 0) {
+                            return sign * cmp;
+                        }
+                        s1 += WritableUtils.decodeVIntSize(b1[s1]);
+                        s2 += WritableUtils.decodeVIntSize(b2[s2]);
+                    } else {
+                        int length1 = readVInt(b1, s1);
+                        int length2 = readVInt(b2, s2);
+                        s1 += WritableUtils.decodeVIntSize(b1[s1]);
+                        s2 += WritableUtils.decodeVIntSize(b2[s2]);
+                        int cmp = compareBytes(b1, s1, length1, b2, s2, length2);
+                        if (cmp != 0) {
+                            return sign * cmp;
+                        }
+                        s1 += length1;
+                        s2 += length2;
+                    }
+                }
+                return (n >= numCompared) ? 0 : n1 - n2;
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+}
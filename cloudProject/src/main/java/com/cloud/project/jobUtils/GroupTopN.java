@@ -0,0 +1,368 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.models.OutputModel;
+import com.cloud.project.sqlUtils.ParseSQL;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Time;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Hadoop job for a Group By query with a per group limit, which selects the first rows of each
+ * group in the order of a sort column, e.g.
+ * SELECT userid, movieid, rating FROM Rating GROUP BY userid ORDER BY rating DESC LIMIT 5 PER GROUP
+ * <p>
+ * The job uses a secondary sort: the map output key is a {@link GroupByKey} holding the group
+ * by columns followed by the sort column. Keys are partitioned and grouped by the group by
+ * columns only, but sorted by all of their fields, so each reduce call receives the rows of a
+ * group already sorted, and writes the first of them without buffering the group.
+ * </p>
+ */
+public class GroupTopN {
+
+    private static final byte[] COMMA = {','};
+
+    /**
+     * Executes the Hadoop Map-Reduce job for a Group By query with a per group limit
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @return an instance of {@link OutputModel} populated with relevant fields from Hadoop execution
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     * @throws SQLException           if the SQL query could not be parsed successfully
+     */
+    public static OutputModel execute(ParseSQL parsedSQL) throws IOException,
+            InterruptedException, ClassNotFoundException, SQLException {
+
+        OutputModel groupByOutput = new OutputModel();
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", Globals.getNamenodeUrl());
+
+        PhysicalPlan plan = PhysicalPlan.groupBy(parsedSQL);
+        plan.store(conf);
+
+        Job job = Job.getInstance(conf, "GroupTopN");
+        job.setJarByClass(GroupTopN.class);
+
+        // the combiner keeps the first rows of each group within a map task
+        job.setCombinerClass(TopNCombiner.class);
+        job.setReducerClass(TopNReducer.class);
+
+        job.setMapOutputKeyClass(GroupByKey.class);
+        job.setMapOutputValueClass(Text.class);
+
+        // secondary sort: sorting by the group by columns and the sort column, grouping by the group by columns
+        job.setSortComparatorClass(SortComparator.class);
+        job.setGroupingComparatorClass(GroupComparator.class);
+        job.setCombinerKeyGroupingComparatorClass(GroupComparator.class);
+
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        Path inputPath = new Path(Globals.getCsvInputPath() + DBManager.getFileName(parsedSQL.getTable1()));
+        ColumnarStorage.addInputPath(job, plan, 0, inputPath, TopNMapper.class);
+
+        // choosing the number of reducers and the partitioning of the groups from a sample of the input,
+        // i.e. of the partitions overlapping the range condition if only these are read
+        Path[] readPaths = TimePartitioning.getInputPaths(conf, plan, 0);
+        int numReducers = Partitioning.getNumReducers(Partitioning.getInputSize(conf, readPaths));
+        ArrayList<GroupByKey> sample = new ArrayList<>();
+        if (numReducers > 1) {
+            int[] groupIndices = plan.getGroupIndices();
+            CsvTokenizer tokenizer = new CsvTokenizer(plan.getNumColumnsRead());
+            for (Text line : Partitioning.sampleLines(conf, readPaths, Globals.getPartitionSampleSize())) {
+                if (tokenizer.tokenize(line) < plan.getNumColumnsRead()) {
+                    continue;
+                }
+                GroupByKey sampleKey = new GroupByKey(groupIndices.length);
+                for (int i = 0; i < groupIndices.length; i++) {
+                    sampleKey.set(i, tokenizer.getBytes(), tokenizer.getStart(groupIndices[i]),
+                            tokenizer.getLength(groupIndices[i]));
+                }
+                sample.add(sampleKey);
+            }
+        }
+        Partitioning.configure(job, sample, numReducers, GroupPartitioner.class);
+
+        Path outputPath = new Path(Globals.getHadoopOutputPath());
+        FileOutputFormat.setOutputPath(job, outputPath);
+        outputPath.getFileSystem(conf).delete(outputPath, true);
+
+        long startTime = Time.now();
+        boolean succeeded = job.waitForCompletion(true);
+        Partitioning.deletePartitionFile(conf);
+        long endTime = (succeeded ? Time.now() : startTime);
+        long execTime = endTime - startTime;
+
+        groupByOutput.setHadoopExecutionTime(execTime + " milliseconds");
+
+        // mapper scheme: <serial_number, (all columns)> ---> <(group by columns, sort column), (selected columns)>
+        ArrayList<String> selectedColumns = new ArrayList<>();
+        for (int index : plan.getSelectIndices()) {
+            selectedColumns.add(DBManager.getColumnFromIndex(parsedSQL.getTable1(), index));
+        }
+        String selected = "(" + String.join(", ", selectedColumns) + ")";
+        String groupColumns = String.join(", ", parsedSQL.getOperationColumns());
+
+        StringBuilder mapperScheme = new StringBuilder("<serial_number, (");
+        for (int i = 0; i < DBManager.getTableSize(parsedSQL.getTable1()); i++) {
+            mapperScheme.append(i == 0 ? "" : ", ").append(DBManager.getColumnFromIndex(parsedSQL.getTable1(), i));
+        }
+        mapperScheme.append(")> ---> <(").append(groupColumns).append(", ").append(parsedSQL.getSortColumn())
+                .append("), ").append(selected).append(">");
+        groupByOutput.setGroupByMapperPlan(mapperScheme.toString());
+
+        // reducer scheme: the rows of a group arrive sorted, and only the first of them are written
+        String reducerScheme = "<(" + groupColumns + "), {" + selected + "(1), " + selected + "(2), ... "
+                + selected + "(n)} sorted by " + parsedSQL.getSortColumn()
+                + (parsedSQL.isOrderDescending() ? " DESC" : " ASC") + "> ---> <" + selected + "(1), ... "
+                + selected + "(" + parsedSQL.getLimit() + ")>";
+        groupByOutput.setGroupByReducerPlan(reducerScheme);
+
+        FileSystem fileSystem = outputPath.getFileSystem(conf);
+        FileStatus[] fileStatuses = fileSystem.listStatus(outputPath);
+
+        StringBuilder downloadUrl = new StringBuilder();
+        for (FileStatus fileStatus : fileStatuses) {
+            if (fileStatus.isFile()) {
+                String filename = fileStatus.getPath().getName();
+                if (filename.matches("part-r-[0-9]*")) {
+                    downloadUrl.append(Globals.getWebhdfsHost())
+                            .append("/webhdfs/v1")
+                            .append(Globals.getHadoopOutputPath()).append("/")
+                            .append(filename)
+                            .append("?op=OPEN\n");
+                }
+            }
+        }
+        downloadUrl.append("NOTE: These URLs will work only if WebHDFS is enabled");
+        groupByOutput.setHadoopOutputUrl(downloadUrl.toString());
+
+        return groupByOutput;
+    }
+
+    /**
+     * Class for running the Map job of a Group By query with a per group limit
+     */
+    private static class TopNMapper extends Mapper<Object, Text, GroupByKey, Text> {
+
+        private static int[] groupIndices;
+        private static int sortIndex;
+        private static int[] selectIndices;
+        private static int numColumnsRead;
+
+        private CsvTokenizer tokenizer;
+        private RangeFilter rangeFilter;
+        private NullFilter nullFilter;
+        private final GroupByKey keyOut = new GroupByKey();
+        private final Text valueOut = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            groupIndices = plan.getGroupIndices();
+            sortIndex = plan.getSortIndex();
+            selectIndices = plan.getSelectIndices();
+            numColumnsRead = plan.getNumColumnsRead();
+
+            tokenizer = new CsvTokenizer(numColumnsRead);
+            rangeFilter = new RangeFilter(plan, 0);
+            nullFilter = new NullFilter(plan, 0);
+            keyOut.setNumFields(groupIndices.length + 1);
+            super.setup(context);
+        }
+
+        /**
+         * Method which performs the map task for a Group By query with a per group limit.
+         * <p>
+         * Input tuple of the form (serialNumber, listOfColumns) is converted to output tuple of
+         * the form ((listOfGroupByColumns, sortColumn), listOfSelectedColumns), where the
+         * selected columns are written as in the input, separated by commas.
+         * </p>
+         *
+         * @param key     Input key of the map job
+         * @param value   Input value for the map job, the values of all columns separated by commas
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Mapper.Context}
+         * @throws IOException          if the Hadoop job encounters this exception
+         * @throws InterruptedException if the Hadoop job encounters this exception
+         */
+        @Override
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            // skipping records which do not have all the columns of the query, are out of the range of the where clause,
+            // or hold no value in a non-nullable column
+            if (tokenizer.tokenize(value) < numColumnsRead || !rangeFilter.matches(tokenizer)
+                    || !nullFilter.matches(tokenizer)) {
+                return;
+            }
+
+            byte[] record = tokenizer.getBytes();
+            for (int i = 0; i < groupIndices.length; i++) {
+                keyOut.set(i, record, tokenizer.getStart(groupIndices[i]), tokenizer.getLength(groupIndices[i]));
+            }
+            keyOut.set(groupIndices.length, record, tokenizer.getStart(sortIndex), tokenizer.getLength(sortIndex));
+
+            valueOut.clear();
+            for (int i = 0; i < selectIndices.length; i++) {
+                if (i > 0) {
+                    valueOut.append(COMMA, 0, 1);
+                }
+                valueOut.append(record, tokenizer.getStart(selectIndices[i]), tokenizer.getLength(selectIndices[i]));
+            }
+            context.write(keyOut, valueOut);
+        }
+    }
+
+    /**
+     * Class for running a Combiner job on the results of the Map job, which passes on only the
+     * first rows of each group of a map task
+     */
+    private static class TopNCombiner extends Reducer<GroupByKey, Text, GroupByKey, Text> {
+
+        private static int limit;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            limit = PhysicalPlan.load(context.getConfiguration()).getLimit();
+            super.setup(context);
+        }
+
+        /**
+         * Method which writes the first rows of a group. The key is updated by Hadoop along
+         * with each value, so each row is written with its own sort column.
+         *
+         * @param key     the key of the first row of the group
+         * @param values  the selected columns of the rows of the group, in sorted order
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Reducer.Context}
+         * @throws IOException          if the Hadoop job encounters this exception
+         * @throws InterruptedException if the Hadoop job encounters this exception
+         */
+        @Override
+        public void reduce(GroupByKey key, Iterable<Text> values, Context context)
+                throws IOException, InterruptedException {
+            int count = 0;
+            for (Text value : values) {
+                if (count++ == limit) {
+                    break;
+                }
+                context.write(key, value);
+            }
+        }
+    }
+
+    /**
+     * Class for running the Reducer job of a Group By query with a per group limit
+     */
+    private static class TopNReducer extends Reducer<GroupByKey, Text, Text, NullWritable> {
+
+        private static int limit;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            limit = PhysicalPlan.load(context.getConfiguration()).getLimit();
+            super.setup(context);
+        }
+
+        /**
+         * Method which writes the first rows of a group, which arrive in sorted order. The
+         * remaining rows of the group are skipped.
+         *
+         * @param key     the key of the first row of the group
+         * @param values  the selected columns of the rows of the group, in sorted order
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Reducer.Context}
+         * @throws IOException          if the Hadoop job encounters this exception
+         * @throws InterruptedException if the Hadoop job encounters this exception
+         */
+        @Override
+        public void reduce(GroupByKey key, Iterable<Text> values, Context context)
+                throws IOException, InterruptedException {
+            int count = 0;
+            for (Text value : values) {
+                if (count++ == limit) {
+                    break;
+                }
+                context.write(value, NullWritable.get());
+            }
+        }
+    }
+
+    /**
+     * Comparator which sorts the map output keys by the group by columns, then by the sort
+     * column in the order of the order by clause
+     */
+    private static class SortComparator extends GroupByKey.Comparator implements Configurable {
+
+        private Configuration conf;
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            try {
+                PhysicalPlan plan = PhysicalPlan.load(conf);
+                int numGroupFields = plan.getGroupIndices().length;
+                setOrder(numGroupFields + 1, plan.isOrderDescending() ? numGroupFields : -1);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+    }
+
+    /**
+     * Comparator which groups the map output keys by the group by columns only
+     */
+    private static class GroupComparator extends GroupByKey.Comparator implements Configurable {
+
+        private Configuration conf;
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            try {
+                setOrder(PhysicalPlan.load(conf).getGroupIndices().length, -1);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+    }
+
+    /**
+     * Partitioner which sends all rows of a group to the same reducer, by partitioning the
+     * map output keys by the group by columns only
+     */
+    private static class GroupPartitioner extends SkewAwarePartitioner<GroupByKey, Text> {
+
+        private final GroupByKey groupKey = new GroupByKey();
+
+        @Override
+        protected GroupByKey getPartitionKey(GroupByKey key) {
+            groupKey.set(key);
+            groupKey.setNumFields(key.getNumFields() - 1);
+            return groupKey;
+        }
+    }
+}
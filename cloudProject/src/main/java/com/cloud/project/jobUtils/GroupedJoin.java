@@ -0,0 +1,537 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.models.OutputModel;
+import com.cloud.project.sqlUtils.AggregateColumn;
+import com.cloud.project.sqlUtils.AggregateFunction;
+import com.cloud.project.sqlUtils.ParseSQL;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Time;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hadoop jobs for an Inner Join with a group by clause, which aggregates the joined records, e.g.
+ * SELECT occupation, avg(rating) FROM Users INNER JOIN Rating ON Users.userid = Rating.userid GROUP BY occupation
+ * <p>
+ * The join is planned like a {@link MultiJoin} of two sides: the aggregated table (the largest
+ * table if all aggregates are counts) and the tables broadcast to its mappers form the first
+ * side, and the largest table joined to it and the tables after that one form the second side.
+ * The mappers of the first side aggregate their joined records in memory by the join key of the
+ * sides and the group by columns of the side, before the join (eager aggregation), so that each
+ * join key is shuffled with a few partial states instead of all records of the aggregated table.
+ * The reducers join the partial states with the group by columns of the second side, and write
+ * them in binary form to a second job, which merges them like a {@link GroupBy} job. The joined
+ * records are never written.
+ * </p>
+ */
+public class GroupedJoin {
+
+    /**
+     * Executes the Hadoop Map-Reduce jobs for an Inner Join query with a group by clause
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @return an instance of {@link OutputModel} populated with relevant fields from Hadoop execution
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     * @throws SQLException           if the SQL query could not be parsed successfully, or if a table other
+     *                                than the two largest is too large to be broadcast
+     */
+    public static OutputModel execute(ParseSQL parsedSQL) throws IOException,
+            InterruptedException, ClassNotFoundException, SQLException {
+
+        OutputModel groupedJoinOutput = new OutputModel();
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", Globals.getNamenodeUrl());
+        PhysicalPlan plan = PhysicalPlan.groupedJoin(parsedSQL);
+        int numTables = plan.getNumTables();
+
+        Path[] inputPaths = new Path[numTables];
+        long[] inputSizes = new long[numTables];
+        for (int i = 0; i < numTables; i++) {
+            inputPaths[i] = new Path(Globals.getCsvInputPath() + DBManager.getFileName(plan.getTable(i)));
+            inputSizes[i] = Partitioning.getInputSize(conf, inputPaths[i]);
+        }
+        plan.setAnchorTables(getAnchorTables(plan, inputSizes));
+        /* the reducers buffer the group by columns of the second side, and stream the partial states */
+        plan.setBufferedTable(1);
+        plan.store(conf);
+        JoinTree tree = new JoinTree(plan);
+        int first = tree.getAnchor(0);
+        int second = tree.getAnchor(1);
+
+        /* first job: joins the partial states of the first side with the second side */
+        Job job = Job.getInstance(conf, "GroupedJoin");
+        job.setJarByClass(GroupedJoin.class);
+        MultiJoin.checkBroadcastTables(plan, tree, inputSizes);
+        for (int side = 0; side < tree.getNumSides(); side++) {
+            for (int table : tree.getBroadcastTables(side)) {
+                job.addCacheFile(inputPaths[table].getFileSystem(conf).makeQualified(inputPaths[table]).toUri());
+            }
+        }
+        ColumnarStorage.addInputPath(job, plan, first, inputPaths[first], PartialAggregateMapper.class);
+        ColumnarStorage.addInputPath(job, plan, second, inputPaths[second], GroupColumnsMapper.class);
+        job.setReducerClass(JoinReducer.class);
+        job.setMapOutputKeyClass(GroupByKey.class);
+        job.setMapOutputValueClass(AggregateStates.class);
+        job.setOutputKeyClass(GroupByKey.class);
+        job.setOutputValueClass(AggregateStates.class);
+
+        /* sorting by join key, tag (buffered side first) and group by columns, grouping by join key */
+        job.setSortComparatorClass(GroupByKey.Comparator.class);
+        job.setGroupingComparatorClass(JoinKeyComparator.class);
+
+        /* choose number of reducers and partitioning of join keys from a sample of the second anchor */
+        int numReducers = Partitioning.getNumReducers(inputSizes[first] + inputSizes[second]);
+        ArrayList<GroupByKey> sample = new ArrayList<>();
+        if (numReducers > 1) {
+            int keyIndex = tree.getShuffleKeyIndex(1);
+            CsvTokenizer tokenizer = new CsvTokenizer(keyIndex + 1);
+            for (Text line : Partitioning.sampleLines(conf, inputPaths[second], Globals.getPartitionSampleSize())) {
+                if (tokenizer.tokenize(line) > keyIndex) {
+                    GroupByKey sampleKey = new GroupByKey(1);
+                    sampleKey.set(0, tokenizer.getBytes(), tokenizer.getStart(keyIndex), tokenizer.getLength(keyIndex));
+                    sample.add(sampleKey);
+                }
+            }
+        }
+        Partitioning.configure(job, sample, numReducers, JoinKeyPartitioner.class);
+
+        Path partialPath = new Path(Globals.getHadoopOutputPath() + "_partial");
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        FileOutputFormat.setOutputPath(job, partialPath);
+        partialPath.getFileSystem(conf).delete(partialPath, true);
+
+        Path outputPath = new Path(Globals.getHadoopOutputPath());
+        outputPath.getFileSystem(conf).delete(outputPath, true);
+        Path topKPath = new Path(Globals.getHadoopOutputPath() + "_topk");
+
+        long startTime = Time.now();
+        boolean succeeded = job.waitForCompletion(true);
+        if (succeeded) {
+            /* second job: merges the joined partial states of each group */
+            Job aggregateJob = Job.getInstance(conf, "GroupedJoin Aggregate");
+            aggregateJob.setJarByClass(GroupedJoin.class);
+            MultipleInputs.addInputPath(aggregateJob, partialPath, SequenceFileInputFormat.class, Mapper.class);
+            aggregateJob.setCombinerClass(GroupBy.GroupByCombiner.class);
+            aggregateJob.setReducerClass(GroupBy.GroupByReducer.class);
+            aggregateJob.setMapOutputKeyClass(GroupByKey.class);
+            aggregateJob.setMapOutputValueClass(AggregateStates.class);
+            aggregateJob.setSortComparatorClass(GroupByKey.Comparator.class);
+            aggregateJob.setGroupingComparatorClass(GroupByKey.Comparator.class);
+            aggregateJob.setOutputKeyClass(GroupByKey.class);
+            aggregateJob.setOutputValueClass(Text.class);
+            Partitioning.configure(aggregateJob, new ArrayList<GroupByKey>(),
+                    Partitioning.getNumReducers(Partitioning.getInputSize(conf, partialPath)));
+
+            /* with a limit clause and several reducers, the first groups of each reducer are merged by a third job */
+            boolean mergeTopK = plan.getLimit() > 0 && aggregateJob.getNumReduceTasks() > 1;
+            if (mergeTopK) {
+                plan.setIntermediateOutput(true);
+                plan.store(aggregateJob.getConfiguration());
+                aggregateJob.setOutputValueClass(AggregateStates.class);
+                aggregateJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+                FileOutputFormat.setOutputPath(aggregateJob, topKPath);
+                topKPath.getFileSystem(conf).delete(topKPath, true);
+            } else {
+                FileOutputFormat.setOutputPath(aggregateJob, outputPath);
+            }
+
+            succeeded = aggregateJob.waitForCompletion(true);
+            if (succeeded && mergeTopK) {
+                succeeded = GroupBy.mergeTopK(conf, topKPath, outputPath);
+            }
+        }
+        partialPath.getFileSystem(conf).delete(partialPath, true);
+        topKPath.getFileSystem(conf).delete(topKPath, true);
+        Partitioning.deletePartitionFile(conf);
+        long endTime = (succeeded ? Time.now() : startTime);
+        long execTime = endTime - startTime;
+        groupedJoinOutput.setHadoopExecutionTime(execTime + " milliseconds");
+
+        /* Create the schemes: the group by columns of each side, and the partial states of the aggregates */
+        ArrayList<AggregateColumn> aggregates = parsedSQL.getAggregates();
+        String groupColumns = String.join(", ", parsedSQL.getGroupColumns());
+        String mapperValue = GroupBy.mapperValue(aggregates);
+        String partial = "partial" + ((aggregates.size() == 1) ? "(" + mapperValue + ")" : mapperValue);
+        String[] sideColumns = {"", ""};
+        int[] numSelected = new int[numTables];
+        for (int table : plan.getSelectTables()) {
+            String column = DBManager.getColumnFromIndex(plan.getTable(table), plan.getProjectionIndices(table)[numSelected[table]++]);
+            int side = tree.getSide(table);
+            sideColumns[side] += ", " + column;
+        }
+        String jk = DBManager.getColumnFromIndex(plan.getTable(second), tree.getShuffleKeyIndex(1));
+
+        groupedJoinOutput.setFirstMapperPlan(MultiJoin.inputScheme(plan, tree, 0) + " ---> <(" + jk + sideColumns[0]
+                + "), " + partial + "> (aggregated in memory)");
+        groupedJoinOutput.setSecondMapperPlan(MultiJoin.inputScheme(plan, tree, 1) + " ---> <(" + jk + sideColumns[1]
+                + "), ()>");
+        groupedJoinOutput.setInnerJoinReducerPlan("<" + jk + ", List(" + sideColumns[1].replaceFirst("^, ", "")
+                + ") ++ List(" + partial + ")> ---> <(" + groupColumns + "), " + partial + ">");
+        groupedJoinOutput.setGroupByMapperPlan("<(" + groupColumns + "), " + partial + "> ---> <(" + groupColumns + "), "
+                + partial + "> (identity)");
+
+        StringBuilder reducerScheme = new StringBuilder("<(").append(groupColumns).append("), {")
+                .append(partial).append("(1), ").append(partial).append("(2), ... ")
+                .append(partial).append("(n)}> ---> <(").append(groupColumns).append("), ");
+        for (int i = 0; i < aggregates.size(); i++) {
+            reducerScheme.append(i == 0 ? "" : ", ").append(aggregates.get(i));
+        }
+        reducerScheme.append(">");
+        if (plan.getLimit() > 0) {
+            reducerScheme.append(" ---> top ").append(plan.getLimit()).append(" by ")
+                    .append((plan.getOrderByAggregate() >= 0)
+                            ? aggregates.get(plan.getOrderByAggregate())
+                            : parsedSQL.getGroupColumns().get(plan.getOrderByColumn()))
+                    .append(plan.isOrderDescending() ? " DESC" : " ASC");
+        }
+        groupedJoinOutput.setGroupByReducerPlan(reducerScheme.toString());
+
+        FileSystem fileSystem = outputPath.getFileSystem(conf);
+        StringBuilder downloadUrl = new StringBuilder();
+        if (fileSystem.exists(outputPath)) {
+            for (FileStatus fileStatus : fileSystem.listStatus(outputPath)) {
+                if (fileStatus.isFile()) {
+                    String filename = fileStatus.getPath().getName();
+                    if (filename.matches("part-r-[0-9]*")) {
+                        downloadUrl.append(Globals.getWebhdfsHost())
+                                .append("/webhdfs/v1")
+                                .append(Globals.getHadoopOutputPath()).append("/")
+                                .append(filename)
+                                .append("?op=OPEN\n");
+                    }
+                }
+            }
+        }
+        downloadUrl.append("NOTE: These URLs will work only if WebHDFS is enabled");
+        groupedJoinOutput.setHadoopOutputUrl(downloadUrl.toString());
+
+        return groupedJoinOutput;
+    }
+
+    /**
+     * Chooses the tables read by the mappers: the aggregated table (the largest table if all
+     * aggregates are counts), whose records are aggregated before the join, and the largest
+     * table joined to it, unless another table is too large to be broadcast, which is then read
+     * by the mappers instead, wherever it is in the join tree
+     *
+     * @param plan       physical plan of the join
+     * @param inputSizes size of each table, in bytes
+     * @return indices of the anchor tables, the aggregated table first
+     */
+    public static int[] getAnchorTables(PhysicalPlan plan, long[] inputSizes) {
+        int aggregated = plan.getAggregatedTable();
+        for (int i = 0; aggregated < 0 && i < inputSizes.length; i++) {
+            if (i == 0 || inputSizes[i] > inputSizes[aggregated]) {
+                aggregated = i;
+            }
+        }
+        int partner = -1;
+        int largest = -1;
+        for (int i = 0; i < inputSizes.length; i++) {
+            if (i == aggregated) {
+                continue;
+            }
+            boolean joined = plan.getJoinPartner(i) == aggregated || plan.getJoinPartner(aggregated) == i;
+            if (joined && (partner < 0 || inputSizes[i] > inputSizes[partner])) {
+                partner = i;
+            }
+            if (largest < 0 || inputSizes[i] > inputSizes[largest]) {
+                largest = i;
+            }
+        }
+        if (inputSizes[largest] > Globals.getBroadcastJoinThreshold()) {
+            partner = largest;
+        }
+        return new int[]{aggregated, partner};
+    }
+
+    /**
+     * Mapper of a side of the join, whose output key is a {@link GroupByKey} holding the join key
+     * of the sides, the tag of the side (see {@link InnerJoin#BUFFERED_TAG}) and the group by
+     * columns of the side, in the order of the group by clause. Subclasses choose the side which
+     * they map and write the keys.
+     */
+
+    private static abstract class GroupedSideMapper extends MultiJoin.AnchorMapper<GroupByKey, AggregateStates> {
+        private int shuffleTable;
+        private int shufflePosition;
+        private int[] groupTables;
+        private int[] groupPositions;
+        protected final GroupByKey keyOut = new GroupByKey();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            super.setup(context);
+            shuffleTable = tree.getShuffleTable(getSide());
+            shufflePosition = tree.getPosition(shuffleTable, tree.getShuffleKeyIndex(getSide()));
+
+            /* the group by columns of this side, and their positions among the columns kept from their tables */
+            int[] selectTables = plan.getSelectTables();
+            int[] selectSides = tree.getSelectSides();
+            int[] selectPositions = tree.getSelectPositions();
+            ArrayList<Integer> columns = new ArrayList<>();
+            for (int i = 0; i < selectTables.length; i++) {
+                if (selectSides[i] == getSide()) {
+                    columns.add(i);
+                }
+            }
+            groupTables = columns.stream().mapToInt(i -> selectTables[i]).toArray();
+            groupPositions = columns.stream().mapToInt(i -> selectPositions[i]).toArray();
+
+            keyOut.setNumFields(2 + groupTables.length);
+            keyOut.setLong(1, (getSide() == plan.getBufferedTable()) ? InnerJoin.BUFFERED_TAG : InnerJoin.STREAMED_TAG);
+        }
+
+        /**
+         * Sets the join key and the group by columns of the current joined record (see
+         * {@link #joined}) in the output key
+         */
+        protected void setKey() {
+            Text joinKey = joined[shuffleTable][shufflePosition];
+            keyOut.set(0, joinKey.getBytes(), 0, joinKey.getLength());
+            for (int i = 0; i < groupTables.length; i++) {
+                Text field = joined[groupTables[i]][groupPositions[i]];
+                keyOut.set(2 + i, field.getBytes(), 0, field.getLength());
+            }
+        }
+    }
+
+    /**
+     * Mapper of the side of the aggregated table. The joined records of the side are aggregated
+     * in memory by their key, and the partial states are written once the memory budget of the
+     * plan is exceeded, or when the map task ends.
+     */
+
+    private static class PartialAggregateMapper extends GroupedSideMapper {
+
+        // approximate heap used by a hash map entry, excluding its key and value
+        private static final long PARTIAL_ENTRY_OVERHEAD = 48;
+
+        private AggregateFunction[] aggregateFunctions;
+        private int aggregatedTable;
+        private int[] aggregatePositions;
+        private long inMapperBudget;
+        private final CsvTokenizer valueTokenizer = new CsvTokenizer(1);
+
+        // partial aggregates of the joined records seen since the last flush
+        private final HashMap<GroupByKey, AggregateStates> partials = new HashMap<>();
+        private long partialsSize = 0;
+
+        @Override
+        protected int getSide() {
+            return 0;
+        }
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            super.setup(context);
+            aggregateFunctions = plan.getAggregateFunctions();
+            aggregatedTable = plan.getAggregatedTable();
+            inMapperBudget = plan.getInMapperBudget();
+            int[] aggregateIndices = plan.getAggregateIndices();
+            aggregatePositions = new int[aggregateIndices.length];
+            for (int i = 0; i < aggregateIndices.length; i++) {
+                aggregatePositions[i] = (aggregateIndices[i] < 0) ? -1 : tree.getPosition(aggregatedTable, aggregateIndices[i]);
+            }
+        }
+
+        @Override
+        protected void write(Context context) throws IOException, InterruptedException {
+            setKey();
+            AggregateStates states = partials.get(keyOut);
+            if (states == null) {
+                // first record of this key since the last flush: the key has to be copied
+                // since keyOut is reused for every record
+                GroupByKey partialKey = new GroupByKey();
+                partialKey.set(keyOut);
+                states = new AggregateStates(aggregateFunctions);
+                partials.put(partialKey, states);
+                partialsSize += partialKey.getHeapSize() + states.getHeapSize() + PARTIAL_ENTRY_OVERHEAD;
+            }
+
+            for (int i = 0; i < aggregatePositions.length; i++) {
+                if (aggregatePositions[i] < 0) {
+                    states.add(i, 1);
+                } else {
+                    valueTokenizer.tokenize(joined[aggregatedTable][aggregatePositions[i]]);
+                    states.add(i, valueTokenizer, 0);
+                }
+            }
+
+            if (partialsSize > inMapperBudget) {
+                flush(context);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+            super.cleanup(context);
+        }
+
+        /**
+         * Writes all partial aggregates held in memory and clears them
+         *
+         * @param context context of the task
+         * @throws IOException          if a record could not be written
+         * @throws InterruptedException if the task is interrupted
+         */
+        private void flush(Context context) throws IOException, InterruptedException {
+            for (Map.Entry<GroupByKey, AggregateStates> partial : partials.entrySet()) {
+                context.write(partial.getKey(), partial.getValue());
+            }
+            partials.clear();
+            partialsSize = 0;
+        }
+    }
+
+    /**
+     * Mapper of the second side, which writes the group by columns of each joined record of the
+     * side, with empty states.
+     */
+
+    private static class GroupColumnsMapper extends GroupedSideMapper {
+        private final AggregateStates valueOut = new AggregateStates();
+
+        @Override
+        protected int getSide() {
+            return 1;
+        }
+
+        @Override
+        protected void write(Context context) throws IOException, InterruptedException {
+            setKey();
+            context.write(keyOut, valueOut);
+        }
+    }
+
+    /**
+     * Reducer which joins the partial states of a join key with the group by columns of the
+     * second side. The keys of the second side arrive first and are buffered (one for each
+     * joined record, so that each record of the second side counts once) in a
+     * {@link JoinBuffer}, which spills them to disk beyond its memory budget, then the partial
+     * states arrive sorted by the group by columns of the first side, so that the states of
+     * each group are merged before they are joined. Each joined partial state is written with
+     * the group by columns of both sides, in the order of the group by clause.
+     */
+
+    private static class JoinReducer extends Reducer<GroupByKey, AggregateStates, GroupByKey, AggregateStates> {
+        private int[] selectSides;
+        private int[] keyPositions;
+        private JoinBuffer buffered;
+        private final GroupByKey bufferedKey = new GroupByKey();
+        private final GroupByKey partialKey = new GroupByKey();
+        private final AggregateStates partialStates = new AggregateStates();
+        private final GroupByKey keyOut = new GroupByKey();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            selectSides = new JoinTree(plan).getSelectSides();
+
+            /* the group by columns of each side follow the join key and the tag in the keys of the side */
+            keyPositions = new int[selectSides.length];
+            int[] numColumns = {2, 2};
+            for (int i = 0; i < selectSides.length; i++) {
+                keyPositions[i] = numColumns[selectSides[i]]++;
+            }
+            keyOut.setNumFields(selectSides.length);
+            buffered = new JoinBuffer(context.getConfiguration(), plan.getJoinBufferBudget());
+        }
+
+        @Override
+        public void reduce(GroupByKey key, Iterable<AggregateStates> values, Context context)
+                throws IOException, InterruptedException {
+            buffered.clear();
+            boolean merging = false;
+            /* the key is updated by Hadoop along with each value */
+            for (AggregateStates value : values) {
+                if (key.getLong(1) == InnerJoin.BUFFERED_TAG) {
+                    buffered.add(key);
+                } else if (buffered.isEmpty()) {
+                    /* no record of the second side has this join key */
+                    return;
+                } else if (merging && key.compareTo(partialKey) == 0) {
+                    partialStates.merge(value);
+                } else {
+                    if (merging) {
+                        write(context);
+                    }
+                    partialKey.set(key);
+                    partialStates.set(value);
+                    merging = true;
+                }
+            }
+            if (merging) {
+                write(context);
+            }
+        }
+
+        /**
+         * Writes the merged partial states of a group of the first side once for each buffered
+         * key of the second side
+         *
+         * @param context context of the task
+         * @throws IOException          if a record could not be written
+         * @throws InterruptedException if the task is interrupted
+         */
+        private void write(Context context) throws IOException, InterruptedException {
+            buffered.rewind();
+            while (buffered.next(bufferedKey)) {
+                for (int j = 0; j < selectSides.length; j++) {
+                    keyOut.set(j, (selectSides[j] == 0) ? partialKey : bufferedKey, keyPositions[j]);
+                }
+                context.write(keyOut, partialStates);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException {
+            buffered.close();
+        }
+    }
+
+    /**
+     * Comparator which groups the map output keys of the first job by the join key only
+     */
+    private static class JoinKeyComparator extends GroupByKey.Comparator {
+        public JoinKeyComparator() {
+            setOrder(1, -1);
+        }
+    }
+
+    /**
+     * Partitioner which sends all keys of a join key to the same reducer, by partitioning the
+     * map output keys of the first job by the join key only
+     */
+    private static class JoinKeyPartitioner extends SkewAwarePartitioner<GroupByKey, AggregateStates> {
+
+        private final GroupByKey joinKey = new GroupByKey(1);
+
+        @Override
+        protected GroupByKey getPartitionKey(GroupByKey key) {
+            joinKey.set(0, key, 0);
+            return joinKey;
+        }
+    }
+}
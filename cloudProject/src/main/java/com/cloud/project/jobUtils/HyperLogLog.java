@@ -0,0 +1,170 @@
+package com.cloud.project.jobUtils;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch operations, used for estimating the number of distinct values of a column
+ * in a group (APPROX_COUNT_DISTINCT). A sketch is an array of {@link #NUM_REGISTERS} byte
+ * registers, so its size does not depend on the number of distinct values, and two sketches
+ * are merged by taking the maximum of each register. The relative standard error of the
+ * estimate is about 1.04 / sqrt({@link #NUM_REGISTERS}), i.e. 3.25%.
+ */
+public class HyperLogLog {
+
+    // number of bits of a hash which choose its register
+    private static final int PRECISION = 10;
+
+    public static final int NUM_REGISTERS = 1 << PRECISION;
+
+    private HyperLogLog() {
+        // private constructor to restrict object creation
+    }
+
+    /**
+     * Returns the 64-bit hash of a value (MurmurHash64A)
+     *
+     * @param bytes  bytes holding the value
+     * @param start  offset of the value in bytes
+     * @param length length of the value, in bytes
+     * @return hash of the value
+     */
+    public static long hash(byte[] bytes, int start, int length) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        long h = 0x9747b28cL ^ (length * m);
+
+        int end = start + (length & ~7);
+        for (int i = start; i < end; i += 8) {
+            long k = (bytes[i] & 0xffL) | (bytes[i + 1] & 0xffL) << 8 | (bytes[i + 2] & 0xffL) << 16
+                    | (bytes[i + 3] & 0xffL) << 24 | (bytes[i + 4] & 0xffL) << 32 | (bytes[i + 5] & 0xffL) << 40
+                    | (bytes[i + 6] & 0xffL) << 48 | (bytes[i + 7] & 0xffL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+
+        int remaining = length & 7;
+        if (remaining > 0) {
+            for (int i = remaining - 1; i >= 0; i--) {
+                h ^= (bytes[end + i] & 0xffL) << (8 * i);
+            }
+            h *= m;
+        }
+
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+
+    /**
+     * Adds a hashed value to a sketch
+     *
+     * @param registers the registers of the sketch
+     * @param hash      64-bit hash of the value (see {@link #hash(byte[], int, int)})
+     */
+    public static void add(byte[] registers, long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        // position of the first 1 bit in the remaining bits of the hash
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Merges a sketch into another one
+     *
+     * @param registers the registers of the sketch into which the other one is merged
+     * @param other     the registers of the other sketch
+     */
+    public static void merge(byte[] registers, byte[] other) {
+        for (int i = 0; i < NUM_REGISTERS; i++) {
+            if (other[i] > registers[i]) {
+                registers[i] = other[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values added to a sketch. Small cardinalities
+     * are estimated by linear counting of the empty registers.
+     *
+     * @param registers the registers of the sketch
+     * @return estimated number of distinct values
+     */
+    public static double estimate(byte[] registers) {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += Math.scalb(1.0, -register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double alpha = 0.7213 / (1 + 1.079 / NUM_REGISTERS);
+        double estimate = alpha * NUM_REGISTERS * NUM_REGISTERS / sum;
+        if (estimate <= 2.5 * NUM_REGISTERS && zeros > 0) {
+            estimate = NUM_REGISTERS * Math.log((double) NUM_REGISTERS / zeros);
+        }
+        return estimate;
+    }
+
+    /**
+     * Serializes a sketch. Sketches of few distinct values are written sparsely, as the
+     * number of non-empty registers (VInt) followed by the index (VInt) and value (byte) of
+     * each of them. Other sketches are written as -1 (VInt) followed by all registers.
+     *
+     * @param out       the output to which the sketch is written
+     * @param registers the registers of the sketch
+     * @throws IOException if the output could not be written
+     */
+    public static void write(DataOutput out, byte[] registers) throws IOException {
+        int nonEmpty = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                nonEmpty++;
+            }
+        }
+
+        if (3 * nonEmpty < NUM_REGISTERS) {
+            WritableUtils.writeVInt(out, nonEmpty);
+            for (int i = 0; i < NUM_REGISTERS; i++) {
+                if (registers[i] != 0) {
+                    WritableUtils.writeVInt(out, i);
+                    out.writeByte(registers[i]);
+                }
+            }
+        } else {
+            WritableUtils.writeVInt(out, -1);
+            out.write(registers);
+        }
+    }
+
+    /**
+     * Deserializes a sketch written by {@link #write(DataOutput, byte[])}
+     *
+     * @param in        the input from which the sketch is read
+     * @param registers the registers into which the sketch is read
+     * @throws IOException if the input could not be read
+     */
+    public static void read(DataInput in, byte[] registers) throws IOException {
+        int nonEmpty = WritableUtils.readVInt(in);
+        if (nonEmpty < 0) {
+            in.readFully(registers);
+        } else {
+            Arrays.fill(registers, (byte) 0);
+            for (int i = 0; i < nonEmpty; i++) {
+                registers[WritableUtils.readVInt(in)] = in.readByte();
+            }
+        }
+    }
+}
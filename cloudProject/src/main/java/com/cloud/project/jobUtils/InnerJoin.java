@@ -6,73 +6,39 @@ import com.cloud.project.models.OutputModel;
 import com.cloud.project.sqlUtils.ParseSQL;
 import com.cloud.project.sqlUtils.Tables;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.LineReader;
 import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.bloom.BloomFilter;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class InnerJoin {
 
-    /**
-     * Global Mapper. Maps input tuple to <join_key, tuple - {join_key}>
-     *
-     * @param table The table on which mapping has to be done. Received from either
-     *              firstMapper or secondMapper
-     * @param tableKeyIndex Indicates the column index acting as the join key on this table
-     * @param value Tuple received from from firstMapper.map() or secondMapper.map()
-     * @param context context information
-     * @throws IOException  if hadoop IO fails
-     * @throws InterruptedException if the hadoop job was interrupted
-     */
+    static final byte[] COMMA = {','};
 
-    private static void globalMapper(Tables table, int tableKeyIndex, Text value,
-                                     Mapper<Object, Text, Text, Text>.Context context)
-            throws IOException, InterruptedException {
-
-        String record = value.toString();
-        String[] parts = record.split(",");
-
-        /* remove if does not match WHERE clause */
-        Tables eqTab = context.getConfiguration().getEnum("eqTab", Tables.NONE);
-        if (eqTab == table) {
-            String eqCol = context.getConfiguration().get("eqCol");
-            int ind = DBManager.getColumnIndex(table, eqCol);
-            String val = context.getConfiguration().get("eqVal");
-            //System.out.println("<---------> Val: " + val + "parts[ind]: " + parts[ind]);
-            if (!(val.trim()).equalsIgnoreCase(parts[ind].trim())) return;
-        }
-        String jk = parts[tableKeyIndex];
-        StringBuilder val = new StringBuilder(table.name() + "#");
-
-        int i = 0;
-        int flag = 0;
-        if (i != tableKeyIndex) {
-            val.append(parts[i]);
-        } else {
-            flag = 1;
-        }
-        for (i = 1; i < parts.length; i++) {
-            if (i == tableKeyIndex) continue;
-            if (flag == 1) {
-                val.append(parts[i]);
-                flag = 0;
-            } else {
-                val.append(",").append(parts[i]);
-            }
-        }
-        context.write(new Text(jk), new Text(val.toString()));
-    }
+    /* tags of the records of the buffered (smaller) and streamed tables of a reduce-side join */
+    static final byte BUFFERED_TAG = 0;
+    static final byte STREAMED_TAG = 1;
 
     /**
      * Executes the Hadoop Map-Reduce job for a Inner Join query.
@@ -88,6 +54,16 @@ public class InnerJoin {
     public static OutputModel execute(ParseSQL parsedSQL) throws IOException,
             InterruptedException, ClassNotFoundException, SQLException {
 
+        /* joined records which are aggregated are never materialized */
+        if (!parsedSQL.getGroupColumns().isEmpty()) {
+            return GroupedJoin.execute(parsedSQL);
+        }
+
+        /* a join of more than two tables is planned as a whole */
+        if (parsedSQL.getJoinTables().size() > 2) {
+            return MultiJoin.execute(parsedSQL);
+        }
+
         OutputModel innerJoinOutput = new OutputModel();
 
         /* get key index for both tables */
@@ -100,111 +76,162 @@ public class InnerJoin {
         /* #########################################################################*/
         Configuration conf = new Configuration();
         conf.set("fs.defaultFS", Globals.getNamenodeUrl());
-        conf.setEnum("table1", parsedSQL.getTable1()); //args[3]);
-        conf.setEnum("table2", parsedSQL.getTable2());
         Tables table1 = parsedSQL.getTable1();
         Tables table2 = parsedSQL.getTable2();
-        conf.setEnum("eqTab", parsedSQL.getWhereTable());
-        conf.set("eqCol", parsedSQL.getWhereColumn());
-        conf.set("eqVal", parsedSQL.getWhereValue());
-        conf.set("jk", jk);
+        PhysicalPlan plan = PhysicalPlan.innerJoin(parsedSQL, jk);
+
+        Path inputPath1 = new Path(Globals.getCsvInputPath() + DBManager.getFileName(table1));
+        Path inputPath2 = new Path(Globals.getCsvInputPath() + DBManager.getFileName(table2));
+        long inputSize1 = Partitioning.getInputSize(conf, inputPath1);
+        long inputSize2 = Partitioning.getInputSize(conf, inputPath2);
+
+        int numBuckets = Bucketing.getNumBuckets(conf, table1, jk);
+        if (numBuckets > 0 && numBuckets == Bucketing.getNumBuckets(conf, table2, jk)) {
+            /* tables bucketed alike on the join key are merged bucket by bucket by the mappers, without reducers */
+            plan.setNumBuckets(numBuckets);
+            inputPath1 = Bucketing.getBucketedPath(table1, jk);
+            inputPath2 = Bucketing.getBucketedPath(table2, jk);
+        } else if (Math.min(inputSize1, inputSize2) <= Globals.getBroadcastJoinThreshold()) {
+            /* a small enough table is broadcast to the mappers of the other table, which join without reducers */
+            plan.setBroadcastTable(inputSize1 <= inputSize2 ? 0 : 1);
+        }
+        /* otherwise the reducers buffer the records of the smaller table, and stream the other one */
+        plan.setBufferedTable(inputSize1 <= inputSize2 ? 0 : 1);
+
+        /* the join keys of the table filtered by the WHERE clause make a Bloom filter, which prunes the other table */
+        Path bloomPath = new Path(Globals.getHadoopOutputPath() + "_bloom");
+        if (plan.getBroadcastTable() < 0 && plan.getNumBuckets() == 0 && Globals.isBloomFilterJoinEnabled()
+                && (plan.getWhereIndex(0) >= 0) != (plan.getWhereIndex(1) >= 0)) {
+            int filteredTable = (plan.getWhereIndex(0) >= 0) ? 0 : 1;
+            JoinBloomFilter.prepare(conf, plan, filteredTable, (filteredTable == 0) ? inputPath1 : inputPath2);
+        }
+        plan.store(conf);
+
         Job job = Job.getInstance(conf, "InnerJoin");
         job.setJarByClass(InnerJoin.class);
-        job.setReducerClass(ReduceJoinReducer.class);
         job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
-
-        MultipleInputs.addInputPath(job, new Path(Globals.getCsvInputPath() +
-                        DBManager.getFileName(parsedSQL.getTable1())),
-                TextInputFormat.class, FirstMapper.class);
-        MultipleInputs.addInputPath(job, new Path(Globals.getCsvInputPath() +
-                        DBManager.getFileName(parsedSQL.getTable2())),
-                TextInputFormat.class, SecondMapper.class);
+        job.setOutputValueClass(plan.isSelectAll() ? Text.class : NullWritable.class);
+
+        if (plan.getNumBuckets() > 0) {
+            job.setInputFormatClass(Bucketing.BucketInputFormat.class);
+            FileInputFormat.addInputPath(job, (plan.getBufferedTable() == 0) ? inputPath2 : inputPath1);
+            job.setMapperClass(SortMergeJoinMapper.class);
+            job.setNumReduceTasks(0);
+        } else if (plan.getBroadcastTable() >= 0) {
+            Path broadcastPath = (plan.getBroadcastTable() == 0) ? inputPath1 : inputPath2;
+            Path probePath = (plan.getBroadcastTable() == 0) ? inputPath2 : inputPath1;
+            job.addCacheFile(broadcastPath.getFileSystem(conf).makeQualified(broadcastPath).toUri());
+            ColumnarStorage.addInputPath(job, plan, 1 - plan.getBroadcastTable(), probePath, BroadcastJoinMapper.class);
+            job.setNumReduceTasks(0);
+        } else {
+            job.setReducerClass(ReduceJoinReducer.class);
+            job.setMapOutputKeyClass(JoinKey.class);
+            job.setMapOutputValueClass(JoinRecord.class);
+
+            /* sorting by join key and tag (buffered table first), grouping by join key */
+            job.setSortComparatorClass(JoinKey.Comparator.class);
+            job.setGroupingComparatorClass(JoinKey.GroupingComparator.class);
+
+            ColumnarStorage.addInputPath(job, plan, 0, inputPath1, FirstMapper.class);
+            ColumnarStorage.addInputPath(job, plan, 1, inputPath2, SecondMapper.class);
+
+            /* choose number of reducers and partitioning of join keys from a sample of both tables, spreading
+             * the records of hot join keys over several reducers, unless the output is totally ordered: the
+             * total order partitioner ignores the partition of a join key, so all copies of the replicated
+             * records of a hot join key would reach the same reducer, and each joined row would be repeated */
+            int numReducers = Partitioning.getNumReducers(inputSize1 + inputSize2);
+            ArrayList<JoinKey> sample = new ArrayList<>();
+            if (numReducers > 1) {
+                sample = SkewJoin.prepare(conf, plan, inputPath1, inputPath2,
+                        Globals.isTotalOrderOutputEnabled() ? 1 : numReducers);
+                plan.store(job.getConfiguration());
+            }
+            Partitioning.configure(job, sample, numReducers, JoinKeyPartitioner.class);
+
+            if (plan.getBloomFilterTable() >= 0) {
+                Path bloomFile = new Path(bloomPath, "part-r-00000");
+                job.addCacheFile(bloomFile.getFileSystem(conf).makeQualified(bloomFile).toUri());
+            }
+        }
         Path outputPath = new Path(Globals.getHadoopOutputPath());
 
         FileOutputFormat.setOutputPath(job, outputPath);
         outputPath.getFileSystem(conf).delete(outputPath, true);
         long startTime = Time.now();
-        long endTime = (job.waitForCompletion(true) ? Time.now() : startTime);
-        long execTime = endTime - startTime;
-
-
-        StringBuilder reducerVal = new StringBuilder();
-        /* Create mapper scheme */
-        StringBuilder firstMapperScheme = new StringBuilder("<serial_number, (");
-
-        // mapper input value
-        firstMapperScheme.append(DBManager.getColumnFromIndex(table1, 0));
-        for (int i = 1; i < DBManager.getTableSize(table1) - 1; i++) {
-            firstMapperScheme.append(", ").append(DBManager.getColumnFromIndex(table1, i));
+        boolean succeeded = true;
+        if (plan.getBloomFilterTable() >= 0) {
+            succeeded = JoinBloomFilter.build(conf, (plan.getBloomFilterTable() == 0) ? inputPath1 : inputPath2,
+                    bloomPath);
         }
-
-        // end input, start output
-        firstMapperScheme.append(")> ---> <").append(jk).append(", (");
-
-        // mapper output key
-        int i = 0;
-        int flag = 0;
-        if (DBManager.getColumnIndex(table1, jk) == i) {
-            flag = 1;
-        } else {
-            firstMapperScheme.append(DBManager.getColumnFromIndex(table1, 0));
-            reducerVal.append(DBManager.getColumnFromIndex(table1, 0));
-        }
-        for (i = 1; i < DBManager.getTableSize(table1) - 1; i++) {
-            if (flag == 1) {
-                firstMapperScheme.append(DBManager.getColumnFromIndex(table1, i));
-                reducerVal.append(DBManager.getColumnFromIndex(table1, i));
-                flag = 0;
-            } else {
-                firstMapperScheme.append(", ").append(DBManager.getColumnFromIndex(table1, i));
-                reducerVal.append(", ").append(DBManager.getColumnFromIndex(table1, i));
-            }
-        }
-        firstMapperScheme.append(")>");
+        succeeded = succeeded && job.waitForCompletion(true);
+        bloomPath.getFileSystem(conf).delete(bloomPath, true);
+        Partitioning.deletePartitionFile(conf);
+        long endTime = (succeeded ? Time.now() : startTime);
+        long execTime = endTime - startTime;
 
 
-        StringBuilder secondMapperScheme = new StringBuilder("<serial_number, (");
+        /* Create mapper schemes: each mapper emits the selected columns of its table */
+        StringBuilder firstMapperScheme = mapperScheme(table1, jk, plan.getProjectionIndices(0));
+        StringBuilder secondMapperScheme = mapperScheme(table2, jk, plan.getProjectionIndices(1));
 
-        secondMapperScheme.append(DBManager.getColumnFromIndex(table2, 0));
-        for (i = 1; i < DBManager.getTableSize(table2) - 1; i++) {
-            secondMapperScheme.append(",").append(DBManager.getColumnFromIndex(table2, i));
+        if (plan.getBloomFilterTable() >= 0) {
+            /* the records of the other table are dropped unless their join key is in the Bloom filter */
+            Tables filtered = plan.getTable(plan.getBloomFilterTable());
+            ((plan.getBloomFilterTable() == 0) ? secondMapperScheme : firstMapperScheme)
+                    .append(" if ").append(jk).append(" in BloomFilter(").append(filtered.name())
+                    .append("[").append(jk).append("])");
         }
 
-        // end input, start output
-        secondMapperScheme.append(")> ---> <").append(jk).append(", (");
-
-        // mapper output key
-        i = 0;
-        flag = 0;
-        if (DBManager.getColumnIndex(table2, jk) == i) {
-            flag = 1;
-        } else {
-            secondMapperScheme.append(DBManager.getColumnFromIndex(table2, 0));
-            reducerVal.append(", ").append(DBManager.getColumnFromIndex(table2, 0));
-        }
-        for (i = 1; i < DBManager.getTableSize(table2) - 1; i++) {
-            if (flag == 1) {
-                secondMapperScheme.append(DBManager.getColumnFromIndex(table2, i));
-                reducerVal.append(", ").append(DBManager.getColumnFromIndex(table2, i));
-                flag = 0;
-            } else {
-                secondMapperScheme.append(", ").append(DBManager.getColumnFromIndex(table2, i));
-                reducerVal.append(", ").append(DBManager.getColumnFromIndex(table2, i));
-            }
+        /* Create reducer scheme: the selected columns, in the order of the select list */
+        StringBuilder reducerVal = new StringBuilder();
+        int[] numSelected = new int[2];
+        for (int table : plan.getSelectTables()) {
+            int column = plan.getProjectionIndices(table)[numSelected[table]++];
+            reducerVal.append(reducerVal.length() == 0 ? "" : ", ")
+                    .append(DBManager.getColumnFromIndex(plan.getTable(table), column));
         }
-        secondMapperScheme.append(")>");
-
-
-        /* Create reducer scheme */
-        String str = "<" + jk + ", (" + reducerVal + ")>";
+        String str = plan.isSelectAll() ? "<" + jk + ", (" + reducerVal + ")>" : "<(" + reducerVal + ")>";
 
         /* Set Inner Join output */
         innerJoinOutput.setFirstMapperPlan(firstMapperScheme.toString());
         innerJoinOutput.setSecondMapperPlan(secondMapperScheme.toString());
         String reducerScheme = "<" + jk + ", List(" + reducerVal + ")>" +
-                " ---> " + str;
+                " (buffering " + plan.getTable(plan.getBufferedTable()).name()
+                + (plan.getNumSkewedKeys() > 0 ? ", " + SkewJoin.describe(plan) : "") + ") ---> " + str;
         innerJoinOutput.setInnerJoinReducerPlan(reducerScheme);
+
+        if (plan.getBroadcastTable() >= 0) {
+            /* map-side join: the broadcast table is loaded into a hash map, which the other table probes */
+            Tables broadcast = plan.getTable(plan.getBroadcastTable());
+            Tables probe = plan.getTable(1 - plan.getBroadcastTable());
+            String loadScheme = (plan.getBroadcastTable() == 0) ? firstMapperScheme.toString() : secondMapperScheme.toString();
+            StringBuilder probeScheme = new StringBuilder("<serial_number, (");
+            for (int i = 0; i < DBManager.getTableSize(probe); i++) {
+                probeScheme.append(i == 0 ? "" : ", ").append(DBManager.getColumnFromIndex(probe, i));
+            }
+            probeScheme.append(")> + HashMap<").append(jk).append(", List(").append(broadcast.name())
+                    .append(")> ---> ").append(str);
+            String broadcastScheme = "broadcast " + broadcast.name() + ": " + loadScheme.replace("> ---> <", "> ---> HashMap<");
+            innerJoinOutput.setFirstMapperPlan(plan.getBroadcastTable() == 0 ? broadcastScheme : probeScheme.toString());
+            innerJoinOutput.setSecondMapperPlan(plan.getBroadcastTable() == 0 ? probeScheme.toString() : broadcastScheme);
+            innerJoinOutput.setInnerJoinReducerPlan("none (map-side join)");
+        }
+        if (plan.getNumBuckets() > 0) {
+            /* sort-merge join: each bucket of the streamed table is merged with the same bucket of the buffered table */
+            Tables buffered = plan.getTable(plan.getBufferedTable());
+            Tables streamed = plan.getTable(1 - plan.getBufferedTable());
+            String bucketScheme = (plan.getBufferedTable() == 0) ? firstMapperScheme.toString() : secondMapperScheme.toString();
+            StringBuilder mergeScheme = new StringBuilder("<serial_number, (");
+            for (int i = 0; i < DBManager.getTableSize(streamed); i++) {
+                mergeScheme.append(i == 0 ? "" : ", ").append(DBManager.getColumnFromIndex(streamed, i));
+            }
+            mergeScheme.append(")> + Bucket<").append(jk).append(", List(").append(buffered.name())
+                    .append(")> ---> ").append(str);
+            bucketScheme = "bucket of " + buffered.name() + " sorted by " + jk + ": " + bucketScheme;
+            innerJoinOutput.setFirstMapperPlan(plan.getBufferedTable() == 0 ? bucketScheme : mergeScheme.toString());
+            innerJoinOutput.setSecondMapperPlan(plan.getBufferedTable() == 0 ? mergeScheme.toString() : bucketScheme);
+            innerJoinOutput.setInnerJoinReducerPlan("none (sort-merge join of " + plan.getNumBuckets() + " buckets)");
+        }
         innerJoinOutput.setHadoopExecutionTime(execTime + " milliseconds");
 //        innerJoinOutput.setHadoopOutputUrl("http://localhost:9870/output/part-r-00000  (Note: WebDFS should be enabled for this to work)");
 
@@ -222,7 +249,7 @@ public class InnerJoin {
             if (fileStatus.isFile()) {
                 String filename = fileStatus.getPath().getName();
                 System.out.println(filename);
-                if (filename.matches("part-r-[0-9]*")) {
+                if (filename.matches("part-[mr]-[0-9]*")) {
                     downloadUrl.append(Globals.getWebhdfsHost())
                             .append("/webhdfs/v1")
                             .append(Globals.getHadoopOutputPath()).append("/")
@@ -240,24 +267,194 @@ public class InnerJoin {
     }
 
     /**
-     *  Class for mapping the first of the two tables to be joined.
+     * Samples the join keys of a table
+     *
+     * @param conf          configuration of the job
+     * @param inputPath     path of the csv file of the table
+     * @param numSamples    number of offsets at which the table is sampled
+     * @param tableKeyIndex Indicates the column index acting as the join key on this table
+     * @param sample        list to which the sampled join keys are added (see {@link JoinKeyPartitioner})
+     * @throws IOException if the table could not be read
      */
+    static void sampleJoinKeys(Configuration conf, Path inputPath, int numSamples,
+                               int tableKeyIndex, ArrayList<JoinKey> sample) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(tableKeyIndex + 1);
+        for (Text line : Partitioning.sampleLines(conf, inputPath, numSamples)) {
+            if (tokenizer.tokenize(line) > tableKeyIndex) {
+                JoinKey joinKey = new JoinKey();
+                joinKey.set(tokenizer.getBytes(), tokenizer.getStart(tableKeyIndex), tokenizer.getLength(tableKeyIndex),
+                        BUFFERED_TAG);
+                sample.add(joinKey);
+            }
+        }
+    }
 
-    private static class FirstMapper extends Mapper<Object, Text, Text, Text> {
-        private static Tables table;
-        private static int tableKeyIndex;
+    /**
+     * Returns the scheme of a mapper of a reduce-side join: from all columns of its table to the
+     * join key and the selected columns
+     *
+     * @param table      the table which is mapped
+     * @param jk         the join key
+     * @param projection indices of the selected columns of the table
+     * @return the mapper scheme
+     */
+    private static StringBuilder mapperScheme(Tables table, String jk, int[] projection) {
+        StringBuilder scheme = new StringBuilder("<serial_number, (");
+        for (int i = 0; i < DBManager.getTableSize(table); i++) {
+            scheme.append(i == 0 ? "" : ", ").append(DBManager.getColumnFromIndex(table, i));
+        }
+        scheme.append(")> ---> <").append(jk).append(", (");
+        for (int i = 0; i < projection.length; i++) {
+            scheme.append(i == 0 ? "" : ", ").append(DBManager.getColumnFromIndex(table, projection[i]));
+        }
+        return scheme.append(")>");
+    }
+
+    /**
+     * Returns the path of a file of the distributed cache: its local copy if the distributed
+     * cache provides one, or else the file itself
+     *
+     * @param conf      configuration of the task
+     * @param cacheFile URI of the file, as added to the distributed cache
+     * @return qualified path of the file
+     * @throws IOException if the local file system could not be accessed
+     */
+    static Path getCachePath(Configuration conf, URI cacheFile) throws IOException {
+        Path path = new Path((cacheFile.getFragment() != null)
+                ? cacheFile.getFragment() : new Path(cacheFile.getPath()).getName());
+        FileSystem localFileSystem = FileSystem.getLocal(conf);
+        return localFileSystem.exists(path) ? localFileSystem.makeQualified(path) : new Path(cacheFile);
+    }
+
+    /**
+     * Adds the selected fields of a tokenized record, as written in the record, to a join record.
+     * Fields missing from an incomplete record are added empty, so that the fields keep their
+     * position, unless all columns are selected: then they are left out, like in the record.
+     *
+     * @param tokenizer  tokenizer holding the record
+     * @param numFields  number of fields of the record
+     * @param projection indices of the selected fields
+     * @param selectAll  true if all columns are selected
+     * @param fields     the join record to which the fields are added
+     */
+    private static void addFields(CsvTokenizer tokenizer, int numFields, int[] projection, boolean selectAll,
+                                  JoinRecord fields) {
+        byte[] record = tokenizer.getBytes();
+        for (int index : projection) {
+            if (index < numFields) {
+                fields.addField(record, tokenizer.getStart(index), tokenizer.getLength(index));
+            } else if (!selectAll) {
+                fields.addField(record, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Global Mapper. Maps input tuple to <(join_key, tag), selected columns>, dropping the
+     * tuples which do not match the WHERE clause. The tag tells whether the tuple belongs to
+     * the buffered or the streamed table. If the other table is filtered by the WHERE clause,
+     * tuples whose join key is not in the Bloom filter of that table are dropped as well.
+     * The tuples of a hot join key are sent to the reducers of the key (see {@link SkewJoin}):
+     * each to one of them in turn if this table is spread, or else to all of them.
+     * Subclasses only choose the table which they map.
+     */
+
+    private static abstract class JoinMapper extends Mapper<Object, Text, JoinKey, JoinRecord> {
+        private int tableKeyIndex;
+        private int whereIndex;
+        private byte[] whereValue;
+        private RangeFilter rangeFilter;
+        private NullFilter nullFilter;
+        private byte tag;
+        private int[] projection;
+        private boolean selectAll;
+        private CsvTokenizer tokenizer;
+        private BloomFilter bloomFilter;
+        private final JoinKey keyOut = new JoinKey();
+        private final JoinRecord valueOut = new JoinRecord();
+
+        /* hot join keys by index, and for each of them the reducers to which its tuples are sent */
+        private final HashMap<Text, Integer> skewedKeys = new HashMap<>();
+        private boolean[] spread;
+        private int[][] skewedReducers;
+        private int numSpread;
+
+        /**
+         * Returns the table of the join which is mapped
+         *
+         * @return 0 for the first table, 1 for the second
+         */
+        protected abstract int getTableIndex();
 
         @Override
-        protected void setup(Context context) {
-            table = context.getConfiguration().getEnum("table1", Tables.NONE);
-            String jk = context.getConfiguration().get("jk");
-            tableKeyIndex = DBManager.getColumnIndex(table, jk);
+        protected void setup(Context context) throws IOException {
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            Tables table = plan.getTable(getTableIndex());
+            tableKeyIndex = plan.getJoinKeyIndex(getTableIndex());
+            whereIndex = plan.getWhereIndex(getTableIndex());
+            whereValue = plan.getWhereValue().getBytes(StandardCharsets.UTF_8);
+            rangeFilter = new RangeFilter(plan, getTableIndex());
+            nullFilter = new NullFilter(plan, getTableIndex());
+            tag = (getTableIndex() == plan.getBufferedTable()) ? BUFFERED_TAG : STREAMED_TAG;
+            projection = plan.getProjectionIndices(getTableIndex());
+            selectAll = plan.isSelectAll();
+            tokenizer = new CsvTokenizer(DBManager.getTableSize(table));
+            if (plan.getBloomFilterTable() == 1 - getTableIndex()) {
+                Configuration conf = context.getConfiguration();
+                bloomFilter = JoinBloomFilter.read(conf, getCachePath(conf, context.getCacheFiles()[0]));
+            }
+            spread = new boolean[plan.getNumSkewedKeys()];
+            skewedReducers = new int[plan.getNumSkewedKeys()][];
+            for (int i = 0; i < plan.getNumSkewedKeys(); i++) {
+                skewedKeys.put(new Text(plan.getSkewedKey(i)), i);
+                spread[i] = plan.getSkewedTable(i) == getTableIndex();
+                skewedReducers[i] = plan.getSkewedReducers(i);
+            }
+            /* mappers start spreading at different reducers */
+            numSpread = context.getTaskAttemptID().getTaskID().getId();
         }
 
         @Override
         public void map(Object key, Text value, Context context)
                 throws IOException, InterruptedException {
-            globalMapper(table, tableKeyIndex, value, context);
+            int numFields = tokenizer.tokenize(value);
+
+            /* remove if incomplete or does not match WHERE clause */
+            if (numFields <= Math.max(tableKeyIndex, whereIndex)) return;
+            if (whereIndex >= 0 && !tokenizer.equalsIgnoreCase(whereIndex, whereValue)) return;
+            if (!rangeFilter.matches(tokenizer) || !nullFilter.matches(tokenizer)) return;
+
+            /* remove if no record of the other table can have this join key */
+            if (bloomFilter != null && !bloomFilter.membershipTest(JoinBloomFilter.toKey(tokenizer, tableKeyIndex))) return;
+
+            keyOut.set(tokenizer.getBytes(), tokenizer.getStart(tableKeyIndex), tokenizer.getLength(tableKeyIndex), tag);
+            valueOut.clear();
+            addFields(tokenizer, numFields, projection, selectAll, valueOut);
+
+            Integer skewed = skewedKeys.isEmpty() ? null : skewedKeys.get(keyOut.getJoinKey());
+            if (skewed == null) {
+                context.write(keyOut, valueOut);
+            } else if (spread[skewed]) {
+                int[] reducers = skewedReducers[skewed];
+                keyOut.setPartition(reducers[numSpread++ % reducers.length]);
+                context.write(keyOut, valueOut);
+            } else {
+                for (int reducer : skewedReducers[skewed]) {
+                    keyOut.setPartition(reducer);
+                    context.write(keyOut, valueOut);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Class for mapping the first of the two tables to be joined.
+     */
+
+    private static class FirstMapper extends JoinMapper {
+        @Override
+        protected int getTableIndex() {
+            return 0;
         }
     }
 
@@ -265,57 +462,493 @@ public class InnerJoin {
      *  Class for mapping the second of the two tables to be joined.
      */
 
-    private static class SecondMapper extends Mapper<Object, Text, Text, Text> {
-        private static Tables table;
-        private static int tableKeyIndex;
+    private static class SecondMapper extends JoinMapper {
+        @Override
+        protected int getTableIndex() {
+            return 1;
+        }
+    }
+
+    /**
+     * Mapper of a map-side join. The broadcast table is read from the distributed cache into a
+     * hash map from its join keys to its selected columns, keeping only the records
+     * which match the WHERE clause. Each record of the other table is joined with the records of
+     * its join key, and written in the same form as by {@link ReduceJoinReducer}.
+     */
+
+    private static class BroadcastJoinMapper extends Mapper<Object, Text, Text, Writable> {
+        private static int broadcastTable;
+        private int tableKeyIndex;
+        private int whereIndex;
+        private byte[] whereValue;
+        private RangeFilter rangeFilter;
+        private NullFilter nullFilter;
+        private int[] projection;
+        private boolean selectAll;
+        private CsvTokenizer tokenizer;
+        private OutputRecord output;
+        private final HashMap<Text, ArrayList<JoinRecord>> broadcastRecords = new HashMap<>();
+        private final Text probeKey = new Text();
+        private final JoinRecord fields = new JoinRecord();
 
         @Override
-        protected void setup(Context context) {
-            table = context.getConfiguration().getEnum("table2", Tables.NONE);
-            String jk = context.getConfiguration().get("jk");
-            tableKeyIndex = DBManager.getColumnIndex(table, jk);
+        protected void setup(Context context) throws IOException {
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            broadcastTable = plan.getBroadcastTable();
+            whereValue = plan.getWhereValue().getBytes(StandardCharsets.UTF_8);
+            loadBroadcastTable(context, plan);
+
+            /* the mapped table is the other one */
+            Tables table = plan.getTable(1 - broadcastTable);
+            tableKeyIndex = plan.getJoinKeyIndex(1 - broadcastTable);
+            whereIndex = plan.getWhereIndex(1 - broadcastTable);
+            rangeFilter = new RangeFilter(plan, 1 - broadcastTable);
+            nullFilter = new NullFilter(plan, 1 - broadcastTable);
+            projection = plan.getProjectionIndices(1 - broadcastTable);
+            selectAll = plan.isSelectAll();
+            tokenizer = new CsvTokenizer(DBManager.getTableSize(table));
+            output = new OutputRecord(plan.isSelectAll(), plan.getSelectTables());
+        }
+
+        /**
+         * Reads the broadcast table into the hash map, from the distributed cache
+         *
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Mapper.Context}
+         * @param plan    physical plan of the join
+         * @throws IOException if the broadcast table could not be read
+         */
+        private void loadBroadcastTable(Context context, PhysicalPlan plan) throws IOException {
+            Configuration conf = context.getConfiguration();
+            Path path = getCachePath(conf, context.getCacheFiles()[0]);
+            FileSystem fileSystem = path.getFileSystem(conf);
+
+            Tables table = plan.getTable(broadcastTable);
+            int keyIndex = plan.getJoinKeyIndex(broadcastTable);
+            int filterIndex = plan.getWhereIndex(broadcastTable);
+            RangeFilter broadcastRange = new RangeFilter(plan, broadcastTable);
+            NullFilter broadcastNulls = new NullFilter(plan, broadcastTable);
+            CsvTokenizer broadcastTokenizer = new CsvTokenizer(DBManager.getTableSize(table));
+            try (FSDataInputStream in = fileSystem.open(path)) {
+                LineReader reader = new LineReader(in, conf);
+                Text line = new Text();
+                while (reader.readLine(line) > 0) {
+                    int numFields = broadcastTokenizer.tokenize(line);
+                    if (numFields <= Math.max(keyIndex, filterIndex)) continue;
+                    if (filterIndex >= 0 && !broadcastTokenizer.equalsIgnoreCase(filterIndex, whereValue)) continue;
+                    if (!broadcastRange.matches(broadcastTokenizer) || !broadcastNulls.matches(broadcastTokenizer)) continue;
+
+                    Text key = new Text();
+                    key.set(broadcastTokenizer.getBytes(), broadcastTokenizer.getStart(keyIndex),
+                            broadcastTokenizer.getLength(keyIndex));
+                    JoinRecord record = new JoinRecord();
+                    addFields(broadcastTokenizer, numFields, plan.getProjectionIndices(broadcastTable), plan.isSelectAll(),
+                            record);
+                    broadcastRecords.computeIfAbsent(key, k -> new ArrayList<>()).add(record);
+                }
+            }
         }
 
         @Override
         public void map(Object key, Text value, Context context)
                 throws IOException, InterruptedException {
-            globalMapper(table, tableKeyIndex, value, context);
+            int numFields = tokenizer.tokenize(value);
+
+            /* remove if incomplete or does not match WHERE clause */
+            if (numFields <= Math.max(tableKeyIndex, whereIndex)) return;
+            if (whereIndex >= 0 && !tokenizer.equalsIgnoreCase(whereIndex, whereValue)) return;
+            if (!rangeFilter.matches(tokenizer) || !nullFilter.matches(tokenizer)) return;
+
+            probeKey.set(tokenizer.getBytes(), tokenizer.getStart(tableKeyIndex), tokenizer.getLength(tableKeyIndex));
+            ArrayList<JoinRecord> matches = broadcastRecords.get(probeKey);
+            if (matches == null) return;
+
+            output.setJoinKey(probeKey);
+            fields.clear();
+            addFields(tokenizer, numFields, projection, selectAll, fields);
+
+            for (JoinRecord match : matches) {
+                if (broadcastTable == 0) {
+                    output.write(context, match, fields);
+                } else {
+                    output.write(context, fields, match);
+                }
+            }
         }
     }
 
-    private static class ReduceJoinReducer extends Reducer<Text, Text, Text, Text> {
-        private static Tables table1;
-        private static Tables table2;
+    /**
+     * Mapper of a sort-merge join of two tables bucketed alike on the join key (see
+     * {@link Bucketing}). Each mapper reads a bucket of the streamed table, and the bucket of the
+     * buffered table with the same number alongside it: both are sorted on the join key, so the
+     * records of the buffered table are read once, in step with the records of the streamed
+     * table, and only those of the current join key are held in memory. The joined records are
+     * written in the same form as by {@link ReduceJoinReducer}.
+     */
+
+    private static class SortMergeJoinMapper extends Mapper<Object, Text, Text, Writable> {
+        private static int bufferedTable;
+        private int tableKeyIndex;
+        private int whereIndex;
+        private byte[] whereValue;
+        private RangeFilter rangeFilter;
+        private NullFilter nullFilter;
+        private int[] projection;
+        private boolean selectAll;
+        private CsvTokenizer tokenizer;
+        private OutputRecord output;
+        private final Text probeKey = new Text();
+        private final JoinRecord fields = new JoinRecord();
+
+        /* the bucket of the buffered table, and its next record, which is held by bufferedTokenizer */
+        private FSDataInputStream bufferedIn;
+        private LineReader bufferedReader;
+        private CsvTokenizer bufferedTokenizer;
+        private final Text bufferedLine = new Text();
+        private int bufferedNumFields;
+        private int bufferedKeyIndex;
+        private int bufferedWhereIndex;
+        private RangeFilter bufferedRange;
+        private NullFilter bufferedNulls;
+        private int[] bufferedProjection;
+        private boolean hasNext;
+
+        /* records of the buffered table for the join key of the last record of the streamed table; the
+         * JoinRecord objects are reused across keys */
+        private final Text groupKey = new Text();
+        private boolean hasGroup;
+        private final ArrayList<JoinRecord> group = new ArrayList<>();
+        private int numGrouped;
 
         @Override
-        protected void setup(Reducer.Context context) {
-            table1 = context.getConfiguration().getEnum("table1", Tables.NONE);
-            table2 = context.getConfiguration().getEnum("table2", Tables.NONE);
+        protected void setup(Context context) throws IOException {
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            bufferedTable = plan.getBufferedTable();
+            whereValue = plan.getWhereValue().getBytes(StandardCharsets.UTF_8);
+
+            /* the mapped table is the streamed one */
+            Tables table = plan.getTable(1 - bufferedTable);
+            tableKeyIndex = plan.getJoinKeyIndex(1 - bufferedTable);
+            whereIndex = plan.getWhereIndex(1 - bufferedTable);
+            rangeFilter = new RangeFilter(plan, 1 - bufferedTable);
+            nullFilter = new NullFilter(plan, 1 - bufferedTable);
+            projection = plan.getProjectionIndices(1 - bufferedTable);
+            selectAll = plan.isSelectAll();
+            tokenizer = new CsvTokenizer(DBManager.getTableSize(table));
+            output = new OutputRecord(plan.isSelectAll(), plan.getSelectTables());
+
+            Tables buffered = plan.getTable(bufferedTable);
+            bufferedKeyIndex = plan.getJoinKeyIndex(bufferedTable);
+            bufferedWhereIndex = plan.getWhereIndex(bufferedTable);
+            bufferedRange = new RangeFilter(plan, bufferedTable);
+            bufferedNulls = new NullFilter(plan, bufferedTable);
+            bufferedProjection = plan.getProjectionIndices(bufferedTable);
+            bufferedTokenizer = new CsvTokenizer(DBManager.getTableSize(buffered));
+            Path bucket = Bucketing.getMatchingBucket(((FileSplit) context.getInputSplit()).getPath(), buffered,
+                    DBManager.getColumnFromIndex(buffered, bufferedKeyIndex));
+            bufferedIn = bucket.getFileSystem(context.getConfiguration()).open(bucket);
+            bufferedReader = new LineReader(bufferedIn, context.getConfiguration());
+            readNext();
+        }
+
+        /**
+         * Reads the next record of the bucket of the buffered table which has a join key
+         *
+         * @throws IOException if the bucket could not be read
+         */
+        private void readNext() throws IOException {
+            do {
+                hasNext = bufferedReader.readLine(bufferedLine) > 0;
+                bufferedNumFields = hasNext ? bufferedTokenizer.tokenize(bufferedLine) : 0;
+            } while (hasNext && bufferedNumFields <= bufferedKeyIndex);
+        }
+
+        /**
+         * Compares the join key of the next record of the buffered table with the join key of
+         * the record of the streamed table, bytewise, like the sort of the buckets
+         *
+         * @return a negative number, zero or a positive number if the join key of the buffered
+         * record is less than, equal to or greater than the join key of the streamed record
+         */
+        private int compareNext() {
+            return WritableComparator.compareBytes(bufferedTokenizer.getBytes(),
+                    bufferedTokenizer.getStart(bufferedKeyIndex), bufferedTokenizer.getLength(bufferedKeyIndex),
+                    probeKey.getBytes(), 0, probeKey.getLength());
+        }
+
+        /**
+         * Moves the bucket of the buffered table forward to the join key of the record of the
+         * streamed table, and holds its records of this key which match the WHERE clause. The
+         * records of a join key are held until the streamed table moves on to another key.
+         *
+         * @throws IOException if the bucket could not be read
+         */
+        private void seekGroup() throws IOException {
+            if (hasGroup && groupKey.equals(probeKey)) {
+                return;
+            }
+            while (hasNext && compareNext() < 0) {
+                readNext();
+            }
+            groupKey.set(probeKey);
+            hasGroup = true;
+            numGrouped = 0;
+            for (; hasNext && compareNext() == 0; readNext()) {
+                /* skip if incomplete or does not match WHERE clause */
+                if (bufferedNumFields <= bufferedWhereIndex) continue;
+                if (bufferedWhereIndex >= 0 && !bufferedTokenizer.equalsIgnoreCase(bufferedWhereIndex, whereValue)) continue;
+                if (!bufferedRange.matches(bufferedTokenizer) || !bufferedNulls.matches(bufferedTokenizer)) continue;
+
+                if (numGrouped == group.size()) {
+                    group.add(new JoinRecord());
+                }
+                JoinRecord record = group.get(numGrouped++);
+                record.clear();
+                addFields(bufferedTokenizer, bufferedNumFields, bufferedProjection, selectAll, record);
+            }
         }
 
         @Override
-        public void reduce(Text key, Iterable<Text> values, Context context)
+        public void map(Object key, Text value, Context context)
                 throws IOException, InterruptedException {
-            ArrayList<String> table1List = new ArrayList<>();
-            ArrayList<String> table2List = new ArrayList<>();
-            //String name = "";
-            //double total = 0.0;
-            //int count = 0;
-            for (Text t : values) {
-                String[] parts = t.toString().split("#");
-                if (parts[0].equals(table1.name())) {
-                    table1List.add(parts[1]);
-                } else if (parts[0].equals(table2.name())) {
-                    table2List.add(parts[1]);
+            int numFields = tokenizer.tokenize(value);
+
+            /* remove if incomplete or does not match WHERE clause */
+            if (numFields <= Math.max(tableKeyIndex, whereIndex)) return;
+            if (whereIndex >= 0 && !tokenizer.equalsIgnoreCase(whereIndex, whereValue)) return;
+            if (!rangeFilter.matches(tokenizer) || !nullFilter.matches(tokenizer)) return;
+
+            probeKey.set(tokenizer.getBytes(), tokenizer.getStart(tableKeyIndex), tokenizer.getLength(tableKeyIndex));
+            seekGroup();
+            if (numGrouped == 0) return;
+
+            output.setJoinKey(probeKey);
+            fields.clear();
+            addFields(tokenizer, numFields, projection, selectAll, fields);
+
+            for (int i = 0; i < numGrouped; i++) {
+                if (bufferedTable == 0) {
+                    output.write(context, group.get(i), fields);
+                } else {
+                    output.write(context, fields, group.get(i));
                 }
             }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException {
+            bufferedIn.close();
+        }
+    }
+
+    /**
+     * Reducer of the reduce-side join. The records of a join key arrive with those of the
+     * buffered (smaller) table first, so only these are held, while each record of the streamed
+     * table is joined with them as it arrives. The buffered records are held in a
+     * {@link JoinBuffer}, which spills them to disk beyond its memory budget. The streamed
+     * records of a join key whose buffered records were spilled are then joined in blocks of
+     * the same budget, so that the spill file is read once per block instead of once per record.
+     */
+
+    static class ReduceJoinReducer extends Reducer<JoinKey, JoinRecord, Text, Writable> {
+        private static int bufferedTable;
+        private OutputRecord output;
+
+        /* records of the buffered table for the current join key, and the block of streamed records joined next
+         * with them, once they are spilled */
+        private JoinBuffer buffered;
+        private JoinBuffer streamed;
+        private final JoinRecord bufferedRecord = new JoinRecord();
+        private final JoinRecord streamedRecord = new JoinRecord();
 
-            for (String u : table1List) {
-                for (String z : table2List) {
-                    context.write(new Text(key.toString() + ","), new Text(u + ',' + z));
+        @Override
+        protected void setup(Context context) throws IOException {
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            bufferedTable = plan.getBufferedTable();
+            /* the sides of a join of more than two tables are made of the tables of each mapper */
+            output = (plan.getNumTables() > 2)
+                    ? new OutputRecord(false, new JoinTree(plan).getSelectSides())
+                    : new OutputRecord(plan.isSelectAll(), plan.getSelectTables());
+            buffered = new JoinBuffer(context.getConfiguration(), plan.getJoinBufferBudget());
+            streamed = new JoinBuffer(context.getConfiguration(), plan.getJoinBufferBudget());
+        }
+
+        @Override
+        public void reduce(JoinKey key, Iterable<JoinRecord> values, Context context)
+                throws IOException, InterruptedException {
+            output.setJoinKey(key.getJoinKey());
+            buffered.clear();
+
+            /* the key is updated along with each value, so its tag tells the table of the value */
+            for (JoinRecord value : values) {
+                if (key.getTag() == BUFFERED_TAG) {
+                    buffered.add(value);
+                    continue;
+                }
+                if (buffered.isEmpty()) {
+                    /* no record of the buffered table has this join key */
+                    return;
                 }
 
+                if (buffered.isSpilled()) {
+                    streamed.add(value);
+                    if (streamed.isFull()) {
+                        joinBlock(context);
+                    }
+                    continue;
+                }
+                buffered.rewind();
+                while (buffered.next(bufferedRecord)) {
+                    write(context, bufferedRecord, value);
+                }
+            }
+            if (!streamed.isEmpty()) {
+                joinBlock(context);
             }
         }
+
+        /**
+         * Joins the block of streamed records with the buffered records, reading the spill file
+         * of the buffered records once, and empties the block
+         *
+         * @param context context of the task
+         * @throws IOException          if the records could not be read or written
+         * @throws InterruptedException if the task is interrupted
+         */
+        private void joinBlock(Context context) throws IOException, InterruptedException {
+            buffered.rewind();
+            while (buffered.next(bufferedRecord)) {
+                streamed.rewind();
+                while (streamed.next(streamedRecord)) {
+                    write(context, bufferedRecord, streamedRecord);
+                }
+            }
+            streamed.clear();
+        }
+
+        private void write(Context context, JoinRecord bufferedValue, JoinRecord streamedValue)
+                throws IOException, InterruptedException {
+            if (bufferedTable == 0) {
+                output.write(context, bufferedValue, streamedValue);
+            } else {
+                output.write(context, streamedValue, bufferedValue);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException {
+            try {
+                buffered.close();
+            } finally {
+                streamed.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the joined records, made of the selected columns of a record of each table in the
+     * order of the select list. A join which selects all columns writes the join key followed by
+     * a comma as the output key, and the columns of the first and then the second table as the
+     * output value. Any other join writes the selected columns as the output key, without a value.
+     */
+
+    private static class OutputRecord {
+        private final boolean selectAll;
+        private final int[] selectTables;
+        private final int[] numWritten = new int[2];
+        private final JoinRecord[] records = new JoinRecord[2];
+        private final Text keyOut = new Text();
+        private final Text valueOut = new Text();
+
+        // whether the select list mixes the columns of both tables, which are then picked one by one
+        private final boolean interleaved;
+
+        /**
+         * @param selectAll    true if all columns are selected
+         * @param selectTables for each selected column, the side of the join from which it is read, 0 or 1
+         */
+        OutputRecord(boolean selectAll, int[] selectTables) {
+            this.selectAll = selectAll;
+            this.selectTables = selectTables;
+            boolean mixed = false;
+            for (int i = 1; i < selectTables.length; i++) {
+                mixed |= selectTables[i] < selectTables[i - 1];
+            }
+            interleaved = mixed;
+        }
+
+        /**
+         * Sets the join key of the records which are written next
+         *
+         * @param joinKey the join key, as written in the records
+         */
+        void setJoinKey(Text joinKey) {
+            if (selectAll) {
+                keyOut.set(joinKey);
+                keyOut.append(COMMA, 0, 1);
+            }
+        }
+
+        /**
+         * Writes the record joining a record of each table
+         *
+         * @param context context of the task
+         * @param first   selected columns of the record of the first table
+         * @param second  selected columns of the record of the second table
+         * @throws IOException          if the record could not be written
+         * @throws InterruptedException if the task is interrupted
+         */
+        void write(TaskInputOutputContext<?, ?, Text, Writable> context, JoinRecord first, JoinRecord second)
+                throws IOException, InterruptedException {
+            Text record = selectAll ? valueOut : keyOut;
+            record.clear();
+            if (!interleaved) {
+                for (int i = 0; i < first.getNumFields(); i++) {
+                    appendField(record, first, i, i > 0);
+                }
+                for (int i = 0; i < second.getNumFields(); i++) {
+                    appendField(record, second, i, i > 0 || first.getNumFields() > 0);
+                }
+            } else {
+                records[0] = first;
+                records[1] = second;
+                numWritten[0] = 0;
+                numWritten[1] = 0;
+                for (int i = 0; i < selectTables.length; i++) {
+                    appendField(record, records[selectTables[i]], numWritten[selectTables[i]]++, i > 0);
+                }
+            }
+            context.write(keyOut, selectAll ? valueOut : NullWritable.get());
+        }
+
+        private static void appendField(Text record, JoinRecord fields, int field, boolean separated) {
+            if (separated) {
+                record.append(COMMA, 0, 1);
+            }
+            record.append(fields.getBytes(), fields.getStart(field), fields.getLength(field));
+        }
+    }
+
+    /**
+     * Partitioner which sends all records of a join key to the same reducer, whatever their
+     * tag, unless the key is hot: its records then carry their reducer. The heavy join keys are
+     * sampled with the tag of the buffered table.
+     */
+
+    static class JoinKeyPartitioner extends SkewAwarePartitioner<JoinKey, JoinRecord> {
+        private final JoinKey partitionKey = new JoinKey();
+
+        @Override
+        public int getPartition(JoinKey key, JoinRecord value, int numPartitions) {
+            if (key.getPartition() >= 0) {
+                return key.getPartition() % numPartitions;
+            }
+            return super.getPartition(key, value, numPartitions);
+        }
+
+        @Override
+        protected JoinKey getPartitionKey(JoinKey key) {
+            partitionKey.set(key, BUFFERED_TAG);
+            return partitionKey;
+        }
     }
 }
@@ -0,0 +1,214 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import com.cloud.project.contracts.DBManager;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Pre-pass of a reduce-side Inner Join whose where clause is on one of the tables: a job which
+ * builds a Bloom filter of the join keys of the records of that table which match the where
+ * clause. The filter is distributed to the mappers of the other table, which drop the records
+ * whose join key is not in the filter before they are shuffled.
+ * <p>
+ * A Bloom filter has no false negatives, so no joined record is lost. The few records let
+ * through by false positives find no partner in the reducers, as before.
+ * </p>
+ */
+public class JoinBloomFilter {
+
+    /**
+     * Sizes the Bloom filter of the join keys of a table for the expected false positive rate
+     * (see {@link Globals#getBloomFilterFalsePositiveRate()}), and records it in the plan. The
+     * number of keys is estimated from a sample of the table, as the number of its records
+     * which match the where clause.
+     *
+     * @param conf          configuration of the join
+     * @param plan          physical plan of the join
+     * @param filteredTable table of the join on which the where clause is, 0 or 1
+     * @param inputPath     path of the csv file of that table
+     * @return true if the filter was planned, false if the table is empty
+     * @throws IOException if the table could not be sampled
+     */
+    public static boolean prepare(Configuration conf, PhysicalPlan plan, int filteredTable, Path inputPath)
+            throws IOException {
+        int whereIndex = plan.getWhereIndex(filteredTable);
+        byte[] whereValue = plan.getWhereValue().getBytes(StandardCharsets.UTF_8);
+        CsvTokenizer tokenizer = new CsvTokenizer(whereIndex + 1);
+
+        ArrayList<Text> sample = Partitioning.sampleLines(conf, inputPath, Globals.getPartitionSampleSize());
+        if (sample.isEmpty()) {
+            return false;
+        }
+        long sampleSize = 0;
+        int numMatching = 0;
+        for (Text line : sample) {
+            sampleSize += line.getLength() + 1;
+            if (tokenizer.tokenize(line) > whereIndex && tokenizer.equalsIgnoreCase(whereIndex, whereValue)) {
+                numMatching++;
+            }
+        }
+
+        // records of the table which match the where clause, counting one more match in the sample so that it is never 0
+        double numRecords = (double) Partitioning.getInputSize(conf, inputPath) * sample.size() / sampleSize;
+        double numKeys = Math.ceil(numRecords * (numMatching + 1) / (sample.size() + 1));
+
+        // optimal number of bits and hash functions for n keys and a false positive rate p:
+        // m = -n ln(p) / ln(2)^2, k = (m / n) ln(2)
+        double vectorSize = Math.ceil(-numKeys * Math.log(Globals.getBloomFilterFalsePositiveRate())
+                / (Math.log(2) * Math.log(2)));
+        int numHashes = (int) Math.max(1, Math.round(vectorSize / numKeys * Math.log(2)));
+        plan.setBloomFilter(filteredTable, (int) Math.min(vectorSize, Integer.MAX_VALUE - 64), numHashes);
+        return true;
+    }
+
+    /**
+     * Runs the job which builds the Bloom filter planned by
+     * {@link #prepare(Configuration, PhysicalPlan, int, Path)}. Each mapper adds the join keys of
+     * its split to its own filter, and a single reducer merges the filters of all mappers.
+     *
+     * @param conf       configuration of the join, holding its physical plan
+     * @param inputPath  path of the csv file of the filtered table
+     * @param outputPath path of the output of the job, a sequence file holding the filter
+     * @return true if the job succeeded
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     */
+    public static boolean build(Configuration conf, Path inputPath, Path outputPath)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Job job = Job.getInstance(conf, "InnerJoin BloomFilter");
+        job.setJarByClass(JoinBloomFilter.class);
+
+        PhysicalPlan plan = PhysicalPlan.load(conf);
+        ColumnarStorage.addInputPath(job, plan, plan.getBloomFilterTable(), inputPath, BloomFilterMapper.class);
+        job.setReducerClass(BloomFilterReducer.class);
+        job.setNumReduceTasks(1);
+
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(BloomFilter.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        FileOutputFormat.setOutputPath(job, outputPath);
+        outputPath.getFileSystem(conf).delete(outputPath, true);
+
+        return job.waitForCompletion(true);
+    }
+
+    /**
+     * Reads a Bloom filter written by the job of {@link #build(Configuration, Path, Path)}
+     *
+     * @param conf configuration of the task
+     * @param path qualified path of the output file of the job
+     * @return the Bloom filter
+     * @throws IOException if the filter could not be read
+     */
+    public static BloomFilter read(Configuration conf, Path path) throws IOException {
+        BloomFilter filter = new BloomFilter();
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(path))) {
+            if (!reader.next(NullWritable.get(), filter)) {
+                throw new IOException("No Bloom filter in " + path);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Returns the key of a Bloom filter for a field of a record, as written in the record
+     *
+     * @param tokenizer tokenizer holding the record
+     * @param index     index of the field
+     * @return the key of the field
+     */
+    public static Key toKey(CsvTokenizer tokenizer, int index) {
+        int start = tokenizer.getStart(index);
+        return new Key(Arrays.copyOfRange(tokenizer.getBytes(), start, start + tokenizer.getLength(index)));
+    }
+
+    /**
+     * Creates an empty Bloom filter of the size given by a plan
+     *
+     * @param plan physical plan of the join
+     * @return an empty Bloom filter
+     */
+    private static BloomFilter newFilter(PhysicalPlan plan) {
+        return new BloomFilter(plan.getBloomVectorSize(), plan.getBloomNumHashes(), Hash.MURMUR_HASH);
+    }
+
+    /**
+     * Adds the join keys of the records which match the where clause to a Bloom filter, which
+     * is written once the whole split is read: <NULL, filter>
+     */
+
+    private static class BloomFilterMapper extends Mapper<Object, Text, NullWritable, BloomFilter> {
+        private int tableKeyIndex;
+        private int whereIndex;
+        private byte[] whereValue;
+        private RangeFilter rangeFilter;
+        private NullFilter nullFilter;
+        private CsvTokenizer tokenizer;
+        private BloomFilter filter;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            PhysicalPlan plan = PhysicalPlan.load(context.getConfiguration());
+            int table = plan.getBloomFilterTable();
+            tableKeyIndex = plan.getJoinKeyIndex(table);
+            whereIndex = plan.getWhereIndex(table);
+            whereValue = plan.getWhereValue().getBytes(StandardCharsets.UTF_8);
+            rangeFilter = new RangeFilter(plan, table);
+            nullFilter = new NullFilter(plan, table);
+            tokenizer = new CsvTokenizer(DBManager.getTableSize(plan.getTable(table)));
+            filter = newFilter(plan);
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) {
+            int numFields = tokenizer.tokenize(value);
+
+            /* skip if incomplete or does not match WHERE clause */
+            if (numFields <= Math.max(tableKeyIndex, whereIndex)) return;
+            if (!tokenizer.equalsIgnoreCase(whereIndex, whereValue)) return;
+            if (!rangeFilter.matches(tokenizer) || !nullFilter.matches(tokenizer)) return;
+
+            filter.add(toKey(tokenizer, tableKeyIndex));
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.write(NullWritable.get(), filter);
+        }
+    }
+
+    /**
+     * Merges the Bloom filters of all mappers into one: <NULL, List(filter)> ---> <NULL, filter>
+     */
+
+    private static class BloomFilterReducer extends Reducer<NullWritable, BloomFilter, NullWritable, BloomFilter> {
+
+        @Override
+        public void reduce(NullWritable key, Iterable<BloomFilter> values, Context context)
+                throws IOException, InterruptedException {
+            BloomFilter filter = newFilter(PhysicalPlan.load(context.getConfiguration()));
+            for (BloomFilter value : values) {
+                filter.or(value);
+            }
+            context.write(NullWritable.get(), filter);
+        }
+    }
+}
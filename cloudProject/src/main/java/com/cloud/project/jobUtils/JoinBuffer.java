@@ -0,0 +1,184 @@
+package com.cloud.project.jobUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Memory-bounded buffer of records, such as {@link JoinRecord}s, which the reducers of a
+ * reduce-side join replay once for each record joined with them. All records of a buffer are of
+ * the same class.
+ * <p>
+ * The records are kept serialized, one after the other, in a single byte array, so that they
+ * take little more memory than their bytes, and need no object per record. Once the array
+ * holds more than the budget of the buffer, it is appended to a spill file in the local
+ * directories of the task and emptied. The records are replayed from the spill file first, and
+ * then from the array, in the order in which they were added.
+ * </p>
+ */
+public class JoinBuffer implements Closeable {
+
+    // local directories of the node manager, in which the spill files of the tasks are created
+    private static final LocalDirAllocator localDirs = new LocalDirAllocator("mapreduce.cluster.local.dir");
+
+    private final Configuration conf;
+    private final long budget;
+    private final DataOutputBuffer arena = new DataOutputBuffer();
+    private final DataInputBuffer arenaIn = new DataInputBuffer();
+    private int numRecords;
+
+    // spill file, created on the first spill and deleted when the buffer is cleared
+    private File spillFile;
+    private DataOutputStream spillOut;
+    private DataInputStream spillIn;
+    private int numSpilled;
+
+    // number of records replayed since the last rewind
+    private int numReplayed;
+
+    /**
+     * @param conf   configuration of the task, which gives the local directories of the spill file
+     * @param budget number of bytes of records held in memory, above which they are spilled
+     */
+    public JoinBuffer(Configuration conf, long budget) {
+        this.conf = conf;
+        this.budget = budget;
+    }
+
+    /**
+     * Adds a record to the buffer, spilling the records held in memory first if they exceed the budget
+     *
+     * @param record the record to be added
+     * @throws IOException if the records could not be spilled
+     */
+    public void add(Writable record) throws IOException {
+        if (isFull()) {
+            spill();
+        }
+        record.write(arena);
+        numRecords++;
+    }
+
+    /**
+     * Returns whether the records held in memory exceed the budget of the buffer
+     *
+     * @return true if the next record added is preceded by a spill
+     */
+    public boolean isFull() {
+        return arena.getLength() >= budget;
+    }
+
+    public boolean isEmpty() {
+        return numRecords == 0;
+    }
+
+    /**
+     * Returns whether any record of the buffer was spilled to disk
+     *
+     * @return true if the buffer has a spill file
+     */
+    public boolean isSpilled() {
+        return numSpilled > 0;
+    }
+
+    /**
+     * Appends the records held in memory to the spill file
+     *
+     * @throws IOException if the spill file could not be written
+     */
+    private void spill() throws IOException {
+        if (spillOut == null) {
+            spillFile = localDirs.createTmpFileForWrite("joinBuffer", LocalDirAllocator.SIZE_UNKNOWN, conf);
+            spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+        }
+        spillOut.write(arena.getData(), 0, arena.getLength());
+        numSpilled = numRecords;
+        arena.reset();
+    }
+
+    /**
+     * Starts replaying the records of the buffer from the first one
+     *
+     * @throws IOException if the spill file could not be opened
+     */
+    public void rewind() throws IOException {
+        if (spillIn != null) {
+            spillIn.close();
+            spillIn = null;
+        }
+        if (spillOut != null) {
+            spillOut.flush();
+            spillIn = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+        }
+        arenaIn.reset(arena.getData(), arena.getLength());
+        numReplayed = 0;
+    }
+
+    /**
+     * Reads the next record of the buffer
+     *
+     * @param record the record into which the next record is read
+     * @return false if all records were replayed since the last rewind
+     * @throws IOException if the spill file could not be read
+     */
+    public boolean next(Writable record) throws IOException {
+        if (numReplayed == numRecords) {
+            return false;
+        }
+        record.readFields(numReplayed < numSpilled ? spillIn : arenaIn);
+        numReplayed++;
+        return true;
+    }
+
+    /**
+     * Removes all records, deleting the spill file
+     *
+     * @throws IOException if the spill file could not be closed
+     */
+    public void clear() throws IOException {
+        arena.reset();
+        numRecords = 0;
+        numSpilled = 0;
+        try {
+            if (spillIn != null) {
+                spillIn.close();
+            }
+            if (spillOut != null) {
+                spillOut.close();
+            }
+        } finally {
+            spillIn = null;
+            spillOut = null;
+            if (spillFile != null) {
+                File file = spillFile;
+                spillFile = null;
+                if (!file.delete()) {
+                    throw new IOException("Spill file " + file + " could not be deleted");
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all records, deleting the spill file. Reducers close their buffers in their
+     * cleanup, which runs even if the task fails, so that no spill file outlives the task.
+     *
+     * @throws IOException if the spill file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        clear();
+    }
+}
@@ -0,0 +1,174 @@
+package com.cloud.project.jobUtils;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Composite key used by the reduce-side Inner Join job: the join key, as written in the
+ * record, and a tag telling which side of the join the record comes from.
+ * <p>
+ * Keys are sorted by join key and then by tag, but partitioned and grouped by join key only,
+ * so each reduce call receives all records of a join key, with the records of the side with
+ * the lowest tag first.
+ * </p>
+ * <p>
+ * The records of a hot join key (see {@link SkewJoin}) also carry the reducer to which they are
+ * sent, which is ignored when comparing keys.
+ * </p>
+ * <p>
+ * Serialized form: the join key as a {@link Text} (VInt length followed by the UTF-8 bytes),
+ * followed by the tag (byte) and the reducer (VInt, -1 if it is chosen by the partitioner).
+ * </p>
+ */
+public class JoinKey implements WritableComparable<JoinKey> {
+
+    private final Text joinKey = new Text();
+    private byte tag;
+    private int partition = -1;
+
+    static {
+        // registering the raw comparator as the default comparator of this class
+        WritableComparator.define(JoinKey.class, new Comparator());
+    }
+
+    /**
+     * Sets the join key from a slice of a UTF-8 byte array, and the tag. The reducer of the key
+     * is left to the partitioner.
+     *
+     * @param bytes  bytes holding the join key
+     * @param start  offset of the join key in bytes
+     * @param length length of the join key, in bytes
+     * @param tag    tag of the side of the join
+     */
+    public void set(byte[] bytes, int start, int length, byte tag) {
+        joinKey.set(bytes, start, length);
+        this.tag = tag;
+        partition = -1;
+    }
+
+    /**
+     * Copies the join key of another key into this key, with the given tag. The reducer of the
+     * key is left to the partitioner.
+     *
+     * @param other the key whose join key is copied
+     * @param tag   tag of the side of the join
+     */
+    public void set(JoinKey other, byte tag) {
+        joinKey.set(other.joinKey);
+        this.tag = tag;
+        partition = -1;
+    }
+
+    public Text getJoinKey() {
+        return joinKey;
+    }
+
+    public byte getTag() {
+        return tag;
+    }
+
+    /**
+     * Returns the reducer to which the record of this key is sent
+     *
+     * @return index of the reducer, -1 if it is chosen by the partitioner
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    public void setPartition(int partition) {
+        this.partition = partition;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        joinKey.write(out);
+        out.writeByte(tag);
+        WritableUtils.writeVInt(out, partition);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        joinKey.readFields(in);
+        tag = in.readByte();
+        partition = WritableUtils.readVInt(in);
+    }
+
+    @Override
+    public int compareTo(JoinKey other) {
+        int cmp = joinKey.compareTo(other.joinKey);
+        return (cmp != 0) ? cmp : tag - other.tag;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof JoinKey && compareTo((JoinKey) o) == 0;
+    }
+
+    /**
+     * Hashes the join key only, so that the keys of both tables with the same join key are sent
+     * to the same reducer by any partitioner which hashes them, e.g. Hadoop's default one
+     */
+    @Override
+    public int hashCode() {
+        return joinKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return joinKey + "#" + tag;
+    }
+
+    /**
+     * Comparator which compares serialized {@link JoinKey}s directly, without deserializing
+     * them: bytewise by join key, then by tag. It is used for sorting the keys.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(JoinKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int start1 = s1 + WritableUtils.decodeVIntSize(b1[s1]);
+                int start2 = s2 + WritableUtils.decodeVIntSize(b2[s2]);
+                int length1 = readVInt(b1, s1);
+                int length2 = readVInt(b2, s2);
+                int cmp = compareBytes(b1, start1, length1, b2, start2, length2);
+                return (cmp != 0) ? cmp : b1[start1 + length1] - b2[start2 + length2];
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /**
+     * Comparator which compares serialized {@link JoinKey}s by join key only, ignoring the
+     * tag. It is used for grouping the keys.
+     */
+    public static class GroupingComparator extends WritableComparator {
+
+        public GroupingComparator() {
+            super(JoinKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int start1 = s1 + WritableUtils.decodeVIntSize(b1[s1]);
+                int start2 = s2 + WritableUtils.decodeVIntSize(b2[s2]);
+                return compareBytes(b1, start1, readVInt(b1, s1), b2, start2, readVInt(b2, s2));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.cloud.project.jobUtils;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Value of the reduce-side Inner Join jobs: the selected columns of a record of one side of the
+ * join, as written in the record. The side of the record is told by the tag of its
+ * {@link JoinKey}, which the reducer needs for sorting anyway.
+ * <p>
+ * The fields are copied from the bytes of the input record and kept apart, so that the reducer
+ * can pick each of them without tokenizing the record again, and no separators or quotes need
+ * to be added or parsed.
+ * </p>
+ * <p>
+ * Serialized form: number of fields (VInt), followed by the length of each field (VInt) and its
+ * UTF-8 bytes.
+ * </p>
+ */
+public class JoinRecord implements Writable {
+
+    private byte[] bytes = new byte[64];
+    private int length;
+
+    // end offset of each field in bytes; a field starts where the previous one ends
+    private int[] ends = new int[8];
+    private int numFields;
+
+    /**
+     * Removes all fields
+     */
+    public void clear() {
+        length = 0;
+        numFields = 0;
+    }
+
+    /**
+     * Adds a field from a slice of a UTF-8 byte array
+     *
+     * @param source bytes holding the field
+     * @param start  offset of the field in source
+     * @param len    length of the field, in bytes
+     */
+    public void addField(byte[] source, int start, int len) {
+        ensureCapacity(numFields + 1, length + len);
+        System.arraycopy(source, start, bytes, length, len);
+        length += len;
+        ends[numFields++] = length;
+    }
+
+    /**
+     * Adds a field
+     *
+     * @param field the field
+     */
+    public void addField(Text field) {
+        addField(field.getBytes(), 0, field.getLength());
+    }
+
+    /**
+     * Copies the fields of another record into this record
+     *
+     * @param other the record whose fields are copied
+     */
+    public void set(JoinRecord other) {
+        ensureCapacity(other.numFields, other.length);
+        System.arraycopy(other.bytes, 0, bytes, 0, other.length);
+        System.arraycopy(other.ends, 0, ends, 0, other.numFields);
+        length = other.length;
+        numFields = other.numFields;
+    }
+
+    public int getNumFields() {
+        return numFields;
+    }
+
+    /**
+     * Returns the bytes holding the fields, which are valid up to the end of the last field
+     *
+     * @return the bytes of the fields, one after the other
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the offset of a field in {@link #getBytes()}
+     *
+     * @param field index of the field
+     * @return offset of the field
+     */
+    public int getStart(int field) {
+        return (field == 0) ? 0 : ends[field - 1];
+    }
+
+    /**
+     * Returns the length of a field
+     *
+     * @param field index of the field
+     * @return length of the field, in bytes
+     */
+    public int getLength(int field) {
+        return ends[field] - getStart(field);
+    }
+
+    private void ensureCapacity(int fields, int bytesLength) {
+        if (fields > ends.length) {
+            ends = Arrays.copyOf(ends, Math.max(fields, 2 * ends.length));
+        }
+        if (bytesLength > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytesLength, 2 * bytes.length));
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, numFields);
+        for (int i = 0; i < numFields; i++) {
+            WritableUtils.writeVInt(out, getLength(i));
+            out.write(bytes, getStart(i), getLength(i));
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        clear();
+        int size = WritableUtils.readVInt(in);
+        for (int i = 0; i < size; i++) {
+            int len = WritableUtils.readVInt(in);
+            ensureCapacity(numFields + 1, length + len);
+            in.readFully(bytes, length, len);
+            length += len;
+            ends[numFields++] = length;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < numFields; i++) {
+            record.append(i == 0 ? "" : ",").append(new String(bytes, getStart(i), getLength(i), StandardCharsets.UTF_8));
+        }
+        return record.toString();
+    }
+}
@@ -0,0 +1,304 @@
+package com.cloud.project.jobUtils;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Order in which the tables of an Inner Join of more than two tables are joined, derived from
+ * the join conditions and the anchor tables of its physical plan, so that the driver, the tasks
+ * and the Spark job all derive the same order.
+ * <p>
+ * The join conditions form a tree, which is walked breadth first from the largest table. If the
+ * plan has a second anchor table, the edge which joins it to the table before it is cut: the
+ * second anchor and the tables after it form the second side of the join, all other tables the
+ * first side. The mappers of each anchor table probe the hash maps of the other tables of its
+ * side, which are broadcast, and the two sides are joined by a single shuffle, on the join key
+ * of the cut edge. Without a second anchor, all tables are joined by the mappers of the largest
+ * table.
+ * </p>
+ */
+public class JoinTree {
+
+    private final PhysicalPlan plan;
+
+    // tables in the order in which they are joined, starting with the largest table
+    private final int[] order;
+
+    // for each table, the table before it in the join order to which it is joined (-1 for the
+    // largest table), and the index of the join key in that table and in the table itself
+    private final int[] parents;
+    private final int[] probeKeyIndices;
+    private final int[] buildKeyIndices;
+
+    // for each table, the side of the join to which it belongs (0 or 1)
+    private final int[] sides;
+
+    // for each side, the table holding the join key on which the sides are shuffled, and its index
+    private final int[] shuffleTables = {-1, -1};
+    private final int[] shuffleKeyIndices = {-1, -1};
+
+    // for each table, the sorted indices of the columns kept from its records: the selected
+    // columns, the join keys of the tables after it, the join key on which the sides are shuffled
+    // and the aggregated columns
+    private final int[][] neededIndices;
+
+    /**
+     * Derives the join order of a plan
+     *
+     * @param plan physical plan of an Inner Join of more than two tables, with its anchor tables
+     */
+    public JoinTree(PhysicalPlan plan) {
+        this.plan = plan;
+        int numTables = plan.getNumTables();
+        order = new int[numTables];
+        parents = new int[numTables];
+        probeKeyIndices = new int[numTables];
+        buildKeyIndices = new int[numTables];
+        sides = new int[numTables];
+        Arrays.fill(parents, -1);
+        Arrays.fill(probeKeyIndices, -1);
+        Arrays.fill(buildKeyIndices, -1);
+
+        // walking the tree of join conditions breadth first, from the largest table
+        int[] anchors = plan.getAnchorTables();
+        boolean[] visited = new boolean[numTables];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(anchors[0]);
+        visited[anchors[0]] = true;
+        int numOrdered = 0;
+        while (!queue.isEmpty()) {
+            int table = queue.poll();
+            order[numOrdered++] = table;
+            for (int next = 0; next < numTables; next++) {
+                if (visited[next]) {
+                    continue;
+                }
+                if (plan.getJoinPartner(next) == table) {
+                    // next was joined to table in the query
+                    probeKeyIndices[next] = plan.getPartnerKeyIndex(next);
+                    buildKeyIndices[next] = plan.getJoinKeyIndex(next);
+                } else if (plan.getJoinPartner(table) == next) {
+                    // table was joined to next in the query
+                    probeKeyIndices[next] = plan.getJoinKeyIndex(table);
+                    buildKeyIndices[next] = plan.getPartnerKeyIndex(table);
+                } else {
+                    continue;
+                }
+                parents[next] = table;
+                visited[next] = true;
+                queue.add(next);
+            }
+        }
+
+        // the second anchor and the tables after it form the second side
+        if (anchors.length > 1) {
+            for (int table : order) {
+                sides[table] = (table == anchors[1] || (parents[table] >= 0 && sides[parents[table]] == 1)) ? 1 : 0;
+            }
+            shuffleTables[0] = parents[anchors[1]];
+            shuffleKeyIndices[0] = probeKeyIndices[anchors[1]];
+            shuffleTables[1] = anchors[1];
+            shuffleKeyIndices[1] = buildKeyIndices[anchors[1]];
+        }
+
+        neededIndices = new int[numTables][];
+        for (int table = 0; table < numTables; table++) {
+            TreeSet<Integer> needed = new TreeSet<>();
+            for (int index : plan.getProjectionIndices(table)) {
+                needed.add(index);
+            }
+            for (int next = 0; next < numTables; next++) {
+                if (parents[next] == table) {
+                    needed.add(probeKeyIndices[next]);
+                }
+            }
+            for (int side = 0; side < 2; side++) {
+                if (shuffleTables[side] == table) {
+                    needed.add(shuffleKeyIndices[side]);
+                }
+            }
+            if (table == plan.getAggregatedTable()) {
+                for (int index : plan.getAggregateIndices()) {
+                    if (index >= 0) {
+                        needed.add(index);
+                    }
+                }
+            }
+            neededIndices[table] = needed.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Returns the tables in the order in which they are joined
+     *
+     * @return indices of the tables, the largest first, each after the table to which it is joined
+     */
+    public int[] getJoinOrder() {
+        return order;
+    }
+
+    /**
+     * Returns the table before a table in the join order, to which it is joined
+     *
+     * @param table index of the table
+     * @return index of the parent table, -1 for the largest table
+     */
+    public int getParent(int table) {
+        return parents[table];
+    }
+
+    /**
+     * Returns the index of the join key of a table in its parent table (see {@link #getParent(int)})
+     *
+     * @param table index of the table
+     * @return column index of the join key in the parent table, -1 for the largest table
+     */
+    public int getProbeKeyIndex(int table) {
+        return probeKeyIndices[table];
+    }
+
+    /**
+     * Returns the index of the join key of a table with its parent table (see {@link #getParent(int)})
+     *
+     * @param table index of the table
+     * @return column index of the join key in the table, -1 for the largest table
+     */
+    public int getBuildKeyIndex(int table) {
+        return buildKeyIndices[table];
+    }
+
+    /**
+     * Returns the number of sides of the join, which are joined by a shuffle if there are two
+     *
+     * @return 1 for a map-side join, 2 for a join with a shuffle
+     */
+    public int getNumSides() {
+        return plan.getAnchorTables().length;
+    }
+
+    /**
+     * Returns the side of the join to which a table belongs
+     *
+     * @param table index of the table
+     * @return 0 for the side of the largest table, 1 for the side of the second anchor table
+     */
+    public int getSide(int table) {
+        return sides[table];
+    }
+
+    /**
+     * Returns the anchor table of a side, which is read by the mappers of this side
+     *
+     * @param side 0 or 1
+     * @return index of the anchor table
+     */
+    public int getAnchor(int side) {
+        return plan.getAnchorTables()[side];
+    }
+
+    /**
+     * Returns the tables of a side which are broadcast to the mappers of its anchor table, in
+     * the order in which they are joined
+     *
+     * @param side 0 or 1
+     * @return indices of the broadcast tables
+     */
+    public int[] getBroadcastTables(int side) {
+        return Arrays.stream(order).filter(table -> sides[table] == side && table != getAnchor(side)).toArray();
+    }
+
+    /**
+     * Returns the table of a side holding the join key on which the sides are shuffled
+     *
+     * @param side 0 or 1
+     * @return index of the table, -1 for a map-side join
+     */
+    public int getShuffleTable(int side) {
+        return shuffleTables[side];
+    }
+
+    /**
+     * Returns the index of the join key on which the sides are shuffled in its table (see
+     * {@link #getShuffleTable(int)})
+     *
+     * @param side 0 or 1
+     * @return column index of the join key, -1 for a map-side join
+     */
+    public int getShuffleKeyIndex(int side) {
+        return shuffleKeyIndices[side];
+    }
+
+    /**
+     * Returns the indices of the columns kept from the records of a table: its selected columns,
+     * the join keys of the tables joined to it, the join key on which the sides are shuffled, and
+     * the aggregated columns of the aggregated table (see {@link PhysicalPlan#getAggregatedTable()})
+     *
+     * @param table index of the table
+     * @return sorted column indices
+     */
+    public int[] getNeededIndices(int table) {
+        return neededIndices[table];
+    }
+
+    /**
+     * Returns the position of a column among the columns kept from the records of a table (see
+     * {@link #getNeededIndices(int)})
+     *
+     * @param table  index of the table
+     * @param column column index in the table, which should be kept
+     * @return position of the column
+     */
+    public int getPosition(int table, int column) {
+        return Arrays.binarySearch(neededIndices[table], column);
+    }
+
+    /**
+     * Returns the highest index of a column of a table which is used for joining, filtering or
+     * aggregating its records: its join keys, the column of the where clause and its aggregated
+     * columns. Records with fewer columns are dropped.
+     *
+     * @param table index of the table
+     * @return highest column index used for joining, filtering or aggregating
+     */
+    public int getMaxKeyIndex(int table) {
+        int maxIndex = Math.max(buildKeyIndices[table], plan.getWhereIndex(table));
+        for (int next = 0; next < parents.length; next++) {
+            if (parents[next] == table) {
+                maxIndex = Math.max(maxIndex, probeKeyIndices[next]);
+            }
+        }
+        if (table == plan.getAggregatedTable()) {
+            for (int index : plan.getAggregateIndices()) {
+                maxIndex = Math.max(maxIndex, index);
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Returns the side from which each selected column is read
+     *
+     * @return for each selected column, 0 or 1
+     */
+    public int[] getSelectSides() {
+        return Arrays.stream(plan.getSelectTables()).map(table -> sides[table]).toArray();
+    }
+
+    /**
+     * Returns the position of each selected column among the columns kept from the records of
+     * its table (see {@link #getPosition(int, int)})
+     *
+     * @return for each selected column, its position
+     */
+    public int[] getSelectPositions() {
+        int[] selectTables = plan.getSelectTables();
+        int[] positions = new int[selectTables.length];
+        int[] numSelected = new int[plan.getNumTables()];
+        for (int i = 0; i < selectTables.length; i++) {
+            int table = selectTables[i];
+            positions[i] = getPosition(table, plan.getProjectionIndices(table)[numSelected[table]++]);
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,552 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.models.OutputModel;
+import com.cloud.project.sqlUtils.ParseSQL;
+import com.cloud.project.sqlUtils.Tables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.Time;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Inner Join of more than two tables (e.g. Rating, Users and Zipcodes), run as a single job.
+ * <p>
+ * The largest table is read by the mappers, and all tables small enough to be broadcast (see
+ * {@link Globals#getBroadcastJoinThreshold()}) are loaded into hash maps by each mapper, which
+ * joins its records with them without a shuffle. If the second largest table is too large to be
+ * broadcast as well, it is read by mappers of its own, which join it with the small tables on
+ * its side, and both sides are joined by a reduce-side join (see {@link InnerJoin}): the only
+ * shuffle of the query. The order of the joins is given by a {@link JoinTree}. A join in which a
+ * third table is too large to be broadcast is refused.
+ * </p>
+ */
+public class MultiJoin {
+
+    /**
+     * Executes the Hadoop Map-Reduce job for an Inner Join query of more than two tables.
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @return an instance of {@link OutputModel} populated with relevant fields from Hadoop execution
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     * @throws SQLException           if the SQL query could not be parsed successfully, or if a table other
+     *                                than the two largest is too large to be broadcast
+     */
+    public static OutputModel execute(ParseSQL parsedSQL) throws IOException,
+            InterruptedException, ClassNotFoundException, SQLException {
+
+        OutputModel multiJoinOutput = new OutputModel();
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", Globals.getNamenodeUrl());
+        PhysicalPlan plan = PhysicalPlan.multiJoin(parsedSQL);
+        int numTables = plan.getNumTables();
+
+        Path[] inputPaths = new Path[numTables];
+        long[] inputSizes = new long[numTables];
+        for (int i = 0; i < numTables; i++) {
+            inputPaths[i] = new Path(Globals.getCsvInputPath() + DBManager.getFileName(plan.getTable(i)));
+            inputSizes[i] = Partitioning.getInputSize(conf, inputPaths[i]);
+        }
+        plan.setAnchorTables(getAnchorTables(inputSizes));
+        /* the reducers buffer the records of the side of the second anchor, which is the smaller one */
+        plan.setBufferedTable(1);
+        plan.store(conf);
+        JoinTree tree = new JoinTree(plan);
+
+        Job job = Job.getInstance(conf, "MultiJoin");
+        job.setJarByClass(MultiJoin.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        /* all tables other than the anchors are broadcast, which they must be small enough for */
+        checkBroadcastTables(plan, tree, inputSizes);
+        for (int side = 0; side < tree.getNumSides(); side++) {
+            for (int table : tree.getBroadcastTables(side)) {
+                job.addCacheFile(inputPaths[table].getFileSystem(conf).makeQualified(inputPaths[table]).toUri());
+            }
+        }
+
+        int first = tree.getAnchor(0);
+        if (tree.getNumSides() == 1) {
+            ColumnarStorage.addInputPath(job, plan, first, inputPaths[first], MapSideJoinMapper.class);
+            job.setNumReduceTasks(0);
+        } else {
+            int second = tree.getAnchor(1);
+            job.setReducerClass(InnerJoin.ReduceJoinReducer.class);
+            job.setMapOutputKeyClass(JoinKey.class);
+            job.setMapOutputValueClass(JoinRecord.class);
+
+            /* sorting by join key and tag (buffered side first), grouping by join key */
+            job.setSortComparatorClass(JoinKey.Comparator.class);
+            job.setGroupingComparatorClass(JoinKey.GroupingComparator.class);
+
+            ColumnarStorage.addInputPath(job, plan, first, inputPaths[first], FirstSideMapper.class);
+            ColumnarStorage.addInputPath(job, plan, second, inputPaths[second], SecondSideMapper.class);
+
+            /* choose number of reducers and partitioning of join keys from a sample of the second anchor */
+            int numReducers = Partitioning.getNumReducers(inputSizes[first] + inputSizes[second]);
+            ArrayList<JoinKey> sample = new ArrayList<>();
+            if (numReducers > 1) {
+                InnerJoin.sampleJoinKeys(conf, inputPaths[second], Globals.getPartitionSampleSize(),
+                        tree.getShuffleKeyIndex(1), sample);
+            }
+            Partitioning.configure(job, sample, numReducers, InnerJoin.JoinKeyPartitioner.class);
+        }
+        Path outputPath = new Path(Globals.getHadoopOutputPath());
+
+        FileOutputFormat.setOutputPath(job, outputPath);
+        outputPath.getFileSystem(conf).delete(outputPath, true);
+        long startTime = Time.now();
+        boolean succeeded = job.waitForCompletion(true);
+        Partitioning.deletePartitionFile(conf);
+        long endTime = (succeeded ? Time.now() : startTime);
+        long execTime = endTime - startTime;
+
+        /* Create reducer scheme: the selected columns, in the order of the select list */
+        String[] sideColumns = {"", ""};
+        StringBuilder selected = new StringBuilder();
+        int[] numSelected = new int[numTables];
+        for (int table : plan.getSelectTables()) {
+            String column = DBManager.getColumnFromIndex(plan.getTable(table), plan.getProjectionIndices(table)[numSelected[table]++]);
+            selected.append(selected.length() == 0 ? "" : ", ").append(column);
+            int side = tree.getSide(table);
+            sideColumns[side] += (sideColumns[side].isEmpty() ? "" : ", ") + column;
+        }
+
+        /* Set Multi Join output: the mappers of each side, and the reducer joining both sides */
+        multiJoinOutput.setFirstMapperPlan(mapperScheme(plan, tree, 0, sideColumns[0], selected.toString()));
+        if (tree.getNumSides() == 1) {
+            multiJoinOutput.setSecondMapperPlan("none (map-side join)");
+            multiJoinOutput.setInnerJoinReducerPlan("none (map-side join)");
+        } else {
+            String jk = DBManager.getColumnFromIndex(plan.getTable(tree.getShuffleTable(1)), tree.getShuffleKeyIndex(1));
+            multiJoinOutput.setSecondMapperPlan(mapperScheme(plan, tree, 1, sideColumns[1], selected.toString()));
+            multiJoinOutput.setInnerJoinReducerPlan("<" + jk + ", List(" + sideColumns[1] + ") ++ List(" + sideColumns[0]
+                    + ")> (buffering " + plan.getTable(tree.getAnchor(1)).name() + " side) ---> <(" + selected + ")>");
+        }
+        multiJoinOutput.setHadoopExecutionTime(execTime + " milliseconds");
+
+        FileSystem fileSystem = outputPath.getFileSystem(conf);
+        FileStatus[] fileStatuses = fileSystem.listStatus(outputPath);
+
+        StringBuilder downloadUrl = new StringBuilder();
+
+        for (FileStatus fileStatus : fileStatuses) {
+            if (fileStatus.isFile()) {
+                String filename = fileStatus.getPath().getName();
+                if (filename.matches("part-[mr]-[0-9]*")) {
+                    downloadUrl.append(Globals.getWebhdfsHost())
+                            .append("/webhdfs/v1")
+                            .append(Globals.getHadoopOutputPath()).append("/")
+                            .append(filename)
+                            .append("?op=OPEN\n");
+                }
+            }
+        }
+
+        downloadUrl.append("NOTE: These URLs will work only if WebHDFS is enabled");
+
+        multiJoinOutput.setHadoopOutputUrl(downloadUrl.toString());
+
+        return multiJoinOutput;
+    }
+
+    /**
+     * Checks that the tables of a join which are broadcast, i.e. all tables other than its anchor
+     * tables, are small enough to be loaded into the hash maps of every mapper (see
+     * {@link Globals#getBroadcastJoinThreshold()}). A join with a third table too large to be
+     * broadcast would need a shuffle of its own, which the job does not run.
+     *
+     * @param plan       physical plan of the join, whose anchor tables are set
+     * @param tree       join order of the plan
+     * @param inputSizes size of each table, in bytes
+     * @throws SQLException if a broadcast table is too large to be broadcast
+     */
+    static void checkBroadcastTables(PhysicalPlan plan, JoinTree tree, long[] inputSizes) throws SQLException {
+        for (int side = 0; side < tree.getNumSides(); side++) {
+            for (int table : tree.getBroadcastTables(side)) {
+                if (inputSizes[table] > Globals.getBroadcastJoinThreshold()) {
+                    throw new SQLException("Table " + plan.getTable(table).name() + " is too large to be broadcast "
+                            + "(" + inputSizes[table] + " bytes): at most two tables of a join may be larger than "
+                            + Globals.getBroadcastJoinThreshold() + " bytes");
+                }
+            }
+        }
+    }
+
+    /**
+     * Chooses the tables read by the mappers: the largest table, and the second largest one if
+     * it is too large to be broadcast
+     *
+     * @param inputSizes size of each table, in bytes
+     * @return indices of the anchor tables, the largest first
+     */
+    public static int[] getAnchorTables(long[] inputSizes) {
+        Integer[] bySize = new Integer[inputSizes.length];
+        for (int i = 0; i < inputSizes.length; i++) {
+            bySize[i] = i;
+        }
+        Arrays.sort(bySize, (a, b) -> Long.compare(inputSizes[b], inputSizes[a]));
+        return (inputSizes[bySize[1]] > Globals.getBroadcastJoinThreshold())
+                ? new int[]{bySize[0], bySize[1]} : new int[]{bySize[0]};
+    }
+
+    /**
+     * Returns the scheme of the mappers of a side of the join: from all columns of its anchor
+     * table, probing the hash maps of the broadcast tables, to the selected columns of the side
+     *
+     * @param plan     physical plan of the join
+     * @param tree     join order of the plan
+     * @param side     side of the join, 0 or 1
+     * @param columns  selected columns of the side
+     * @param selected all selected columns
+     * @return the mapper scheme
+     */
+    private static String mapperScheme(PhysicalPlan plan, JoinTree tree, int side, String columns, String selected) {
+        StringBuilder scheme = inputScheme(plan, tree, side);
+        if (tree.getNumSides() == 1) {
+            return scheme.append(" ---> <(").append(selected).append(")>").toString();
+        }
+        String jk = DBManager.getColumnFromIndex(plan.getTable(tree.getShuffleTable(side)), tree.getShuffleKeyIndex(side));
+        return scheme.append(" ---> <").append(jk).append(", (").append(columns).append(")>").toString();
+    }
+
+    /**
+     * Returns the input of the mappers of a side of the join: all columns of its anchor table,
+     * and the hash maps of the broadcast tables which they probe
+     *
+     * @param plan physical plan of the join
+     * @param tree join order of the plan
+     * @param side side of the join, 0 or 1
+     * @return the input part of the mapper scheme
+     */
+    static StringBuilder inputScheme(PhysicalPlan plan, JoinTree tree, int side) {
+        Tables anchor = plan.getTable(tree.getAnchor(side));
+        StringBuilder scheme = new StringBuilder("<serial_number, (");
+        for (int i = 0; i < DBManager.getTableSize(anchor); i++) {
+            scheme.append(i == 0 ? "" : ", ").append(DBManager.getColumnFromIndex(anchor, i));
+        }
+        scheme.append(")>");
+        for (int table : tree.getBroadcastTables(side)) {
+            scheme.append(" + HashMap<").append(DBManager.getColumnFromIndex(plan.getTable(table), tree.getBuildKeyIndex(table)))
+                    .append(", List(").append(plan.getTable(table).name()).append(")>");
+        }
+        return scheme;
+    }
+
+    /**
+     * Global Mapper of the anchor table of a side of the join. The broadcast tables of the side
+     * are read from the distributed cache into hash maps from their join keys to the columns
+     * kept from their records, keeping only the records which match the WHERE clause. Each
+     * record of the anchor table which matches the WHERE clause probes the hash maps in the
+     * join order, and each joined record is written by the subclass.
+     */
+
+    static abstract class AnchorMapper<KEYOUT, VALUEOUT> extends Mapper<Object, Text, KEYOUT, VALUEOUT> {
+        private int anchor;
+        private int maxKeyIndex;
+        private int whereIndex;
+        private byte[] whereValue;
+        private RangeFilter rangeFilter;
+        private NullFilter nullFilter;
+        private int[] neededIndices;
+        private int[] selectTables;
+        private int[] selectPositions;
+        private CsvTokenizer tokenizer;
+
+        /* for each broadcast table, in join order: the table which probes it, the position of the probe key
+         * among the columns kept from that table, and its records by join key */
+        private int[] broadcastTables;
+        private int[] probeTables;
+        private int[] probePositions;
+        private final ArrayList<HashMap<Text, ArrayList<Text[]>>> broadcastRecords = new ArrayList<>();
+
+        /* columns kept from the records of each table which make the current joined record */
+        protected Text[][] joined;
+        protected JoinTree tree;
+        protected PhysicalPlan plan;
+
+        /**
+         * Returns the side of the join which is mapped
+         *
+         * @return 0 for the side of the largest table, 1 for the side of the second anchor table
+         */
+        protected abstract int getSide();
+
+        /**
+         * Writes the current joined record (see {@link #joined})
+         *
+         * @param context context of the task
+         * @throws IOException          if the record could not be written
+         * @throws InterruptedException if the task is interrupted
+         */
+        protected abstract void write(Context context) throws IOException, InterruptedException;
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            plan = PhysicalPlan.load(context.getConfiguration());
+            tree = new JoinTree(plan);
+            joined = new Text[plan.getNumTables()][];
+            whereValue = plan.getWhereValue().getBytes(StandardCharsets.UTF_8);
+
+            broadcastTables = tree.getBroadcastTables(getSide());
+            probeTables = new int[broadcastTables.length];
+            probePositions = new int[broadcastTables.length];
+            for (int i = 0; i < broadcastTables.length; i++) {
+                int table = broadcastTables[i];
+                probeTables[i] = tree.getParent(table);
+                probePositions[i] = tree.getPosition(probeTables[i], tree.getProbeKeyIndex(table));
+                broadcastRecords.add(loadBroadcastTable(context, table));
+            }
+
+            anchor = tree.getAnchor(getSide());
+            maxKeyIndex = tree.getMaxKeyIndex(anchor);
+            whereIndex = plan.getWhereIndex(anchor);
+            rangeFilter = new RangeFilter(plan, anchor);
+            nullFilter = new NullFilter(plan, anchor);
+            neededIndices = tree.getNeededIndices(anchor);
+            tokenizer = new CsvTokenizer(DBManager.getTableSize(plan.getTable(anchor)));
+            joined[anchor] = newFields(neededIndices.length);
+            selectTables = plan.getSelectTables();
+            selectPositions = tree.getSelectPositions();
+        }
+
+        /**
+         * Reads a broadcast table into a hash map, from the distributed cache
+         *
+         * @param context instance of {@link org.apache.hadoop.mapreduce.Mapper.Context}
+         * @param table   index of the broadcast table
+         * @return the records of the table by join key
+         * @throws IOException if the broadcast table could not be read
+         */
+        private HashMap<Text, ArrayList<Text[]>> loadBroadcastTable(Context context, int table) throws IOException {
+            Configuration conf = context.getConfiguration();
+            String fileName = new Path(DBManager.getFileName(plan.getTable(table))).getName();
+            Path path = null;
+            for (URI cacheFile : context.getCacheFiles()) {
+                if (new Path(cacheFile.getPath()).getName().equals(fileName)) {
+                    path = InnerJoin.getCachePath(conf, cacheFile);
+                }
+            }
+            if (path == null) {
+                throw new IOException("Table " + plan.getTable(table).name() + " is not in the distributed cache");
+            }
+            FileSystem fileSystem = path.getFileSystem(conf);
+
+            int keyIndex = tree.getBuildKeyIndex(table);
+            int maxIndex = tree.getMaxKeyIndex(table);
+            int filterIndex = plan.getWhereIndex(table);
+            RangeFilter broadcastRange = new RangeFilter(plan, table);
+            NullFilter broadcastNulls = new NullFilter(plan, table);
+            int[] needed = tree.getNeededIndices(table);
+            CsvTokenizer broadcastTokenizer = new CsvTokenizer(DBManager.getTableSize(plan.getTable(table)));
+            HashMap<Text, ArrayList<Text[]>> records = new HashMap<>();
+            try (FSDataInputStream in = fileSystem.open(path)) {
+                LineReader reader = new LineReader(in, conf);
+                Text line = new Text();
+                while (reader.readLine(line) > 0) {
+                    int numFields = broadcastTokenizer.tokenize(line);
+                    if (numFields <= maxIndex) continue;
+                    if (filterIndex >= 0 && !broadcastTokenizer.equalsIgnoreCase(filterIndex, whereValue)) continue;
+                    if (!broadcastRange.matches(broadcastTokenizer) || !broadcastNulls.matches(broadcastTokenizer)) continue;
+
+                    Text key = new Text();
+                    key.set(broadcastTokenizer.getBytes(), broadcastTokenizer.getStart(keyIndex),
+                            broadcastTokenizer.getLength(keyIndex));
+                    Text[] fields = newFields(needed.length);
+                    setFields(broadcastTokenizer, numFields, needed, fields);
+                    records.computeIfAbsent(key, k -> new ArrayList<>()).add(fields);
+                }
+            }
+            return records;
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context)
+                throws IOException, InterruptedException {
+            int numFields = tokenizer.tokenize(value);
+
+            /* remove if incomplete or does not match WHERE clause */
+            if (numFields <= maxKeyIndex) return;
+            if (whereIndex >= 0 && !tokenizer.equalsIgnoreCase(whereIndex, whereValue)) return;
+            if (!rangeFilter.matches(tokenizer) || !nullFilter.matches(tokenizer)) return;
+
+            setFields(tokenizer, numFields, neededIndices, joined[anchor]);
+            probe(0, context);
+        }
+
+        /**
+         * Joins the current record with the records of the broadcast tables, from a table onwards
+         *
+         * @param next    position of the next broadcast table in the join order
+         * @param context context of the task
+         * @throws IOException          if a record could not be written
+         * @throws InterruptedException if the task is interrupted
+         */
+        private void probe(int next, Context context) throws IOException, InterruptedException {
+            if (next == broadcastTables.length) {
+                write(context);
+                return;
+            }
+            ArrayList<Text[]> matches = broadcastRecords.get(next).get(joined[probeTables[next]][probePositions[next]]);
+            if (matches == null) return;
+            for (Text[] match : matches) {
+                joined[broadcastTables[next]] = match;
+                probe(next + 1, context);
+            }
+        }
+
+        /**
+         * Appends the selected columns of the current joined record to a value, in the order of
+         * the select list, separated by commas
+         *
+         * @param value the value to which the columns are appended
+         */
+        protected void appendSelected(Text value) {
+            for (int i = 0; i < selectTables.length; i++) {
+                if (i > 0) {
+                    value.append(InnerJoin.COMMA, 0, 1);
+                }
+                Text field = joined[selectTables[i]][selectPositions[i]];
+                value.append(field.getBytes(), 0, field.getLength());
+            }
+        }
+
+        /**
+         * Adds the selected columns of a side of the current joined record to a join record, in
+         * the order of the select list
+         *
+         * @param side   side of the join, 0 or 1
+         * @param record the join record to which the columns are added
+         */
+        protected void addSelected(int side, JoinRecord record) {
+            for (int i = 0; i < selectTables.length; i++) {
+                if (tree.getSide(selectTables[i]) == side) {
+                    record.addField(joined[selectTables[i]][selectPositions[i]]);
+                }
+            }
+        }
+
+        /**
+         * Sets the kept fields of a tokenized record. Fields missing from an incomplete record
+         * are left empty.
+         *
+         * @param tokenizer tokenizer holding the record
+         * @param numFields number of fields of the record
+         * @param indices   indices of the kept fields
+         * @param fields    the kept fields
+         */
+        private static void setFields(CsvTokenizer tokenizer, int numFields, int[] indices, Text[] fields) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] < numFields) {
+                    fields[i].set(tokenizer.getBytes(), tokenizer.getStart(indices[i]), tokenizer.getLength(indices[i]));
+                } else {
+                    fields[i].clear();
+                }
+            }
+        }
+
+        private static Text[] newFields(int numFields) {
+            Text[] fields = new Text[numFields];
+            for (int i = 0; i < numFields; i++) {
+                fields[i] = new Text();
+            }
+            return fields;
+        }
+    }
+
+    /**
+     * Mapper of a map-side join, which joins all tables: writes the selected columns of each
+     * joined record as the output key, without a value.
+     */
+
+    private static class MapSideJoinMapper extends AnchorMapper<Text, NullWritable> {
+        private final Text keyOut = new Text();
+
+        @Override
+        protected int getSide() {
+            return 0;
+        }
+
+        @Override
+        protected void write(Context context) throws IOException, InterruptedException {
+            keyOut.clear();
+            appendSelected(keyOut);
+            context.write(keyOut, NullWritable.get());
+        }
+    }
+
+    /**
+     * Mapper of a side of a join with a shuffle: maps each joined record of the side to
+     * <(join_key, tag), selected columns of the side>, where the join key is the one on which the
+     * sides are joined, and the tag tells whether the side is the buffered one. Subclasses only
+     * choose the side which they map.
+     */
+
+    private static abstract class SideMapper extends AnchorMapper<JoinKey, JoinRecord> {
+        private int shuffleTable;
+        private int shufflePosition;
+        private byte tag;
+        private final JoinKey keyOut = new JoinKey();
+        private final JoinRecord valueOut = new JoinRecord();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            super.setup(context);
+            shuffleTable = tree.getShuffleTable(getSide());
+            shufflePosition = tree.getPosition(shuffleTable, tree.getShuffleKeyIndex(getSide()));
+            tag = (getSide() == plan.getBufferedTable()) ? InnerJoin.BUFFERED_TAG : InnerJoin.STREAMED_TAG;
+        }
+
+        @Override
+        protected void write(Context context) throws IOException, InterruptedException {
+            Text joinKey = joined[shuffleTable][shufflePosition];
+            keyOut.set(joinKey.getBytes(), 0, joinKey.getLength(), tag);
+            valueOut.clear();
+            addSelected(getSide(), valueOut);
+            context.write(keyOut, valueOut);
+        }
+    }
+
+    /**
+     *  Class for mapping the side of the largest table.
+     */
+
+    private static class FirstSideMapper extends SideMapper {
+        @Override
+        protected int getSide() {
+            return 0;
+        }
+    }
+
+    /**
+     *  Class for mapping the side of the second anchor table.
+     */
+
+    private static class SecondSideMapper extends SideMapper {
+        @Override
+        protected int getSide() {
+            return 1;
+        }
+    }
+}
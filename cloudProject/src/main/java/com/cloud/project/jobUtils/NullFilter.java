@@ -0,0 +1,69 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.sqlUtils.Tables;
+
+import java.util.stream.IntStream;
+
+/**
+ * Not null constraints of the columns of a table (see {@link DBManager#isNullable}), checked by
+ * the mappers against each record of the table. A record does not match if one of its
+ * non-nullable columns is missing or empty, or is not an integer in an integer column, in which
+ * case Spark reads it as null too.
+ */
+public class NullFilter {
+
+    private final int[] indices;
+    private final boolean[] integral;
+
+    /**
+     * Creates the filter of a table of a query
+     *
+     * @param plan  physical plan of the query
+     * @param table index of the table in the plan
+     */
+    public NullFilter(PhysicalPlan plan, int table) {
+        Tables t = plan.getTable(table);
+        indices = getNonNullableColumns(t);
+        integral = new boolean[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            integral[i] = DBManager.getColumnType(t, indices[i]).isIntegral();
+        }
+    }
+
+    /**
+     * Returns the columns of a table which are not nullable, which are read by every query on the
+     * table so that its records can be checked against them
+     *
+     * @param table the table
+     * @return sorted indices of the non-nullable columns
+     */
+    public static int[] getNonNullableColumns(Tables table) {
+        return IntStream.range(0, DBManager.getTableSize(table))
+                .filter(i -> !DBManager.isNullable(table, i)).toArray();
+    }
+
+    /**
+     * Returns whether the last record read by a tokenizer holds a value in all the non-nullable
+     * columns of the table. The tokenizer should parse these columns.
+     *
+     * @param tokenizer tokenizer of the record
+     * @return true if the record holds all its non-nullable columns
+     */
+    public boolean matches(CsvTokenizer tokenizer) {
+        for (int i = 0; i < indices.length; i++) {
+            int index = indices[i];
+            if (tokenizer.getNumFields() <= index || tokenizer.getValueLength(index) == 0) {
+                return false;
+            }
+            if (integral[i]) {
+                try {
+                    tokenizer.getLong(index);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,311 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class which chooses the number of reducers of a Hadoop job, and the way in which the map
+ * output keys are partitioned among them, from a sample of the input.
+ * <p>
+ * By default, the keys which make up a large share of the sample (heavy keys) are assigned
+ * to the least loaded reducers by {@link SkewAwarePartitioner}, while all other keys are
+ * hashed. A heavy key is never split across reducers, but the heavy keys are spread over the
+ * reducers instead of being left to collide by hashing. If total order output is enabled (see
+ * {@link Globals#isTotalOrderOutputEnabled()}), the sampled keys are instead used as split
+ * points for {@link TotalOrderPartitioner}, so that the output files are globally sorted.
+ * </p>
+ */
+public class Partitioning {
+
+    private Partitioning() {
+        // private constructor to restrict object creation
+    }
+
+    /**
+     * Returns the total size of the given input files
+     *
+     * @param conf   configuration of the job
+     * @param inputs paths of the input files
+     * @return total size of the input, in bytes
+     * @throws IOException if the input files could not be accessed
+     */
+    public static long getInputSize(Configuration conf, Path... inputs) throws IOException {
+        long size = 0;
+        for (Path input : inputs) {
+            size += input.getFileSystem(conf).getContentSummary(input).getLength();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of reducers for an input of the given size, which is one reducer for
+     * every {@link Globals#getBytesPerReducer()} bytes, up to {@link Globals#getMaxReducers()}
+     *
+     * @param inputSize size of the input of the job, in bytes
+     * @return number of reducers of the job
+     */
+    public static int getNumReducers(long inputSize) {
+        long numReducers = (inputSize + Globals.getBytesPerReducer() - 1) / Globals.getBytesPerReducer();
+        return (int) Math.max(1, Math.min(Globals.getMaxReducers(), numReducers));
+    }
+
+    /**
+     * Samples lines of a text file at evenly spaced offsets. As in
+     * {@link org.apache.hadoop.mapreduce.lib.input.LineRecordReader}, the sample taken at an
+     * offset is the first line which starts at or after it.
+     *
+     * @param conf       configuration of the job
+     * @param input      path of the file to be sampled
+     * @param numSamples number of offsets at which the file is sampled
+     * @return the sampled lines (fewer than numSamples if lines span several offsets)
+     * @throws IOException if the file could not be read
+     */
+    public static ArrayList<Text> sampleLines(Configuration conf, Path input, int numSamples)
+            throws IOException {
+        FileSystem fileSystem = input.getFileSystem(conf);
+        long length = fileSystem.getFileStatus(input).getLen();
+        ArrayList<Text> lines = new ArrayList<>();
+        long lastSampleStart = -1;
+
+        try (FSDataInputStream in = fileSystem.open(input)) {
+            for (int i = 0; i < numSamples; i++) {
+                long offset = length * i / numSamples;
+                if (offset <= lastSampleStart) {
+                    // the first line starting at or after this offset has already been sampled
+                    continue;
+                }
+
+                // skipping up to the end of the line holding the byte before the offset
+                long start = Math.max(0, offset - 1);
+                in.seek(start);
+                LineReader reader = new LineReader(in, 4096);
+                Text line = new Text();
+                if (offset > 0) {
+                    start += reader.readLine(line);
+                }
+                if (reader.readLine(line) == 0) {
+                    break;
+                }
+                lines.add(line);
+                lastSampleStart = start;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Samples lines of several text inputs, each a file or a directory of files, as
+     * {@link #sampleLines(Configuration, Path, int)} does for a single file. The offsets are
+     * shared among the files in proportion to their sizes, so that the sample is spread evenly
+     * over the whole input.
+     *
+     * @param conf       configuration of the job
+     * @param inputs     paths of the files or directories to be sampled
+     * @param numSamples number of offsets at which the input is sampled
+     * @return the sampled lines
+     * @throws IOException if the input could not be read
+     */
+    public static ArrayList<Text> sampleLines(Configuration conf, Path[] inputs, int numSamples)
+            throws IOException {
+        ArrayList<FileStatus> files = new ArrayList<>();
+        long totalLength = 0;
+        for (Path input : inputs) {
+            // skipping the _SUCCESS markers and other hidden files of job output directories
+            for (FileStatus status : input.getFileSystem(conf).listStatus(input,
+                    path -> !path.getName().startsWith("_") && !path.getName().startsWith("."))) {
+                if (status.isFile() && status.getLen() > 0) {
+                    files.add(status);
+                    totalLength += status.getLen();
+                }
+            }
+        }
+
+        ArrayList<Text> lines = new ArrayList<>();
+        long lengthSampled = 0;
+        int numSampled = 0;
+        for (FileStatus file : files) {
+            lengthSampled += file.getLen();
+            int fileSamples = (int) (numSamples * lengthSampled / totalLength) - numSampled;
+            if (fileSamples > 0) {
+                lines.addAll(sampleLines(conf, file.getPath(), fileSamples));
+                numSampled += fileSamples;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Sets the number of reducers and the partitioner of a job. The map output key class and
+     * sort comparator of the job must already be set.
+     *
+     * @param job         the job to be configured
+     * @param sample      map output keys of a sample of the input
+     * @param numReducers desired number of reducers
+     * @param <K>         type of the map output key
+     * @throws IOException if the partition file for total order partitioning could not be written
+     */
+    public static <K extends WritableComparable<?>> void configure(Job job, ArrayList<K> sample,
+                                                                   int numReducers) throws IOException {
+        configure(job, sample, numReducers, SkewAwarePartitioner.class);
+    }
+
+    /**
+     * Sets the number of reducers and the partitioner of a job, like
+     * {@link #configure(Job, ArrayList, int)}, with a subclass of {@link SkewAwarePartitioner}
+     * which partitions the keys by a part of them. The sample then holds these partition keys.
+     *
+     * @param job              the job to be configured
+     * @param sample           partition keys of a sample of the input
+     * @param numReducers      desired number of reducers
+     * @param partitionerClass the partitioner used unless total order output is enabled
+     * @param <K>              type of the map output key
+     * @throws IOException if the partition file for total order partitioning could not be written
+     */
+    @SuppressWarnings("rawtypes")
+    public static <K extends WritableComparable<?>> void configure(Job job, ArrayList<K> sample, int numReducers,
+                                                                   Class<? extends SkewAwarePartitioner> partitionerClass)
+            throws IOException {
+        if (numReducers > 1 && !sample.isEmpty()) {
+            if (Globals.isTotalOrderOutputEnabled()) {
+                numReducers = writePartitionFile(job, sample, numReducers);
+                job.setPartitionerClass(TotalOrderPartitioner.class);
+            } else {
+                setHeavyKeys(job, sample, numReducers);
+                job.setPartitionerClass(partitionerClass);
+            }
+        }
+        job.setNumReduceTasks(Math.max(1, numReducers));
+    }
+
+    /**
+     * Finds the heavy keys of a sample and assigns each of them to a reducer, heaviest first,
+     * choosing the reducer with the least expected load. The assignment is stored in the
+     * configuration of the job for {@link SkewAwarePartitioner}.
+     * <p>
+     * A key is heavy if it alone makes up more than half of the average load of a reducer.
+     * The expected load of a reducer is the number of sampled records whose keys are sent to it.
+     * </p>
+     *
+     * @param job         the job to be configured
+     * @param sample      map output keys of a sample of the input
+     * @param numReducers number of reducers
+     * @param <K>         type of the map output key
+     * @throws IOException if the heavy keys could not be serialized
+     */
+    private static <K extends WritableComparable<?>> void setHeavyKeys(Job job, ArrayList<K> sample,
+                                                                       int numReducers) throws IOException {
+        HashMap<K, Integer> frequencies = new HashMap<>();
+        for (K key : sample) {
+            frequencies.merge(key, 1, Integer::sum);
+        }
+
+        // the load of each reducer starts with the sampled light keys hashed to it
+        ArrayList<Map.Entry<K, Integer>> heavyKeys = new ArrayList<>();
+        long[] loads = new long[numReducers];
+        for (Map.Entry<K, Integer> entry : frequencies.entrySet()) {
+            if (2L * numReducers * entry.getValue() > sample.size()) {
+                heavyKeys.add(entry);
+            } else {
+                loads[(entry.getKey().hashCode() & Integer.MAX_VALUE) % numReducers] += entry.getValue();
+            }
+        }
+        heavyKeys.sort((a, b) -> b.getValue() - a.getValue());
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        WritableUtils.writeVInt(out, heavyKeys.size());
+        for (Map.Entry<K, Integer> heavyKey : heavyKeys) {
+            int reducer = 0;
+            for (int i = 1; i < numReducers; i++) {
+                if (loads[i] < loads[reducer]) {
+                    reducer = i;
+                }
+            }
+            loads[reducer] += heavyKey.getValue();
+            heavyKey.getKey().write(out);
+            WritableUtils.writeVInt(out, reducer);
+        }
+
+        job.getConfiguration().set(SkewAwarePartitioner.HEAVY_KEYS,
+                Base64.getEncoder().encodeToString(Arrays.copyOf(out.getData(), out.getLength())));
+    }
+
+    /**
+     * Writes the partition file for {@link TotalOrderPartitioner}, holding the keys of a sample
+     * at evenly spaced ranks (in the order of the sort comparator of the job) as split points.
+     * Equal split points are written only once, so the job may get fewer reducers than desired.
+     *
+     * @param job         the job to be configured
+     * @param sample      map output keys of a sample of the input
+     * @param numReducers desired number of reducers
+     * @param <K>         type of the map output key
+     * @return number of reducers, which is one more than the number of split points
+     * @throws IOException if the partition file could not be written
+     */
+    private static <K extends WritableComparable<?>> int writePartitionFile(Job job, ArrayList<K> sample,
+                                                                            int numReducers) throws IOException {
+        Configuration conf = job.getConfiguration();
+        @SuppressWarnings("unchecked")
+        RawComparator<K> comparator = (RawComparator<K>) job.getSortComparator();
+        sample.sort(comparator);
+
+        ArrayList<K> splitPoints = new ArrayList<>();
+        for (int i = 1; i < numReducers; i++) {
+            K splitPoint = sample.get(i * sample.size() / numReducers);
+            if (splitPoints.isEmpty()
+                    || comparator.compare(splitPoints.get(splitPoints.size() - 1), splitPoint) < 0) {
+                splitPoints.add(splitPoint);
+            }
+        }
+
+        Path partitionFile = getPartitionFile();
+        partitionFile.getFileSystem(conf).delete(partitionFile, false);
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(partitionFile),
+                SequenceFile.Writer.keyClass(job.getMapOutputKeyClass()),
+                SequenceFile.Writer.valueClass(NullWritable.class))) {
+            for (K splitPoint : splitPoints) {
+                writer.append(splitPoint, NullWritable.get());
+            }
+        }
+        TotalOrderPartitioner.setPartitionFile(conf, partitionFile);
+
+        return splitPoints.size() + 1;
+    }
+
+    /**
+     * Deletes the partition file of total order partitioning, once the job which read it has
+     * finished
+     *
+     * @param conf configuration of the job
+     * @throws IOException if the partition file could not be deleted
+     */
+    public static void deletePartitionFile(Configuration conf) throws IOException {
+        Path partitionFile = getPartitionFile();
+        partitionFile.getFileSystem(conf).delete(partitionFile, false);
+    }
+
+    private static Path getPartitionFile() {
+        return new Path(Globals.getHadoopOutputPath() + "_partitions");
+    }
+}
@@ -0,0 +1,1119 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.sqlUtils.AggregateColumn;
+import com.cloud.project.sqlUtils.AggregateFunction;
+import com.cloud.project.sqlUtils.ParseSQL;
+import com.cloud.project.sqlUtils.QueryType;
+import com.cloud.project.sqlUtils.Tables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.stream.IntStream;
+
+/**
+ * Physical plan of a query, built by the driver from {@link ParseSQL} and passed to the tasks
+ * of the Hadoop job through the job configuration (see {@link #store(Configuration)} and
+ * {@link #load(Configuration)}).
+ * <p>
+ * All column names of the query are resolved to column indices while the plan is built, so
+ * that the tasks read the plan once in their setup and do no lookups for each record. Invalid
+ * columns are therefore reported before the job is submitted.
+ * </p>
+ */
+public class PhysicalPlan implements Writable {
+
+    private static final String PLAN = "physicalPlan";
+
+    private QueryType queryType;
+
+    // tables of the query: the table of a Group By query, or both tables of an Inner Join query
+    private Tables[] tables;
+
+    // group by: indices of the group by columns, and the aggregates with their column indices
+    private int[] groupIndices;
+    private AggregateFunction[] aggregateFunctions;
+    private int[] aggregateIndices;
+    private int havingAggregate;
+    private long comparisonNumber;
+    private boolean inMapperCombining;
+    private long inMapperBudget;
+
+    // group by: order by clause (aggregate or group by column) and limit, -1 if there is no limit
+    private int orderByAggregate;
+    private int orderByColumn;
+    private boolean orderDescending;
+    private int limit;
+    private boolean intermediateOutput;
+
+    // group by with a per group limit: index of the column by which the rows of each group are
+    // sorted, and indices of the selected columns
+    private boolean limitPerGroup;
+    private int sortIndex;
+    private int[] selectIndices;
+
+    // for each table, index of the column of the range condition of the where clause (-1 if it is
+    // on another table), and the inclusive bounds of the range
+    private int[] rangeIndices;
+    private long rangeFrom;
+    private long rangeTo;
+
+    // inner join: for each table, index of the join key, and the column and value of the where clause
+    private int[] joinKeyIndices;
+    private int[] whereIndices;
+    private String whereValue;
+    private int broadcastTable;
+    private int bufferedTable;
+    private int numBuckets;
+    private long joinBufferBudget;
+
+    // inner join: for each table, indices of its columns written to the output, in the order of
+    // the select list, and the table of each selected column (* selects the join key and all
+    // other columns of both tables, like the output key and value of the join)
+    private boolean selectAll;
+    private int[][] projectionIndices;
+    private int[] selectTables;
+
+    // inner join of more than two tables: for each table, the earlier table to which it is joined
+    // (-1 for the first table) and the index of the join key in that table (joinKeyIndices holds
+    // its index in the table itself), and the largest tables, which are read by the mappers
+    private int[] joinPartners;
+    private int[] partnerKeyIndices;
+    private int[] anchorTables;
+
+    // inner join with a group by clause: table whose columns are aggregated (-1 if all aggregates
+    // are counts), and the aggregateFunctions and aggregateIndices of group by
+    private int aggregatedTable;
+
+    // inner join: table whose join keys (matching the where clause) make a Bloom filter for the
+    // other table, -1 for none, and the number of bits and hash functions of the filter
+    private int bloomFilterTable;
+    private int bloomVectorSize;
+    private int bloomNumHashes;
+
+    // inner join: hot join keys, as written in the records, whose records are spread over several
+    // reducers; for each key, the table whose records are spread (the records of the other table
+    // are sent to all of these reducers) and the reducers
+    private String[] skewedKeys;
+    private int[] skewedTables;
+    private int[][] skewedReducers;
+
+    /**
+     * Default constructor, required for deserialization
+     */
+    public PhysicalPlan() {
+        tables = new Tables[0];
+        groupIndices = new int[0];
+        aggregateFunctions = new AggregateFunction[0];
+        aggregateIndices = new int[0];
+        havingAggregate = -1;
+        orderByAggregate = -1;
+        orderByColumn = -1;
+        limit = -1;
+        sortIndex = -1;
+        selectIndices = new int[0];
+        rangeIndices = new int[0];
+        rangeFrom = Long.MIN_VALUE;
+        rangeTo = Long.MAX_VALUE;
+        joinKeyIndices = new int[0];
+        whereIndices = new int[0];
+        broadcastTable = -1;
+        projectionIndices = new int[0][];
+        selectTables = new int[0];
+        joinPartners = new int[0];
+        partnerKeyIndices = new int[0];
+        anchorTables = new int[0];
+        aggregatedTable = -1;
+        bloomFilterTable = -1;
+        skewedKeys = new String[0];
+        skewedTables = new int[0];
+        skewedReducers = new int[0][];
+    }
+
+    /**
+     * Builds the plan of a Group By query
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @return the physical plan of the query
+     * @throws SQLException if the SQL query could not be parsed successfully
+     */
+    public static PhysicalPlan groupBy(ParseSQL parsedSQL) throws SQLException {
+        PhysicalPlan plan = new PhysicalPlan();
+        plan.queryType = QueryType.GROUP_BY;
+        Tables table = parsedSQL.getTable1();
+        plan.tables = new Tables[]{table};
+        plan.resolveRange(parsedSQL);
+
+        ArrayList<String> operationColumns = parsedSQL.getOperationColumns();
+        plan.groupIndices = new int[operationColumns.size()];
+        for (int i = 0; i < operationColumns.size(); i++) {
+            plan.groupIndices[i] = DBManager.getColumnIndex(table, operationColumns.get(i));
+        }
+
+        // resolving the columns on which aggregate functions are applied (count() needs none)
+        ArrayList<AggregateColumn> aggregates = parsedSQL.getAggregates();
+        plan.aggregateFunctions = new AggregateFunction[aggregates.size()];
+        plan.aggregateIndices = new int[aggregates.size()];
+        for (int i = 0; i < aggregates.size(); i++) {
+            plan.aggregateFunctions[i] = aggregates.get(i).getFunction();
+            plan.aggregateIndices[i] = (plan.aggregateFunctions[i] == AggregateFunction.COUNT)
+                    ? -1 : DBManager.getColumnIndex(table, aggregates.get(i).getColumn());
+        }
+
+        plan.havingAggregate = parsedSQL.getHavingAggregate();
+        plan.comparisonNumber = parsedSQL.getComparisonNumber();
+        plan.inMapperCombining = Globals.isInMapperCombiningEnabled();
+        plan.inMapperBudget = Globals.getInMapperCombiningBudget();
+
+        plan.orderByAggregate = parsedSQL.getOrderByAggregate();
+        plan.orderByColumn = parsedSQL.getOrderByColumn();
+        plan.orderDescending = parsedSQL.isOrderDescending();
+        plan.limit = parsedSQL.getLimit();
+
+        // the first rows of each group: resolving the sort column and the selected columns (* selects all)
+        plan.limitPerGroup = parsedSQL.isLimitPerGroup();
+        if (plan.limitPerGroup) {
+            plan.sortIndex = DBManager.getColumnIndex(table, parsedSQL.getSortColumn());
+            ArrayList<Integer> selectIndices = new ArrayList<>();
+            for (String column : parsedSQL.getColumns()) {
+                if (column.equals("*")) {
+                    for (int i = 0; i < DBManager.getTableSize(table); i++) {
+                        selectIndices.add(i);
+                    }
+                } else {
+                    selectIndices.add(DBManager.getColumnIndex(table, column));
+                }
+            }
+            plan.selectIndices = selectIndices.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return plan;
+    }
+
+    /**
+     * Builds the plan of an Inner Join query
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @param joinKey   the column on which the tables are joined
+     * @return the physical plan of the query
+     * @throws SQLException if the SQL query could not be parsed successfully
+     */
+    public static PhysicalPlan innerJoin(ParseSQL parsedSQL, String joinKey) throws SQLException {
+        PhysicalPlan plan = new PhysicalPlan();
+        plan.queryType = QueryType.INNER_JOIN;
+        plan.tables = new Tables[]{parsedSQL.getTable1(), parsedSQL.getTable2()};
+        plan.joinKeyIndices = new int[plan.tables.length];
+        plan.whereIndices = new int[plan.tables.length];
+        for (int i = 0; i < plan.tables.length; i++) {
+            plan.joinKeyIndices[i] = DBManager.getColumnIndex(plan.tables[i], joinKey);
+            plan.whereIndices[i] = (plan.tables[i] == parsedSQL.getWhereTable())
+                    ? DBManager.getColumnIndex(plan.tables[i], parsedSQL.getWhereColumn()) : -1;
+        }
+        plan.whereValue = CsvTokenizer.unquote(parsedSQL.getWhereValue());
+        plan.resolveRange(parsedSQL);
+        plan.joinBufferBudget = Globals.getJoinBufferBudget();
+
+        // resolving the selected columns to the table they are read from; * selects the join key,
+        // followed by the other columns of both tables
+        ArrayList<String> columns = parsedSQL.getColumns();
+        plan.selectAll = columns.size() == 1 && columns.get(0).equals("*");
+        plan.resolveProjection(columns, parsedSQL.getOperationColumns(), 0);
+        return plan;
+    }
+
+    /**
+     * Builds the plan of an Inner Join of more than two tables. The tables are joined along the
+     * join conditions of the query, which form a tree rooted at the first table. The order in
+     * which they are joined depends on their sizes, and is set when the job is planned (see
+     * {@link #setAnchorTables(int[])} and {@link JoinTree}).
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @return the physical plan of the query
+     * @throws SQLException if the SQL query could not be parsed successfully, or joins tables on
+     *                      a column which is not their join key
+     */
+    public static PhysicalPlan multiJoin(ParseSQL parsedSQL) throws SQLException {
+        PhysicalPlan plan = new PhysicalPlan();
+        plan.resolveJoinTables(parsedSQL);
+
+        // * selects all columns of the tables in order, without the join key of each joined table
+        plan.resolveProjection(parsedSQL.getColumns(), parsedSQL.getOperationColumns(), 1);
+        return plan;
+    }
+
+    /**
+     * Builds the plan of an Inner Join with a group by clause, which aggregates the joined
+     * records. The tables are joined like in {@link #multiJoin(ParseSQL)}, and the group by
+     * columns are the columns selected from the joined records. All aggregated columns should
+     * be columns of the same table, whose records can then be aggregated before they are joined.
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @return the physical plan of the query
+     * @throws SQLException if the SQL query could not be parsed successfully, joins tables on a
+     *                      column which is not their join key, or aggregates columns of several tables
+     */
+    public static PhysicalPlan groupedJoin(ParseSQL parsedSQL) throws SQLException {
+        PhysicalPlan plan = new PhysicalPlan();
+        plan.resolveJoinTables(parsedSQL);
+        ArrayList<String> joinColumns = parsedSQL.getOperationColumns();
+        plan.resolveProjection(parsedSQL.getGroupColumns(), joinColumns, 1);
+
+        // resolving the aggregated columns, which are all read from the aggregated table (count() needs none)
+        ArrayList<AggregateColumn> aggregates = parsedSQL.getAggregates();
+        plan.aggregateFunctions = new AggregateFunction[aggregates.size()];
+        plan.aggregateIndices = new int[aggregates.size()];
+        for (int i = 0; i < aggregates.size(); i++) {
+            plan.aggregateFunctions[i] = aggregates.get(i).getFunction();
+            plan.aggregateIndices[i] = -1;
+            if (plan.aggregateFunctions[i] != AggregateFunction.COUNT) {
+                String column = aggregates.get(i).getColumn();
+                int table = plan.resolveJoinColumn(column, joinColumns);
+                if (plan.aggregatedTable >= 0 && table != plan.aggregatedTable) {
+                    throw new SQLException("Aggregated columns of an Inner Join should be columns of the same table");
+                }
+                plan.aggregatedTable = table;
+                plan.aggregateIndices[i] = DBManager.getColumnIndex(plan.tables[table],
+                        column.substring(column.indexOf('.') + 1).trim());
+            }
+        }
+
+        plan.havingAggregate = parsedSQL.getHavingAggregate();
+        plan.comparisonNumber = parsedSQL.getComparisonNumber();
+        plan.inMapperBudget = Globals.getInMapperCombiningBudget();
+        plan.orderByAggregate = parsedSQL.getOrderByAggregate();
+        plan.orderByColumn = parsedSQL.getOrderByColumn();
+        plan.orderDescending = parsedSQL.isOrderDescending();
+        plan.limit = parsedSQL.getLimit();
+        return plan;
+    }
+
+    /**
+     * Resolves the tables of an Inner Join of two or more tables, the join condition of each
+     * table after the first one, and the where clause
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @throws SQLException if the SQL query could not be parsed successfully, or joins tables on
+     *                      a column which is not their join key
+     */
+    private void resolveJoinTables(ParseSQL parsedSQL) throws SQLException {
+        queryType = QueryType.INNER_JOIN;
+        ArrayList<Tables> joinTables = parsedSQL.getJoinTables();
+        tables = joinTables.toArray(new Tables[0]);
+        int numTables = tables.length;
+
+        // resolving the join condition of each table after the first one
+        joinPartners = new int[numTables];
+        joinKeyIndices = new int[numTables];
+        partnerKeyIndices = new int[numTables];
+        joinPartners[0] = -1;
+        joinKeyIndices[0] = -1;
+        partnerKeyIndices[0] = -1;
+        for (int i = 1; i < numTables; i++) {
+            Tables partner = parsedSQL.getJoinPartners().get(i - 1);
+            String column = parsedSQL.getOperationColumns().get(i - 1);
+            String joinKey = DBManager.getJoinKey(tables[i], partner);
+            if (joinKey == null || !joinKey.equalsIgnoreCase(column)) {
+                throw new SQLException("Tables " + partner.name() + " and " + tables[i].name()
+                        + " cannot be joined on " + column);
+            }
+            joinPartners[i] = joinTables.indexOf(partner);
+            joinKeyIndices[i] = DBManager.getColumnIndex(tables[i], joinKey);
+            partnerKeyIndices[i] = DBManager.getColumnIndex(partner, joinKey);
+        }
+
+        whereIndices = new int[numTables];
+        for (int i = 0; i < numTables; i++) {
+            whereIndices[i] = (tables[i] == parsedSQL.getWhereTable())
+                    ? DBManager.getColumnIndex(tables[i], parsedSQL.getWhereColumn()) : -1;
+        }
+        whereValue = CsvTokenizer.unquote(parsedSQL.getWhereValue());
+        resolveRange(parsedSQL);
+        joinBufferBudget = Globals.getJoinBufferBudget();
+    }
+
+    /**
+     * Resolves the column of the range condition of the where clause in each table of the query
+     *
+     * @param parsedSQL instance of {@link ParseSQL} which contains the relevant tokens from the parsed SQL query
+     * @throws SQLException if the SQL query could not be parsed successfully, or if the column of
+     *                      the range condition is not an integer column
+     */
+    private void resolveRange(ParseSQL parsedSQL) throws SQLException {
+        rangeIndices = new int[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            rangeIndices[i] = (tables[i] == parsedSQL.getRangeTable())
+                    ? DBManager.getColumnIndex(tables[i], parsedSQL.getRangeColumn()) : -1;
+            if (rangeIndices[i] >= 0 && !DBManager.getColumnType(tables[i], rangeIndices[i]).isIntegral()) {
+                throw new SQLException("Column " + parsedSQL.getRangeColumn() + " of the range condition is a "
+                        + DBManager.getColumnType(tables[i], rangeIndices[i]).name().toLowerCase()
+                        + " column, while range conditions are only supported on integer columns");
+            }
+        }
+        rangeFrom = parsedSQL.getRangeFrom();
+        rangeTo = parsedSQL.getRangeTo();
+    }
+
+    /**
+     * Resolves the select list of an Inner Join to the columns read from each table (see
+     * {@link #getProjectionIndices(int)} and {@link #getSelectTables()})
+     *
+     * @param columns     the select list
+     * @param joinColumns the columns on which the tables are joined
+     * @param firstKeyed  index of the first table whose join key is not selected by *
+     * @throws SQLException if a selected column is not a column of the joined tables
+     */
+    private void resolveProjection(ArrayList<String> columns, ArrayList<String> joinColumns, int firstKeyed)
+            throws SQLException {
+        ArrayList<ArrayList<Integer>> projections = new ArrayList<>();
+        for (int i = 0; i < tables.length; i++) {
+            projections.add(new ArrayList<>());
+        }
+        ArrayList<Integer> selectTables = new ArrayList<>();
+        if (columns.size() == 1 && columns.get(0).equals("*")) {
+            for (int i = 0; i < tables.length; i++) {
+                for (int j = 0; j < DBManager.getTableSize(tables[i]); j++) {
+                    if (i < firstKeyed || j != joinKeyIndices[i]) {
+                        projections.get(i).add(j);
+                        selectTables.add(i);
+                    }
+                }
+            }
+        } else {
+            for (String column : columns) {
+                int table = resolveJoinColumn(column, joinColumns);
+                String name = column.substring(column.indexOf('.') + 1).trim();
+                projections.get(table).add(DBManager.getColumnIndex(tables[table], name));
+                selectTables.add(table);
+            }
+        }
+        projectionIndices = new int[tables.length][];
+        for (int i = 0; i < tables.length; i++) {
+            projectionIndices[i] = projections.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        this.selectTables = selectTables.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns the table of an Inner Join from which a selected column is read. A column may be
+     * qualified by its table (e.g. Movies.title); otherwise it is looked up in all tables, and a
+     * join key is read from the first table which has it.
+     *
+     * @param column      the selected column
+     * @param joinColumns the columns on which the tables are joined
+     * @return index of the table
+     * @throws SQLException if the column is in none of the tables, or is in several of them
+     *                      without being a join key
+     */
+    private int resolveJoinColumn(String column, ArrayList<String> joinColumns) throws SQLException {
+        int dot = column.indexOf('.');
+        String name = column.substring(dot + 1).trim();
+        if (dot >= 0) {
+            String tableName = column.substring(0, dot).trim();
+            for (int i = 0; i < tables.length; i++) {
+                if (tables[i].name().equalsIgnoreCase(tableName) && hasColumn(tables[i], name)) {
+                    return i;
+                }
+            }
+            throw new SQLException("Column " + column + " is not a column of the joined tables");
+        }
+
+        int table = -1;
+        for (int i = tables.length - 1; i >= 0; i--) {
+            if (hasColumn(tables[i], name)) {
+                if (table >= 0 && joinColumns.stream().noneMatch(name::equalsIgnoreCase)) {
+                    throw new SQLException("Column " + column + " is ambiguous, it should be qualified by its table");
+                }
+                table = i;
+            }
+        }
+        if (table < 0) {
+            throw new SQLException("Column " + column + " is not a column of the joined tables");
+        }
+        return table;
+    }
+
+    /**
+     * Returns whether a table has a column
+     *
+     * @param table  the table
+     * @param column name of the column
+     * @return true if the column exists in the table
+     */
+    private static boolean hasColumn(Tables table, String column) {
+        try {
+            DBManager.getColumnIndex(table, column);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Marks columns as read, ignoring negative indices (columns which are not used)
+     *
+     * @param read    for each column of a table, whether it is read
+     * @param indices column indices to be marked
+     */
+    private static void markColumns(boolean[] read, int... indices) {
+        for (int index : indices) {
+            if (index >= 0) {
+                read[index] = true;
+            }
+        }
+    }
+
+    /**
+     * Stores this plan in a job configuration
+     *
+     * @param conf configuration of the job
+     * @throws IOException if the plan could not be serialized
+     */
+    public void store(Configuration conf) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        write(out);
+        conf.set(PLAN, Base64.getEncoder().encodeToString(Arrays.copyOf(out.getData(), out.getLength())));
+    }
+
+    /**
+     * Loads the plan stored in a job configuration by {@link #store(Configuration)}
+     *
+     * @param conf configuration of the job
+     * @return the physical plan of the job
+     * @throws IOException if the configuration holds no valid plan
+     */
+    public static PhysicalPlan load(Configuration conf) throws IOException {
+        String encoded = conf.get(PLAN);
+        if (encoded == null) {
+            throw new IOException("The job configuration does not contain a physical plan");
+        }
+        byte[] bytes = Base64.getDecoder().decode(encoded);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        PhysicalPlan plan = new PhysicalPlan();
+        plan.readFields(in);
+        return plan;
+    }
+
+    public QueryType getQueryType() {
+        return queryType;
+    }
+
+    /**
+     * Returns a table of the query
+     *
+     * @param index 0 for the table of a Group By query or the first table of an Inner Join, 1 for the second
+     * @return the table
+     */
+    public Tables getTable(int index) {
+        return tables[index];
+    }
+
+    public int[] getGroupIndices() {
+        return groupIndices;
+    }
+
+    public AggregateFunction[] getAggregateFunctions() {
+        return aggregateFunctions;
+    }
+
+    /**
+     * Returns the indices of the columns on which the aggregate functions are applied
+     *
+     * @return column index of each aggregate, -1 for COUNT which needs no column
+     */
+    public int[] getAggregateIndices() {
+        return aggregateIndices;
+    }
+
+    /**
+     * Returns the index of the aggregate used in the having clause
+     *
+     * @return index of the having aggregate, -1 if there is no having clause
+     */
+    public int getHavingAggregate() {
+        return havingAggregate;
+    }
+
+    public long getComparisonNumber() {
+        return comparisonNumber;
+    }
+
+    /**
+     * Returns the number of columns of each record which are read by a Group By query, i.e.
+     * one more than the highest index of a group by, aggregated, sort, selected, range or
+     * non-nullable column
+     *
+     * @return number of columns to be parsed from each record
+     */
+    public int getNumColumnsRead() {
+        int numColumns = 0;
+        for (int index : NullFilter.getNonNullableColumns(tables[0])) {
+            numColumns = Math.max(numColumns, index + 1);
+        }
+        for (int index : groupIndices) {
+            numColumns = Math.max(numColumns, index + 1);
+        }
+        for (int index : aggregateIndices) {
+            numColumns = Math.max(numColumns, index + 1);
+        }
+        for (int index : selectIndices) {
+            numColumns = Math.max(numColumns, index + 1);
+        }
+        for (int index : rangeIndices) {
+            numColumns = Math.max(numColumns, index + 1);
+        }
+        return Math.max(numColumns, sortIndex + 1);
+    }
+
+    /**
+     * Returns the columns of a table which are read by the mappers of the query: the group by,
+     * aggregated, sort and selected columns of a Group By query, or the selected columns, join
+     * keys, where clause column and aggregated columns of a table of an Inner Join, the column of
+     * the range condition, and the non-nullable columns of the table (see {@link NullFilter}).
+     * Only these columns are read from a table in columnar format (see {@link ColumnarStorage}).
+     *
+     * @param index index of the table
+     * @return sorted column indices
+     */
+    public int[] getColumnsRead(int index) {
+        boolean[] read = new boolean[DBManager.getTableSize(tables[index])];
+        if (queryType == QueryType.GROUP_BY) {
+            markColumns(read, groupIndices);
+            markColumns(read, aggregateIndices);
+            markColumns(read, selectIndices);
+            markColumns(read, sortIndex);
+        } else {
+            markColumns(read, projectionIndices[index]);
+            markColumns(read, joinKeyIndices[index], whereIndices[index]);
+            for (int i = 0; i < joinPartners.length; i++) {
+                if (joinPartners[i] == index) {
+                    markColumns(read, partnerKeyIndices[i]);
+                }
+            }
+            if (index == aggregatedTable) {
+                markColumns(read, aggregateIndices);
+            }
+        }
+        markColumns(read, rangeIndices[index]);
+        markColumns(read, NullFilter.getNonNullableColumns(tables[index]));
+        return IntStream.range(0, read.length).filter(i -> read[i]).toArray();
+    }
+
+    public boolean isInMapperCombining() {
+        return inMapperCombining;
+    }
+
+    public long getInMapperBudget() {
+        return inMapperBudget;
+    }
+
+    /**
+     * Returns the index of the aggregate by which the groups are ordered
+     *
+     * @return index of the order by aggregate, -1 if groups are not ordered by an aggregate
+     */
+    public int getOrderByAggregate() {
+        return orderByAggregate;
+    }
+
+    /**
+     * Returns the index (in the key) of the group by column by which the groups are ordered
+     *
+     * @return index of the order by column, -1 if groups are not ordered by a group by column
+     */
+    public int getOrderByColumn() {
+        return orderByColumn;
+    }
+
+    public boolean isOrderDescending() {
+        return orderDescending;
+    }
+
+    /**
+     * Returns the maximum number of groups written by a Group By query
+     *
+     * @return the limit, -1 if there is no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns whether the reducers of a Group By query write the aggregate states of their top
+     * groups instead of the final results, to be merged by a second job (see {@link GroupBy})
+     *
+     * @return true if the reducers write intermediate output
+     */
+    public boolean isIntermediateOutput() {
+        return intermediateOutput;
+    }
+
+    public void setIntermediateOutput(boolean intermediateOutput) {
+        this.intermediateOutput = intermediateOutput;
+    }
+
+    /**
+     * Returns whether the limit of a Group By query applies to the rows of each group
+     *
+     * @return true if the query selects the first rows of each group
+     */
+    public boolean isLimitPerGroup() {
+        return limitPerGroup;
+    }
+
+    /**
+     * Returns the index of the column by which the rows of each group are sorted
+     *
+     * @return column index of the sort column, -1 if the query has no per group limit
+     */
+    public int getSortIndex() {
+        return sortIndex;
+    }
+
+    /**
+     * Returns the indices of the columns selected from the first rows of each group
+     *
+     * @return column indices of the selected columns, empty if the query has no per group limit
+     */
+    public int[] getSelectIndices() {
+        return selectIndices;
+    }
+
+    /**
+     * Returns the index of the join key in a table of an Inner Join
+     *
+     * @param index 0 for the first table, 1 for the second
+     * @return column index of the join key
+     */
+    public int getJoinKeyIndex(int index) {
+        return joinKeyIndices[index];
+    }
+
+    /**
+     * Returns the index of the column of the where clause in a table of an Inner Join
+     *
+     * @param index 0 for the first table, 1 for the second
+     * @return column index of the where clause, -1 if the where clause is not on this table
+     */
+    public int getWhereIndex(int index) {
+        return whereIndices[index];
+    }
+
+    /**
+     * Returns the value against which the column of the where clause is compared, without
+     * surrounding whitespace and quotes (see {@link CsvTokenizer#unquote(String)})
+     *
+     * @return the value of the where clause
+     */
+    public String getWhereValue() {
+        return whereValue;
+    }
+
+    /**
+     * Returns the index of the column of the range condition of the where clause in a table
+     *
+     * @param index index of the table
+     * @return column index of the range condition, -1 if the range condition is not on this table
+     */
+    public int getRangeIndex(int index) {
+        return rangeIndices[index];
+    }
+
+    /**
+     * Returns the lowest value selected by the range condition of the where clause
+     *
+     * @return lowest value of the range, included
+     */
+    public long getRangeFrom() {
+        return rangeFrom;
+    }
+
+    /**
+     * Returns the highest value selected by the range condition of the where clause
+     *
+     * @return highest value of the range, included
+     */
+    public long getRangeTo() {
+        return rangeTo;
+    }
+
+    /**
+     * Returns the table of an Inner Join which is broadcast to the mappers of a map-side join
+     *
+     * @return 0 for the first table, 1 for the second, -1 for a reduce-side join
+     */
+    public int getBroadcastTable() {
+        return broadcastTable;
+    }
+
+    public void setBroadcastTable(int broadcastTable) {
+        this.broadcastTable = broadcastTable;
+    }
+
+    /**
+     * Returns the table of an Inner Join whose records are buffered by the reducers of a
+     * reduce-side join, while the records of the other table are streamed
+     *
+     * @return 0 for the first table, 1 for the second
+     */
+    public int getBufferedTable() {
+        return bufferedTable;
+    }
+
+    public void setBufferedTable(int bufferedTable) {
+        this.bufferedTable = bufferedTable;
+    }
+
+    /**
+     * Returns the number of buckets of the tables of an Inner Join which are both bucketed on
+     * the join key (see {@link Bucketing}), and are merged bucket by bucket by the mappers of a
+     * sort-merge join. The mappers read the buckets of the streamed table, and merge the
+     * buckets of the buffered table into them (see {@link #getBufferedTable()}).
+     *
+     * @return number of buckets of both tables, 0 if the join is not a sort-merge join
+     */
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    public void setNumBuckets(int numBuckets) {
+        this.numBuckets = numBuckets;
+    }
+
+    /**
+     * Returns the number of bytes of records of a join key which the reducers of a reduce-side
+     * join hold in memory before spilling them to disk (see {@link JoinBuffer})
+     *
+     * @return memory budget of a join buffer, in bytes
+     */
+    public long getJoinBufferBudget() {
+        return joinBufferBudget;
+    }
+
+    /**
+     * Returns the table of an Inner Join from whose join keys a Bloom filter is built, which the
+     * mappers of the other table use to drop records without a partner (see {@link JoinBloomFilter})
+     *
+     * @return 0 for the first table, 1 for the second, -1 if no Bloom filter is used
+     */
+    public int getBloomFilterTable() {
+        return bloomFilterTable;
+    }
+
+    public int getBloomVectorSize() {
+        return bloomVectorSize;
+    }
+
+    public int getBloomNumHashes() {
+        return bloomNumHashes;
+    }
+
+    /**
+     * Sets the Bloom filter of the join keys of a table of an Inner Join
+     *
+     * @param table      0 for the first table, 1 for the second, -1 for no Bloom filter
+     * @param vectorSize number of bits of the filter
+     * @param numHashes  number of hash functions of the filter
+     */
+    public void setBloomFilter(int table, int vectorSize, int numHashes) {
+        this.bloomFilterTable = table;
+        this.bloomVectorSize = vectorSize;
+        this.bloomNumHashes = numHashes;
+    }
+
+    /**
+     * Returns the number of hot join keys of a reduce-side Inner Join, whose records are spread
+     * over several reducers (see {@link SkewJoin})
+     *
+     * @return number of hot join keys, 0 if no join key is hot
+     */
+    public int getNumSkewedKeys() {
+        return skewedKeys.length;
+    }
+
+    /**
+     * Returns a hot join key of a reduce-side Inner Join
+     *
+     * @param index index of the hot join key
+     * @return the join key, as written in the records
+     */
+    public String getSkewedKey(int index) {
+        return skewedKeys[index];
+    }
+
+    /**
+     * Returns the table of an Inner Join whose records of a hot join key are spread over the
+     * reducers of the key. The records of the other table with this key are sent to all of them.
+     *
+     * @param index index of the hot join key
+     * @return 0 for the first table, 1 for the second
+     */
+    public int getSkewedTable(int index) {
+        return skewedTables[index];
+    }
+
+    /**
+     * Returns the reducers over which the records of a hot join key are spread
+     *
+     * @param index index of the hot join key
+     * @return indices of the reducers
+     */
+    public int[] getSkewedReducers(int index) {
+        return skewedReducers[index];
+    }
+
+    /**
+     * Sets the hot join keys of a reduce-side Inner Join
+     *
+     * @param keys     the hot join keys, as written in the records
+     * @param tables   for each key, the table whose records are spread, 0 or 1
+     * @param reducers for each key, the reducers over which its records are spread
+     */
+    public void setSkewedKeys(String[] keys, int[] tables, int[][] reducers) {
+        this.skewedKeys = keys;
+        this.skewedTables = tables;
+        this.skewedReducers = reducers;
+    }
+
+    /**
+     * Returns whether an Inner Join selects all columns (*). The output key of such a join is
+     * the join key, followed by the other columns of both tables as the output value.
+     *
+     * @return true if all columns are selected
+     */
+    public boolean isSelectAll() {
+        return selectAll;
+    }
+
+    /**
+     * Returns the indices of the columns of a table of an Inner Join which are written to the
+     * output, in the order of the select list. The mappers of the table emit only these columns.
+     *
+     * @param index 0 for the first table, 1 for the second
+     * @return column indices of the selected columns of the table
+     */
+    public int[] getProjectionIndices(int index) {
+        return projectionIndices[index];
+    }
+
+    /**
+     * Returns the table of each selected column of an Inner Join
+     *
+     * @return for each selected column, 0 for the first table or 1 for the second
+     */
+    public int[] getSelectTables() {
+        return selectTables;
+    }
+
+    /**
+     * Returns the number of tables of the query
+     *
+     * @return 1 for a Group By query, 2 or more for an Inner Join
+     */
+    public int getNumTables() {
+        return tables.length;
+    }
+
+    /**
+     * Returns the earlier table to which a table of an Inner Join of more than two tables is joined
+     *
+     * @param index index of the table
+     * @return index of the partner table, -1 for the first table
+     */
+    public int getJoinPartner(int index) {
+        return joinPartners[index];
+    }
+
+    /**
+     * Returns the index of the join key of a table of an Inner Join of more than two tables in
+     * its partner table (see {@link #getJoinPartner(int)})
+     *
+     * @param index index of the table
+     * @return column index of the join key in the partner table, -1 for the first table
+     */
+    public int getPartnerKeyIndex(int index) {
+        return partnerKeyIndices[index];
+    }
+
+    /**
+     * Returns the tables of an Inner Join of more than two tables which are read by mappers: the
+     * largest table, and the second largest one if it is too large to be broadcast. All other
+     * tables are broadcast to the mappers.
+     *
+     * @return indices of the anchor tables, the largest first
+     */
+    public int[] getAnchorTables() {
+        return anchorTables;
+    }
+
+    public void setAnchorTables(int[] anchorTables) {
+        this.anchorTables = anchorTables;
+    }
+
+    /**
+     * Returns the table of an Inner Join with a group by clause whose columns are aggregated
+     *
+     * @return index of the aggregated table, -1 if all aggregates are counts or the join has no
+     * group by clause
+     */
+    public int getAggregatedTable() {
+        return aggregatedTable;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeEnum(out, queryType);
+        WritableUtils.writeVInt(out, tables.length);
+        for (Tables table : tables) {
+            WritableUtils.writeEnum(out, table);
+        }
+
+        writeIndices(out, groupIndices);
+        WritableUtils.writeVInt(out, aggregateFunctions.length);
+        for (AggregateFunction function : aggregateFunctions) {
+            WritableUtils.writeEnum(out, function);
+        }
+        writeIndices(out, aggregateIndices);
+        WritableUtils.writeVInt(out, havingAggregate);
+        WritableUtils.writeVLong(out, comparisonNumber);
+        out.writeBoolean(inMapperCombining);
+        WritableUtils.writeVLong(out, inMapperBudget);
+        WritableUtils.writeVInt(out, orderByAggregate);
+        WritableUtils.writeVInt(out, orderByColumn);
+        out.writeBoolean(orderDescending);
+        WritableUtils.writeVInt(out, limit);
+        out.writeBoolean(intermediateOutput);
+        out.writeBoolean(limitPerGroup);
+        WritableUtils.writeVInt(out, sortIndex);
+        writeIndices(out, selectIndices);
+        writeIndices(out, rangeIndices);
+        WritableUtils.writeVLong(out, rangeFrom);
+        WritableUtils.writeVLong(out, rangeTo);
+
+        writeIndices(out, joinKeyIndices);
+        writeIndices(out, whereIndices);
+        WritableUtils.writeString(out, whereValue);
+        WritableUtils.writeVInt(out, broadcastTable);
+        WritableUtils.writeVInt(out, bufferedTable);
+        WritableUtils.writeVInt(out, numBuckets);
+        WritableUtils.writeVLong(out, joinBufferBudget);
+        WritableUtils.writeVInt(out, bloomFilterTable);
+        WritableUtils.writeVInt(out, bloomVectorSize);
+        WritableUtils.writeVInt(out, bloomNumHashes);
+        WritableUtils.writeVInt(out, skewedKeys.length);
+        for (int i = 0; i < skewedKeys.length; i++) {
+            WritableUtils.writeString(out, skewedKeys[i]);
+            WritableUtils.writeVInt(out, skewedTables[i]);
+            writeIndices(out, skewedReducers[i]);
+        }
+        out.writeBoolean(selectAll);
+        WritableUtils.writeVInt(out, projectionIndices.length);
+        for (int[] indices : projectionIndices) {
+            writeIndices(out, indices);
+        }
+        writeIndices(out, selectTables);
+        writeIndices(out, joinPartners);
+        writeIndices(out, partnerKeyIndices);
+        writeIndices(out, anchorTables);
+        WritableUtils.writeVInt(out, aggregatedTable);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        queryType = WritableUtils.readEnum(in, QueryType.class);
+        tables = new Tables[WritableUtils.readVInt(in)];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = WritableUtils.readEnum(in, Tables.class);
+        }
+
+        groupIndices = readIndices(in);
+        aggregateFunctions = new AggregateFunction[WritableUtils.readVInt(in)];
+        for (int i = 0; i < aggregateFunctions.length; i++) {
+            aggregateFunctions[i] = WritableUtils.readEnum(in, AggregateFunction.class);
+        }
+        aggregateIndices = readIndices(in);
+        havingAggregate = WritableUtils.readVInt(in);
+        comparisonNumber = WritableUtils.readVLong(in);
+        inMapperCombining = in.readBoolean();
+        inMapperBudget = WritableUtils.readVLong(in);
+        orderByAggregate = WritableUtils.readVInt(in);
+        orderByColumn = WritableUtils.readVInt(in);
+        orderDescending = in.readBoolean();
+        limit = WritableUtils.readVInt(in);
+        intermediateOutput = in.readBoolean();
+        limitPerGroup = in.readBoolean();
+        sortIndex = WritableUtils.readVInt(in);
+        selectIndices = readIndices(in);
+        rangeIndices = readIndices(in);
+        rangeFrom = WritableUtils.readVLong(in);
+        rangeTo = WritableUtils.readVLong(in);
+
+        joinKeyIndices = readIndices(in);
+        whereIndices = readIndices(in);
+        whereValue = WritableUtils.readString(in);
+        broadcastTable = WritableUtils.readVInt(in);
+        bufferedTable = WritableUtils.readVInt(in);
+        numBuckets = WritableUtils.readVInt(in);
+        joinBufferBudget = WritableUtils.readVLong(in);
+        bloomFilterTable = WritableUtils.readVInt(in);
+        bloomVectorSize = WritableUtils.readVInt(in);
+        bloomNumHashes = WritableUtils.readVInt(in);
+        skewedKeys = new String[WritableUtils.readVInt(in)];
+        skewedTables = new int[skewedKeys.length];
+        skewedReducers = new int[skewedKeys.length][];
+        for (int i = 0; i < skewedKeys.length; i++) {
+            skewedKeys[i] = WritableUtils.readString(in);
+            skewedTables[i] = WritableUtils.readVInt(in);
+            skewedReducers[i] = readIndices(in);
+        }
+        selectAll = in.readBoolean();
+        projectionIndices = new int[WritableUtils.readVInt(in)][];
+        for (int i = 0; i < projectionIndices.length; i++) {
+            projectionIndices[i] = readIndices(in);
+        }
+        selectTables = readIndices(in);
+        joinPartners = readIndices(in);
+        partnerKeyIndices = readIndices(in);
+        anchorTables = readIndices(in);
+        aggregatedTable = WritableUtils.readVInt(in);
+    }
+
+    /**
+     * Writes an array of column indices
+     *
+     * @param out    the output to which the indices are written
+     * @param values the column indices
+     * @throws IOException if the output could not be written
+     */
+    private static void writeIndices(DataOutput out, int[] values) throws IOException {
+        WritableUtils.writeVInt(out, values.length);
+        for (int value : values) {
+            WritableUtils.writeVInt(out, value);
+        }
+    }
+
+    /**
+     * Reads an array of column indices written by {@link #writeIndices(DataOutput, int[])}
+     *
+     * @param in the input from which the indices are read
+     * @return the column indices
+     * @throws IOException if the input could not be read
+     */
+    private static int[] readIndices(DataInput in) throws IOException {
+        int[] values = new int[WritableUtils.readVInt(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = WritableUtils.readVInt(in);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,48 @@
+package com.cloud.project.jobUtils;
+
+/**
+ * Range condition of the where clause of a query on a table, e.g.
+ * Rating.timestamp BETWEEN 880000000 AND 889999999, checked by the mappers against each record
+ * of the table. The values of the column are read as integers; records whose value is missing or
+ * is not an integer do not match.
+ */
+public class RangeFilter {
+
+    private final int index;
+    private final long from;
+    private final long to;
+
+    /**
+     * Creates the filter of a table of a query
+     *
+     * @param plan  physical plan of the query
+     * @param table index of the table in the plan
+     */
+    public RangeFilter(PhysicalPlan plan, int table) {
+        index = plan.getRangeIndex(table);
+        from = plan.getRangeFrom();
+        to = plan.getRangeTo();
+    }
+
+    /**
+     * Returns whether the last record read by a tokenizer is in the range. The tokenizer should
+     * parse the column of the range condition.
+     *
+     * @param tokenizer tokenizer of the record
+     * @return true if the record is in the range, or if the range condition is on another table
+     */
+    public boolean matches(CsvTokenizer tokenizer) {
+        if (index < 0) {
+            return true;
+        }
+        if (tokenizer.getNumFields() <= index) {
+            return false;
+        }
+        try {
+            long value = tokenizer.getLong(index);
+            return value >= from && value <= to;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
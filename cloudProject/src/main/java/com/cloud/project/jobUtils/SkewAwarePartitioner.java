@@ -0,0 +1,95 @@
+package com.cloud.project.jobUtils;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+
+/**
+ * Partitioner which sends each heavy key (a key found to be very frequent in a sample of the
+ * input) to the reducer chosen for it by {@link Partitioning}, and hashes all other keys like
+ * {@link org.apache.hadoop.mapreduce.lib.partition.HashPartitioner}.
+ * <p>
+ * The heavy keys are read from the configuration property {@value #HEAVY_KEYS}, which holds
+ * the number of heavy keys (VInt), followed by each serialized key and its reducer (VInt),
+ * encoded in Base64.
+ * </p>
+ *
+ * @param <K> type of the map output key
+ * @param <V> type of the map output value
+ */
+public class SkewAwarePartitioner<K extends Writable, V> extends Partitioner<K, V> implements Configurable {
+
+    public static final String HEAVY_KEYS = "heavyKeys";
+
+    private Configuration conf;
+    private final HashMap<K, Integer> heavyKeys = new HashMap<>();
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        heavyKeys.clear();
+        String encoded = conf.get(HEAVY_KEYS);
+        if (encoded == null) {
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        Class<K> keyClass = (Class<K>) new JobConf(conf).getMapOutputKeyClass();
+        byte[] bytes = Base64.getDecoder().decode(encoded);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        try {
+            int numKeys = WritableUtils.readVInt(in);
+            for (int i = 0; i < numKeys; i++) {
+                K key = ReflectionUtils.newInstance(keyClass, conf);
+                key.readFields(in);
+                heavyKeys.put(key, WritableUtils.readVInt(in));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Heavy keys could not be read", e);
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * Returns the reducer of a map output key
+     *
+     * @param key           the map output key
+     * @param value         the map output value
+     * @param numPartitions number of reducers
+     * @return index of the reducer to which the key is sent
+     */
+    @Override
+    public int getPartition(K key, V value, int numPartitions) {
+        K partitionKey = getPartitionKey(key);
+        Integer partition = heavyKeys.get(partitionKey);
+        if (partition != null && partition < numPartitions) {
+            return partition;
+        }
+        return (partitionKey.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    /**
+     * Returns the part of a map output key by which it is partitioned, so that all keys with
+     * the same partition key are sent to the same reducer. The heavy keys are partition keys.
+     *
+     * @param key the map output key
+     * @return the partition key, which is the whole key by default
+     */
+    protected K getPartitionKey(K key) {
+        return key;
+    }
+}
@@ -0,0 +1,119 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Skew handling of a reduce-side Inner Join. A join key is hot if its records alone make up
+ * more than the average load of a reducer, in a sample of both tables. Sending all of them to
+ * one reducer, as for any other join key, makes that reducer the slowest task of the job.
+ * <p>
+ * Instead, the records of a hot join key in the table where it is most frequent are spread
+ * over all reducers in turn, and its records in the other table are sent to each reducer, so
+ * that every reducer joins its share of the records of one table with all records of the other.
+ * Each reducer then gets about the average load, as the other table has few records of the key.
+ * All other join keys are partitioned as before (see {@link Partitioning}). Hot join keys are not
+ * spread when the output is totally ordered, as the total order partitioner does not follow the
+ * reducers chosen here.
+ * </p>
+ */
+public class SkewJoin {
+
+    private SkewJoin() {
+        // private constructor to restrict object creation
+    }
+
+    /**
+     * Samples the join keys of both tables of a reduce-side join, in proportion to their sizes,
+     * and records the hot join keys of the sample in the plan, if skew handling is enabled (see
+     * {@link Globals#isSkewJoinEnabled()})
+     *
+     * @param conf        configuration of the join
+     * @param plan        physical plan of the join
+     * @param inputPath1  path of the csv file of the first table
+     * @param inputPath2  path of the csv file of the second table
+     * @param numReducers number of reducers over which the records of a hot join key may be spread,
+     *                    less than 2 to only sample the join keys
+     * @return the sampled join keys which are not hot, for partitioning the other join keys
+     * @throws IOException if the tables could not be sampled
+     */
+    public static ArrayList<JoinKey> prepare(Configuration conf, PhysicalPlan plan, Path inputPath1, Path inputPath2,
+                                             int numReducers) throws IOException {
+        long inputSize1 = Partitioning.getInputSize(conf, inputPath1);
+        long inputSize2 = Partitioning.getInputSize(conf, inputPath2);
+        int numSamples1 = (int) (Globals.getPartitionSampleSize() * inputSize1 / Math.max(1, inputSize1 + inputSize2));
+        int numSamples2 = Globals.getPartitionSampleSize() - numSamples1;
+        ArrayList<JoinKey> sample1 = new ArrayList<>();
+        ArrayList<JoinKey> sample2 = new ArrayList<>();
+        InnerJoin.sampleJoinKeys(conf, inputPath1, numSamples1, plan.getJoinKeyIndex(0), sample1);
+        InnerJoin.sampleJoinKeys(conf, inputPath2, numSamples2, plan.getJoinKeyIndex(1), sample2);
+
+        ArrayList<JoinKey> sample = new ArrayList<>(sample1);
+        sample.addAll(sample2);
+        if (!Globals.isSkewJoinEnabled() || numReducers < 2) {
+            return sample;
+        }
+
+        // number of sampled records of each join key in each table
+        HashMap<JoinKey, int[]> frequencies = new HashMap<>();
+        for (JoinKey key : sample1) {
+            frequencies.computeIfAbsent(key, k -> new int[2])[0]++;
+        }
+        for (JoinKey key : sample2) {
+            frequencies.computeIfAbsent(key, k -> new int[2])[1]++;
+        }
+
+        double averageLoad = (double) sample.size() / numReducers;
+        ArrayList<Map.Entry<JoinKey, int[]>> hotKeys = new ArrayList<>();
+        for (Map.Entry<JoinKey, int[]> entry : frequencies.entrySet()) {
+            if (entry.getValue()[0] + entry.getValue()[1] > averageLoad) {
+                hotKeys.add(entry);
+            }
+        }
+        if (hotKeys.isEmpty()) {
+            return sample;
+        }
+        hotKeys.sort((a, b) -> (b.getValue()[0] + b.getValue()[1]) - (a.getValue()[0] + a.getValue()[1]));
+
+        // the load of a reducer is its share of the light keys and of the spread records of each hot key,
+        // and all records of the hot keys in the other table, so spreading over all reducers balances it best
+        int[] allReducers = new int[numReducers];
+        for (int i = 0; i < numReducers; i++) {
+            allReducers[i] = i;
+        }
+        String[] keys = new String[hotKeys.size()];
+        int[] tables = new int[hotKeys.size()];
+        int[][] reducers = new int[hotKeys.size()][];
+        for (int i = 0; i < hotKeys.size(); i++) {
+            int[] counts = hotKeys.get(i).getValue();
+            keys[i] = hotKeys.get(i).getKey().getJoinKey().toString();
+            tables[i] = (counts[1] > counts[0]) ? 1 : 0;
+            reducers[i] = allReducers;
+        }
+        plan.setSkewedKeys(keys, tables, reducers);
+
+        sample.removeIf(key -> frequencies.get(key)[0] + frequencies.get(key)[1] > averageLoad);
+        return sample;
+    }
+
+    /**
+     * Returns a description of the hot join keys of a plan, e.g. "hot keys 50 on 2 reducers"
+     *
+     * @param plan physical plan of the join
+     * @return the description, empty if no join key is hot
+     */
+    public static String describe(PhysicalPlan plan) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < plan.getNumSkewedKeys(); i++) {
+            description.append(i == 0 ? "hot keys " : ", ").append(plan.getSkewedKey(i))
+                    .append(" on ").append(plan.getSkewedReducers(i).length).append(" reducers");
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,272 @@
+package com.cloud.project.jobUtils;
+
+import com.cloud.project.Globals;
+import com.cloud.project.contracts.DBManager;
+import com.cloud.project.sqlUtils.Tables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Time partitioned layout of the tables with a time column (see
+ * {@link DBManager#getTimeColumn(Tables)}), so that a query with a range condition on the time
+ * column reads only the months it covers. Partitioning a table writes its records into one
+ * directory per month (UTC) of their timestamp, named yyyy-MM, in the directory given by
+ * {@link DBManager#getPartitionedFileName(Tables)}. Each partition holds csv files, as the csv file
+ * of the table, so that they are read by the same mappers. Records without a timestamp are left
+ * out, as they never match a range condition.
+ * <p>
+ * Partitioning is done once, and must be done again whenever the csv file of the table is
+ * replaced: a layout older than its csv file is ignored. The partitions are read in place of the
+ * columnar layout of the table (see {@link ColumnarStorage}), as only whole months are skipped
+ * by the latter.
+ * </p>
+ */
+public class TimePartitioning {
+
+    // index of the time column of the table, read by the mappers of the partitioning job
+    private static final String TIME_COLUMN = "timeColumn";
+
+    private TimePartitioning() {
+        // private constructor to restrict object creation
+    }
+
+    /**
+     * Partitions every table which has a time column, replacing any previous layout
+     *
+     * @return true if all tables were partitioned
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     */
+    public static boolean partitionAll() throws IOException, InterruptedException, ClassNotFoundException {
+        boolean succeeded = true;
+        for (Tables table : Tables.values()) {
+            if (table != Tables.NONE && DBManager.getTimeColumn(table) >= 0) {
+                succeeded &= partition(table);
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Runs the map-only job which partitions a table by the month of its time column: each mapper
+     * writes the records of each month it reads to a file in the partition of the month.
+     *
+     * @param table the table to be partitioned
+     * @return true if the job succeeded
+     * @throws IOException            if Hadoop IO fails
+     * @throws InterruptedException   if Hadoop job is interrupted
+     * @throws ClassNotFoundException if Hadoop environment fails to find the relevant class
+     */
+    public static boolean partition(Tables table) throws IOException, InterruptedException, ClassNotFoundException {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", Globals.getNamenodeUrl());
+        conf.setInt(TIME_COLUMN, DBManager.getTimeColumn(table));
+
+        Job job = Job.getInstance(conf, "Partition " + table.name() + " by month");
+        job.setJarByClass(TimePartitioning.class);
+        job.setMapperClass(PartitionMapper.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        job.setNumReduceTasks(0);
+
+        /* the records are written to the partitions only, so no empty file is left in the table directory */
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+
+        Path outputPath = getPartitionedPath(table);
+        FileInputFormat.addInputPath(job, new Path(Globals.getCsvInputPath() + DBManager.getFileName(table)));
+        FileOutputFormat.setOutputPath(job, outputPath);
+        outputPath.getFileSystem(conf).delete(outputPath, true);
+
+        return job.waitForCompletion(true);
+    }
+
+    /**
+     * Returns the directory holding the partitions of a table
+     *
+     * @param table the table
+     * @return path of the directory
+     */
+    public static Path getPartitionedPath(Tables table) {
+        return new Path(Globals.getPartitionedInputPath() + DBManager.getPartitionedFileName(table));
+    }
+
+    /**
+     * Returns whether a table is partitioned, i.e. its partitioning job succeeded after the csv
+     * file of the table was last written
+     *
+     * @param conf  configuration of the job
+     * @param table the table
+     * @return true if the partitions of the table can be read in place of its csv file
+     * @throws IOException if the file system could not be read
+     */
+    public static boolean isPartitioned(Configuration conf, Tables table) throws IOException {
+        Path success = new Path(getPartitionedPath(table), "_SUCCESS");
+        Path inputPath = new Path(Globals.getCsvInputPath() + DBManager.getFileName(table));
+        FileSystem fileSystem = success.getFileSystem(conf);
+        return fileSystem.exists(success) && fileSystem.getFileStatus(success).getModificationTime()
+                >= fileSystem.getFileStatus(inputPath).getModificationTime();
+    }
+
+    /**
+     * Returns the partitions of a partitioned table which may hold timestamps in a range
+     *
+     * @param conf  configuration of the job
+     * @param table the table
+     * @param from  first timestamp of the range, in seconds
+     * @param to    last timestamp of the range, in seconds
+     * @return paths of the partitions overlapping the range, in no particular order
+     * @throws IOException if the file system could not be read
+     */
+    public static List<Path> getPartitions(Configuration conf, Tables table, long from, long to) throws IOException {
+        Path partitionedPath = getPartitionedPath(table);
+        List<Path> partitions = new ArrayList<>();
+        for (FileStatus status : partitionedPath.getFileSystem(conf).listStatus(partitionedPath)) {
+            if (!status.isDirectory()) {
+                continue;
+            }
+            YearMonth month;
+            try {
+                month = YearMonth.parse(status.getPath().getName());
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            if (getFirstSecond(month) <= to && getFirstSecond(month.plusMonths(1)) - 1 >= from) {
+                partitions.add(status.getPath());
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Adds the partitions of a table of a query as inputs of a job, read by the given mapper, if
+     * the where clause of the query has a range condition on the time column of the table and the
+     * table is partitioned. Only the partitions overlapping the range are added, and the mapper
+     * still has to check the range on each record.
+     *
+     * @param job         the job
+     * @param plan        physical plan of the query
+     * @param table       index of the table in the plan
+     * @param mapperClass the mapper of the table
+     * @return true if the partitions were added, false if the table has to be read otherwise
+     * @throws IOException if the file system could not be read
+     */
+    @SuppressWarnings("rawtypes")
+    public static boolean addInputPaths(Job job, PhysicalPlan plan, int table, Class<? extends Mapper> mapperClass)
+            throws IOException {
+        List<Path> partitions = getInputPartitions(job.getConfiguration(), plan, table);
+        for (Path partition : partitions) {
+            MultipleInputs.addInputPath(job, partition, TextInputFormat.class, mapperClass);
+        }
+        return !partitions.isEmpty();
+    }
+
+    /**
+     * Returns the text inputs from which a table of a query is read: the partitions added by
+     * {@link #addInputPaths(Job, PhysicalPlan, int, Class)}, or the csv file of the table if it
+     * adds none. A job reading the table is sized and sampled from these inputs.
+     *
+     * @param conf  configuration of the job
+     * @param plan  physical plan of the query
+     * @param table index of the table in the plan
+     * @return paths of the partition directories or of the csv file
+     * @throws IOException if the file system could not be read
+     */
+    public static Path[] getInputPaths(Configuration conf, PhysicalPlan plan, int table) throws IOException {
+        List<Path> partitions = getInputPartitions(conf, plan, table);
+        if (partitions.isEmpty()) {
+            return new Path[]{new Path(Globals.getCsvInputPath() + DBManager.getFileName(plan.getTable(table)))};
+        }
+        return partitions.toArray(new Path[0]);
+    }
+
+    /**
+     * Returns the partitions of a table of a query which are read in place of its csv file, none
+     * if the where clause of the query has no range condition on the time column of the table or
+     * the table is not partitioned
+     */
+    private static List<Path> getInputPartitions(Configuration conf, PhysicalPlan plan, int table) throws IOException {
+        int timeColumn = DBManager.getTimeColumn(plan.getTable(table));
+        if (timeColumn < 0 || plan.getRangeIndex(table) != timeColumn || !isPartitioned(conf, plan.getTable(table))) {
+            return Collections.emptyList();
+        }
+        // when no partition overlaps the range, a job still needs an input, so the table is read
+        // whole, and the range matches none of its records
+        return getPartitions(conf, plan.getTable(table), plan.getRangeFrom(), plan.getRangeTo());
+    }
+
+    /**
+     * Returns the Unix timestamp (in seconds) of the start of a month, in UTC
+     */
+    private static long getFirstSecond(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    }
+
+    /**
+     * Writes each record to the partition of the month of its timestamp: <record, NULL>, leaving
+     * out records without an integer timestamp
+     */
+
+    private static class PartitionMapper extends Mapper<Object, Text, Text, NullWritable> {
+        private int timeIndex;
+        private CsvTokenizer tokenizer;
+        private MultipleOutputs<Text, NullWritable> multipleOutputs;
+
+        /* bounds of the month of the last record, as records are mostly in time order */
+        private long monthFrom = 0;
+        private long monthTo = -1;
+        private String partition;
+
+        @Override
+        protected void setup(Context context) {
+            timeIndex = context.getConfiguration().getInt(TIME_COLUMN, 0);
+            tokenizer = new CsvTokenizer(timeIndex + 1);
+            multipleOutputs = new MultipleOutputs<>(context);
+        }
+
+        @Override
+        public void map(Object key, Text value, Context context) throws IOException, InterruptedException {
+            if (tokenizer.tokenize(value) <= timeIndex) return;
+            long timestamp;
+            try {
+                timestamp = tokenizer.getLong(timeIndex);
+            } catch (NumberFormatException e) {
+                return;
+            }
+            if (timestamp < monthFrom || timestamp > monthTo) {
+                YearMonth month = YearMonth.from(Instant.ofEpochSecond(timestamp).atZone(ZoneOffset.UTC));
+                monthFrom = getFirstSecond(month);
+                monthTo = getFirstSecond(month.plusMonths(1)) - 1;
+                partition = month.toString() + "/part";
+            }
+            multipleOutputs.write(value, NullWritable.get(), partition);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            multipleOutputs.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.cloud.project.jobUtils;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded buffer which keeps the first k groups (key and aggregate states) offered to it, in
+ * the order of the order by clause of a Group By query. It is used by the tasks of a
+ * Group By query with a limit clause, so that each task holds and writes at most k groups.
+ * <p>
+ * The groups are held in a heap whose head is the last of the kept groups, so a group which
+ * comes after it is rejected without being copied. Groups which are equal in the order by
+ * column (or aggregate) are ordered by their keys, so the result does not depend on the
+ * order in which groups are offered.
+ * </p>
+ */
+public class TopKBuffer {
+
+    private final int limit;
+    private final int orderByAggregate;
+    private final int orderByColumn;
+    private final boolean descending;
+    private final PriorityQueue<Entry> heap;
+
+    /**
+     * Creates a buffer for the order by clause and limit of a plan
+     *
+     * @param plan physical plan of a Group By query with a limit clause
+     */
+    public TopKBuffer(PhysicalPlan plan) {
+        limit = plan.getLimit();
+        orderByAggregate = plan.getOrderByAggregate();
+        orderByColumn = plan.getOrderByColumn();
+        descending = plan.isOrderDescending();
+        // the head of the heap is the kept group which comes last in the output
+        heap = new PriorityQueue<>(limit, (a, b) -> compare(b.key, b.value, a.key, a.value));
+    }
+
+    /**
+     * Offers a group to the buffer. The key and states are copied if the group is kept.
+     *
+     * @param key    key of the group
+     * @param states aggregate states of the group
+     */
+    public void offer(GroupByKey key, AggregateStates states) {
+        double value = (orderByAggregate >= 0) ? states.getResult(orderByAggregate) : 0;
+        Entry entry;
+        if (heap.size() < limit) {
+            entry = new Entry();
+        } else if (compare(key, value, heap.peek().key, heap.peek().value) < 0) {
+            // the group replaces the last kept group, whose buffers are reused
+            entry = heap.poll();
+        } else {
+            return;
+        }
+        entry.key.set(key);
+        entry.states.set(states);
+        entry.value = value;
+        heap.add(entry);
+    }
+
+    /**
+     * Removes all groups from the buffer
+     *
+     * @return the kept groups, in the order of the order by clause
+     */
+    public ArrayList<Entry> drain() {
+        ArrayList<Entry> entries = new ArrayList<>(heap);
+        entries.sort((a, b) -> compare(a.key, a.value, b.key, b.value));
+        heap.clear();
+        return entries;
+    }
+
+    /**
+     * Compares two groups in the order of the order by clause
+     *
+     * @param key1   key of the first group
+     * @param value1 value of the order by aggregate of the first group
+     * @param key2   key of the second group
+     * @param value2 value of the order by aggregate of the second group
+     * @return a negative number if the first group comes first, a positive number if the
+     * second group comes first, zero if the groups are equal
+     */
+    private int compare(GroupByKey key1, double value1, GroupByKey key2, double value2) {
+        int cmp = (orderByAggregate >= 0)
+                ? Double.compare(value1, value2)
+                : key1.compareField(orderByColumn, key2);
+        if (descending) {
+            cmp = -cmp;
+        }
+        return (cmp != 0) ? cmp : key1.compareTo(key2);
+    }
+
+    /**
+     * Group kept by a {@link TopKBuffer}
+     */
+    public static class Entry {
+
+        private final GroupByKey key = new GroupByKey();
+        private final AggregateStates states = new AggregateStates();
+
+        // value of the order by aggregate, so that it is computed once per group
+        private double value;
+
+        public GroupByKey getKey() {
+            return key;
+        }
+
+        public AggregateStates getStates() {
+            return states;
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package com.cloud.project.scala_queries
 
 import com.cloud.project.Globals
-import com.cloud.project.contracts.DBManager
+import com.cloud.project.contracts.{ColumnType, DBManager}
+import com.cloud.project.jobUtils.{ColumnarStorage, CsvTokenizer, NullFilter, TimePartitioning}
 import com.cloud.project.models.OutputModel
-import com.cloud.project.sqlUtils.{AggregateFunction, ParseSQL}
+import com.cloud.project.sqlUtils.{AggregateFunction, ParseSQL, Tables}
+import org.apache.hadoop.conf.Configuration
 import org.apache.hadoop.fs.Path
+import org.apache.hadoop.io.{LongWritable, Text}
 import org.apache.hadoop.util.Time
+import org.apache.spark.sql.catalyst.expressions.KnownNotNull
+import org.apache.spark.sql.expressions.Window
 import org.apache.spark.sql.functions._
-import org.apache.spark.sql.{SaveMode, SparkSession}
+import org.apache.spark.sql.types.{IntegerType, LongType, StringType, StructField, StructType}
+import org.apache.spark.sql.{Column, DataFrame, Encoders, SaveMode, SparkSession}
 
 import scala.collection.JavaConverters._
 
@@ -24,104 +30,70 @@ object SparkGroupBy {
 		// convert columns to required _c# format, where # denotes a number
 		
 		/* get operating columns */
-		var oprCols = ""
-		var flag = 0
-		for (opr <- parseSQL.getOperationColumns.asScala) {
-			if (flag == 0) {
-				oprCols = oprCols + opr
-				flag = 1
-			} else {
-				oprCols = oprCols + "," + opr
-			}
-		}
-		
-		for (i <- 0 until parseSQL.getOperationColumns.size()) {
-			parseSQL.getOperationColumns.set(i,
-				"_c" + DBManager.getColumnIndex(parseSQL.getTable1,
-					parseSQL.getOperationColumns.get(i)))
-		}
+		val oprCols = parseSQL.getOperationColumns.asScala.mkString(",")
+		val groupCols = parseSQL.getOperationColumns.asScala.map(opr =>
+			"_c" + DBManager.getColumnIndex(parseSQL.getTable1, opr))
 		
-		// extracting name of column on which aggregate function is applied
-		var aggColumn = parseSQL.getColumns.get(parseSQL.getColumns.size() - 1)
-		
-		val aggColStr = aggColumn.split("\\(")(1).split("\\)")(0)
-		
-		aggColumn = "_c" + DBManager.getColumnIndex(parseSQL.getTable1,
-			aggColumn.split("\\(")(1).split("\\)")(0))
+		val aggregates = parseSQL.getAggregates.asScala
 		
 		// creating a spark session
 		val sc = SparkSession.builder()
 			.master(Globals.getSparkMaster) // necessary for allowing spark to use as many laogical datanodes as available
+			.config("spark.sql.orc.filterPushdown", "true") // columnar tables skip the row groups which cannot match
 			.getOrCreate()
 		
-		// converting ArrayList of operationColumns to scalaBuffer
-		val scalaBuffer = asScalaBuffer(parseSQL.getOperationColumns)
-		
 		val startTime = Time.now
 		// creating dataframe (time evaluation should start here)
-		var table_df = sc.read.format("csv").option("header", "false")
-			.load(Globals.getNamenodeUrl + Globals.getCsvInputPath + DBManager.getFileName(parseSQL.getTable1))
-		
-		//		for (a <- 0 until DBManager.getTableSize(parseSQL.getTable1) - 1) {
-		//			table_df = table_df.withColumnRenamed("_c" + a,
-		//				DBManager.getColumnFromIndex(parseSQL.getTable1, a));
-		//		}
-		
-		var res = table_df // this variable will eventually store the results
-		
-		// perform required operation based on aggregate function (switch-case)
-		parseSQL.getAggregateFunction match {
-			case AggregateFunction.SUM =>
-				res = table_df.groupBy(scalaBuffer.head, scalaBuffer.tail.asInstanceOf[Seq[String]]: _*)
-					.agg(sum(aggColumn).as("sum"))
-					.filter("sum>" + parseSQL.getComparisonNumber);
-			
-			case AggregateFunction.COUNT =>
-				res = table_df.groupBy(scalaBuffer.head, scalaBuffer.tail.asInstanceOf[Seq[String]]: _*)
-					.agg(count(aggColumn).as("count"))
-					.filter("count>" + parseSQL.getComparisonNumber);
-			
-			case AggregateFunction.MAX =>
-				res = table_df.groupBy(scalaBuffer.head, scalaBuffer.tail.asInstanceOf[Seq[String]]: _*)
-					.agg(max(aggColumn).as("max"))
-					.filter("max>" + parseSQL.getComparisonNumber);
-			
-			case AggregateFunction.MIN =>
-				res = table_df.groupBy(scalaBuffer.head, scalaBuffer.tail.asInstanceOf[Seq[String]]: _*)
-					.agg(min(aggColumn).as("min"))
-					.filter("min>" + parseSQL.getComparisonNumber);
-			
-			case AggregateFunction.NONE => throw new IllegalArgumentException("The aggregate function is not valid");
+		val table_df = readTable(sc, parseSQL.getTable1, rangeIndex = rangeIndex(parseSQL, parseSQL.getTable1),
+			rangeFrom = parseSQL.getRangeFrom, rangeTo = parseSQL.getRangeTo)
+		
+		var res = if (parseSQL.isLimitPerGroup) {
+			// the rows of each group are numbered in the order of the sort column, and the first ones are selected
+			val sortCol = "_c" + DBManager.getColumnIndex(parseSQL.getTable1, parseSQL.getSortColumn)
+			val window = Window.partitionBy(groupCols.map(col): _*)
+				.orderBy(keyOrder(sortCol, parseSQL.isOrderDescending): _*)
+			table_df.withColumn("row_number", row_number().over(window))
+				.filter(col("row_number") <= parseSQL.getLimit)
+				.select(selectColumns(parseSQL): _*)
+		} else {
+			aggregate(table_df, groupCols, parseSQL, i => if (aggregates(i).getColumn == "*") lit(1)
+			else col("_c" + DBManager.getColumnIndex(parseSQL.getTable1, aggregates(i).getColumn)))
 		}
 		
-		for (a <- 0 until parseSQL.getColumns.size() - 2) {
-			res = res.withColumnRenamed("_c" + a,
-				DBManager.getColumnFromIndex(parseSQL.getTable1,
-					DBManager.getColumnIndex(parseSQL.getTable1, parseSQL.getColumns.get(a))))
+		for ((groupCol, opr) <- groupCols.zip(parseSQL.getOperationColumns.asScala)) {
+			res = res.withColumnRenamed(groupCol, opr)
 		}
 		
 		res.show
 		
 		val endTime = Time.now()
 		
-		res = res.withColumnRenamed("_c" + (parseSQL.getColumns.size - 1),
-			parseSQL.getOperationColumns.get(parseSQL.getOperationColumns.size() - 1))
-		
 		// display the results
 		groupByOutput.setSparkExecutionTime(String.valueOf(endTime - startTime) + " milliseconds")
 		
 		//		groupByOutput.setSparkExecutionTime(sc.time(res.show).toString)
 		res.show
 		/* plan for GroupBy */
-		var plan = parseSQL.getTable1.name + ".groupBy(" + oprCols + ")\n"
-		plan = plan + ".agg(" + parseSQL.getAggregateFunction + "(" + aggColStr + "))\n"
-		plan = plan + ".filter(" + aggColStr + ">" + parseSQL.getComparisonNumber + ")\n"
+		var plan = parseSQL.getTable1.name + rangePlan(parseSQL)
+		if (parseSQL.isLimitPerGroup) {
+			plan = plan + ".withColumn(row_number, row_number().over(Window.partitionBy(" + oprCols + ")\n" +
+				".orderBy(" + parseSQL.getSortColumn + (if (parseSQL.isOrderDescending) " DESC" else " ASC") + ")))\n" +
+				".filter(row_number<=" + parseSQL.getLimit + ")\n" +
+				".select(" + parseSQL.getColumns.asScala.mkString(",") + ")\n"
+		} else {
+			plan = plan + aggregatePlan(parseSQL, parseSQL.getOperationColumns.asScala)
+		}
 		plan = plan + ".show"
 		groupByOutput.setSparkPlan(plan)
 		//		res.write.format("csv").save("/spark")
 		val outputPathString = Globals.getNamenodeUrl + Globals.getSparkOutputPath
 		val outputPath = new Path(outputPathString)
-		res.repartition(1).write.mode(SaveMode.Overwrite).csv(outputPathString)
+		// the first groups are already in a single partition, in order
+		if (parseSQL.getLimit > 0 && !parseSQL.isLimitPerGroup) {
+			res.write.mode(SaveMode.Overwrite).csv(outputPathString)
+		} else {
+			res.repartition(1).write.mode(SaveMode.Overwrite).csv(outputPathString)
+		}
 		
 		val it = outputPath.getFileSystem(sc.sparkContext.hadoopConfiguration).listFiles(outputPath, false)
 		var downloadUrl = new StringBuilder()
@@ -142,4 +114,232 @@ object SparkGroupBy {
 		
 		groupByOutput.setSparkOutputUrl(downloadUrl.toString())
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Method which reads a table as rows of columns named _c0, _c1, ..., which are strings except for
+	 * the integer columns of ORC files: the partitions
+	 * overlapping the range condition of the query if it is on the time column of a partitioned
+	 * table (see [[TimePartitioning]]), its ORC files if it is imported (see [[ColumnarStorage]]),
+	 * from which only the columns used by the query are read, skipping the stripes and runs of rows
+	 * which cannot match its filters according to their zone maps, or its csv file otherwise. The
+	 * columns are then cast to their types in the schema file (see [[typedColumns]]), and the rows
+	 * out of the range are dropped.
+	 *
+	 * If the where clause of the query is on an indexed column of an imported table, the table is
+	 * read as csv lines through [[ColumnarStorage.ColumnarInputFormat]], which reads only the rows
+	 * of the table found in the index of the column, if they are few, or only the stripes which may
+	 * match the where clause and the range condition. Both still have to be applied to the rows
+	 * which are read.
+	 *
+	 * @param sc         the Spark session
+	 * @param table      the table
+	 * @param whereIndex index of the column of the where clause, -1 if the where clause is not on the table
+	 * @param whereValue value of the where clause
+	 * @param rangeIndex index of the column of the range condition, -1 if the range condition is not on the table
+	 * @param rangeFrom  lowest value of the range, included
+	 * @param rangeTo    highest value of the range, included
+	 * @return the rows of the table
+	 */
+	private[scala_queries] def readTable(sc: SparkSession, table: Tables, whereIndex: Int = -1,
+	                                     whereValue: String = null, rangeIndex: Int = -1,
+	                                     rangeFrom: Long = Long.MinValue, rangeTo: Long = Long.MaxValue): DataFrame = {
+		val conf = new Configuration(sc.sparkContext.hadoopConfiguration)
+		conf.set("fs.defaultFS", Globals.getNamenodeUrl)
+		val partitions = if (rangeIndex >= 0 && rangeIndex == DBManager.getTimeColumn(table)
+			&& TimePartitioning.isPartitioned(conf, table)) {
+			TimePartitioning.getPartitions(conf, table, rangeFrom, rangeTo).asScala.map(_.toString)
+		} else {
+			Seq.empty[String]
+		}
+		
+		val rows = if (partitions.nonEmpty) {
+			sc.read.format("csv").option("header", "false").load(partitions: _*)
+		} else if (ColumnarStorage.isImported(conf, table)) {
+			val path = Globals.getNamenodeUrl + ColumnarStorage.getColumnarPath(table)
+			val columnar = sc.read.orc(path)
+			if (whereIndex >= 0 && DBManager.getIndexedColumns(table).contains(whereIndex)) {
+				ColumnarStorage.setWhereClause(conf, table, whereIndex, CsvTokenizer.unquote(whereValue))
+				if (rangeIndex >= 0) ColumnarStorage.setRangeCondition(conf, table, rangeIndex, rangeFrom, rangeTo)
+				val lines = sc.sparkContext.newAPIHadoopFile(path, classOf[ColumnarStorage.ColumnarInputFormat],
+					classOf[LongWritable], classOf[Text], conf).map(_._2.toString)
+				sc.read.schema(StructType(columnar.columns.indices.map(i => StructField("_c" + i, StringType))))
+					.csv(sc.createDataset(lines)(Encoders.STRING))
+			} else {
+				columnar.toDF(columnar.columns.indices.map("_c" + _): _*)
+			}
+		} else {
+			sc.read.format("csv").option("header", "false")
+				.load(Globals.getNamenodeUrl + Globals.getCsvInputPath + DBManager.getFileName(table))
+		}
+		val typed = typedColumns(rows, table)
+		if (rangeIndex >= 0) typed.where(col("_c" + rangeIndex).cast("long").between(rangeFrom, rangeTo)) else typed
+	}
+	
+	/**
+	 * Method which casts the columns of a table, read as text or as bigints, to their types in the
+	 * schema file (see [[DBManager.getColumnType]]), once for each row: int and flag columns to
+	 * integers, and long columns to longs. Dates are kept as text, so that they are written as in
+	 * the csv file.
+	 * Values which are not integers in an integer column become null.
+	 *
+	 * The rows which hold no value in a non-nullable column (see [[DBManager.isNullable]]) are
+	 * dropped, as the Hadoop jobs do (see [[NullFilter]]), and these columns are declared not
+	 * nullable in the schema of the returned rows, so that Spark can skip its null checks on them.
+	 *
+	 * @param rows  the rows of the table, with columns named _c0, _c1, ... (see [[readTable]])
+	 * @param table the table
+	 * @return the rows of the table, with typed columns
+	 */
+	private def typedColumns(rows: DataFrame, table: Tables): DataFrame = {
+		val typed = rows.select(rows.columns.indices.map { i =>
+			val column = col("_c" + i)
+			if (i >= DBManager.getTableSize(table)) column
+			else DBManager.getColumnType(table, i) match {
+				case ColumnType.INT | ColumnType.FLAG => column.cast(IntegerType).as("_c" + i)
+				case ColumnType.LONG => column.cast(LongType).as("_c" + i)
+				case _ => column
+			}
+		}: _*)
+		val nonNullable = NullFilter.getNonNullableColumns(table)
+		if (nonNullable.isEmpty) {
+			typed
+		} else {
+			typed.where(nonNullable.map { i =>
+				val column = col("_c" + i)
+				if (DBManager.getColumnType(table, i).isIntegral) column.isNotNull else column.isNotNull && column =!= ""
+			}.reduce(_ && _)).select(typed.columns.indices.map { i =>
+				if (nonNullable.contains(i)) new Column(KnownNotNull(col("_c" + i).expr)).as("_c" + i) else col("_c" + i)
+			}: _*)
+		}
+	}
+	
+	/**
+	 * Method which returns the index of the column of the range condition of the where clause in a table
+	 *
+	 * @param parseSQL the parsed SQL
+	 * @param table    the table
+	 * @return index of the column, -1 if the range condition is not on the table
+	 */
+	private[scala_queries] def rangeIndex(parseSQL: ParseSQL, table: Tables): Int =
+		if (parseSQL.getRangeTable == table) DBManager.getColumnIndex(table, parseSQL.getRangeColumn) else -1
+	
+	/**
+	 * Method which returns the plan of the range condition of the where clause
+	 *
+	 * @param parseSQL the parsed SQL
+	 * @return the plan, empty if the query has no range condition
+	 */
+	private[scala_queries] def rangePlan(parseSQL: ParseSQL): String =
+		if (parseSQL.getRangeTable == Tables.NONE) ""
+		else ".filter(" + parseSQL.getRangeTable.name + "[" + parseSQL.getRangeColumn + "] BETWEEN " +
+			parseSQL.getRangeFrom + " AND " + parseSQL.getRangeTo + ")\n"
+	
+	/**
+	 * Method which groups the rows of a table and computes all aggregates of the select list in a
+	 * single pass, named agg0, agg1, ..., then applies the having clause, and the order by and
+	 * limit clauses (ties are ordered by the group by columns, like in the Hadoop job)
+	 *
+	 * @param table     the rows to be grouped
+	 * @param groupCols names of the group by columns in the table
+	 * @param parseSQL  the parsed SQL
+	 * @param column    column of the table to which an aggregate (given by its index) is applied
+	 * @return the groups, with the group by columns followed by the aggregates
+	 */
+	private[scala_queries] def aggregate(table: DataFrame, groupCols: Seq[String], parseSQL: ParseSQL,
+	                                     column: Int => Column): DataFrame = {
+		// values are read as integers, like in the Hadoop job, except for distinct counts, which hash their text
+		val aggExprs = parseSQL.getAggregates.asScala.zipWithIndex.map { case (aggregate, i) =>
+			val aggColumn = if (aggregate.getFunction == AggregateFunction.APPROX_COUNT_DISTINCT) column(i).cast("string")
+			else column(i).cast("long")
+			
+			// perform required operation based on aggregate function (switch-case)
+			val expr = aggregate.getFunction match {
+				case AggregateFunction.SUM => sum(aggColumn)
+				case AggregateFunction.COUNT => count(aggColumn)
+				case AggregateFunction.MAX => max(aggColumn)
+				case AggregateFunction.MIN => min(aggColumn)
+				case AggregateFunction.AVG => avg(aggColumn)
+				case AggregateFunction.STDDEV => stddev(aggColumn)
+				case AggregateFunction.VARIANCE => variance(aggColumn)
+				case AggregateFunction.APPROX_COUNT_DISTINCT => approx_count_distinct(aggColumn)
+				case _ => throw new IllegalArgumentException("The aggregate function is not valid")
+			}
+			expr.as("agg" + i)
+		}
+		
+		var res = table.groupBy(groupCols.head, groupCols.tail: _*)
+			.agg(aggExprs.head, aggExprs.tail: _*)
+		
+		if (parseSQL.getHavingAggregate >= 0) {
+			res = res.filter(col("agg" + parseSQL.getHavingAggregate) > parseSQL.getComparisonNumber)
+		}
+		
+		// only the first groups are computed
+		if (parseSQL.getLimit > 0) {
+			val descending = parseSQL.isOrderDescending
+			val order = if (parseSQL.getOrderByAggregate >= 0) {
+				val aggColumn = col("agg" + parseSQL.getOrderByAggregate)
+				(if (descending) aggColumn.desc else aggColumn.asc) +: groupCols.flatMap(keyOrder(_, false))
+			} else {
+				keyOrder(groupCols(parseSQL.getOrderByColumn), descending) ++ groupCols.flatMap(keyOrder(_, false))
+			}
+			res = res.orderBy(order: _*).limit(parseSQL.getLimit)
+		}
+		res
+	}
+	
+	/**
+	 * Method which returns the plan of [[aggregate]]
+	 *
+	 * @param parseSQL     the parsed SQL
+	 * @param groupColumns the group by columns of the query
+	 * @return the plan, one operation per line
+	 */
+	private[scala_queries] def aggregatePlan(parseSQL: ParseSQL, groupColumns: Seq[String]): String = {
+		val aggregates = parseSQL.getAggregates.asScala
+		var plan = ".groupBy(" + groupColumns.mkString(",") + ")\n"
+		plan = plan + ".agg(" + aggregates.map(aggregate =>
+			aggregate.getFunction + "(" + aggregate.getColumn + ")").mkString(", ") + ")\n"
+		if (parseSQL.getHavingAggregate >= 0) {
+			plan = plan + ".filter(" + aggregates(parseSQL.getHavingAggregate).getColumn + ">" +
+				parseSQL.getComparisonNumber + ")\n"
+		}
+		if (parseSQL.getLimit > 0) {
+			val orderBy = if (parseSQL.getOrderByAggregate >= 0) aggregates(parseSQL.getOrderByAggregate).toString
+			else groupColumns(parseSQL.getOrderByColumn)
+			plan = plan + ".orderBy(" + orderBy + (if (parseSQL.isOrderDescending) " DESC" else " ASC") + ")\n" +
+				".limit(" + parseSQL.getLimit + ")\n"
+		}
+		plan
+	}
+	
+	/**
+	 * Method which returns the selected columns of a query with a per group limit, named after
+	 * the columns of the table (* selects all columns)
+	 *
+	 * @param parseSQL the parsed SQL
+	 * @return the selected columns
+	 */
+	private def selectColumns(parseSQL: ParseSQL): Seq[Column] = {
+		val table = parseSQL.getTable1
+		parseSQL.getColumns.asScala.flatMap(column =>
+			if (column == "*") (0 until DBManager.getTableSize(table)).map(DBManager.getColumnFromIndex(table, _))
+			else Seq(column))
+			.map(column => col("_c" + DBManager.getColumnIndex(table, column)).as(column))
+	}
+	
+	/**
+	 * Method which returns the sort expressions of a group by column, by which integers are
+	 * ordered numerically and before all other values, which are ordered as text (like the
+	 * keys of the Hadoop job)
+	 *
+	 * @param column     the group by column
+	 * @param descending whether the column is sorted in descending order
+	 * @return the sort expressions
+	 */
+	private def keyOrder(column: String, descending: Boolean): Seq[Column] = {
+		val number = col(column).cast("long")
+		val exprs = Seq(number.isNull, number, col(column))
+		if (descending) exprs.map(_.desc) else exprs.map(_.asc)
+	}
+}
@@ -2,11 +2,15 @@ package com.cloud.project.scala_queries
 
 import com.cloud.project.Globals
 import com.cloud.project.contracts.DBManager
+import com.cloud.project.jobUtils.{CsvTokenizer, GroupedJoin, JoinTree, MultiJoin, Partitioning, PhysicalPlan, SkewJoin}
 import com.cloud.project.models.OutputModel
-import com.cloud.project.sqlUtils.ParseSQL
+import com.cloud.project.sqlUtils.{ParseSQL, Tables}
 import org.apache.hadoop.fs.Path
 import org.apache.hadoop.util.Time
-import org.apache.spark.sql.{SaveMode, SparkSession}
+import org.apache.spark.sql.functions.{broadcast, col, explode, hash, lit, udf}
+import org.apache.spark.sql.{DataFrame, SaveMode, SparkSession}
+
+import scala.collection.JavaConverters._
 
 
 object SparkInnerJoin {
@@ -15,24 +19,39 @@ object SparkInnerJoin {
 		
 		val sc = SparkSession.builder()
 			.master(Globals.getSparkMaster) // necessary for allowing spark to use as many laogical datanodes as available
+			.config("spark.sql.orc.filterPushdown", "true") // columnar tables skip the row groups which cannot match
 			.getOrCreate()
 		//    val user_df = sc.read.format("csv").option("header", "false").load("hdfs://localhost:9000/users.csv")
 		//    val zipcodes_df = sc.read.format("csv").option("header", "false").load("hdfs://localhost:9000/zipcodes.csv")
 		
+		// joined rows which are aggregated are grouped right after the join, like in the Hadoop job
+		if (!parseSQL.getGroupColumns.isEmpty) {
+			executeGroupedJoin(sc, parseSQL, innerJoinOutput)
+			return
+		}
+		
+		// a join of more than two tables is planned as a whole, like the Hadoop job
+		if (parseSQL.getJoinTables.size > 2) {
+			executeMultiJoin(sc, parseSQL, innerJoinOutput)
+			return
+		}
+		
 		val jk = parseSQL.getOperationColumns.get(0)
 		
 		val startTime = Time.now
 		
-		var table1 = sc.read.format("csv").option("header", "false")
-			.load(Globals.getNamenodeUrl + Globals.getCsvInputPath + DBManager.getFileName(parseSQL.getTable1))
+		var table1 = SparkGroupBy.readTable(sc, parseSQL.getTable1, whereIndex(parseSQL, parseSQL.getTable1),
+			parseSQL.getWhereValue, SparkGroupBy.rangeIndex(parseSQL, parseSQL.getTable1), parseSQL.getRangeFrom,
+			parseSQL.getRangeTo)
 		
 		for (a <- 0 until DBManager.getTableSize(parseSQL.getTable1)) {
 			table1 = table1.withColumnRenamed("_c" + a,
 				DBManager.getColumnFromIndex(parseSQL.getTable1, a))
 		}
 		
-		var table2 = sc.read.format("csv").option("header", "false")
-			.load(Globals.getNamenodeUrl + Globals.getCsvInputPath + DBManager.getFileName(parseSQL.getTable2))
+		var table2 = SparkGroupBy.readTable(sc, parseSQL.getTable2, whereIndex(parseSQL, parseSQL.getTable2),
+			parseSQL.getWhereValue, SparkGroupBy.rangeIndex(parseSQL, parseSQL.getTable2), parseSQL.getRangeFrom,
+			parseSQL.getRangeTo)
 		
 		for (a <- 0 until DBManager.getTableSize(parseSQL.getTable2)) {
 			table2 = table2.withColumnRenamed("_c" + a,
@@ -62,13 +81,76 @@ object SparkInnerJoin {
 				+ " is not part of the join tables")
 		}
 		
-		val ij = table1.join(table2, table1(jk) === table2(jk)).drop(table2(jk))
+		// runtime filter: the join keys of the filtered table make a Bloom filter, which prunes the other table
+		var bloomFilterPlan = ""
+		if (Globals.isBloomFilterJoinEnabled) {
+			parseSQL.getWhereTable match {
+				case `table1Enum` =>
+					table2 = bloomFilterJoinKeys(table1, table2, jk)
+					bloomFilterPlan = ".filter(" + table2Enum.name + "[" + jk + "] in BloomFilter(" + table1Enum.name + "[" + jk + "]))\n"
+				
+				case `table2Enum` =>
+					table1 = bloomFilterJoinKeys(table2, table1, jk)
+					bloomFilterPlan = ".filter(" + table1Enum.name + "[" + jk + "] in BloomFilter(" + table2Enum.name + "[" + jk + "]))\n"
+				
+				case _ =>
+			}
+		}
+		
+		// projection pushdown: only the join key and the selected columns of each table are joined
+		val joinPlan = PhysicalPlan.innerJoin(parseSQL, jk)
+		var projectionPlan = ""
+		if (!joinPlan.isSelectAll) {
+			table1 = table1.select(projectedColumns(joinPlan, 0, jk).map(table1(_)): _*)
+			table2 = table2.select(projectedColumns(joinPlan, 1, jk).map(table2(_)): _*)
+			projectionPlan = ".select(" + table1Enum.name + "[" + projectedColumns(joinPlan, 0, jk).mkString(", ") + "], "
+			projectionPlan = projectionPlan + table2Enum.name + "[" + projectedColumns(joinPlan, 1, jk).mkString(", ") + "])\n"
+		}
+		
+		// skew join: if neither table is small enough to be broadcast, the rows of each hot join key are spread
+		// over several partitions in the table where it is hot, and replicated to all of them in the other table
+		val conf = sc.sparkContext.hadoopConfiguration
+		val inputPath1 = new Path(Globals.getNamenodeUrl + Globals.getCsvInputPath + DBManager.getFileName(table1Enum))
+		val inputPath2 = new Path(Globals.getNamenodeUrl + Globals.getCsvInputPath + DBManager.getFileName(table2Enum))
+		val inputSize1 = Partitioning.getInputSize(conf, inputPath1)
+		val inputSize2 = Partitioning.getInputSize(conf, inputPath2)
+		val numReducers = Partitioning.getNumReducers(inputSize1 + inputSize2)
+		if (math.min(inputSize1, inputSize2) > Globals.getBroadcastJoinThreshold && numReducers > 1) {
+			SkewJoin.prepare(conf, joinPlan, inputPath1, inputPath2, numReducers)
+		}
+		var skewPlan = ""
+		var joinCondition = table1(jk) === table2(jk)
+		if (joinPlan.getNumSkewedKeys > 0) {
+			table1 = saltJoinKeys(table1, 0, joinPlan, jk)
+			table2 = saltJoinKeys(table2, 1, joinPlan, jk)
+			joinCondition = joinCondition && table1("_salt") === table2("_salt")
+			skewPlan = ".withColumn(_salt, salt(" + table1Enum.name + "[" + jk + "]), salt(" + table2Enum.name + "[" + jk
+			skewPlan = skewPlan + "]))  // " + SkewJoin.describe(joinPlan) + "\n"
+		}
+		
+		val joined = table1.join(table2, joinCondition)
+		val ij = if (joinPlan.isSelectAll && joinPlan.getNumSkewedKeys > 0) {
+			joined.drop(table2(jk)).drop(table1("_salt")).drop(table2("_salt"))
+		} else if (joinPlan.isSelectAll) {
+			joined.drop(table2(jk))
+		} else {
+			joined.select(selectedColumns(joinPlan).map(column =>
+				if (column._1 == 0) table1(column._2) else table2(column._2)): _*)
+		}
 		
 		
 		ij.show
-		var plan = "select(" + parseSQL.getWhereTable.name + "[" + parseSQL.getWhereColumn + "] = " + parseSQL.getWhereValue + ")\n"
-		plan = plan + ".join(" + parseSQL.getTable1.name + "[" + jk + "] = " + parseSQL.getTable2.name + "[" + jk + "])\n"
-		plan = plan + ".drop(" + parseSQL.getTable2.name + " [" + jk + "])\n"
+		var plan = if (parseSQL.getWhereTable == Tables.NONE) ""
+		else "select(" + parseSQL.getWhereTable.name + "[" + parseSQL.getWhereColumn + "] = " + parseSQL.getWhereValue + ")\n"
+		plan = plan + SparkGroupBy.rangePlan(parseSQL) + bloomFilterPlan + projectionPlan + skewPlan
+		plan = plan + ".join(" + parseSQL.getTable1.name + "[" + jk + "] = " + parseSQL.getTable2.name + "[" + jk + "]"
+		plan = plan + (if (joinPlan.getNumSkewedKeys > 0) " and _salt = _salt" else "") + ")\n"
+		if (joinPlan.isSelectAll) {
+			plan = plan + ".drop(" + parseSQL.getTable2.name + " [" + jk + "])\n"
+		} else {
+			plan = plan + ".select(" + selectedColumns(joinPlan).map(column =>
+				joinPlan.getTable(column._1).name + "[" + column._2 + "]").mkString(", ") + ")\n"
+		}
 		plan = plan + ".show"
 		
 		innerJoinOutput.setSparkPlan(plan)
@@ -77,6 +159,188 @@ object SparkInnerJoin {
 		
 		//				innerJoinOutput.setSparkExecutionTime(sc.time(ij.show). + "")
 		//innerJoinOutput.setSparkOutput(ij.write.format("csv").toString)
+		writeOutput(sc, ij, innerJoinOutput)
+	}
+	
+	/**
+	 * Method which runs an Inner Join of more than two tables in the order of the Hadoop job (see
+	 * [[JoinTree]]): starting from the largest table, each table is joined to the table before it,
+	 * the tables small enough to be broadcast by the Hadoop job being broadcast as well. Each
+	 * table is filtered by the where clause and reduced to the columns read by the join first.
+	 *
+	 * @param sc              the Spark session
+	 * @param parseSQL        the parsed query
+	 * @param innerJoinOutput the output of the query
+	 */
+	private def executeMultiJoin(sc: SparkSession, parseSQL: ParseSQL, innerJoinOutput: OutputModel): Unit = {
+		val joinPlan = PhysicalPlan.multiJoin(parseSQL)
+		val inputSizes = getInputSizes(sc, joinPlan)
+		joinPlan.setAnchorTables(MultiJoin.getAnchorTables(inputSizes))
+		
+		val startTime = Time.now
+		
+		val (joined, joinSteps) = joinTables(sc, parseSQL, joinPlan, inputSizes)
+		var plan = joinSteps
+		
+		// columns missing from the csv file of their table (e.g. Movies.Rating) are selected as empty columns;
+		// the selected columns keep their unique names, as columns of different tables may share a name
+		val selected = selectedColumns(joinPlan)
+		val ij = joined.select(selected.map { column =>
+			val name = joinPlan.getTable(column._1).name + "_" + column._2
+			if (joined.columns.contains(name)) col(name) else lit(null).cast("string").as(name)
+		}: _*)
+		
+		ij.show
+		plan = plan + ".select(" + selected.map(column => joinPlan.getTable(column._1).name + "[" + column._2 + "]").mkString(", ")
+		plan = plan + ")\n.show"
+		
+		innerJoinOutput.setSparkPlan(plan)
+		val endTime = Time.now()
+		innerJoinOutput.setSparkExecutionTime(String.valueOf(endTime - startTime) + " milliseconds")
+		writeOutput(sc, ij, innerJoinOutput)
+	}
+	
+	/**
+	 * Method which runs an Inner Join with a group by clause: the tables are joined in the order of
+	 * the Hadoop job (see [[GroupedJoin]]), and the joined rows are grouped and aggregated like in a
+	 * Group By query.
+	 *
+	 * @param sc              the Spark session
+	 * @param parseSQL        the parsed query
+	 * @param innerJoinOutput the output of the query
+	 */
+	private def executeGroupedJoin(sc: SparkSession, parseSQL: ParseSQL, innerJoinOutput: OutputModel): Unit = {
+		val joinPlan = PhysicalPlan.groupedJoin(parseSQL)
+		val inputSizes = getInputSizes(sc, joinPlan)
+		joinPlan.setAnchorTables(GroupedJoin.getAnchorTables(joinPlan, inputSizes))
+		
+		val startTime = Time.now
+		
+		val (joined, joinSteps) = joinTables(sc, parseSQL, joinPlan, inputSizes)
+		
+		// group by columns missing from the csv file of their table are grouped as empty columns
+		val groupCols = selectedColumns(joinPlan).map(column => joinPlan.getTable(column._1).name + "_" + column._2)
+		val grouped = groupCols.filterNot(joined.columns.contains(_)).foldLeft(joined)((rows, name) =>
+			rows.withColumn(name, lit(null).cast("string")))
+		val aggregateIndices = joinPlan.getAggregateIndices
+		var res = SparkGroupBy.aggregate(grouped, groupCols, parseSQL, i =>
+			if (aggregateIndices(i) < 0) lit(1) else col(columnName(joinPlan, joinPlan.getAggregatedTable, aggregateIndices(i))))
+		for ((groupCol, column) <- groupCols.zip(parseSQL.getGroupColumns.asScala)) {
+			res = res.withColumnRenamed(groupCol, column)
+		}
+		
+		res.show
+		val plan = joinSteps + SparkGroupBy.aggregatePlan(parseSQL, parseSQL.getGroupColumns.asScala) + ".show"
+		
+		innerJoinOutput.setSparkPlan(plan)
+		val endTime = Time.now()
+		innerJoinOutput.setSparkExecutionTime(String.valueOf(endTime - startTime) + " milliseconds")
+		writeOutput(sc, res, innerJoinOutput)
+	}
+	
+	/**
+	 * Method which returns the size of each table of a join of more than two tables
+	 *
+	 * @param sc       the Spark session
+	 * @param joinPlan physical plan of the join
+	 * @return size of each table, in bytes
+	 */
+	private def getInputSizes(sc: SparkSession, joinPlan: PhysicalPlan): Array[Long] = {
+		val conf = sc.sparkContext.hadoopConfiguration
+		(0 until joinPlan.getNumTables).map(i => Partitioning.getInputSize(conf,
+			new Path(Globals.getNamenodeUrl + Globals.getCsvInputPath + DBManager.getFileName(joinPlan.getTable(i))))).toArray
+	}
+	
+	/**
+	 * Method which returns the index of the column of the where clause in a table of a join of two tables
+	 *
+	 * @param parseSQL the parsed SQL
+	 * @param table    the table
+	 * @return index of the column, -1 if the where clause is not on the table
+	 */
+	private def whereIndex(parseSQL: ParseSQL, table: Tables): Int =
+		if (parseSQL.getWhereTable == table) DBManager.getColumnIndex(table, parseSQL.getWhereColumn) else -1
+	
+	/**
+	 * Method which returns the name of a column of a join of more than two tables: the columns of
+	 * all tables are named TABLE_column, so that they are unique across the join
+	 *
+	 * @param joinPlan physical plan of the join
+	 * @param table    index of the table
+	 * @param index    index of the column in the table
+	 * @return the name of the column
+	 */
+	private def columnName(joinPlan: PhysicalPlan, table: Int, index: Int): String =
+		joinPlan.getTable(table).name + "_" + DBManager.getColumnFromIndex(joinPlan.getTable(table), index)
+	
+	/**
+	 * Method which joins the tables of a join of more than two tables in the order of the Hadoop
+	 * job (see [[JoinTree]]), whose anchor tables are set: starting from the first anchor table,
+	 * each table is joined to the table before it, the tables small enough to be broadcast by the
+	 * Hadoop job being broadcast as well. Each table is filtered by the where clause and reduced to
+	 * the columns read by the join first.
+	 *
+	 * @param sc         the Spark session
+	 * @param parseSQL   the parsed query
+	 * @param joinPlan   physical plan of the join
+	 * @param inputSizes size of each table, in bytes
+	 * @return the joined rows, with all columns read from each table, and the plan of the join
+	 */
+	private def joinTables(sc: SparkSession, parseSQL: ParseSQL, joinPlan: PhysicalPlan,
+	                       inputSizes: Array[Long]): (DataFrame, String) = {
+		val numTables = joinPlan.getNumTables
+		val tree = new JoinTree(joinPlan)
+		
+		var plan = ""
+		var projectionPlan = ""
+		val tables = (0 until numTables).map { i =>
+			var table = SparkGroupBy.readTable(sc, joinPlan.getTable(i), joinPlan.getWhereIndex(i), parseSQL.getWhereValue,
+				joinPlan.getRangeIndex(i), joinPlan.getRangeFrom, joinPlan.getRangeTo)
+			for (a <- 0 until DBManager.getTableSize(joinPlan.getTable(i))) {
+				table = table.withColumnRenamed("_c" + a, columnName(joinPlan, i, a))
+			}
+			if (joinPlan.getWhereIndex(i) >= 0) {
+				table = table.where(columnName(joinPlan, i, joinPlan.getWhereIndex(i)) + "=" + parseSQL.getWhereValue)
+				plan = plan + "select(" + joinPlan.getTable(i).name + "[" + parseSQL.getWhereColumn + "] = "
+				plan = plan + parseSQL.getWhereValue + ")\n"
+			}
+			if (joinPlan.getRangeIndex(i) >= 0) {
+				plan = plan + SparkGroupBy.rangePlan(parseSQL)
+			}
+			
+			// projection pushdown: only the join keys and the selected columns of each table are joined
+			val read = (tree.getNeededIndices(i) :+ tree.getBuildKeyIndex(i)).filter(_ >= 0).distinct.sorted
+				.map(columnName(joinPlan, i, _)).filter(table.columns.contains(_))
+			projectionPlan = projectionPlan + ".select(" + joinPlan.getTable(i).name + "["
+			projectionPlan = projectionPlan + read.map(_.substring(joinPlan.getTable(i).name.length + 1)).mkString(", ") + "])\n"
+			table.select(read.map(col): _*)
+		}
+		
+		plan = plan + projectionPlan
+		
+		val order = tree.getJoinOrder
+		var joined = tables(order(0))
+		for (table <- order.tail) {
+			val parent = tree.getParent(table)
+			val small = inputSizes(table) <= Globals.getBroadcastJoinThreshold
+			joined = joined.join(if (small) broadcast(tables(table)) else tables(table),
+				col(columnName(joinPlan, parent, tree.getProbeKeyIndex(table))) === col(columnName(joinPlan, table, tree.getBuildKeyIndex(table))))
+			plan = plan + ".join(" + (if (small) "broadcast(" + joinPlan.getTable(table).name + ")" else joinPlan.getTable(table).name)
+			plan = plan + ", " + joinPlan.getTable(parent).name + "[" + DBManager.getColumnFromIndex(joinPlan.getTable(parent),
+				tree.getProbeKeyIndex(table)) + "] = " + joinPlan.getTable(table).name + "[" + DBManager.getColumnFromIndex(
+				joinPlan.getTable(table), tree.getBuildKeyIndex(table)) + "])\n"
+		}
+		(joined, plan)
+	}
+	
+	/**
+	 * Method which writes the output of a join to HDFS, and sets its download URLs
+	 *
+	 * @param sc              the Spark session
+	 * @param ij              the joined rows
+	 * @param innerJoinOutput the output of the query
+	 */
+	private def writeOutput(sc: SparkSession, ij: DataFrame, innerJoinOutput: OutputModel): Unit = {
 		val outputPathString = Globals.getNamenodeUrl + Globals.getSparkOutputPath
 		ij.write.mode(SaveMode.Overwrite).csv(outputPathString)
 		
@@ -102,4 +366,74 @@ object SparkInnerJoin {
 		
 		innerJoinOutput.setSparkOutputUrl(downloadUrl.toString())
 	}
+	
+	/**
+	 * Method which returns the columns of a table which are read by a join: its join key and
+	 * its selected columns
+	 *
+	 * @param joinPlan physical plan of the join
+	 * @param table    0 for the first table, 1 for the second
+	 * @param jk       the join key
+	 * @return names of the columns of the table which are read
+	 */
+	private def projectedColumns(joinPlan: PhysicalPlan, table: Int, jk: String): Seq[String] = {
+		(jk +: joinPlan.getProjectionIndices(table).toSeq
+			.map(DBManager.getColumnFromIndex(joinPlan.getTable(table), _))).distinct
+	}
+	
+	/**
+	 * Method which returns the selected columns of a join, in the order of the select list, as
+	 * the table each column is read from and the name of the column
+	 *
+	 * @param joinPlan physical plan of the join
+	 * @return the selected columns
+	 */
+	private def selectedColumns(joinPlan: PhysicalPlan): Seq[(Int, String)] = {
+		val numSelected = new Array[Int](joinPlan.getNumTables)
+		joinPlan.getSelectTables.toSeq.map { table =>
+			val column = joinPlan.getProjectionIndices(table)(numSelected(table))
+			numSelected(table) += 1
+			(table, DBManager.getColumnFromIndex(joinPlan.getTable(table), column))
+		}
+	}
+	
+	/**
+	 * Method which adds the salt column "_salt" to a table of a skew join, which is joined along with the join
+	 * key. A row of a hot join key gets one salt out of the number of reducers of the key, from the hash of the
+	 * row, if the key is hot in this table, or else is replicated once for every salt. Other rows get salt 0.
+	 *
+	 * @param table    the table to be salted
+	 * @param index    0 for the first table, 1 for the second
+	 * @param joinPlan physical plan of the join, holding its hot join keys
+	 * @param jk       the join key
+	 * @return the salted table
+	 */
+	private def saltJoinKeys(table: DataFrame, index: Int, joinPlan: PhysicalPlan, jk: String): DataFrame = {
+		// Spark reads the join keys unquoted
+		val skewedKeys = (0 until joinPlan.getNumSkewedKeys).map(i => CsvTokenizer.unquote(joinPlan.getSkewedKey(i)) ->
+			(joinPlan.getSkewedTable(i) == index, joinPlan.getSkewedReducers(i).length)).toMap
+		val salts = udf((key: String, rowHash: Int) => skewedKeys.get(key) match {
+			case Some((true, numSalts)) => Seq(Math.floorMod(rowHash, numSalts))
+			case Some((false, numSalts)) => 0 until numSalts
+			case None => Seq(0)
+		})
+		table.withColumn("_salt", explode(salts(table(jk).cast("string"), hash(table.columns.map(table(_)): _*))))
+	}
+	
+	/**
+	 * Method which drops the rows of a table whose join key is not among the join keys of a filtered table,
+	 * as tested by a Bloom filter of these keys, before the tables are joined
+	 *
+	 * @param filtered the table filtered by the where clause
+	 * @param other    the table to be pruned
+	 * @param jk       the join key
+	 * @return the rows of the other table which may have a partner in the filtered table
+	 */
+	private def bloomFilterJoinKeys(filtered: DataFrame, other: DataFrame, jk: String): DataFrame = {
+		// the join keys are hashed as text, whatever their type
+		val bloomFilter = filtered.stat.bloomFilter(filtered(jk).cast("string"), math.max(1L, filtered.count),
+			Globals.getBloomFilterFalsePositiveRate)
+		val mightContain = udf((key: String) => key != null && bloomFilter.mightContainString(key))
+		other.where(mightContain(other(jk).cast("string")))
+	}
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.cloud.project.sqlUtils;
+
+import java.sql.SQLException;
+
+/**
+ * Class which represents an aggregate function applied on a column in a SQL query, e.g. SUM(rating)
+ */
+public class AggregateColumn {
+
+    private final AggregateFunction function;
+    private final String column;
+    private final String expression;
+
+    /**
+     * Creates an aggregate column
+     *
+     * @param function   the aggregate function to be applied
+     * @param column     the column on which the aggregate function is applied
+     * @param expression the aggregate as written in the SQL query
+     */
+    public AggregateColumn(AggregateFunction function, String column, String expression) {
+        this.function = function;
+        this.column = column;
+        this.expression = expression;
+    }
+
+    /**
+     * Parses an aggregate of the form FUNCTION(column). COUNT(DISTINCT column) is parsed as
+     * {@link AggregateFunction#APPROX_COUNT_DISTINCT}.
+     *
+     * @param expression the aggregate as written in the SQL query
+     * @return instance of {@link AggregateColumn}, or null if the expression is not a function call
+     * @throws SQLException if the function is not a supported {@link AggregateFunction}
+     */
+    static AggregateColumn parse(String expression) throws SQLException {
+        expression = expression.trim();
+        int open = expression.indexOf('(');
+        int close = expression.lastIndexOf(')');
+        if (open < 0 || close < open) {
+            return null;
+        }
+
+        String name = expression.substring(0, open).trim();
+        String column = expression.substring(open + 1, close).trim();
+        if (name.equalsIgnoreCase(AggregateFunction.COUNT.name())
+                && column.toUpperCase().startsWith("DISTINCT ")) {
+            column = column.substring("DISTINCT ".length()).trim();
+            return new AggregateColumn(AggregateFunction.APPROX_COUNT_DISTINCT, column, expression);
+        }
+        for (AggregateFunction function : AggregateFunction.values()) {
+            if (function != AggregateFunction.NONE && function.name().equalsIgnoreCase(name)) {
+                return new AggregateColumn(function, column, expression);
+            }
+        }
+        throw new SQLException("Aggregate function " + name + " is not supported");
+    }
+
+    /**
+     * Returns the aggregate function
+     *
+     * @return the {@link AggregateFunction} to be applied
+     */
+    public AggregateFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the column on which the aggregate function is applied
+     *
+     * @return name of the column
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * Checks whether this aggregate computes the same value as another one
+     *
+     * @param other the other aggregate
+     * @return true if both apply the same function on the same column
+     */
+    public boolean isSameAs(AggregateColumn other) {
+        return function == other.function && column.equalsIgnoreCase(other.column);
+    }
+
+    /**
+     * Returns the aggregate as written in the SQL query
+     *
+     * @return String of the form FUNCTION(column)
+     */
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
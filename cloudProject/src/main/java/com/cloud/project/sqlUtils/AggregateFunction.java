@@ -1,8 +1,13 @@
 package com.cloud.project.sqlUtils;
 
 /**
- * Enum used to define the type of Aggregate Function to be used in Group By SQL Query
+ * Enum used to define the type of Aggregate Function to be used in Group By SQL Query.
+ * <br>
+ * STDDEV and VARIANCE denote the sample standard deviation and sample variance respectively.
+ * <br>
+ * APPROX_COUNT_DISTINCT denotes the estimated number of distinct values of a column, and is
+ * also used for COUNT(DISTINCT column).
  */
 public enum AggregateFunction {
-    NONE, SUM, MAX, MIN, COUNT
+    NONE, SUM, MAX, MIN, COUNT, AVG, STDDEV, VARIANCE, APPROX_COUNT_DISTINCT
 }
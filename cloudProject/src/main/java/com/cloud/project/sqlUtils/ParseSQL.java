@@ -3,6 +3,8 @@ package com.cloud.project.sqlUtils;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ParseSQL {
 
@@ -19,29 +21,79 @@ public class ParseSQL {
     private Tables table1;
     private Tables table2;
 
+    // all tables of an Inner Join, in the order of the query, and for each table after the
+    // first one, the earlier table to which it is joined
+    private ArrayList<Tables> joinTables;
+    private ArrayList<Tables> joinPartners;
+
     // stores either the column on which join is to be performed, or on which columns grouping is done
     private ArrayList<String> operationColumns;
 
-    // stores the aggregate function to be performed
+    // group by columns of an Inner Join whose joined records are aggregated, empty for a plain join
+    private ArrayList<String> groupColumns;
+
+    // stores the aggregate function to be performed (the first one, if there are several)
     private AggregateFunction aggregateFunction;
 
+    // stores all aggregate functions of the select list, in order
+    private ArrayList<AggregateColumn> aggregates;
+
+    // index (in aggregates) of the aggregate used in the having clause, -1 if there is none
+    private int havingAggregate;
+
     private int comparisonNumber;
 
     private Tables whereTable;
     private String whereColumn;
     private String whereValue;
 
+    // range condition of the where clause on an integer column (e.g. Rating.timestamp), with its
+    // inclusive bounds; the column is null if there is none
+    private Tables rangeTable;
+    private String rangeColumn;
+    private long rangeFrom;
+    private long rangeTo;
+
+    // order by clause of a Group By query: either the index (in aggregates) of the aggregate,
+    // or the index (in operationColumns, or groupColumns for a join) of the group by column by
+    // which groups are ordered
+    private int orderByAggregate;
+    private int orderByColumn;
+    private boolean orderDescending;
+
+    // number of groups to be returned, -1 if there is no limit
+    private int limit;
+
+    // with a per group limit, the limit applies to the rows of each group, which are sorted by sortColumn
+    private boolean limitPerGroup;
+    private String sortColumn;
+
     private boolean parsed;
 
     public ParseSQL(String query) {
         this.query = query;
         columns = new ArrayList<>();
         operationColumns = new ArrayList<>();
+        groupColumns = new ArrayList<>();
+        joinTables = new ArrayList<>();
+        joinPartners = new ArrayList<>();
         aggregateFunction = AggregateFunction.NONE;
+        aggregates = new ArrayList<>();
+        havingAggregate = -1;
         comparisonNumber = -1;
         whereTable = Tables.NONE;
         whereColumn = "";
         whereValue = "";
+        rangeTable = Tables.NONE;
+        rangeColumn = null;
+        rangeFrom = Long.MIN_VALUE;
+        rangeTo = Long.MAX_VALUE;
+        orderByAggregate = -1;
+        orderByColumn = -1;
+        orderDescending = false;
+        limit = -1;
+        limitPerGroup = false;
+        sortColumn = null;
         parsed = false;
     }
 
@@ -56,19 +108,43 @@ public class ParseSQL {
             return;
         }
 
-        StringTokenizer tokenizer = new StringTokenizer(query, ", .", false);
+        // reading required columns (and possibly functions), which are separated by commas.
+        // this could be *, column names, or even functions on columns.
+        Matcher from = Pattern.compile("\\sFROM\\s", Pattern.CASE_INSENSITIVE).matcher(query);
+        if (!from.find()) {
+            throw new SQLException("Parsing unsuccessful: FROM clause not found");
+        }
+        String selectList = query.substring(0, from.start()).trim();
+        selectList = selectList.substring(selectList.indexOf(' ') + 1); // ignoring first word : SELECT
+        for (String column : selectList.split(",")) {
+            columns.add(column.trim());
+        }
 
-        String token = tokenizer.nextToken(); // ignoring first word : SELECT
+        // reading the (optional) order by and limit clauses at the end of the query
+        String remaining = query.substring(from.end());
+        String orderBy = null;
+        Matcher orderByLimit = Pattern.compile(
+                "\\sORDER\\s+BY\\s+(.+?)(\\s+(ASC|DESC))?\\s+LIMIT\\s+(\\d+)(\\s+PER\\s+GROUP)?\\s*$",
+                Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(remaining);
+        if (orderByLimit.find()) {
+            orderBy = orderByLimit.group(1).trim();
+            orderDescending = "DESC".equalsIgnoreCase(orderByLimit.group(3));
+            limit = Integer.parseInt(orderByLimit.group(4));
+            limitPerGroup = orderByLimit.group(5) != null;
+            if (limit < 1) {
+                throw new SQLException("LIMIT should be a positive number");
+            }
+            remaining = remaining.substring(0, orderByLimit.start());
+        } else if (Pattern.compile("\\s(ORDER\\s+BY|LIMIT)\\s", Pattern.CASE_INSENSITIVE).matcher(remaining).find()) {
+            throw new SQLException("ORDER BY and LIMIT are only supported together, as "
+                    + "ORDER BY <column> [ASC|DESC] LIMIT <k> [PER GROUP]");
+        }
 
-        // reading required columns (and possibly functions)
-        do {
-            token = tokenizer.nextToken();
-            columns.add(token);
-        } while (!token.equalsIgnoreCase("FROM"));
+        // the range conditions of the where clause are taken out of it, leaving the equality condition
+        remaining = parseRange(remaining);
 
-        // this could be *, column names, or even functions on cplumns.
-        // We will handle that part later
-        columns.remove(columns.size() - 1);
+        StringTokenizer tokenizer = new StringTokenizer(remaining, ", .", false);
+        String token;
 
         // getting name of first table
         String table = tokenizer.nextToken();
@@ -90,75 +166,126 @@ public class ParseSQL {
         queryType = (typeOfQuery.equals(QueryType.INNER_JOIN.name())) ? QueryType.INNER_JOIN : QueryType.GROUP_BY;
 
         if (queryType == QueryType.INNER_JOIN) {
-            // get second table for the inner join
-            table = tokenizer.nextToken();
-
-            if (table.equalsIgnoreCase(Tables.USERS.name())) {
-                table2 = Tables.USERS;
-            } else if (table.equalsIgnoreCase(Tables.ZIPCODES.name())) {
-                table2 = Tables.ZIPCODES;
-            } else if (table.equalsIgnoreCase(Tables.MOVIES.name())) {
-                table2 = Tables.MOVIES;
-            } else if (table.equalsIgnoreCase(Tables.RATING.name())) {
-                table2 = Tables.RATING;
-            } else {
-                throw new SQLException("Table " + table + " does not exist");
+            // a join may end with a group by clause (and a having clause), which aggregates the
+            // joined records. The join itself is then read from the text before it.
+            Matcher groupBy = Pattern.compile("\\sGROUP\\s+BY\\s+(.+?)(\\s+HAVING\\s+(.+?))?\\s*$",
+                    Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(remaining);
+            String having = null;
+            if (groupBy.find()) {
+                for (String column : groupBy.group(1).split(",")) {
+                    groupColumns.add(column.trim());
+                }
+                having = groupBy.group(3);
+                remaining = remaining.substring(0, groupBy.start());
+                tokenizer = new StringTokenizer(remaining, ", .", false);
+            }
+            if (orderBy != null && (groupColumns.isEmpty() || limitPerGroup)) {
+                throw new SQLException("ORDER BY is only supported in Group By queries, "
+                        + "and in Inner Join queries with a group by clause without a per group limit");
             }
 
-            // get join condition
-            token = tokenizer.nextToken(); // ignore "ON"
-            token = tokenizer.nextToken(); // ignore table name; this has already been parsed
-            operationColumns.add((tokenizer.nextToken()));
+            // get the joined tables, each with its join condition ON <table>.<column> = <table>.<column>,
+            // which compares it with a table joined before it. The join column of each condition is
+            // an operation column.
+            joinTables.add(table1);
+            Matcher join = Pattern.compile(
+                    "\\bINNER\\s+JOIN\\s+(\\w+)\\s+ON\\s+(\\w+)\\s*\\.\\s*(\\w+)\\s*=\\s*(\\w+)\\s*\\.\\s*(\\w+)",
+                    Pattern.CASE_INSENSITIVE).matcher(remaining);
+            while (join.find()) {
+                Tables joined = getTable(join.group(1));
+                Tables left = getTable(join.group(2));
+                Tables right = getTable(join.group(4));
+                Tables partner = (left == joined) ? right : left;
+                if ((left != joined && right != joined) || joinTables.contains(joined) || !joinTables.contains(partner)) {
+                    throw new SQLException("Join condition of table " + join.group(1)
+                            + " should compare it with a table joined before it");
+                }
+                if (!join.group(3).equalsIgnoreCase(join.group(5))) {
+                    throw new SQLException("Tables " + left.name() + " and " + right.name()
+                            + " should be joined on a column of the same name");
+                }
+                joinTables.add(joined);
+                joinPartners.add(partner);
+                operationColumns.add(join.group(3));
+            }
+            if (joinTables.size() < 2) {
+                throw new SQLException("Parsing unsuccessful: join condition not found");
+            }
+            table2 = joinTables.get(1);
 
-            while (!token.equalsIgnoreCase("WHERE")) {
+            // the where clause is optional if the joined records are aggregated, or if it holds a range condition
+            token = "";
+            while (!token.equalsIgnoreCase("WHERE")
+                    && ((groupColumns.isEmpty() && rangeColumn == null) || tokenizer.hasMoreTokens())) {
                 token = tokenizer.nextToken();
             }
-
-            // get column on which where clause is run
-            whereColumn = tokenizer.nextToken(".").trim();
-            if (whereColumn.equalsIgnoreCase(Tables.USERS.name())) {
-                whereTable = Tables.USERS;
-            } else if (whereColumn.equalsIgnoreCase(Tables.ZIPCODES.name())) {
-                whereTable = Tables.ZIPCODES;
-            } else if (whereColumn.equalsIgnoreCase(Tables.MOVIES.name())) {
-                whereTable = Tables.MOVIES;
-            } else if (whereColumn.equalsIgnoreCase(Tables.RATING.name())) {
-                whereTable = Tables.RATING;
-            } else {
-                throw new SQLException("table for column of where clause does not exist");
+            if (token.equalsIgnoreCase("WHERE")) {
+                parseWhere(tokenizer);
             }
 
-            whereColumn = tokenizer.nextToken("=").substring(1).trim();
-
-            // get value for where clause
-            whereValue = tokenizer.nextToken().trim();
+            if (!groupColumns.isEmpty()) {
+                parseAggregates();
+                if (having != null) {
+                    String[] condition = having.split(">");
+                    if (condition.length != 2) {
+                        throw new SQLException("Having clause should be of the form <aggregate> > <number>");
+                    }
+                    parseHaving(condition[0], condition[1]);
+                }
+                if (orderBy != null) {
+                    parseOrderBy(orderBy, groupColumns);
+                }
+            }
         } else {
             table2 = null;
             whereColumn = null;
             whereValue = null;
+            if (Pattern.compile("\\sWHERE\\s", Pattern.CASE_INSENSITIVE).matcher(remaining).find()) {
+                throw new SQLException("The where clause of a Group By query should only hold range conditions, "
+                        + "e.g. timestamp BETWEEN <number> AND <number>");
+            }
 
-            // read group by columns
-            do {
+            // read group by columns, up to the (optional) having clause
+            token = "";
+            while (tokenizer.hasMoreTokens() && !token.equalsIgnoreCase("HAVING")) {
                 token = tokenizer.nextToken();
                 operationColumns.add(token);
-            } while (!token.equalsIgnoreCase("HAVING"));
-            operationColumns.remove(operationColumns.size() - 1);
-
-            // get the aggregate function
-            String func = columns.get(columns.size() - 1).split("\\(")[0];
-            if (func.equalsIgnoreCase(AggregateFunction.SUM.name())) {
-                aggregateFunction = AggregateFunction.SUM;
-            } else if (func.equalsIgnoreCase(AggregateFunction.MAX.name())) {
-                aggregateFunction = AggregateFunction.MAX;
-            } else if (func.equalsIgnoreCase(AggregateFunction.MIN.name())) {
-                aggregateFunction = AggregateFunction.MIN;
-            } else {
-                aggregateFunction = AggregateFunction.COUNT;
             }
+            if (token.equalsIgnoreCase("HAVING")) {
+                operationColumns.remove(operationColumns.size() - 1);
+            }
+
+            parseAggregates();
+            if (limitPerGroup) {
+                // the first rows of each group are selected, so there are no aggregates
+                if (!aggregates.isEmpty() || token.equalsIgnoreCase("HAVING")) {
+                    throw new SQLException("Group By query with a per group limit cannot have aggregate functions");
+                }
+                if (AggregateColumn.parse(orderBy) != null) {
+                    throw new SQLException("Column of the order by clause should be a column of table " + table1);
+                }
+                sortColumn = orderBy;
+                orderBy = null;
+            }
+
+            if (token.equalsIgnoreCase("HAVING")) {
+                // read condition of having clause: the aggregate before the '>' symbol, and the number after it
+                parseHaving(tokenizer.nextToken(">"), tokenizer.nextToken());
+            }
+
+            if (orderBy != null) {
+                parseOrderBy(orderBy, operationColumns);
+            }
+        }
 
-            // read condition of having clause; need only the number after the '>' symbol
-            tokenizer.nextToken(">");
-            comparisonNumber = Integer.parseInt(tokenizer.nextToken());
+        if (rangeColumn != null) {
+            if (rangeTable == Tables.NONE && queryType == QueryType.GROUP_BY) {
+                rangeTable = table1;
+            }
+            if ((queryType == QueryType.GROUP_BY) ? rangeTable != table1 : !joinTables.contains(rangeTable)) {
+                throw new SQLException("Column " + rangeColumn + " of the range condition should be a column "
+                        + "of a table of the query, written as <table>.<column> in an Inner Join");
+            }
         }
 
         if (!tokenizer.hasMoreTokens()) {
@@ -168,6 +295,190 @@ public class ParseSQL {
         }
     }
 
+    /**
+     * Parses the where clause of an Inner Join, <table>.<column> = <value>, which follows the
+     * WHERE token read by the given tokenizer
+     *
+     * @param tokenizer tokenizer of the query, positioned after the WHERE token
+     * @throws SQLException if the table of the where clause is not one of the joined tables
+     */
+    private void parseWhere(StringTokenizer tokenizer) throws SQLException {
+        // get column on which where clause is run
+        whereColumn = tokenizer.nextToken(".").trim();
+        if (whereColumn.equalsIgnoreCase(Tables.USERS.name())) {
+            whereTable = Tables.USERS;
+        } else if (whereColumn.equalsIgnoreCase(Tables.ZIPCODES.name())) {
+            whereTable = Tables.ZIPCODES;
+        } else if (whereColumn.equalsIgnoreCase(Tables.MOVIES.name())) {
+            whereTable = Tables.MOVIES;
+        } else if (whereColumn.equalsIgnoreCase(Tables.RATING.name())) {
+            whereTable = Tables.RATING;
+        } else {
+            throw new SQLException("table for column of where clause does not exist");
+        }
+
+        if (!joinTables.contains(whereTable)) {
+            throw new SQLException("Table " + whereTable.name() + " of the where clause is not part of the join");
+        }
+
+        whereColumn = tokenizer.nextToken("=").substring(1).trim();
+
+        // get value for where clause
+        whereValue = tokenizer.nextToken().trim();
+    }
+
+    /**
+     * Parses the range conditions of the where clause of a query: [<table>.]<column> <op> <number>,
+     * with op one of <, <=, > and >=, or [<table>.]<column> BETWEEN <number> AND <number>. They
+     * should all be on the same column. The conditions of the where clause are joined with AND,
+     * and at most one of them is an equality condition, which is left in the where clause.
+     *
+     * @param remaining the query after its FROM token, without its order by and limit clauses
+     * @return the same text, with only the equality condition (if any) in the where clause
+     * @throws SQLException if the range conditions are on several columns
+     */
+    private String parseRange(String remaining) throws SQLException {
+        Matcher where = Pattern.compile("\\sWHERE\\s+(.+?)\\s*(?=\\sGROUP\\s+BY\\s|$)",
+                Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(remaining);
+        if (!where.find()) {
+            return remaining;
+        }
+
+        // the AND of a BETWEEN condition does not separate two conditions
+        ArrayList<String> conditions = new ArrayList<>();
+        Pattern openBetween = Pattern.compile("\\sBETWEEN\\s+-?\\d+$", Pattern.CASE_INSENSITIVE);
+        for (String condition : where.group(1).split("(?i)\\s+AND\\s+")) {
+            int last = conditions.size() - 1;
+            if (last >= 0 && openBetween.matcher(conditions.get(last)).find()) {
+                conditions.set(last, conditions.get(last) + " AND " + condition);
+            } else {
+                conditions.add(condition.trim());
+            }
+        }
+
+        Pattern between = Pattern.compile("(?:(\\w+)\\s*\\.\\s*)?(\\w+)\\s+BETWEEN\\s+(-?\\d+)\\s+AND\\s+(-?\\d+)",
+                Pattern.CASE_INSENSITIVE);
+        Pattern comparison = Pattern.compile("(?:(\\w+)\\s*\\.\\s*)?(\\w+)\\s*(<=|>=|<|>)\\s*(-?\\d+)");
+        StringBuilder equality = new StringBuilder();
+        for (String condition : conditions) {
+            Matcher range = between.matcher(condition);
+            if (range.matches()) {
+                addRange(range.group(1), range.group(2), Long.parseLong(range.group(3)), Long.parseLong(range.group(4)));
+                continue;
+            }
+            range = comparison.matcher(condition);
+            if (range.matches()) {
+                long bound = Long.parseLong(range.group(4));
+                switch (range.group(3)) {
+                    case "<":
+                        addRange(range.group(1), range.group(2), Long.MIN_VALUE, bound - 1);
+                        break;
+                    case "<=":
+                        addRange(range.group(1), range.group(2), Long.MIN_VALUE, bound);
+                        break;
+                    case ">":
+                        addRange(range.group(1), range.group(2), bound + 1, Long.MAX_VALUE);
+                        break;
+                    default:
+                        addRange(range.group(1), range.group(2), bound, Long.MAX_VALUE);
+                }
+                continue;
+            }
+            equality.append(equality.length() > 0 ? " AND " : "").append(condition);
+        }
+        return remaining.substring(0, where.start()) + (equality.length() > 0 ? " WHERE " + equality : "")
+                + remaining.substring(where.end());
+    }
+
+    /**
+     * Narrows the range of the where clause by a range condition
+     *
+     * @param table  table of the column, null if it is not given
+     * @param column the column
+     * @param from   lowest value of the range
+     * @param to     highest value of the range
+     * @throws SQLException if the range is on another column than the previous range conditions
+     */
+    private void addRange(String table, String column, long from, long to) throws SQLException {
+        Tables columnTable = (table == null) ? Tables.NONE : getTable(table);
+        if (rangeColumn != null && (columnTable != rangeTable || !column.equalsIgnoreCase(rangeColumn))) {
+            throw new SQLException("The range conditions of the where clause should be on the same column");
+        }
+        rangeTable = columnTable;
+        rangeColumn = column;
+        rangeFrom = Math.max(rangeFrom, from);
+        rangeTo = Math.min(rangeTo, to);
+    }
+
+    /**
+     * Reads the aggregate functions of the select list of a query which groups its records
+     *
+     * @throws SQLException if a query without a per group limit selects no aggregate function
+     */
+    private void parseAggregates() throws SQLException {
+        for (String column : columns) {
+            AggregateColumn aggregate = AggregateColumn.parse(column);
+            if (aggregate != null) {
+                aggregates.add(aggregate);
+            }
+        }
+        if (!limitPerGroup) {
+            if (aggregates.isEmpty()) {
+                throw new SQLException("Group By query should select at least one aggregate function");
+            }
+            aggregateFunction = aggregates.get(0).getFunction();
+        }
+    }
+
+    /**
+     * Parses the condition of a having clause, <aggregate> > <number>, whose aggregate should
+     * be one of the selected aggregates
+     *
+     * @param aggregate the aggregate before the '>' symbol
+     * @param number    the number after the '>' symbol
+     * @throws SQLException if the aggregate is not one of the selected aggregates
+     */
+    private void parseHaving(String aggregate, String number) throws SQLException {
+        AggregateColumn having = AggregateColumn.parse(aggregate);
+        for (int i = 0; having != null && i < aggregates.size(); i++) {
+            if (aggregates.get(i).isSameAs(having)) {
+                havingAggregate = i;
+                break;
+            }
+        }
+        if (havingAggregate < 0) {
+            throw new SQLException("Aggregate of the having clause should be part of the selected columns");
+        }
+        comparisonNumber = Integer.parseInt(number.trim());
+    }
+
+    /**
+     * Parses the column of an order by clause of a query which groups its records: groups are
+     * ordered either by one of the selected aggregates, or by a group by column
+     *
+     * @param orderBy      the column of the order by clause
+     * @param groupColumns the group by columns of the query
+     * @throws SQLException if the column is neither a selected aggregate nor a group by column
+     */
+    private void parseOrderBy(String orderBy, ArrayList<String> groupColumns) throws SQLException {
+        AggregateColumn orderByAggregateColumn = AggregateColumn.parse(orderBy);
+        for (int i = 0; orderByAggregateColumn != null && i < aggregates.size(); i++) {
+            if (aggregates.get(i).isSameAs(orderByAggregateColumn)) {
+                orderByAggregate = i;
+                break;
+            }
+        }
+        for (int i = 0; orderByAggregateColumn == null && i < groupColumns.size(); i++) {
+            if (groupColumns.get(i).equalsIgnoreCase(orderBy)) {
+                orderByColumn = i;
+                break;
+            }
+        }
+        if (orderByAggregate < 0 && orderByColumn < 0) {
+            throw new SQLException("Column of the order by clause should be a selected aggregate or a group by column");
+        }
+    }
+
     /**
      * Returns the SQL query string passed for parsing
      *
@@ -177,12 +488,28 @@ public class ParseSQL {
         return query;
     }
 
+    /**
+     * Returns the table of the given name
+     *
+     * @param name name of the table, in any case
+     * @return a value from {@link Tables}
+     * @throws SQLException if no table has this name
+     */
+    private static Tables getTable(String name) throws SQLException {
+        for (Tables table : Tables.values()) {
+            if (table != Tables.NONE && table.name().equalsIgnoreCase(name)) {
+                return table;
+            }
+        }
+        throw new SQLException("Table " + name + " does not exist");
+    }
+
     /**
      * Returns the list of columns which have been selected in SQL query
      *
-     * @return {@link ArrayList<String>} either *  for Inner Join, or columns which
-     * have been selected in SQL query (last value is be the aggregate
-     * function used in Group By query)
+     * @return {@link ArrayList<String>} either * or columns for Inner Join, or columns which
+     * have been selected in SQL query (including the aggregate functions
+     * used in Group By query, see {@link #getAggregates()})
      * @throws SQLException in case the SQL query could not be parsed successfully
      */
     public ArrayList<String> getColumns() throws SQLException {
@@ -231,6 +558,34 @@ public class ParseSQL {
         return table2;
     }
 
+    /**
+     * Returns all tables of an Inner Join, in the order of the SQL query
+     *
+     * @return {@link ArrayList<Tables>} tables of the join, the first two being {@link #getTable1()}
+     * and {@link #getTable2()}
+     * @throws SQLException in case the SQL query could not be parsed successfully
+     */
+    public ArrayList<Tables> getJoinTables() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return joinTables;
+    }
+
+    /**
+     * Returns, for each table of an Inner Join after the first one, the earlier table to which
+     * it is joined, on the operation column of the same index (see {@link #getOperationColumns()})
+     *
+     * @return {@link ArrayList<Tables>} partner of each joined table, one fewer than the tables
+     * @throws SQLException in case the SQL query could not be parsed successfully
+     */
+    public ArrayList<Tables> getJoinPartners() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return joinPartners;
+    }
+
     /**
      * Returns the list of columns on which SQL operation is to be performed
      *
@@ -244,6 +599,21 @@ public class ParseSQL {
         return operationColumns;
     }
 
+    /**
+     * Returns the group by columns of an Inner Join whose joined records are aggregated, e.g.
+     * SELECT occupation, avg(rating) FROM Users INNER JOIN Rating ON Users.userid = Rating.userid GROUP BY occupation
+     *
+     * @return {@link ArrayList<String>} group by columns of the join, empty for a plain Inner Join
+     * or a Group By query
+     * @throws SQLException in case the SQL query could not be parsed successfully
+     */
+    public ArrayList<String> getGroupColumns() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return groupColumns;
+    }
+
     /**
      * Returns the number to be compared against for Having clause of given SQL query
      *
@@ -278,7 +648,7 @@ public class ParseSQL {
     }
 
     /**
-     * Returns the type of {@link AggregateFunction} used in the SQL query
+     * Returns the type of {@link AggregateFunction} used in the SQL query (the first one, if there are several)
      *
      * @return Type of aggregate query used, out of the values of {@link AggregateFunction}
      * @throws SQLException in case SQL query could not be parsed successfully
@@ -290,6 +660,33 @@ public class ParseSQL {
         return aggregateFunction;
     }
 
+    /**
+     * Returns all aggregate functions of the select list of a Group By query (or of an Inner
+     * Join with a group by clause), in order
+     *
+     * @return {@link ArrayList<AggregateColumn>} aggregates of the select list
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public ArrayList<AggregateColumn> getAggregates() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return aggregates;
+    }
+
+    /**
+     * Returns the index (in {@link #getAggregates()}) of the aggregate tested in the having clause
+     *
+     * @return index of the aggregate of the having clause, or -1 if the query has no having clause
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public int getHavingAggregate() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return havingAggregate;
+    }
+
     /**
      * Returns the value of the column to be tested for where clause of the given SQL query.
      *
@@ -302,4 +699,138 @@ public class ParseSQL {
         }
         return whereValue;
     }
+
+    /**
+     * Returns the table of the range condition of the where clause
+     *
+     * @return table of the range condition, or {@link Tables}.NONE if the query has no range condition
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public Tables getRangeTable() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return rangeTable;
+    }
+
+    /**
+     * Returns the column of the range condition of the where clause, e.g. timestamp for
+     * WHERE Rating.timestamp BETWEEN 880000000 AND 889999999
+     *
+     * @return column of the range condition, or null if the query has no range condition
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public String getRangeColumn() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return rangeColumn;
+    }
+
+    /**
+     * Returns the lowest value selected by the range condition of the where clause
+     *
+     * @return lowest value of the range, included
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public long getRangeFrom() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return rangeFrom;
+    }
+
+    /**
+     * Returns the highest value selected by the range condition of the where clause
+     *
+     * @return highest value of the range, included
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public long getRangeTo() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return rangeTo;
+    }
+
+    /**
+     * Returns the index (in {@link #getAggregates()}) of the aggregate by which groups are ordered
+     *
+     * @return index of the aggregate of the order by clause, or -1 if groups are not ordered by an aggregate
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public int getOrderByAggregate() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return orderByAggregate;
+    }
+
+    /**
+     * Returns the index (in {@link #getOperationColumns()}, or {@link #getGroupColumns()} for an
+     * Inner Join) of the group by column by which groups are ordered
+     *
+     * @return index of the column of the order by clause, or -1 if groups are not ordered by a group by column
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public int getOrderByColumn() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return orderByColumn;
+    }
+
+    /**
+     * Returns whether groups are ordered in descending order
+     *
+     * @return true if the order by clause is DESC, false if it is ASC (or there is no order by clause)
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public boolean isOrderDescending() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return orderDescending;
+    }
+
+    /**
+     * Returns the maximum number of groups to be returned, given by the limit clause
+     *
+     * @return the limit, or -1 if the query has no limit clause
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public int getLimit() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return limit;
+    }
+
+    /**
+     * Returns whether the limit clause applies to each group (LIMIT k PER GROUP), in which case
+     * the query selects the first k rows of each group in the order of {@link #getSortColumn()}
+     *
+     * @return true if the query has a per group limit
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public boolean isLimitPerGroup() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return limitPerGroup;
+    }
+
+    /**
+     * Returns the column by which the rows of each group are sorted, for a query with a per
+     * group limit
+     *
+     * @return the column of the order by clause, or null if the query has no per group limit
+     * @throws SQLException in case SQL query could not be parsed successfully
+     */
+    public String getSortColumn() throws SQLException {
+        if (!parsed) {
+            parseQuery();
+        }
+        return sortColumn;
+    }
 }